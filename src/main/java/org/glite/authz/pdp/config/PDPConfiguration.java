@@ -18,7 +18,9 @@
 package org.glite.authz.pdp.config;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.jcip.annotations.ThreadSafe;
 
@@ -26,6 +28,7 @@ import org.glite.authz.common.config.AbstractServiceConfiguration;
 import org.glite.authz.pdp.obligation.ObligationService;
 import org.glite.authz.pdp.pip.PolicyInformationPoint;
 import org.glite.authz.pdp.server.PDPMetrics;
+import org.glite.authz.pdp.util.AccessLogWriter;
 import org.opensaml.ws.security.SecurityPolicy;
 
 /** Policy decision point configuration. */
@@ -50,6 +53,96 @@ public class PDPConfiguration extends AbstractServiceConfiguration {
     /** Obligation processing service. */
     private ObligationService obligationService;
 
+    /** Whether policies are optimized when they are loaded. */
+    private boolean policyOptimization;
+
+    /** Maximum number of parsed request X.500 names kept in cache. */
+    private int x500NameCacheSize;
+
+    /** Whether the service connector also accepts HTTP/2 connections. */
+    private boolean http2;
+
+    /** The maximum number of TLS sessions cached by the service port. */
+    private int tlsSessionCacheSize;
+
+    /** The lifetime, in seconds, of the TLS sessions cached by the service port. */
+    private int tlsSessionTimeout;
+
+    /** Whether the service port issues TLS session tickets. */
+    private boolean tlsSessionTickets;
+
+    /** The maximum number of cached client certificate chain validations. */
+    private int certValidationCacheSize;
+
+    /** The lifetime, in seconds, of a cached client certificate chain validation. */
+    private int certValidationCacheLifetime;
+
+    /** The rate, one out of this number of requests, at which protocol messages are captured. */
+    private int protocolCaptureSampleRate;
+
+    /** The issuer whose protocol messages are all captured. */
+    private String protocolCaptureIssuer;
+
+    /** The subject whose protocol messages are all captured. */
+    private String protocolCaptureSubject;
+
+    /** The file protocol messages are captured to. */
+    private String protocolCaptureFile;
+
+    /** The maximum size, in megabytes, of the protocol capture files. */
+    private int protocolCaptureMaxSize;
+
+    /** Whether the compact binary authorization endpoint is enabled. */
+    private boolean binaryEndpointEnabled;
+
+    /** Whether the JSON Profile of XACML authorization endpoint is enabled. */
+    private boolean jsonEndpointEnabled;
+
+    /** Name of the policy configured by this configuration, null for the default policy. */
+    private String policyName;
+
+    /** Entity IDs of the issuers whose requests are evaluated against the policy of this configuration. */
+    private List<String> policyIssuers;
+
+    /** Configurations of the named policies, by policy name. */
+    private Map<String, PDPConfiguration> namedPolicyConfigurations;
+
+    /** Whether policy updates are applied incrementally, unmarshalling only the changed policies. */
+    private boolean incrementalPolicyUpdates;
+
+    /** Whether the heap retained by each loaded policy is estimated and reported in the metrics. */
+    private boolean policyFootprint;
+
+    /** The memory-mapped file through which the policy is shared with the co-located PDPs. */
+    private String sharedPolicyStore;
+
+    /** Whether this PDP publishes its policy into the shared policy store, instead of reading it from there. */
+    private boolean sharedPolicyStorePublisher;
+
+    /** The maximum size, in megabytes, of a policy in the shared policy store. */
+    private int sharedPolicyStoreMaxSize;
+
+    /** The interval, in seconds, between two checks of the shared policy store for a new policy. */
+    private int sharedPolicyStorePollInterval;
+
+    /** Whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled. */
+    private boolean policyRelayEnabled;
+
+    /** Subject DNs of the PDPs allowed to query the policy relay endpoint. */
+    private List<String> policyRelayPeers;
+
+    /** Whether identical concurrent authorization requests share one evaluation. */
+    private boolean requestCoalescing;
+
+    /** The maximum number of recent requests replayed against a new policy before it is published. */
+    private int policyWarmupRequests;
+
+    /** The number of access log records queued to the asynchronous writer, 0 to log synchronously. */
+    private int accessLogQueueSize;
+
+    /** The policy applied when the access log queue is full. */
+    private AccessLogWriter.BackPressure accessLogBackPressure;
+
     /** Constructor. */
     protected PDPConfiguration() {
         super(new PDPMetrics());
@@ -114,6 +207,25 @@ public class PDPConfiguration extends AbstractServiceConfiguration {
         return obligationService;
     }
 
+    /**
+     * Gets whether policies are optimized, by {@link org.glite.authz.pdp.policy.PolicyOptimizer}, when they are
+     * loaded.
+     * 
+     * @return whether policies are optimized when they are loaded
+     */
+    public boolean isPolicyOptimizationEnabled() {
+        return policyOptimization;
+    }
+
+    /**
+     * Gets the maximum number of parsed request X.500 names kept in cache.
+     * 
+     * @return maximum number of parsed request X.500 names kept in cache
+     */
+    public int getX500NameCacheSize() {
+        return x500NameCacheSize;
+    }
+
     /**
      * Sets the message security policy used for {@link org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType}
      * messages.
@@ -202,4 +314,558 @@ public class PDPConfiguration extends AbstractServiceConfiguration {
         }
         obligationService = service;
     }
+
+    /**
+     * Sets whether policies are optimized when they are loaded.
+     * 
+     * @param enabled whether policies are optimized when they are loaded
+     */
+    protected final synchronized void setPolicyOptimizationEnabled(boolean enabled) {
+        policyOptimization = enabled;
+    }
+
+    /**
+     * Sets the maximum number of parsed request X.500 names kept in cache.
+     * 
+     * @param size maximum number of parsed request X.500 names kept in cache
+     */
+    protected final synchronized void setX500NameCacheSize(int size) {
+        x500NameCacheSize = size;
+    }
+
+    /**
+     * Gets whether the service connector also accepts HTTP/2 connections.
+     * 
+     * @return whether the service connector also accepts HTTP/2 connections
+     */
+    public boolean isHttp2Enabled() {
+        return http2;
+    }
+
+    /**
+     * Sets whether the service connector also accepts HTTP/2 connections.
+     * 
+     * @param enabled whether the service connector also accepts HTTP/2 connections
+     */
+    protected final synchronized void setHttp2Enabled(boolean enabled) {
+        http2 = enabled;
+    }
+
+    /**
+     * Gets the maximum number of TLS sessions cached by the service port.
+     * 
+     * @return the maximum number of TLS sessions cached by the service port
+     */
+    public int getTLSSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of TLS sessions cached by the service port.
+     * 
+     * @param size the maximum number of TLS sessions cached by the service port
+     */
+    protected final synchronized void setTLSSessionCacheSize(int size) {
+        tlsSessionCacheSize = size;
+    }
+
+    /**
+     * Gets the lifetime, in seconds, of the TLS sessions cached by the service port.
+     * 
+     * @return the lifetime, in seconds, of the TLS sessions cached by the service port
+     */
+    public int getTLSSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Sets the lifetime, in seconds, of the TLS sessions cached by the service port.
+     * 
+     * @param timeout the lifetime, in seconds, of the TLS sessions cached by the service port
+     */
+    protected final synchronized void setTLSSessionTimeout(int timeout) {
+        tlsSessionTimeout = timeout;
+    }
+
+    /**
+     * Gets whether the service port issues TLS session tickets.
+     * 
+     * @return whether the service port issues TLS session tickets
+     */
+    public boolean isTLSSessionTicketsEnabled() {
+        return tlsSessionTickets;
+    }
+
+    /**
+     * Sets whether the service port issues TLS session tickets.
+     * 
+     * @param enabled whether the service port issues TLS session tickets
+     */
+    protected final synchronized void setTLSSessionTicketsEnabled(boolean enabled) {
+        tlsSessionTickets = enabled;
+    }
+
+    /**
+     * Gets the maximum number of cached client certificate chain validations.
+     * 
+     * @return the maximum number of cached client certificate chain validations
+     */
+    public int getCertValidationCacheSize() {
+        return certValidationCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of cached client certificate chain validations.
+     * 
+     * @param size the maximum number of cached client certificate chain validations
+     */
+    protected final synchronized void setCertValidationCacheSize(int size) {
+        certValidationCacheSize = size;
+    }
+
+    /**
+     * Gets the lifetime, in seconds, of a cached client certificate chain validation.
+     * 
+     * @return the lifetime, in seconds, of a cached client certificate chain validation
+     */
+    public int getCertValidationCacheLifetime() {
+        return certValidationCacheLifetime;
+    }
+
+    /**
+     * Sets the lifetime, in seconds, of a cached client certificate chain validation.
+     * 
+     * @param lifetime the lifetime, in seconds, of a cached client certificate chain validation
+     */
+    protected final synchronized void setCertValidationCacheLifetime(int lifetime) {
+        certValidationCacheLifetime = lifetime;
+    }
+
+    /**
+     * Gets the rate, one out of this number of requests, at which protocol messages are captured.
+     * 
+     * @return the rate, one out of this number of requests, at which protocol messages are captured
+     */
+    public int getProtocolCaptureSampleRate() {
+        return protocolCaptureSampleRate;
+    }
+
+    /**
+     * Sets the rate, one out of this number of requests, at which protocol messages are captured.
+     * 
+     * @param rate the rate, one out of this number of requests, at which protocol messages are captured
+     */
+    protected final synchronized void setProtocolCaptureSampleRate(int rate) {
+        protocolCaptureSampleRate = rate;
+    }
+
+    /**
+     * Gets the issuer whose protocol messages are all captured.
+     * 
+     * @return the issuer whose protocol messages are all captured
+     */
+    public String getProtocolCaptureIssuer() {
+        return protocolCaptureIssuer;
+    }
+
+    /**
+     * Sets the issuer whose protocol messages are all captured.
+     * 
+     * @param issuer the issuer whose protocol messages are all captured
+     */
+    protected final synchronized void setProtocolCaptureIssuer(String issuer) {
+        protocolCaptureIssuer = issuer;
+    }
+
+    /**
+     * Gets the subject whose protocol messages are all captured.
+     * 
+     * @return the subject whose protocol messages are all captured
+     */
+    public String getProtocolCaptureSubject() {
+        return protocolCaptureSubject;
+    }
+
+    /**
+     * Sets the subject whose protocol messages are all captured.
+     * 
+     * @param subject the subject whose protocol messages are all captured
+     */
+    protected final synchronized void setProtocolCaptureSubject(String subject) {
+        protocolCaptureSubject = subject;
+    }
+
+    /**
+     * Gets the file protocol messages are captured to.
+     * 
+     * @return the file protocol messages are captured to
+     */
+    public String getProtocolCaptureFile() {
+        return protocolCaptureFile;
+    }
+
+    /**
+     * Sets the file protocol messages are captured to.
+     * 
+     * @param file the file protocol messages are captured to
+     */
+    protected final synchronized void setProtocolCaptureFile(String file) {
+        protocolCaptureFile = file;
+    }
+
+    /**
+     * Gets the maximum size, in megabytes, of the protocol capture files.
+     * 
+     * @return the maximum size, in megabytes, of the protocol capture files
+     */
+    public int getProtocolCaptureMaxSize() {
+        return protocolCaptureMaxSize;
+    }
+
+    /**
+     * Sets the maximum size, in megabytes, of the protocol capture files.
+     * 
+     * @param size the maximum size, in megabytes, of the protocol capture files
+     */
+    protected final synchronized void setProtocolCaptureMaxSize(int size) {
+        protocolCaptureMaxSize = size;
+    }
+
+    /**
+     * Gets whether the compact binary authorization endpoint is enabled.
+     * 
+     * @return whether the compact binary authorization endpoint is enabled
+     */
+    public boolean isBinaryEndpointEnabled() {
+        return binaryEndpointEnabled;
+    }
+
+    /**
+     * Sets whether the compact binary authorization endpoint is enabled.
+     * 
+     * @param enabled whether the compact binary authorization endpoint is enabled
+     */
+    protected final synchronized void setBinaryEndpointEnabled(boolean enabled) {
+        binaryEndpointEnabled = enabled;
+    }
+
+    /**
+     * Gets whether the JSON Profile of XACML authorization endpoint is enabled.
+     * 
+     * @return whether the JSON Profile of XACML authorization endpoint is enabled
+     */
+    public boolean isJSONEndpointEnabled() {
+        return jsonEndpointEnabled;
+    }
+
+    /**
+     * Sets whether the JSON Profile of XACML authorization endpoint is enabled.
+     * 
+     * @param enabled whether the JSON Profile of XACML authorization endpoint is enabled
+     */
+    protected final synchronized void setJSONEndpointEnabled(boolean enabled) {
+        jsonEndpointEnabled = enabled;
+    }
+
+    /**
+     * Gets the name of the policy configured by this configuration.
+     * 
+     * @return name of the policy, or null for the default policy
+     */
+    public String getPolicyName() {
+        return policyName;
+    }
+
+    /**
+     * Sets the name of the policy configured by this configuration.
+     * 
+     * @param name name of the policy
+     */
+    protected final synchronized void setPolicyName(String name) {
+        if (policyName != null) {
+            throw new IllegalStateException("Policy name has already been set, it may not changed");
+        }
+        policyName = name;
+    }
+
+    /**
+     * Gets the immutable list of the entity IDs of the issuers whose requests are evaluated against the policy of
+     * this configuration.
+     * 
+     * @return entity IDs of the issuers routed to the policy
+     */
+    public List<String> getPolicyIssuers() {
+        return policyIssuers;
+    }
+
+    /**
+     * Sets the list of the entity IDs of the issuers whose requests are evaluated against the policy of this
+     * configuration.
+     * 
+     * @param issuers entity IDs of the issuers routed to the policy
+     */
+    protected final synchronized void setPolicyIssuers(List<String> issuers) {
+        if (policyIssuers != null) {
+            throw new IllegalStateException("Policy issuers have already been set, they may not changed");
+        }
+
+        if (issuers != null) {
+            policyIssuers = Collections.unmodifiableList(issuers);
+        } else {
+            policyIssuers = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Gets the immutable map of the configurations of the named policies, by policy name. Each named policy is held
+     * by its own {@link org.glite.authz.pdp.policy.PolicyRepository}, with its own metrics.
+     * 
+     * @return configurations of the named policies
+     */
+    public Map<String, PDPConfiguration> getNamedPolicyConfigurations() {
+        return namedPolicyConfigurations;
+    }
+
+    /**
+     * Sets the configurations of the named policies.
+     * 
+     * @param configurations configurations of the named policies, by policy name
+     */
+    protected final synchronized void setNamedPolicyConfigurations(Map<String, PDPConfiguration> configurations) {
+        if (namedPolicyConfigurations != null) {
+            throw new IllegalStateException("Named policies have already been set, they may not changed");
+        }
+
+        if (configurations != null) {
+            namedPolicyConfigurations = Collections
+                    .unmodifiableMap(new LinkedHashMap<String, PDPConfiguration>(configurations));
+        } else {
+            namedPolicyConfigurations = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Gets whether policy updates are applied incrementally, unmarshalling only the changed policies.
+     * 
+     * @return whether policy updates are applied incrementally, unmarshalling only the changed policies
+     */
+    public boolean isIncrementalPolicyUpdatesEnabled() {
+        return incrementalPolicyUpdates;
+    }
+
+    /**
+     * Sets whether policy updates are applied incrementally, unmarshalling only the changed policies.
+     * 
+     * @param enabled whether policy updates are applied incrementally, unmarshalling only the changed policies
+     */
+    protected final synchronized void setIncrementalPolicyUpdatesEnabled(boolean enabled) {
+        incrementalPolicyUpdates = enabled;
+    }
+
+    /**
+     * Gets whether the heap retained by each loaded policy is estimated and reported in the metrics.
+     * 
+     * @return whether the heap retained by each loaded policy is estimated and reported in the metrics
+     */
+    public boolean isPolicyFootprintEnabled() {
+        return policyFootprint;
+    }
+
+    /**
+     * Sets whether the heap retained by each loaded policy is estimated and reported in the metrics.
+     * 
+     * @param enabled whether the heap retained by each loaded policy is estimated and reported in the metrics
+     */
+    protected final synchronized void setPolicyFootprintEnabled(boolean enabled) {
+        policyFootprint = enabled;
+    }
+
+    /**
+     * Gets the memory-mapped file through which the policy is shared with the co-located PDPs.
+     * 
+     * @return the memory-mapped file through which the policy is shared with the co-located PDPs
+     */
+    public String getSharedPolicyStore() {
+        return sharedPolicyStore;
+    }
+
+    /**
+     * Sets the memory-mapped file through which the policy is shared with the co-located PDPs.
+     * 
+     * @param value the memory-mapped file through which the policy is shared with the co-located PDPs
+     */
+    protected final synchronized void setSharedPolicyStore(String value) {
+        sharedPolicyStore = value;
+    }
+
+    /**
+     * Gets whether this PDP publishes its policy into the shared policy store, instead of reading it from there.
+     * 
+     * @return whether this PDP publishes its policy into the shared policy store, instead of reading it from there
+     */
+    public boolean isSharedPolicyStorePublisher() {
+        return sharedPolicyStorePublisher;
+    }
+
+    /**
+     * Sets whether this PDP publishes its policy into the shared policy store, instead of reading it from there.
+     * 
+     * @param enabled whether this PDP publishes its policy into the shared policy store, instead of reading it from there
+     */
+    protected final synchronized void setSharedPolicyStorePublisher(boolean enabled) {
+        sharedPolicyStorePublisher = enabled;
+    }
+
+    /**
+     * Gets the maximum size, in megabytes, of a policy in the shared policy store.
+     * 
+     * @return the maximum size, in megabytes, of a policy in the shared policy store
+     */
+    public int getSharedPolicyStoreMaxSize() {
+        return sharedPolicyStoreMaxSize;
+    }
+
+    /**
+     * Sets the maximum size, in megabytes, of a policy in the shared policy store.
+     * 
+     * @param size the maximum size, in megabytes, of a policy in the shared policy store
+     */
+    protected final synchronized void setSharedPolicyStoreMaxSize(int size) {
+        sharedPolicyStoreMaxSize = size;
+    }
+
+    /**
+     * Gets the interval, in seconds, between two checks of the shared policy store for a new policy.
+     * 
+     * @return the interval, in seconds, between two checks of the shared policy store for a new policy
+     */
+    public int getSharedPolicyStorePollInterval() {
+        return sharedPolicyStorePollInterval;
+    }
+
+    /**
+     * Sets the interval, in seconds, between two checks of the shared policy store for a new policy.
+     * 
+     * @param interval the interval, in seconds, between two checks of the shared policy store for a new policy
+     */
+    protected final synchronized void setSharedPolicyStorePollInterval(int interval) {
+        sharedPolicyStorePollInterval = interval;
+    }
+
+    /**
+     * Gets whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled.
+     * 
+     * @return whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled
+     */
+    public boolean isPolicyRelayEnabled() {
+        return policyRelayEnabled;
+    }
+
+    /**
+     * Sets whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled.
+     * 
+     * @param enabled whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled
+     */
+    protected final synchronized void setPolicyRelayEnabled(boolean enabled) {
+        policyRelayEnabled = enabled;
+    }
+
+    /**
+     * Gets the immutable list of the subject DNs, in RFC 2253 format, of the PDPs allowed to query the policy relay
+     * endpoint.
+     * 
+     * @return subject DNs of the PDPs allowed to query the policy relay endpoint
+     */
+    public List<String> getPolicyRelayPeers() {
+        return policyRelayPeers;
+    }
+
+    /**
+     * Sets the list of the subject DNs of the PDPs allowed to query the policy relay endpoint.
+     * 
+     * @param peers subject DNs of the PDPs allowed to query the policy relay endpoint
+     */
+    protected final synchronized void setPolicyRelayPeers(List<String> peers) {
+        if (policyRelayPeers != null) {
+            throw new IllegalStateException("Policy relay peers have already been set, they may not changed");
+        }
+
+        if (peers != null) {
+            policyRelayPeers = Collections.unmodifiableList(peers);
+        } else {
+            policyRelayPeers = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Gets whether identical concurrent authorization requests share one evaluation.
+     * 
+     * @return whether identical concurrent authorization requests share one evaluation
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return requestCoalescing;
+    }
+
+    /**
+     * Sets whether identical concurrent authorization requests share one evaluation.
+     * 
+     * @param enabled whether identical concurrent authorization requests share one evaluation
+     */
+    protected final synchronized void setRequestCoalescingEnabled(boolean enabled) {
+        requestCoalescing = enabled;
+    }
+
+    /**
+     * Gets the maximum number of recent requests replayed against a new policy before it is published.
+     * 
+     * @return the maximum number of recent requests replayed against a new policy before it is published
+     */
+    public int getPolicyWarmupRequests() {
+        return policyWarmupRequests;
+    }
+
+    /**
+     * Sets the maximum number of recent requests replayed against a new policy before it is published.
+     * 
+     * @param requests the maximum number of recent requests replayed against a new policy before it is published
+     */
+    protected final synchronized void setPolicyWarmupRequests(int requests) {
+        policyWarmupRequests = requests;
+    }
+
+    /**
+     * Gets the number of access log records queued to the asynchronous writer, 0 to log synchronously.
+     * 
+     * @return the number of access log records queued to the asynchronous writer, 0 to log synchronously
+     */
+    public int getAccessLogQueueSize() {
+        return accessLogQueueSize;
+    }
+
+    /**
+     * Sets the number of access log records queued to the asynchronous writer, 0 to log synchronously.
+     * 
+     * @param size the number of access log records queued to the asynchronous writer, 0 to log synchronously
+     */
+    protected final synchronized void setAccessLogQueueSize(int size) {
+        accessLogQueueSize = size;
+    }
+
+    /**
+     * Gets the policy applied when the access log queue is full.
+     * 
+     * @return the policy applied when the access log queue is full
+     */
+    public AccessLogWriter.BackPressure getAccessLogBackPressure() {
+        return accessLogBackPressure;
+    }
+
+    /**
+     * Sets the policy applied when the access log queue is full.
+     * 
+     * @param policy the policy applied when the access log queue is full
+     */
+    protected final synchronized void setAccessLogBackPressure(AccessLogWriter.BackPressure policy) {
+        accessLogBackPressure = policy;
+    }
 }
\ No newline at end of file
@@ -18,13 +18,18 @@
 package org.glite.authz.pdp.config;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.jcip.annotations.NotThreadSafe;
 
 import org.glite.authz.common.config.AbstractServiceConfigurationBuilder;
 import org.glite.authz.pdp.obligation.ObligationService;
 import org.glite.authz.pdp.pip.PolicyInformationPoint;
+import org.glite.authz.pdp.policy.RequestShapeSampler;
+import org.glite.authz.pdp.util.AccessLogWriter;
+import org.glite.authz.pdp.xacml.X500NameCache;
 import org.opensaml.ws.security.SecurityPolicy;
 
 /** A builder of {@link PDPConfiguration}s. */
@@ -49,6 +54,96 @@ public class PDPConfigurationBuilder extends AbstractServiceConfigurationBuilder
     /** Obligation processing service. */
     private ObligationService obligationService;
 
+    /** Whether policies are optimized when they are loaded. */
+    private boolean policyOptimization;
+
+    /** Maximum number of parsed request X.500 names kept in cache. */
+    private int x500NameCacheSize;
+
+    /** Whether the service connector also accepts HTTP/2 connections. */
+    private boolean http2;
+
+    /** The maximum number of TLS sessions cached by the service port. */
+    private int tlsSessionCacheSize;
+
+    /** The lifetime, in seconds, of the TLS sessions cached by the service port. */
+    private int tlsSessionTimeout;
+
+    /** Whether the service port issues TLS session tickets. */
+    private boolean tlsSessionTickets;
+
+    /** The maximum number of cached client certificate chain validations. */
+    private int certValidationCacheSize;
+
+    /** The lifetime, in seconds, of a cached client certificate chain validation. */
+    private int certValidationCacheLifetime;
+
+    /** The rate, one out of this number of requests, at which protocol messages are captured. */
+    private int protocolCaptureSampleRate;
+
+    /** The issuer whose protocol messages are all captured. */
+    private String protocolCaptureIssuer;
+
+    /** The subject whose protocol messages are all captured. */
+    private String protocolCaptureSubject;
+
+    /** The file protocol messages are captured to. */
+    private String protocolCaptureFile;
+
+    /** The maximum size, in megabytes, of the protocol capture files. */
+    private int protocolCaptureMaxSize;
+
+    /** Whether the compact binary authorization endpoint is enabled. */
+    private boolean binaryEndpointEnabled;
+
+    /** Whether the JSON Profile of XACML authorization endpoint is enabled. */
+    private boolean jsonEndpointEnabled;
+
+    /** Name of the configured policy, null for the default policy. */
+    private String policyName;
+
+    /** Entity IDs of the issuers whose requests are evaluated against the configured policy. */
+    private List<String> policyIssuers;
+
+    /** Configurations of the named policies, by policy name. */
+    private Map<String, PDPConfiguration> namedPolicyConfigurations;
+
+    /** Whether policy updates are applied incrementally, unmarshalling only the changed policies. */
+    private boolean incrementalPolicyUpdates;
+
+    /** Whether the heap retained by each loaded policy is estimated and reported in the metrics. */
+    private boolean policyFootprint;
+
+    /** The memory-mapped file through which the policy is shared with the co-located PDPs. */
+    private String sharedPolicyStore;
+
+    /** Whether this PDP publishes its policy into the shared policy store, instead of reading it from there. */
+    private boolean sharedPolicyStorePublisher;
+
+    /** The maximum size, in megabytes, of a policy in the shared policy store. */
+    private int sharedPolicyStoreMaxSize;
+
+    /** The interval, in seconds, between two checks of the shared policy store for a new policy. */
+    private int sharedPolicyStorePollInterval;
+
+    /** Whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled. */
+    private boolean policyRelayEnabled;
+
+    /** Subject DNs of the PDPs allowed to query the policy relay endpoint. */
+    private List<String> policyRelayPeers;
+
+    /** Whether identical concurrent authorization requests share one evaluation. */
+    private boolean requestCoalescing;
+
+    /** The maximum number of recent requests replayed against a new policy before it is published. */
+    private int policyWarmupRequests;
+
+    /** The number of access log records queued to the asynchronous writer, 0 to log synchronously. */
+    private int accessLogQueueSize;
+
+    /** The policy applied when the access log queue is full. */
+    private AccessLogWriter.BackPressure accessLogBackPressure;
+
     /** Constructor. */
     public PDPConfigurationBuilder() {
         super();
@@ -56,6 +151,32 @@ public class PDPConfigurationBuilder extends AbstractServiceConfigurationBuilder
         policyRetentionInterval = 60 * 4;
         policySetId = "-1";
         pips = new ArrayList<PolicyInformationPoint>();
+        policyOptimization = true;
+        x500NameCacheSize = X500NameCache.DEFAULT_MAX_SIZE;
+        http2 = false;
+        tlsSessionCacheSize = 10000;
+        tlsSessionTimeout = 3600;
+        tlsSessionTickets = false;
+        certValidationCacheSize = 1000;
+        certValidationCacheLifetime = 600;
+        protocolCaptureSampleRate = 0;
+        protocolCaptureMaxSize = 100;
+        binaryEndpointEnabled = false;
+        jsonEndpointEnabled = false;
+        policyIssuers = new ArrayList<String>();
+        namedPolicyConfigurations = new LinkedHashMap<String, PDPConfiguration>();
+        incrementalPolicyUpdates = true;
+        policyFootprint = false;
+        sharedPolicyStore = null;
+        sharedPolicyStorePublisher = false;
+        sharedPolicyStoreMaxSize = 16;
+        sharedPolicyStorePollInterval = 5;
+        policyRelayEnabled = false;
+        policyRelayPeers = new ArrayList<String>();
+        requestCoalescing = false;
+        policyWarmupRequests = RequestShapeSampler.DEFAULT_MAX_SIZE;
+        accessLogQueueSize = 0;
+        accessLogBackPressure = AccessLogWriter.BackPressure.DROP;
     }
 
     /**
@@ -65,9 +186,40 @@ public class PDPConfigurationBuilder extends AbstractServiceConfigurationBuilder
      */
     public PDPConfigurationBuilder(PDPConfiguration prototype) {
         super(prototype);
-        papEndpoints = prototype.getPAPEndpointss();
+        papEndpoints = new ArrayList<String>(prototype.getPAPEndpointss());
         policyRetentionInterval = prototype.getPolicyRetentionInterval();
         policySetId = prototype.getPolicySetId();
+        policyOptimization = prototype.isPolicyOptimizationEnabled();
+        x500NameCacheSize = prototype.getX500NameCacheSize();
+        http2 = prototype.isHttp2Enabled();
+        tlsSessionCacheSize = prototype.getTLSSessionCacheSize();
+        tlsSessionTimeout = prototype.getTLSSessionTimeout();
+        tlsSessionTickets = prototype.isTLSSessionTicketsEnabled();
+        certValidationCacheSize = prototype.getCertValidationCacheSize();
+        certValidationCacheLifetime = prototype.getCertValidationCacheLifetime();
+        protocolCaptureSampleRate = prototype.getProtocolCaptureSampleRate();
+        protocolCaptureIssuer = prototype.getProtocolCaptureIssuer();
+        protocolCaptureSubject = prototype.getProtocolCaptureSubject();
+        protocolCaptureFile = prototype.getProtocolCaptureFile();
+        protocolCaptureMaxSize = prototype.getProtocolCaptureMaxSize();
+        binaryEndpointEnabled = prototype.isBinaryEndpointEnabled();
+        jsonEndpointEnabled = prototype.isJSONEndpointEnabled();
+        policyName = prototype.getPolicyName();
+        policyIssuers = new ArrayList<String>(prototype.getPolicyIssuers());
+        namedPolicyConfigurations = new LinkedHashMap<String, PDPConfiguration>(
+                prototype.getNamedPolicyConfigurations());
+        incrementalPolicyUpdates = prototype.isIncrementalPolicyUpdatesEnabled();
+        policyFootprint = prototype.isPolicyFootprintEnabled();
+        sharedPolicyStore = prototype.getSharedPolicyStore();
+        sharedPolicyStorePublisher = prototype.isSharedPolicyStorePublisher();
+        sharedPolicyStoreMaxSize = prototype.getSharedPolicyStoreMaxSize();
+        sharedPolicyStorePollInterval = prototype.getSharedPolicyStorePollInterval();
+        policyRelayEnabled = prototype.isPolicyRelayEnabled();
+        policyRelayPeers = new ArrayList<String>(prototype.getPolicyRelayPeers());
+        requestCoalescing = prototype.isRequestCoalescingEnabled();
+        policyWarmupRequests = prototype.getPolicyWarmupRequests();
+        accessLogQueueSize = prototype.getAccessLogQueueSize();
+        accessLogBackPressure = prototype.getAccessLogBackPressure();
     }
 
     /**
@@ -83,6 +235,36 @@ public class PDPConfigurationBuilder extends AbstractServiceConfigurationBuilder
         config.setPolicySetId(policySetId);
         config.setObligationService(obligationService);
         config.setPolicyInformationPoints(pips);
+        config.setPolicyOptimizationEnabled(policyOptimization);
+        config.setX500NameCacheSize(x500NameCacheSize);
+        config.setHttp2Enabled(http2);
+        config.setTLSSessionCacheSize(tlsSessionCacheSize);
+        config.setTLSSessionTimeout(tlsSessionTimeout);
+        config.setTLSSessionTicketsEnabled(tlsSessionTickets);
+        config.setCertValidationCacheSize(certValidationCacheSize);
+        config.setCertValidationCacheLifetime(certValidationCacheLifetime);
+        config.setProtocolCaptureSampleRate(protocolCaptureSampleRate);
+        config.setProtocolCaptureIssuer(protocolCaptureIssuer);
+        config.setProtocolCaptureSubject(protocolCaptureSubject);
+        config.setProtocolCaptureFile(protocolCaptureFile);
+        config.setProtocolCaptureMaxSize(protocolCaptureMaxSize);
+        config.setBinaryEndpointEnabled(binaryEndpointEnabled);
+        config.setJSONEndpointEnabled(jsonEndpointEnabled);
+        config.setPolicyName(policyName);
+        config.setPolicyIssuers(policyIssuers);
+        config.setNamedPolicyConfigurations(namedPolicyConfigurations);
+        config.setIncrementalPolicyUpdatesEnabled(incrementalPolicyUpdates);
+        config.setPolicyFootprintEnabled(policyFootprint);
+        config.setSharedPolicyStore(sharedPolicyStore);
+        config.setSharedPolicyStorePublisher(sharedPolicyStorePublisher);
+        config.setSharedPolicyStoreMaxSize(sharedPolicyStoreMaxSize);
+        config.setSharedPolicyStorePollInterval(sharedPolicyStorePollInterval);
+        config.setPolicyRelayEnabled(policyRelayEnabled);
+        config.setPolicyRelayPeers(policyRelayPeers);
+        config.setRequestCoalescingEnabled(requestCoalescing);
+        config.setPolicyWarmupRequests(policyWarmupRequests);
+        config.setAccessLogQueueSize(accessLogQueueSize);
+        config.setAccessLogBackPressure(accessLogBackPressure);
         return config;
     }
 
@@ -177,4 +359,517 @@ public class PDPConfigurationBuilder extends AbstractServiceConfigurationBuilder
     public void setObligationService(ObligationService service) {
         obligationService = service;
     }
+
+    /**
+     * Gets whether policies are optimized when they are loaded.
+     * 
+     * @return whether policies are optimized when they are loaded
+     */
+    public boolean isPolicyOptimizationEnabled() {
+        return policyOptimization;
+    }
+
+    /**
+     * Sets whether policies are optimized when they are loaded.
+     * 
+     * @param enabled whether policies are optimized when they are loaded
+     */
+    public void setPolicyOptimizationEnabled(boolean enabled) {
+        policyOptimization = enabled;
+    }
+
+    /**
+     * Gets the maximum number of parsed request X.500 names kept in cache.
+     * 
+     * @return maximum number of parsed request X.500 names kept in cache
+     */
+    public int getX500NameCacheSize() {
+        return x500NameCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of parsed request X.500 names kept in cache.
+     * 
+     * @param size maximum number of parsed request X.500 names kept in cache
+     */
+    public void setX500NameCacheSize(int size) {
+        x500NameCacheSize = size;
+    }
+
+    /**
+     * Gets whether the service connector also accepts HTTP/2 connections.
+     * 
+     * @return whether the service connector also accepts HTTP/2 connections
+     */
+    public boolean isHttp2Enabled() {
+        return http2;
+    }
+
+    /**
+     * Sets whether the service connector also accepts HTTP/2 connections.
+     * 
+     * @param enabled whether the service connector also accepts HTTP/2 connections
+     */
+    public void setHttp2Enabled(boolean enabled) {
+        http2 = enabled;
+    }
+
+    /**
+     * Gets the maximum number of TLS sessions cached by the service port.
+     * 
+     * @return the maximum number of TLS sessions cached by the service port
+     */
+    public int getTLSSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of TLS sessions cached by the service port.
+     * 
+     * @param size the maximum number of TLS sessions cached by the service port
+     */
+    public void setTLSSessionCacheSize(int size) {
+        tlsSessionCacheSize = size;
+    }
+
+    /**
+     * Gets the lifetime, in seconds, of the TLS sessions cached by the service port.
+     * 
+     * @return the lifetime, in seconds, of the TLS sessions cached by the service port
+     */
+    public int getTLSSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Sets the lifetime, in seconds, of the TLS sessions cached by the service port.
+     * 
+     * @param timeout the lifetime, in seconds, of the TLS sessions cached by the service port
+     */
+    public void setTLSSessionTimeout(int timeout) {
+        tlsSessionTimeout = timeout;
+    }
+
+    /**
+     * Gets whether the service port issues TLS session tickets.
+     * 
+     * @return whether the service port issues TLS session tickets
+     */
+    public boolean isTLSSessionTicketsEnabled() {
+        return tlsSessionTickets;
+    }
+
+    /**
+     * Sets whether the service port issues TLS session tickets.
+     * 
+     * @param enabled whether the service port issues TLS session tickets
+     */
+    public void setTLSSessionTicketsEnabled(boolean enabled) {
+        tlsSessionTickets = enabled;
+    }
+
+    /**
+     * Gets the maximum number of cached client certificate chain validations.
+     * 
+     * @return the maximum number of cached client certificate chain validations
+     */
+    public int getCertValidationCacheSize() {
+        return certValidationCacheSize;
+    }
+
+    /**
+     * Sets the maximum number of cached client certificate chain validations.
+     * 
+     * @param size the maximum number of cached client certificate chain validations
+     */
+    public void setCertValidationCacheSize(int size) {
+        certValidationCacheSize = size;
+    }
+
+    /**
+     * Gets the lifetime, in seconds, of a cached client certificate chain validation.
+     * 
+     * @return the lifetime, in seconds, of a cached client certificate chain validation
+     */
+    public int getCertValidationCacheLifetime() {
+        return certValidationCacheLifetime;
+    }
+
+    /**
+     * Sets the lifetime, in seconds, of a cached client certificate chain validation.
+     * 
+     * @param lifetime the lifetime, in seconds, of a cached client certificate chain validation
+     */
+    public void setCertValidationCacheLifetime(int lifetime) {
+        certValidationCacheLifetime = lifetime;
+    }
+
+    /**
+     * Gets the rate, one out of this number of requests, at which protocol messages are captured.
+     * 
+     * @return the rate, one out of this number of requests, at which protocol messages are captured
+     */
+    public int getProtocolCaptureSampleRate() {
+        return protocolCaptureSampleRate;
+    }
+
+    /**
+     * Sets the rate, one out of this number of requests, at which protocol messages are captured.
+     * 
+     * @param rate the rate, one out of this number of requests, at which protocol messages are captured
+     */
+    public void setProtocolCaptureSampleRate(int rate) {
+        protocolCaptureSampleRate = rate;
+    }
+
+    /**
+     * Gets the issuer whose protocol messages are all captured.
+     * 
+     * @return the issuer whose protocol messages are all captured
+     */
+    public String getProtocolCaptureIssuer() {
+        return protocolCaptureIssuer;
+    }
+
+    /**
+     * Sets the issuer whose protocol messages are all captured.
+     * 
+     * @param issuer the issuer whose protocol messages are all captured
+     */
+    public void setProtocolCaptureIssuer(String issuer) {
+        protocolCaptureIssuer = issuer;
+    }
+
+    /**
+     * Gets the subject whose protocol messages are all captured.
+     * 
+     * @return the subject whose protocol messages are all captured
+     */
+    public String getProtocolCaptureSubject() {
+        return protocolCaptureSubject;
+    }
+
+    /**
+     * Sets the subject whose protocol messages are all captured.
+     * 
+     * @param subject the subject whose protocol messages are all captured
+     */
+    public void setProtocolCaptureSubject(String subject) {
+        protocolCaptureSubject = subject;
+    }
+
+    /**
+     * Gets the file protocol messages are captured to.
+     * 
+     * @return the file protocol messages are captured to
+     */
+    public String getProtocolCaptureFile() {
+        return protocolCaptureFile;
+    }
+
+    /**
+     * Sets the file protocol messages are captured to.
+     * 
+     * @param file the file protocol messages are captured to
+     */
+    public void setProtocolCaptureFile(String file) {
+        protocolCaptureFile = file;
+    }
+
+    /**
+     * Gets the maximum size, in megabytes, of the protocol capture files.
+     * 
+     * @return the maximum size, in megabytes, of the protocol capture files
+     */
+    public int getProtocolCaptureMaxSize() {
+        return protocolCaptureMaxSize;
+    }
+
+    /**
+     * Sets the maximum size, in megabytes, of the protocol capture files.
+     * 
+     * @param size the maximum size, in megabytes, of the protocol capture files
+     */
+    public void setProtocolCaptureMaxSize(int size) {
+        protocolCaptureMaxSize = size;
+    }
+
+    /**
+     * Gets whether the compact binary authorization endpoint is enabled.
+     * 
+     * @return whether the compact binary authorization endpoint is enabled
+     */
+    public boolean isBinaryEndpointEnabled() {
+        return binaryEndpointEnabled;
+    }
+
+    /**
+     * Sets whether the compact binary authorization endpoint is enabled.
+     * 
+     * @param enabled whether the compact binary authorization endpoint is enabled
+     */
+    public void setBinaryEndpointEnabled(boolean enabled) {
+        binaryEndpointEnabled = enabled;
+    }
+
+    /**
+     * Gets whether the JSON Profile of XACML authorization endpoint is enabled.
+     * 
+     * @return whether the JSON Profile of XACML authorization endpoint is enabled
+     */
+    public boolean isJSONEndpointEnabled() {
+        return jsonEndpointEnabled;
+    }
+
+    /**
+     * Sets whether the JSON Profile of XACML authorization endpoint is enabled.
+     * 
+     * @param enabled whether the JSON Profile of XACML authorization endpoint is enabled
+     */
+    public void setJSONEndpointEnabled(boolean enabled) {
+        jsonEndpointEnabled = enabled;
+    }
+
+    /**
+     * Gets the name of the configured policy.
+     * 
+     * @return name of the configured policy, or null for the default policy
+     */
+    public String getPolicyName() {
+        return policyName;
+    }
+
+    /**
+     * Sets the name of the configured policy.
+     * 
+     * @param name name of the configured policy
+     */
+    public void setPolicyName(String name) {
+        policyName = name;
+    }
+
+    /**
+     * Gets the entity IDs of the issuers whose requests are evaluated against the configured policy.
+     * 
+     * @return entity IDs of the issuers routed to the configured policy
+     */
+    public List<String> getPolicyIssuers() {
+        return policyIssuers;
+    }
+
+    /**
+     * Gets the configurations of the named policies, by policy name.
+     * 
+     * @return configurations of the named policies
+     */
+    public Map<String, PDPConfiguration> getNamedPolicyConfigurations() {
+        return namedPolicyConfigurations;
+    }
+
+    /**
+     * Gets whether policy updates are applied incrementally, unmarshalling only the changed policies.
+     * 
+     * @return whether policy updates are applied incrementally, unmarshalling only the changed policies
+     */
+    public boolean isIncrementalPolicyUpdatesEnabled() {
+        return incrementalPolicyUpdates;
+    }
+
+    /**
+     * Sets whether policy updates are applied incrementally, unmarshalling only the changed policies.
+     * 
+     * @param enabled whether policy updates are applied incrementally, unmarshalling only the changed policies
+     */
+    public void setIncrementalPolicyUpdatesEnabled(boolean enabled) {
+        incrementalPolicyUpdates = enabled;
+    }
+
+    /**
+     * Gets whether the heap retained by each loaded policy is estimated and reported in the metrics.
+     * 
+     * @return whether the heap retained by each loaded policy is estimated and reported in the metrics
+     */
+    public boolean isPolicyFootprintEnabled() {
+        return policyFootprint;
+    }
+
+    /**
+     * Sets whether the heap retained by each loaded policy is estimated and reported in the metrics.
+     * 
+     * @param enabled whether the heap retained by each loaded policy is estimated and reported in the metrics
+     */
+    public void setPolicyFootprintEnabled(boolean enabled) {
+        policyFootprint = enabled;
+    }
+
+    /**
+     * Gets the memory-mapped file through which the policy is shared with the co-located PDPs.
+     * 
+     * @return the memory-mapped file through which the policy is shared with the co-located PDPs
+     */
+    public String getSharedPolicyStore() {
+        return sharedPolicyStore;
+    }
+
+    /**
+     * Sets the memory-mapped file through which the policy is shared with the co-located PDPs.
+     * 
+     * @param value the memory-mapped file through which the policy is shared with the co-located PDPs
+     */
+    public void setSharedPolicyStore(String value) {
+        sharedPolicyStore = value;
+    }
+
+    /**
+     * Gets whether this PDP publishes its policy into the shared policy store, instead of reading it from there.
+     * 
+     * @return whether this PDP publishes its policy into the shared policy store, instead of reading it from there
+     */
+    public boolean isSharedPolicyStorePublisher() {
+        return sharedPolicyStorePublisher;
+    }
+
+    /**
+     * Sets whether this PDP publishes its policy into the shared policy store, instead of reading it from there.
+     * 
+     * @param enabled whether this PDP publishes its policy into the shared policy store, instead of reading it from there
+     */
+    public void setSharedPolicyStorePublisher(boolean enabled) {
+        sharedPolicyStorePublisher = enabled;
+    }
+
+    /**
+     * Gets the maximum size, in megabytes, of a policy in the shared policy store.
+     * 
+     * @return the maximum size, in megabytes, of a policy in the shared policy store
+     */
+    public int getSharedPolicyStoreMaxSize() {
+        return sharedPolicyStoreMaxSize;
+    }
+
+    /**
+     * Sets the maximum size, in megabytes, of a policy in the shared policy store.
+     * 
+     * @param size the maximum size, in megabytes, of a policy in the shared policy store
+     */
+    public void setSharedPolicyStoreMaxSize(int size) {
+        sharedPolicyStoreMaxSize = size;
+    }
+
+    /**
+     * Gets the interval, in seconds, between two checks of the shared policy store for a new policy.
+     * 
+     * @return the interval, in seconds, between two checks of the shared policy store for a new policy
+     */
+    public int getSharedPolicyStorePollInterval() {
+        return sharedPolicyStorePollInterval;
+    }
+
+    /**
+     * Sets the interval, in seconds, between two checks of the shared policy store for a new policy.
+     * 
+     * @param interval the interval, in seconds, between two checks of the shared policy store for a new policy
+     */
+    public void setSharedPolicyStorePollInterval(int interval) {
+        sharedPolicyStorePollInterval = interval;
+    }
+
+    /**
+     * Gets whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled.
+     * 
+     * @return whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled
+     */
+    public boolean isPolicyRelayEnabled() {
+        return policyRelayEnabled;
+    }
+
+    /**
+     * Sets whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled.
+     * 
+     * @param enabled whether the policy relay endpoint, answering the policy queries of other PDPs, is enabled
+     */
+    public void setPolicyRelayEnabled(boolean enabled) {
+        policyRelayEnabled = enabled;
+    }
+
+    /**
+     * Gets the subject DNs of the PDPs allowed to query the policy relay endpoint.
+     * 
+     * @return subject DNs of the PDPs allowed to query the policy relay endpoint
+     */
+    public List<String> getPolicyRelayPeers() {
+        return policyRelayPeers;
+    }
+
+    /**
+     * Gets whether identical concurrent authorization requests share one evaluation.
+     * 
+     * @return whether identical concurrent authorization requests share one evaluation
+     */
+    public boolean isRequestCoalescingEnabled() {
+        return requestCoalescing;
+    }
+
+    /**
+     * Sets whether identical concurrent authorization requests share one evaluation.
+     * 
+     * @param enabled whether identical concurrent authorization requests share one evaluation
+     */
+    public void setRequestCoalescingEnabled(boolean enabled) {
+        requestCoalescing = enabled;
+    }
+
+    /**
+     * Gets the maximum number of recent requests replayed against a new policy before it is published.
+     * 
+     * @return the maximum number of recent requests replayed against a new policy before it is published
+     */
+    public int getPolicyWarmupRequests() {
+        return policyWarmupRequests;
+    }
+
+    /**
+     * Sets the maximum number of recent requests replayed against a new policy before it is published.
+     * 
+     * @param requests the maximum number of recent requests replayed against a new policy before it is published
+     */
+    public void setPolicyWarmupRequests(int requests) {
+        policyWarmupRequests = requests;
+    }
+
+    /**
+     * Gets the number of access log records queued to the asynchronous writer, 0 to log synchronously.
+     * 
+     * @return the number of access log records queued to the asynchronous writer, 0 to log synchronously
+     */
+    public int getAccessLogQueueSize() {
+        return accessLogQueueSize;
+    }
+
+    /**
+     * Sets the number of access log records queued to the asynchronous writer, 0 to log synchronously.
+     * 
+     * @param size the number of access log records queued to the asynchronous writer, 0 to log synchronously
+     */
+    public void setAccessLogQueueSize(int size) {
+        accessLogQueueSize = size;
+    }
+
+    /**
+     * Gets the policy applied when the access log queue is full.
+     * 
+     * @return the policy applied when the access log queue is full
+     */
+    public AccessLogWriter.BackPressure getAccessLogBackPressure() {
+        return accessLogBackPressure;
+    }
+
+    /**
+     * Sets the policy applied when the access log queue is full.
+     * 
+     * @param policy the policy applied when the access log queue is full
+     */
+    public void setAccessLogBackPressure(AccessLogWriter.BackPressure policy) {
+        accessLogBackPressure = policy;
+    }
 }
\ No newline at end of file
@@ -19,8 +19,11 @@ package org.glite.authz.pdp.config;
 
 import java.io.Reader;
 import java.util.List;
+import java.util.Locale;
 import java.util.StringTokenizer;
 
+import javax.security.auth.x500.X500Principal;
+
 import net.jcip.annotations.ThreadSafe;
 
 import org.glite.authz.common.config.AbstractIniServiceConfigurationParser;
@@ -30,6 +33,9 @@ import org.glite.authz.pdp.obligation.IniOHConfigurationParserHelper;
 import org.glite.authz.pdp.obligation.ObligationService;
 import org.glite.authz.pdp.pip.IniPIPConfigurationParserHelper;
 import org.glite.authz.pdp.pip.PolicyInformationPoint;
+import org.glite.authz.pdp.policy.RequestShapeSampler;
+import org.glite.authz.pdp.util.AccessLogWriter;
+import org.glite.authz.pdp.xacml.X500NameCache;
 import org.ini4j.Ini;
 import org.opensaml.common.binding.security.IssueInstantRule;
 import org.opensaml.ws.security.SecurityPolicy;
@@ -53,6 +59,13 @@ public class PDPIniConfigurationParser extends
    */
   public static final String POLICY_SECTION_HEADER = "POLICY";
 
+  /**
+   * The prefix, {@value} , of the INI headers which configure additional named
+   * policies, each held by its own policy repository.
+   */
+  public static final String NAMED_POLICY_SECTION_PREFIX =
+    POLICY_SECTION_HEADER + ":";
+
   /**
    * The name of the {@value} property which gives the space-delimited PAP
    * endpoint URLs.
@@ -65,6 +78,78 @@ public class PDPIniConfigurationParser extends
    */
   public static final String POLICY_RETENTION_PROP = "retentionInterval";
 
+  /**
+   * The name of the {@value} property which gives the ID of the policy set
+   * requested to the PAPs.
+   */
+  public static final String POLICY_SET_ID_PROP = "policySetId";
+
+  /**
+   * The name of the {@value} property which gives the space-delimited entity
+   * IDs of the issuers whose requests are evaluated against a named policy.
+   */
+  public static final String POLICY_ISSUERS_PROP = "issuers";
+
+  /**
+   * The name of the {@value} property which indicates whether policy updates
+   * are applied incrementally, unmarshalling only the changed policies.
+   */
+  public static final String INCREMENTAL_POLICY_UPDATES_PROP =
+    "incrementalPolicyUpdates";
+
+  /**
+   * The name of the {@value} property which indicates whether the heap
+   * retained by each loaded policy is estimated and reported in the metrics.
+   */
+  public static final String POLICY_FOOTPRINT_PROP = "policyFootprint";
+
+  /**
+   * The name of the {@value} property which gives the memory-mapped file
+   * through which the policy is shared with the PDPs running on the same host.
+   */
+  public static final String SHARED_POLICY_STORE_PROP = "sharedPolicyStore";
+
+  /**
+   * The name of the {@value} property which indicates whether this PDP
+   * publishes its policy into the shared policy store, instead of reading it
+   * from there.
+   */
+  public static final String SHARED_POLICY_STORE_PUBLISHER_PROP =
+    "sharedPolicyStorePublisher";
+
+  /**
+   * The name of the {@value} property which gives the maximum size, in
+   * megabytes, of a policy in the shared policy store.
+   */
+  public static final String SHARED_POLICY_STORE_MAX_SIZE_PROP =
+    "sharedPolicyStoreMaxSize";
+
+  /**
+   * The name of the {@value} property which gives the interval, in seconds,
+   * between two checks of the shared policy store for a new policy.
+   */
+  public static final String SHARED_POLICY_STORE_POLL_INTERVAL_PROP =
+    "sharedPolicyStorePollInterval";
+
+  /**
+   * The name of the {@value} property which indicates whether policies are
+   * optimized when they are loaded.
+   */
+  public static final String OPTIMIZE_POLICY_PROP = "optimizePolicy";
+
+  /**
+   * The name of the {@value} property which indicates the maximum number of
+   * recent requests replayed against a new policy before it is used.
+   */
+  public static final String POLICY_WARMUP_REQUESTS_PROP =
+    "policyWarmupRequests";
+
+  /**
+   * The name of the {@value} property which indicates the maximum number of
+   * parsed request X.500 names kept in cache.
+   */
+  public static final String X500_NAME_CACHE_SIZE_PROP = "x500NameCacheSize";
+
   /**
    * The name of the {@value} property which indicates the allowed clock skew,
    * in seconds.
@@ -77,6 +162,138 @@ public class PDPIniConfigurationParser extends
    */
   public static final String MESSAGE_VALIDITY_PROP = "messageValidityPeriod";
 
+  /**
+   * The name of the {@value} property which indicates whether the service
+   * port also accepts HTTP/2 connections, negotiated with ALPN when SSL is
+   * enabled or in cleartext (h2c) otherwise.
+   */
+  public static final String ENABLE_HTTP2_PROP = "enableHTTP2";
+
+  /**
+   * The name of the {@value} property which indicates the maximum number of
+   * TLS sessions cached by the service port, 0 means no limit.
+   */
+  public static final String TLS_SESSION_CACHE_SIZE_PROP =
+    "tlsSessionCacheSize";
+
+  /**
+   * The name of the {@value} property which indicates the lifetime, in seconds,
+   * of the TLS sessions cached by the service port.
+   */
+  public static final String TLS_SESSION_TIMEOUT_PROP = "tlsSessionTimeout";
+
+  /**
+   * The name of the {@value} property which indicates whether the
+   * service port issues TLS session tickets. Requires Java 13 or later.
+   */
+  public static final String ENABLE_TLS_SESSION_TICKETS_PROP =
+    "enableTLSSessionTickets";
+
+  /**
+   * The name of the {@value} property which indicates the maximum number
+   * of cached client certificate chain validations, 0 disables the cache.
+   */
+  public static final String CERT_VALIDATION_CACHE_SIZE_PROP =
+    "certValidationCacheSize";
+
+  /**
+   * The name of the {@value} property which indicates the lifetime, in
+   * seconds, of a cached client certificate chain validation.
+   */
+  public static final String CERT_VALIDATION_CACHE_LIFETIME_PROP =
+    "certValidationCacheLifetime";
+
+  /**
+   * The name of the {@value} property which indicates the number of access log
+   * records queued to the asynchronous access log writer. 0 logs the access
+   * synchronously, on the request threads.
+   */
+  public static final String ACCESS_LOG_QUEUE_SIZE_PROP = "accessLogQueueSize";
+
+  /**
+   * The name of the {@value} property which indicates what is done with an
+   * access log record when the queue is full: <code>drop</code>,
+   * <code>block</code> or <code>synchronous</code>.
+   */
+  public static final String ACCESS_LOG_BACK_PRESSURE_PROP =
+    "accessLogBackPressure";
+
+  /**
+   * The name of the {@value} property which indicates the rate, one out of
+   * this number of requests, at which protocol messages are captured. 0
+   * disables sampling.
+   */
+  public static final String PROTOCOL_CAPTURE_SAMPLE_RATE_PROP =
+    "protocolCaptureSampleRate";
+
+  /**
+   * The name of the {@value} property which gives the issuer whose protocol
+   * messages are all captured.
+   */
+  public static final String PROTOCOL_CAPTURE_ISSUER_PROP =
+    "protocolCaptureIssuer";
+
+  /**
+   * The name of the {@value} property which gives the subject ID whose
+   * protocol messages are all captured.
+   */
+  public static final String PROTOCOL_CAPTURE_SUBJECT_PROP =
+    "protocolCaptureSubject";
+
+  /**
+   * The name of the {@value} property which gives the file protocol messages
+   * are captured to. Defaults to <code>protocol-capture.log</code> in the log
+   * directory.
+   */
+  public static final String PROTOCOL_CAPTURE_FILE_PROP = "protocolCaptureFile";
+
+  /**
+   * The name of the {@value} property which indicates the maximum size, in
+   * megabytes, of all the protocol capture files together.
+   */
+  public static final String PROTOCOL_CAPTURE_MAX_SIZE_PROP =
+    "protocolCaptureMaxSize";
+
+  /**
+   * The name of the {@value} property which indicates whether the compact
+   * binary authorization endpoint is enabled next to the SOAP one. The
+   * endpoint requires an SSL enabled service port with client certificate
+   * authentication.
+   */
+  public static final String ENABLE_BINARY_ENDPOINT_PROP =
+    "enableBinaryEndpoint";
+
+  /**
+   * The name of the {@value} property which indicates whether the JSON
+   * Profile of XACML authorization endpoint is enabled next to the SOAP one.
+   * The endpoint requires an SSL enabled service port with client certificate
+   * authentication.
+   */
+  public static final String ENABLE_JSON_ENDPOINT_PROP =
+    "enableJSONEndpoint";
+
+  /**
+   * The name of the {@value} property which indicates whether the policy relay
+   * endpoint, answering the policy queries of other PDPs from the loaded
+   * policies, is enabled. The endpoint requires an SSL enabled service port
+   * with client certificate authentication, and answers only the PDPs listed
+   * in the {@value #POLICY_RELAY_PEERS_PROP} property.
+   */
+  public static final String ENABLE_POLICY_RELAY_PROP = "enablePolicyRelay";
+
+  /**
+   * The name of the {@value} property which lists the subject DNs, in RFC 2253
+   * format and separated by semicolons, of the PDPs allowed to query the
+   * policy relay endpoint.
+   */
+  public static final String POLICY_RELAY_PEERS_PROP = "policyRelayPeers";
+
+  /**
+   * The name of the {@value} property which indicates whether identical
+   * concurrent authorization requests share one evaluation.
+   */
+  public static final String REQUEST_COALESCING_PROP = "requestCoalescing";
+
   /**
    * Default value of the
    * {@value AbstractIniServiceConfigurationParser#PORT_PROP} property, * *
@@ -97,6 +314,25 @@ public class PDPIniConfigurationParser extends
    */
   public static final int DEFAULT_POLICY_RETENTION = 240;
 
+  /**
+   * Default value of the {@value #OPTIMIZE_POLICY_PROP} property, {@value} .
+   */
+  public static final boolean DEFAULT_OPTIMIZE_POLICY = true;
+
+  /**
+   * Default value of the {@value #POLICY_WARMUP_REQUESTS_PROP} property,
+   * {@value} requests.
+   */
+  public static final int DEFAULT_POLICY_WARMUP_REQUESTS =
+    RequestShapeSampler.DEFAULT_MAX_SIZE;
+
+  /**
+   * Default value of the {@value #X500_NAME_CACHE_SIZE_PROP} property, {@value}
+   * names.
+   */
+  public static final int DEFAULT_X500_NAME_CACHE_SIZE =
+    X500NameCache.DEFAULT_MAX_SIZE;
+
   /**
    * Default value of the {@value #CLOCK_SKEW_PROP} property, {@value} seconds.
    */
@@ -108,6 +344,118 @@ public class PDPIniConfigurationParser extends
    */
   public static final int DEFAULT_MESSAGE_VALIDITY = 300;
 
+  /**
+   * Default value of the {@value #ENABLE_HTTP2_PROP} property, {@value} .
+   */
+  public static final boolean DEFAULT_ENABLE_HTTP2 = false;
+
+  /**
+   * Default value of the {@value #TLS_SESSION_CACHE_SIZE_PROP} property,
+   * {@value} .
+   */
+  public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 10000;
+
+  /**
+   * Default value of the {@value #TLS_SESSION_TIMEOUT_PROP} property, {@value}
+   * seconds.
+   */
+  public static final int DEFAULT_TLS_SESSION_TIMEOUT = 3600;
+
+  /**
+   * Default value of the {@value #ENABLE_TLS_SESSION_TICKETS_PROP} property,
+   * {@value} .
+   */
+  public static final boolean DEFAULT_ENABLE_TLS_SESSION_TICKETS = false;
+
+  /**
+   * Default value of the {@value #CERT_VALIDATION_CACHE_SIZE_PROP} property,
+   * {@value} .
+   */
+  public static final int DEFAULT_CERT_VALIDATION_CACHE_SIZE = 1000;
+
+  /**
+   * Default value of the {@value #CERT_VALIDATION_CACHE_LIFETIME_PROP}
+   * property, {@value} seconds.
+   */
+  public static final int DEFAULT_CERT_VALIDATION_CACHE_LIFETIME = 600;
+
+  /**
+   * Default value of the {@value #ACCESS_LOG_QUEUE_SIZE_PROP} property,
+   * {@value} .
+   */
+  public static final int DEFAULT_ACCESS_LOG_QUEUE_SIZE = 0;
+
+  /**
+   * Default value of the {@value #ACCESS_LOG_BACK_PRESSURE_PROP} property,
+   * {@value} .
+   */
+  public static final String DEFAULT_ACCESS_LOG_BACK_PRESSURE = "drop";
+
+  /**
+   * Default value of the {@value #PROTOCOL_CAPTURE_SAMPLE_RATE_PROP} property,
+   * {@value} .
+   */
+  public static final int DEFAULT_PROTOCOL_CAPTURE_SAMPLE_RATE = 0;
+
+  /**
+   * Default value of the {@value #PROTOCOL_CAPTURE_MAX_SIZE_PROP} property,
+   * {@value} megabytes.
+   */
+  public static final int DEFAULT_PROTOCOL_CAPTURE_MAX_SIZE = 100;
+
+  /**
+   * Default value of the {@value #ENABLE_BINARY_ENDPOINT_PROP} property,
+   * {@value} .
+   */
+  public static final boolean DEFAULT_ENABLE_BINARY_ENDPOINT = false;
+
+  /**
+   * Default value of the {@value #ENABLE_JSON_ENDPOINT_PROP} property,
+   * {@value} .
+   */
+  public static final boolean DEFAULT_ENABLE_JSON_ENDPOINT = false;
+
+  /**
+   * Default value of the {@value #ENABLE_POLICY_RELAY_PROP} property,
+   * {@value} .
+   */
+  public static final boolean DEFAULT_ENABLE_POLICY_RELAY = false;
+
+  /**
+   * Default value of the {@value #REQUEST_COALESCING_PROP} property,
+   * {@value} .
+   */
+  public static final boolean DEFAULT_REQUEST_COALESCING = false;
+
+  /**
+   * Default value of the {@value #INCREMENTAL_POLICY_UPDATES_PROP} property,
+   * {@value} .
+   */
+  public static final boolean DEFAULT_INCREMENTAL_POLICY_UPDATES = true;
+
+  /**
+   * Default value of the {@value #POLICY_FOOTPRINT_PROP} property, {@value} .
+   */
+  public static final boolean DEFAULT_POLICY_FOOTPRINT = false;
+
+  /**
+   * Default value of the {@value #SHARED_POLICY_STORE_PUBLISHER_PROP}
+   * property, {@value} .
+   */
+  public static final boolean DEFAULT_SHARED_POLICY_STORE_PUBLISHER = false;
+
+  /**
+   * Default value of the {@value #SHARED_POLICY_STORE_MAX_SIZE_PROP} property,
+   * {@value} .
+   */
+  public static final int DEFAULT_SHARED_POLICY_STORE_MAX_SIZE = 16;
+
+  /**
+   * Default value of the {@value #SHARED_POLICY_STORE_POLL_INTERVAL_PROP}
+   * property, {@value} .
+   */
+  public static final int DEFAULT_SHARED_POLICY_STORE_POLL_INTERVAL = 5;
+
   /** Class logger. */
   private final Logger log = LoggerFactory
     .getLogger(PDPIniConfigurationParser.class);
@@ -165,12 +513,14 @@ public class PDPIniConfigurationParser extends
     log
       .info("Processing PDP {} configuration section", SECURITY_SECTION_HEADER);
     processSecuritySection(pdpIni, configBuilder);
+    processPDPSecuritySection(pdpIni, configBuilder);
 
     log.info("Processing PDP {} configuration section", SERVICE_SECTION_HEADER);
     processPDPServiceSection(pdpIni, configBuilder);
 
     log.info("Processing PDP {} configuration section", POLICY_SECTION_HEADER);
     processPDPPolicySection(pdpIni, configBuilder);
+    processNamedPolicySections(pdpIni, configBuilder);
 
     return configBuilder.build();
   }
@@ -206,6 +556,170 @@ public class PDPIniConfigurationParser extends
     configBuilder.setObligationService(service);
     log.info("{}: Total Obligation Handlers: {}", serviceSection.getName(),
       service.getObligationHandlers().size());
+
+    boolean http2Enabled = IniConfigUtil.getBoolean(serviceSection,
+      ENABLE_HTTP2_PROP, DEFAULT_ENABLE_HTTP2);
+    log.info("{}: HTTP/2 enabled: {}", serviceSection.getName(), http2Enabled);
+    configBuilder.setHttp2Enabled(http2Enabled);
+
+    boolean binaryEndpointEnabled = IniConfigUtil.getBoolean(serviceSection,
+      ENABLE_BINARY_ENDPOINT_PROP, DEFAULT_ENABLE_BINARY_ENDPOINT);
+    log.info("{}: Binary endpoint enabled: {}", serviceSection.getName(),
+      binaryEndpointEnabled);
+    configBuilder.setBinaryEndpointEnabled(binaryEndpointEnabled);
+
+    boolean jsonEndpointEnabled = IniConfigUtil.getBoolean(serviceSection,
+      ENABLE_JSON_ENDPOINT_PROP, DEFAULT_ENABLE_JSON_ENDPOINT);
+    log.info("{}: JSON endpoint enabled: {}", serviceSection.getName(),
+      jsonEndpointEnabled);
+    configBuilder.setJSONEndpointEnabled(jsonEndpointEnabled);
+
+    boolean policyRelayEnabled = IniConfigUtil.getBoolean(serviceSection,
+      ENABLE_POLICY_RELAY_PROP, DEFAULT_ENABLE_POLICY_RELAY);
+    log.info("{}: Policy relay enabled: {}", serviceSection.getName(),
+      policyRelayEnabled);
+    configBuilder.setPolicyRelayEnabled(policyRelayEnabled);
+    if (policyRelayEnabled) {
+      String peers = IniConfigUtil.getString(serviceSection,
+        POLICY_RELAY_PEERS_PROP, null);
+      StringTokenizer peerDNs = new StringTokenizer(peers == null ? ""
+        : peers, ";");
+      while (peerDNs.hasMoreTokens()) {
+        String peerDN = peerDNs.nextToken().trim();
+        if (peerDN.length() == 0) {
+          continue;
+        }
+        try {
+          new X500Principal(peerDN);
+        } catch (IllegalArgumentException e) {
+          String errorMsg = "INI section '" + serviceSection.getName()
+            + "' property '" + POLICY_RELAY_PEERS_PROP + "' holds "
+            + peerDN + " which is not a RFC 2253 DN";
+          log.error(errorMsg);
+          throw new ConfigurationException(errorMsg);
+        }
+        configBuilder.getPolicyRelayPeers().add(peerDN);
+      }
+      if (configBuilder.getPolicyRelayPeers().isEmpty()) {
+        String errorMsg = "INI section '" + serviceSection.getName()
+          + "' property '" + POLICY_RELAY_PEERS_PROP
+          + "' must list the PDPs allowed to query the policy relay";
+        log.error(errorMsg);
+        throw new ConfigurationException(errorMsg);
+      }
+      log.info("{}: Policy relay peers: {}", serviceSection.getName(),
+        configBuilder.getPolicyRelayPeers());
+    }
+
+    boolean requestCoalescing = IniConfigUtil.getBoolean(serviceSection,
+      REQUEST_COALESCING_PROP, DEFAULT_REQUEST_COALESCING);
+    log.info("{}: Request coalescing: {}", serviceSection.getName(),
+      requestCoalescing);
+    configBuilder.setRequestCoalescingEnabled(requestCoalescing);
+
+    int accessLogQueueSize = IniConfigUtil.getInt(serviceSection,
+      ACCESS_LOG_QUEUE_SIZE_PROP, DEFAULT_ACCESS_LOG_QUEUE_SIZE, 0,
+      Integer.MAX_VALUE);
+    if (accessLogQueueSize > 0) {
+      String backPressure = IniConfigUtil.getString(serviceSection,
+        ACCESS_LOG_BACK_PRESSURE_PROP, DEFAULT_ACCESS_LOG_BACK_PRESSURE);
+      AccessLogWriter.BackPressure backPressurePolicy;
+      try {
+        backPressurePolicy = AccessLogWriter.BackPressure.valueOf(backPressure
+          .toUpperCase(Locale.ENGLISH));
+      } catch (IllegalArgumentException e) {
+        String errorMsg = "INI section '" + serviceSection.getName()
+          + "' property '" + ACCESS_LOG_BACK_PRESSURE_PROP
+          + "' must be drop, block or synchronous";
+        log.error(errorMsg);
+        throw new ConfigurationException(errorMsg);
+      }
+      log.info("{}: Asynchronous access log: {} records, {} when full",
+        new Object[] { serviceSection.getName(), accessLogQueueSize,
+          backPressure });
+      configBuilder.setAccessLogQueueSize(accessLogQueueSize);
+      configBuilder.setAccessLogBackPressure(backPressurePolicy);
+    }
+
+    int captureSampleRate = IniConfigUtil.getInt(serviceSection,
+      PROTOCOL_CAPTURE_SAMPLE_RATE_PROP, DEFAULT_PROTOCOL_CAPTURE_SAMPLE_RATE,
+      0, Integer.MAX_VALUE);
+    String captureIssuer = IniConfigUtil.getString(serviceSection,
+      PROTOCOL_CAPTURE_ISSUER_PROP, null);
+    String captureSubject = IniConfigUtil.getString(serviceSection,
+      PROTOCOL_CAPTURE_SUBJECT_PROP, null);
+    if (captureSampleRate > 0 || captureIssuer != null
+      || captureSubject != null) {
+      log.info("{}: Protocol capture: 1/{} requests, issuer: {}, subject: {}",
+        new Object[] { serviceSection.getName(), captureSampleRate,
+          captureIssuer, captureSubject });
+      configBuilder.setProtocolCaptureSampleRate(captureSampleRate);
+      configBuilder.setProtocolCaptureIssuer(captureIssuer);
+      configBuilder.setProtocolCaptureSubject(captureSubject);
+
+      String captureFile = IniConfigUtil.getString(serviceSection,
+        PROTOCOL_CAPTURE_FILE_PROP, null);
+      int captureMaxSize = IniConfigUtil.getInt(serviceSection,
+        PROTOCOL_CAPTURE_MAX_SIZE_PROP, DEFAULT_PROTOCOL_CAPTURE_MAX_SIZE, 1,
+        Integer.MAX_VALUE);
+      log.info("{}: Protocol capture file: {}, maximum size: {} MB",
+        new Object[] { serviceSection.getName(), captureFile, captureMaxSize });
+      configBuilder.setProtocolCaptureFile(captureFile);
+      configBuilder.setProtocolCaptureMaxSize(captureMaxSize);
+    }
+  }
+
+  /**
+   * Process the PDP specific, TLS related, properties of the SECURITY section
+   * of the INI file.
+   * 
+   * @param iniFile
+   *          ini file to process
+   * @param configBuilder
+   *          the PDP configuration builder
+   * 
+   * @throws ConfigurationException
+   *           thrown if there is a problem reading the INI configuration
+   */
+  protected void processPDPSecuritySection(Ini iniFile,
+    PDPConfigurationBuilder configBuilder) throws ConfigurationException {
+
+    Ini.Section configSection = iniFile.get(SECURITY_SECTION_HEADER);
+    if (configSection == null) {
+      return;
+    }
+    String name = configSection.getName();
+
+    int tlsSessionCacheSize = IniConfigUtil.getInt(configSection,
+      TLS_SESSION_CACHE_SIZE_PROP, DEFAULT_TLS_SESSION_CACHE_SIZE, 0,
+      Integer.MAX_VALUE);
+    log.info("{}: TLS session cache size: {}", name, tlsSessionCacheSize);
+    configBuilder.setTLSSessionCacheSize(tlsSessionCacheSize);
+
+    int tlsSessionTimeout = IniConfigUtil.getInt(configSection,
+      TLS_SESSION_TIMEOUT_PROP, DEFAULT_TLS_SESSION_TIMEOUT, 1,
+      Integer.MAX_VALUE);
+    log.info("{}: TLS session timeout: {} seconds", name, tlsSessionTimeout);
+    configBuilder.setTLSSessionTimeout(tlsSessionTimeout);
+
+    boolean tlsSessionTickets = IniConfigUtil.getBoolean(configSection,
+      ENABLE_TLS_SESSION_TICKETS_PROP, DEFAULT_ENABLE_TLS_SESSION_TICKETS);
+    log.info("{}: TLS session tickets: {}", name, tlsSessionTickets);
+    configBuilder.setTLSSessionTicketsEnabled(tlsSessionTickets);
+
+    int certValidationCacheSize = IniConfigUtil.getInt(configSection,
+      CERT_VALIDATION_CACHE_SIZE_PROP, DEFAULT_CERT_VALIDATION_CACHE_SIZE, 0,
+      Integer.MAX_VALUE);
+    log.info("{}: Certificate validation cache size: {}", name,
+      certValidationCacheSize);
+    configBuilder.setCertValidationCacheSize(certValidationCacheSize);
+
+    int certValidationCacheLifetime = IniConfigUtil.getInt(configSection,
+      CERT_VALIDATION_CACHE_LIFETIME_PROP,
+      DEFAULT_CERT_VALIDATION_CACHE_LIFETIME, 1, Integer.MAX_VALUE);
+    log.info("{}: Certificate validation cache lifetime: {} seconds", name,
+      certValidationCacheLifetime);
+    configBuilder.setCertValidationCacheLifetime(certValidationCacheLifetime);
   }
 
   /**
@@ -244,6 +758,44 @@ public class PDPIniConfigurationParser extends
       policyRetentionInterval);
     configBuilder.setPolicyRetentionInterval(policyRetentionInterval);
 
+    String policySetId = IniConfigUtil.getString(configSection,
+      POLICY_SET_ID_PROP, configBuilder.getPolicySetId());
+    log.info("{}: Policy set ID: {}", name, policySetId);
+    configBuilder.setPolicySetId(policySetId);
+
+    boolean optimizePolicy = IniConfigUtil.getBoolean(configSection,
+      OPTIMIZE_POLICY_PROP, DEFAULT_OPTIMIZE_POLICY);
+    log.info("{}: Policy optimization: {}", name, optimizePolicy);
+    configBuilder.setPolicyOptimizationEnabled(optimizePolicy);
+
+    int policyWarmupRequests = IniConfigUtil.getInt(configSection,
+      POLICY_WARMUP_REQUESTS_PROP, DEFAULT_POLICY_WARMUP_REQUESTS, 0,
+      Integer.MAX_VALUE);
+    log.info("{}: Policy warm-up requests: {}", name, policyWarmupRequests);
+    configBuilder.setPolicyWarmupRequests(policyWarmupRequests);
+
+    boolean incrementalPolicyUpdates = IniConfigUtil.getBoolean(configSection,
+      INCREMENTAL_POLICY_UPDATES_PROP, DEFAULT_INCREMENTAL_POLICY_UPDATES);
+    log.info("{}: Incremental policy updates: {}", name,
+      incrementalPolicyUpdates);
+    configBuilder.setIncrementalPolicyUpdatesEnabled(incrementalPolicyUpdates);
+
+    boolean policyFootprint = IniConfigUtil.getBoolean(configSection,
+      POLICY_FOOTPRINT_PROP, DEFAULT_POLICY_FOOTPRINT);
+    log.info("{}: Policy footprint estimate: {}", name, policyFootprint);
+    configBuilder.setPolicyFootprintEnabled(policyFootprint);
+
+    processSharedPolicyStore(configSection, configBuilder,
+      DEFAULT_SHARED_POLICY_STORE_PUBLISHER,
+      DEFAULT_SHARED_POLICY_STORE_MAX_SIZE,
+      DEFAULT_SHARED_POLICY_STORE_POLL_INTERVAL);
+
+    int x500NameCacheSize = IniConfigUtil.getInt(configSection,
+      X500_NAME_CACHE_SIZE_PROP, DEFAULT_X500_NAME_CACHE_SIZE, 0,
+      Integer.MAX_VALUE);
+    log.info("{}: X.500 name cache size: {}", name, x500NameCacheSize);
+    configBuilder.setX500NameCacheSize(x500NameCacheSize);
+
     BasicParserPool parserPool = new BasicParserPool();
     parserPool.setMaxPoolSize(1);
 
@@ -259,6 +811,184 @@ public class PDPIniConfigurationParser extends
     // }
   }
 
+  /**
+   * Process the named POLICY:<i>name</i> sections of the INI file. Each section
+   * configures an additional policy, with its own PAPs, policy set ID and
+   * refresh interval, the other settings default to those of the POLICY
+   * section. Requests are routed to a named policy by the
+   * <code>/authz/<i>name</i></code> path or by their issuer.
+   * 
+   * @param iniFile
+   *          ini file to process
+   * @param configBuilder
+   *          the PDP configuration builder
+   * 
+   * @throws ConfigurationException
+   *           thrown if there is a problem reading the INI configuration
+   */
+  protected void processNamedPolicySections(Ini iniFile,
+    PDPConfigurationBuilder configBuilder) throws ConfigurationException {
+
+    PDPConfiguration defaultPolicyConfig = null;
+    for (Ini.Section configSection : iniFile.values()) {
+      String name = configSection.getName();
+      if (!name.startsWith(NAMED_POLICY_SECTION_PREFIX)) {
+        continue;
+      }
+      log.info("Processing PDP {} configuration section", name);
+      String policyName = name.substring(NAMED_POLICY_SECTION_PREFIX.length())
+        .trim();
+      if (policyName.length() == 0 || policyName.indexOf('/') >= 0) {
+        String errorMsg = "INI section '" + name
+          + "' does not contain a valid policy name";
+        log.error(errorMsg);
+        throw new ConfigurationException(errorMsg);
+      }
+      if (configBuilder.getNamedPolicyConfigurations()
+        .containsKey(policyName)) {
+        String errorMsg = "Policy " + policyName + " is configured twice";
+        log.error(errorMsg);
+        throw new ConfigurationException(errorMsg);
+      }
+
+      if (defaultPolicyConfig == null) {
+        defaultPolicyConfig = configBuilder.build();
+      }
+      PDPConfigurationBuilder policyConfigBuilder = new PDPConfigurationBuilder(
+        defaultPolicyConfig);
+      policyConfigBuilder.setPolicyName(policyName);
+
+      String papsStr = IniConfigUtil.getString(configSection, PAP_PROP, null);
+      if (papsStr == null) {
+        String errorMsg = "INI section '" + name + "' does not contain the '"
+          + PAP_PROP + "' property";
+        log.error(errorMsg);
+        throw new ConfigurationException(errorMsg);
+      }
+      log.info("{}: PAP endpoints: {}", name, papsStr);
+      policyConfigBuilder.getPAPEndpoints().clear();
+      StringTokenizer paps = new StringTokenizer(papsStr, " ");
+      while (paps.hasMoreTokens()) {
+        policyConfigBuilder.getPAPEndpoints().add(paps.nextToken());
+      }
+
+      int policyRetentionInterval = IniConfigUtil.getInt(configSection,
+        POLICY_RETENTION_PROP, defaultPolicyConfig.getPolicyRetentionInterval(),
+        1, Integer.MAX_VALUE);
+      log.info("{}: Policy retention interval: {} minutes", name,
+        policyRetentionInterval);
+      policyConfigBuilder.setPolicyRetentionInterval(policyRetentionInterval);
+
+      String policySetId = IniConfigUtil.getString(configSection,
+        POLICY_SET_ID_PROP, defaultPolicyConfig.getPolicySetId());
+      log.info("{}: Policy set ID: {}", name, policySetId);
+      policyConfigBuilder.setPolicySetId(policySetId);
+
+      boolean optimizePolicy = IniConfigUtil.getBoolean(configSection,
+        OPTIMIZE_POLICY_PROP,
+        defaultPolicyConfig.isPolicyOptimizationEnabled());
+      log.info("{}: Policy optimization: {}", name, optimizePolicy);
+      policyConfigBuilder.setPolicyOptimizationEnabled(optimizePolicy);
+
+      int policyWarmupRequests = IniConfigUtil.getInt(configSection,
+        POLICY_WARMUP_REQUESTS_PROP,
+        defaultPolicyConfig.getPolicyWarmupRequests(), 0, Integer.MAX_VALUE);
+      log.info("{}: Policy warm-up requests: {}", name, policyWarmupRequests);
+      policyConfigBuilder.setPolicyWarmupRequests(policyWarmupRequests);
+
+      boolean incrementalPolicyUpdates = IniConfigUtil.getBoolean(
+        configSection, INCREMENTAL_POLICY_UPDATES_PROP,
+        defaultPolicyConfig.isIncrementalPolicyUpdatesEnabled());
+      log.info("{}: Incremental policy updates: {}", name,
+        incrementalPolicyUpdates);
+      policyConfigBuilder
+        .setIncrementalPolicyUpdatesEnabled(incrementalPolicyUpdates);
+
+      boolean policyFootprint = IniConfigUtil.getBoolean(configSection,
+        POLICY_FOOTPRINT_PROP, defaultPolicyConfig.isPolicyFootprintEnabled());
+      log.info("{}: Policy footprint estimate: {}", name, policyFootprint);
+      policyConfigBuilder.setPolicyFootprintEnabled(policyFootprint);
+
+      // the store file is never inherited, two policies can not share it
+      processSharedPolicyStore(configSection, policyConfigBuilder,
+        defaultPolicyConfig.isSharedPolicyStorePublisher(),
+        defaultPolicyConfig.getSharedPolicyStoreMaxSize(),
+        defaultPolicyConfig.getSharedPolicyStorePollInterval());
+
+      String issuersStr = IniConfigUtil.getString(configSection,
+        POLICY_ISSUERS_PROP, null);
+      if (issuersStr != null) {
+        log.info("{}: Issuers: {}", name, issuersStr);
+        StringTokenizer issuers = new StringTokenizer(issuersStr, " ");
+        while (issuers.hasMoreTokens()) {
+          policyConfigBuilder.getPolicyIssuers().add(issuers.nextToken());
+        }
+      }
+
+      // own HTTP client, so that the PAPs of a policy do not share connections
+      // with the ones of the other policies
+      BasicParserPool parserPool = new BasicParserPool();
+      parserPool.setMaxPoolSize(1);
+      HttpClientBuilder soapClientBuilder = buildSOAPClientBuilder(
+        configSection, configBuilder.getKeyManager(),
+        configBuilder.getTrustManager());
+      policyConfigBuilder.setSoapClient(new HttpSOAPClient(soapClientBuilder
+        .buildClient(), parserPool));
+
+      configBuilder.getNamedPolicyConfigurations().put(policyName,
+        policyConfigBuilder.build());
+    }
+  }
+
+  /**
+   * Process the shared policy store properties of a POLICY section of the INI
+   * file. The remaining properties are only read if the section gives a store
+   * file.
+   * 
+   * @param configSection
+   *          INI section to process
+   * @param configBuilder
+   *          the PDP configuration builder of the policy
+   * @param defaultPublisher
+   *          whether the PDP is the publisher of the store if the section does
+   *          not tell
+   * @param defaultMaxSize
+   *          maximum policy size, in megabytes, if the section does not give
+   *          one
+   * @param defaultPollInterval
+   *          poll interval, in seconds, if the section does not give one
+   * 
+   * @throws ConfigurationException
+   *           thrown if there is a problem reading the INI configuration
+   */
+  protected void processSharedPolicyStore(Ini.Section configSection,
+    PDPConfigurationBuilder configBuilder, boolean defaultPublisher,
+    int defaultMaxSize, int defaultPollInterval)
+    throws ConfigurationException {
+
+    String name = configSection.getName();
+    String sharedPolicyStore = IniConfigUtil.getString(configSection,
+      SHARED_POLICY_STORE_PROP, null);
+    configBuilder.setSharedPolicyStore(sharedPolicyStore);
+    if (sharedPolicyStore == null) {
+      return;
+    }
+
+    boolean publisher = IniConfigUtil.getBoolean(configSection,
+      SHARED_POLICY_STORE_PUBLISHER_PROP, defaultPublisher);
+    int maxSize = IniConfigUtil.getInt(configSection,
+      SHARED_POLICY_STORE_MAX_SIZE_PROP, defaultMaxSize, 1, 512);
+    int pollInterval = IniConfigUtil.getInt(configSection,
+      SHARED_POLICY_STORE_POLL_INTERVAL_PROP, defaultPollInterval, 1,
+      Integer.MAX_VALUE);
+    log.info("{}: Shared policy store: {}, publisher: {}, maximum policy "
+      + "size: {} MB, poll interval: {} seconds", new Object[] { name,
+      sharedPolicyStore, publisher, maxSize, pollInterval });
+    configBuilder.setSharedPolicyStorePublisher(publisher);
+    configBuilder.setSharedPolicyStoreMaxSize(maxSize);
+    configBuilder.setSharedPolicyStorePollInterval(pollInterval);
+  }
+
   /**
    * Creates the message security policy from the information in the given INI
    * configuration section.
@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.herasaf.xacml.core.context.impl.AttributeType;
+import org.herasaf.xacml.core.context.impl.AttributeValueType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.dataTypeAttribute.DataTypeAttribute;
+import org.herasaf.xacml.core.policy.Evaluatable;
+import org.herasaf.xacml.core.policy.impl.ActionType;
+import org.herasaf.xacml.core.policy.impl.ActionsType;
+import org.herasaf.xacml.core.policy.impl.AttributeDesignatorType;
+import org.herasaf.xacml.core.policy.impl.EnvironmentType;
+import org.herasaf.xacml.core.policy.impl.EnvironmentsType;
+import org.herasaf.xacml.core.policy.impl.MatchType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.policy.impl.PolicyType;
+import org.herasaf.xacml.core.policy.impl.ResourceType;
+import org.herasaf.xacml.core.policy.impl.ResourcesType;
+import org.herasaf.xacml.core.policy.impl.RuleType;
+import org.herasaf.xacml.core.policy.impl.SubjectType;
+import org.herasaf.xacml.core.policy.impl.SubjectsType;
+import org.herasaf.xacml.core.policy.impl.TargetType;
+
+/**
+ * Detects, without evaluating the policy, the requests to which a loaded policy
+ * set is certainly not applicable.
+ * <p>
+ * The literal values of the {@code string-equal} matches of the subject,
+ * resource and action sections of the policy targets are added to a
+ * {@link BloomFilter}, together with their attribute ID. A target section made
+ * only of such matches can not match a request none of whose attribute values,
+ * in the same category, is in the filter. The filter then decides, once per
+ * policy set and for each combination of categories missed by a request,
+ * whether such a request can reach any rule. A request is only reported as not
+ * applicable if it can not.
+ * <p>
+ * A target is only relied upon if it can never be indeterminate, that is if all
+ * its matches are {@code string-equal} matches of attribute designators which
+ * are not required to be present. Policy elements whose target holds any other
+ * match, such as the regular expression matches the PAP produces for
+ * wildcards, X.500 name or FQAN matches, and policy references, are assumed to
+ * be applicable to any request. In the worst case the filter reports no request
+ * as not applicable and the policy is always evaluated.
+ * <p>
+ * A filter is immutable once built.
+ */
+@ThreadSafe
+public class ApplicabilityFilter {
+
+    /** Subject category bit. */
+    private static final int SUBJECT = 1;
+
+    /** Resource category bit. */
+    private static final int RESOURCE = 2;
+
+    /** Action category bit. */
+    private static final int ACTION = 4;
+
+    /** Number of combinations of categories. */
+    private static final int COMBINATIONS = 8;
+
+    /** ID of the only match function relied upon. */
+    private static final String STRING_EQUAL = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+
+    /** Data type of the only matches relied upon. */
+    private static final String DATATYPE_STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+    /** Filter of the keys of the policy literal values. */
+    private final BloomFilter values;
+
+    /**
+     * Whether a request is not applicable, indexed by the combination of
+     * categories in which none of the request attribute values is in the filter.
+     */
+    private final boolean[] notApplicable;
+
+    /** Categories whose values are looked up in the filter. */
+    private final int categories;
+
+    /**
+     * Constructor.
+     *
+     * @param filter filter of the keys of the policy literal values
+     * @param notApplicableCombinations whether a request is not applicable, by combination of missed categories
+     */
+    private ApplicabilityFilter(BloomFilter filter, boolean[] notApplicableCombinations) {
+        values = filter;
+        notApplicable = notApplicableCombinations;
+        int usedCategories = 0;
+        for (int missed = 0; missed < COMBINATIONS; missed++) {
+            if (notApplicable[missed]) {
+                usedCategories |= missed;
+            }
+        }
+        categories = usedCategories;
+    }
+
+    /**
+     * Builds the filter of a policy set.
+     *
+     * @param policySet the policy set
+     *
+     * @return the filter of the policy set
+     */
+    public static ApplicabilityFilter build(PolicySetType policySet) {
+        FilterBuilder builder = new FilterBuilder();
+        Node root = builder.buildPolicySet(policySet);
+
+        BloomFilter filter = new BloomFilter(builder.keys.size());
+        for (String key : builder.keys) {
+            filter.add(key);
+        }
+        boolean[] notApplicable = new boolean[COMBINATIONS];
+        for (int missed = 0; missed < COMBINATIONS; missed++) {
+            notApplicable[missed] = root.isNotApplicable(missed);
+        }
+        return new ApplicabilityFilter(filter, notApplicable);
+    }
+
+    /**
+     * Gets whether the filter can report any request as not applicable.
+     *
+     * @return true if some requests may be reported as not applicable
+     */
+    public boolean isEffective() {
+        for (boolean combination : notApplicable) {
+            if (combination) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of literal values in the filter.
+     *
+     * @return number of literal values in the filter
+     */
+    public int getValues() {
+        return values.getEntries();
+    }
+
+    /**
+     * Checks whether the policy set is certainly not applicable to a request.
+     *
+     * @param request the request
+     *
+     * @return true if evaluating the policy set against the request would
+     *         result in a NotApplicable decision, false if it may result in
+     *         any decision
+     */
+    public boolean isNotApplicable(RequestType request) {
+        if (request == null) {
+            return false;
+        }
+        if (notApplicable[0]) {
+            return true;
+        }
+        if (categories == 0) {
+            return false;
+        }
+
+        int missed = 0;
+        if ((categories & SUBJECT) != 0) {
+            boolean found = false;
+            if (request.getSubjects() != null) {
+                for (org.herasaf.xacml.core.context.impl.SubjectType subject : request.getSubjects()) {
+                    if (mightMatch(SUBJECT, subject.getAttributes())) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) {
+                missed |= SUBJECT;
+            }
+        }
+        if ((categories & RESOURCE) != 0) {
+            boolean found = false;
+            if (request.getResources() != null) {
+                for (org.herasaf.xacml.core.context.impl.ResourceType resource : request.getResources()) {
+                    if (mightMatch(RESOURCE, resource.getAttributes())) {
+                        found = true;
+                        break;
+                    }
+                }
+            }
+            if (!found) {
+                missed |= RESOURCE;
+            }
+        }
+        if ((categories & ACTION) != 0) {
+            if (request.getAction() == null || !mightMatch(ACTION, request.getAction().getAttributes())) {
+                missed |= ACTION;
+            }
+        }
+        return notApplicable[missed];
+    }
+
+    /**
+     * Checks whether any of the attribute values of a request category may be
+     * a literal value of the policy.
+     *
+     * @param category the category
+     * @param attributes the request attributes of the category
+     *
+     * @return true if any of the values may be in the filter
+     */
+    private boolean mightMatch(int category, List<AttributeType> attributes) {
+        if (attributes == null) {
+            return false;
+        }
+        for (AttributeType attribute : attributes) {
+            if (attribute.getAttributeValues() == null) {
+                continue;
+            }
+            for (AttributeValueType attributeValue : attribute.getAttributeValues()) {
+                List<Object> content = attributeValue.getContent();
+                if (content == null || content.size() != 1 || !(content.get(0) instanceof String)) {
+                    // not a plain string, do not second-guess its conversion
+                    return true;
+                }
+                if (values.mightContain(key(category, attribute.getAttributeId(), (String) content.get(0)))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds the key of a literal value in the filter. The value is trimmed, so
+     * that values only differing by surrounding white space are never told
+     * apart.
+     *
+     * @param category the category of the attribute
+     * @param attributeId the attribute ID
+     * @param value the value
+     *
+     * @return the key
+     */
+    private static String key(int category, String attributeId, String value) {
+        return new StringBuilder(attributeId.length() + value.length() + 2).append((char) ('0' + category))
+                .append(attributeId).append('\u0000').append(value.trim()).toString();
+    }
+
+    /**
+     * Applicability of a policy set, policy or rule, reduced to the categories
+     * its target requires and its children.
+     */
+    private static final class Node {
+
+        /**
+         * Categories required by the target, or -1 if the target may be
+         * indeterminate.
+         */
+        private final int required;
+
+        /** Children, null for a rule. */
+        private final Node[] children;
+
+        /**
+         * Constructor.
+         *
+         * @param requiredCategories categories required by the target, or -1 if the target may be indeterminate
+         * @param childNodes children, null for a rule
+         */
+        Node(int requiredCategories, Node[] childNodes) {
+            required = requiredCategories;
+            children = childNodes;
+        }
+
+        /**
+         * Checks whether the element is certainly not applicable to the
+         * requests missing the given categories.
+         *
+         * @param missed the missed categories
+         *
+         * @return true if the element is certainly not applicable
+         */
+        boolean isNotApplicable(int missed) {
+            if (required < 0) {
+                return false;
+            }
+            if ((required & missed) != 0) {
+                return true;
+            }
+            if (children == null) {
+                return false;
+            }
+            for (Node child : children) {
+                if (!child.isNotApplicable(missed)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Builds the applicability nodes of a policy set and collects the keys of its literal values. */
+    private static final class FilterBuilder {
+
+        /** Node of the policy elements which may be applicable to any request. */
+        private static final Node APPLICABLE = new Node(-1, null);
+
+        /** Keys of the literal values. */
+        private final Set<String> keys = new HashSet<String>();
+
+        /**
+         * Builds the node of a policy set.
+         *
+         * @param policySet the policy set
+         *
+         * @return the node
+         */
+        Node buildPolicySet(PolicySetType policySet) {
+            int required = requiredCategories(policySet.getTarget());
+            if (required < 0) {
+                return APPLICABLE;
+            }
+            List<Evaluatable> evaluatables = policySet.getOrderedEvaluatables();
+            int count = evaluatables == null ? 0 : evaluatables.size();
+            Node[] children = new Node[count];
+            for (int i = 0; i < count; i++) {
+                Evaluatable child = evaluatables.get(i);
+                if (child instanceof PolicySetType) {
+                    children[i] = buildPolicySet((PolicySetType) child);
+                } else if (child instanceof PolicyType) {
+                    children[i] = buildPolicy((PolicyType) child);
+                } else {
+                    // policy reference, resolved at evaluation time
+                    children[i] = APPLICABLE;
+                }
+            }
+            return new Node(required, children);
+        }
+
+        /**
+         * Builds the node of a policy.
+         *
+         * @param policy the policy
+         *
+         * @return the node
+         */
+        Node buildPolicy(PolicyType policy) {
+            int required = requiredCategories(policy.getTarget());
+            if (required < 0) {
+                return APPLICABLE;
+            }
+            List<RuleType> rules = policy.getOrderedRules();
+            int count = rules == null ? 0 : rules.size();
+            Node[] children = new Node[count];
+            for (int i = 0; i < count; i++) {
+                // a rule may be applicable whatever its condition
+                children[i] = new Node(requiredCategories(rules.get(i).getTarget()), null);
+            }
+            return new Node(required, children);
+        }
+
+        /**
+         * Gets the categories a target requires, the ones whose section only
+         * matches requests with one of its literal values.
+         *
+         * @param target the target, may be null
+         *
+         * @return the required categories, or -1 if the target may be
+         *         indeterminate
+         */
+        private int requiredCategories(TargetType target) {
+            if (target == null) {
+                return 0;
+            }
+
+            SubjectsType subjects = target.getSubjects();
+            boolean required = subjects != null && !subjects.getSubjects().isEmpty();
+            if (subjects != null) {
+                for (SubjectType subject : subjects.getSubjects()) {
+                    int matches = collectMatches(SUBJECT, subject.getSubjectMatches());
+                    if (matches < 0) {
+                        return -1;
+                    }
+                    required &= matches > 0;
+                }
+            }
+            int categories = required ? SUBJECT : 0;
+
+            ResourcesType resources = target.getResources();
+            required = resources != null && !resources.getResources().isEmpty();
+            if (resources != null) {
+                for (ResourceType resource : resources.getResources()) {
+                    int matches = collectMatches(RESOURCE, resource.getResourceMatches());
+                    if (matches < 0) {
+                        return -1;
+                    }
+                    required &= matches > 0;
+                }
+            }
+            categories |= required ? RESOURCE : 0;
+
+            ActionsType actions = target.getActions();
+            required = actions != null && !actions.getActions().isEmpty();
+            if (actions != null) {
+                for (ActionType action : actions.getActions()) {
+                    int matches = collectMatches(ACTION, action.getActionMatches());
+                    if (matches < 0) {
+                        return -1;
+                    }
+                    required &= matches > 0;
+                }
+            }
+            categories |= required ? ACTION : 0;
+
+            EnvironmentsType environments = target.getEnvironments();
+            if (environments != null) {
+                for (EnvironmentType environment : environments.getEnvironments()) {
+                    // environment values are not in the filter, only their determinacy matters
+                    if (collectMatches(0, environment.getEnvironmentMatches()) < 0) {
+                        return -1;
+                    }
+                }
+            }
+            return categories;
+        }
+
+        /**
+         * Collects the keys of the literal values of the matches of a target
+         * section alternative.
+         *
+         * @param category category of the section, 0 if its values are not collected
+         * @param matches the matches of the alternative, all of which must match
+         *
+         * @return the number of matches, or -1 if a match may be indeterminate
+         */
+        private int collectMatches(int category, List<? extends MatchType> matches) {
+            if (matches == null) {
+                return 0;
+            }
+            for (MatchType match : matches) {
+                String value = stringEqualValue(match);
+                if (value == null) {
+                    return -1;
+                }
+                if (category != 0) {
+                    keys.add(key(category, match.getAttributeDesignator().getAttributeId(), value));
+                }
+            }
+            return matches.size();
+        }
+
+        /**
+         * Gets the literal value of a match which can not be indeterminate.
+         *
+         * @param match the match
+         *
+         * @return the literal value of a {@code string-equal} match of an
+         *         attribute designator not required to be present, or null for
+         *         any other match
+         */
+        private String stringEqualValue(MatchType match) {
+            if (match.getMatchFunction() == null || !STRING_EQUAL.equals(match.getMatchFunction().getFunctionId())) {
+                return null;
+            }
+            AttributeDesignatorType designator = match.getAttributeDesignator();
+            if (designator == null || designator.isMustBePresent() || designator.getAttributeId() == null
+                    || !isString(designator.getDataType())) {
+                return null;
+            }
+            if (match.getAttributeValue() == null || !isString(match.getAttributeValue().getDataType())) {
+                return null;
+            }
+            List<Object> content = match.getAttributeValue().getContent();
+            if (content == null || content.size() != 1 || !(content.get(0) instanceof String)) {
+                return null;
+            }
+            return (String) content.get(0);
+        }
+
+        /**
+         * Checks whether a data type is the string data type.
+         *
+         * @param dataType the data type, may be null
+         *
+         * @return true if the data type is the string data type
+         */
+        private boolean isString(DataTypeAttribute<?> dataType) {
+            return dataType != null && DATATYPE_STRING.equals(dataType.getDatatypeURI());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.HashMap;
+import java.util.List;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.herasaf.xacml.core.context.impl.ActionType;
+import org.herasaf.xacml.core.context.impl.AttributeType;
+import org.herasaf.xacml.core.context.impl.EnvironmentType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.context.impl.ResourceType;
+import org.herasaf.xacml.core.context.impl.SubjectType;
+import org.herasaf.xacml.core.dataTypeAttribute.DataTypeAttribute;
+import org.herasaf.xacml.core.policy.impl.AttributeAssignmentType;
+import org.herasaf.xacml.core.policy.impl.AttributeDesignatorType;
+import org.herasaf.xacml.core.policy.impl.AttributeValueType;
+import org.herasaf.xacml.core.policy.impl.ObligationType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+
+/**
+ * Dictionary of the attribute identifiers, data type URIs and literal values
+ * found in a loaded policy set.
+ * <p>
+ * The dictionary keeps a single canonical {@link String} instance of each
+ * distinct string. While the dictionary is built the policy strings are
+ * replaced by their canonical instances, and incoming requests are encoded
+ * against it once, so that the string comparisons performed during the
+ * evaluation succeed on the identity check and the per-request copies of the
+ * strings become garbage right away. The dictionary does not reject requests:
+ * the requests to which the policy is certainly not applicable are detected by
+ * the {@link ApplicabilityFilter}. The cost and gain of the request encoding
+ * are measured by the AttributeDictionaryBenchmark of the test sources.
+ * <p>
+ * A dictionary is immutable once built.
+ */
+@ThreadSafe
+public class AttributeDictionary {
+
+    /** Canonical instances of the strings in the dictionary. */
+    private final HashMap<String, String> strings;
+
+    /**
+     * Constructor.
+     *
+     * @param canonicalStrings canonical instances of the strings in the
+     *            dictionary
+     */
+    private AttributeDictionary(HashMap<String, String> canonicalStrings) {
+        strings = canonicalStrings;
+    }
+
+    /**
+     * Builds the dictionary of a policy set. The strings of the policy set are
+     * replaced by their canonical instances.
+     *
+     * @param policySet the policy set
+     *
+     * @return the dictionary of the policy set
+     */
+    public static AttributeDictionary build(PolicySetType policySet) {
+        DictionaryBuilder builder = new DictionaryBuilder();
+        builder.walk(policySet);
+        return new AttributeDictionary(builder.strings);
+    }
+
+    /**
+     * Gets the number of entries in the dictionary.
+     *
+     * @return number of entries in the dictionary
+     */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * Encodes the attributes of a request against the dictionary. Attribute
+     * identifiers known to the dictionary, and the string values of those
+     * attributes, are replaced, in place, by their canonical instances. The
+     * values of the attributes no policy designates are left untouched since
+     * the evaluation never compares them.
+     *
+     * @param request the request to encode
+     */
+    public void encode(RequestType request) {
+        if (request == null) {
+            return;
+        }
+
+        if (request.getSubjects() != null) {
+            for (SubjectType subject : request.getSubjects()) {
+                encode(subject.getAttributes());
+            }
+        }
+        if (request.getResources() != null) {
+            for (ResourceType resource : request.getResources()) {
+                encode(resource.getAttributes());
+            }
+        }
+        ActionType action = request.getAction();
+        if (action != null) {
+            encode(action.getAttributes());
+        }
+        EnvironmentType environment = request.getEnvironment();
+        if (environment != null) {
+            encode(environment.getAttributes());
+        }
+    }
+
+    /**
+     * Encodes a list of request attributes against the dictionary.
+     *
+     * @param attributes the request attributes
+     */
+    private void encode(List<AttributeType> attributes) {
+        if (attributes == null) {
+            return;
+        }
+
+        for (AttributeType attribute : attributes) {
+            String attributeId = canonical(attribute.getAttributeId());
+            if (attributeId == null) {
+                continue;
+            }
+            attribute.setAttributeId(attributeId);
+            if (attribute.getAttributeValues() == null) {
+                continue;
+            }
+            for (org.herasaf.xacml.core.context.impl.AttributeValueType attributeValue : attribute.getAttributeValues()) {
+                List<Object> content = attributeValue.getContent();
+                for (int i = 0; i < content.size(); i++) {
+                    Object value = content.get(i);
+                    if (value instanceof String) {
+                        String canonicalValue = strings.get(value);
+                        if (canonicalValue != null) {
+                            content.set(i, canonicalValue);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the canonical instance of a string.
+     *
+     * @param string the string, may be null
+     *
+     * @return the canonical instance of the string, or null if it is not in the
+     *         dictionary
+     */
+    private String canonical(String string) {
+        if (string == null) {
+            return null;
+        }
+        return strings.get(string);
+    }
+
+    /**
+     * Policy visitor collecting the dictionary entries and replacing the policy
+     * strings by their canonical instances.
+     */
+    private static class DictionaryBuilder extends PolicyVisitor {
+
+        /** Canonical instances of the strings collected so far. */
+        private final HashMap<String, String> strings = new HashMap<String, String>();
+
+        /** {@inheritDoc} */
+        protected void visitAttributeValue(AttributeValueType attributeValue) {
+            intern(attributeValue.getDataType());
+            internContent(attributeValue.getContent());
+        }
+
+        /** {@inheritDoc} */
+        protected void visitAttributeDesignator(AttributeDesignatorType designator) {
+            if (designator.getAttributeId() != null) {
+                designator.setAttributeId(intern(designator.getAttributeId()));
+            }
+            intern(designator.getDataType());
+        }
+
+        /** {@inheritDoc} */
+        protected void visitObligation(ObligationType obligation) {
+            if (obligation.getAttributeAssignments() == null) {
+                return;
+            }
+            for (AttributeAssignmentType attributeAssignment : obligation.getAttributeAssignments()) {
+                if (attributeAssignment.getAttributeId() != null) {
+                    attributeAssignment.setAttributeId(intern(attributeAssignment.getAttributeId()));
+                }
+                intern(attributeAssignment.getDataType());
+            }
+        }
+
+        /**
+         * Interns the string content of a literal value.
+         *
+         * @param content the content of the literal value
+         */
+        private void internContent(List<Object> content) {
+            if (content == null) {
+                return;
+            }
+            for (int i = 0; i < content.size(); i++) {
+                Object value = content.get(i);
+                if (value instanceof String) {
+                    content.set(i, intern((String) value));
+                }
+            }
+        }
+
+        /**
+         * Interns the URI of a data type.
+         *
+         * @param dataType the data type, may be null
+         */
+        private void intern(DataTypeAttribute<?> dataType) {
+            if (dataType != null && dataType.getDatatypeURI() != null) {
+                intern(dataType.getDatatypeURI());
+            }
+        }
+
+        /**
+         * Interns a string.
+         *
+         * @param string the string
+         *
+         * @return the canonical instance of the string
+         */
+        private String intern(String string) {
+            String canonical = strings.get(string);
+            if (canonical == null) {
+                strings.put(string, string);
+                canonical = string;
+            }
+            return canonical;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Bloom filter of strings: a compact set membership structure which may report
+ * a string as present while it was never added, but never reports an added
+ * string as absent.
+ * <p>
+ * The filter uses about 10 bits and 7 probes per expected entry, which gives a
+ * false positive rate of about 1% when the expected number of entries is not
+ * exceeded. The probes are derived, by double hashing, from
+ * {@link String#hashCode()} and a 32-bit FNV-1a hash of the string.
+ * <p>
+ * The filter is not thread safe while strings are added to it. Once populated
+ * and safely published it may be queried concurrently.
+ */
+@NotThreadSafe
+public class BloomFilter {
+
+    /** Number of bits per expected entry, {@value} . */
+    public static final int BITS_PER_ENTRY = 10;
+
+    /** Number of probes per string, {@value} . */
+    public static final int PROBES = 7;
+
+    /** The bits of the filter. */
+    private final long[] bits;
+
+    /** Number of bits of the filter, a multiple of 64. */
+    private final int size;
+
+    /** Number of strings added to the filter. */
+    private int entries;
+
+    /**
+     * Constructor.
+     * 
+     * @param expectedEntries expected number of strings added to the filter
+     */
+    public BloomFilter(int expectedEntries) {
+        long wanted = Math.max(64L, (long) Math.max(0, expectedEntries) * BITS_PER_ENTRY);
+        int words = (int) Math.min(Integer.MAX_VALUE / 64, (wanted + 63) / 64);
+        bits = new long[words];
+        size = words * 64;
+    }
+
+    /**
+     * Adds a string to the filter.
+     * 
+     * @param string the string, may not be null
+     */
+    public void add(String string) {
+        int h1 = string.hashCode();
+        int h2 = fnv(string);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = index(h1 + i * h2);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+        entries++;
+    }
+
+    /**
+     * Checks whether a string may have been added to the filter.
+     * 
+     * @param string the string, may not be null
+     * 
+     * @return false if the string was never added to the filter, true if it
+     *         may have been
+     */
+    public boolean mightContain(String string) {
+        int h1 = string.hashCode();
+        int h2 = fnv(string);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of strings added to the filter.
+     * 
+     * @return number of strings added to the filter
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the number of bits of the filter.
+     * 
+     * @return number of bits of the filter
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Maps a hash to a bit of the filter.
+     * 
+     * @param hash the hash
+     * 
+     * @return index of the bit
+     */
+    private int index(int hash) {
+        return (hash & Integer.MAX_VALUE) % size;
+    }
+
+    /**
+     * Computes the 32-bit FNV-1a hash of the characters of a string. The hash
+     * is made odd so that successive probes never collapse on the same bit.
+     * 
+     * @param string the string
+     * 
+     * @return the hash
+     */
+    private static int fnv(String string) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < string.length(); i++) {
+            hash ^= string.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
\ No newline at end of file
@@ -17,6 +17,7 @@
 
 package org.glite.authz.pdp.policy;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import net.jcip.annotations.ThreadSafe;
@@ -31,9 +32,11 @@ import org.opensaml.common.IdentifierGenerator;
 import org.opensaml.common.SAMLObjectBuilder;
 import org.opensaml.common.impl.RandomIdentifierGenerator;
 import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AssertionURIRef;
 import org.opensaml.saml2.core.Issuer;
 import org.opensaml.saml2.core.Response;
 import org.opensaml.saml2.core.Statement;
+import org.opensaml.saml2.core.StatusCode;
 import org.opensaml.ws.soap.client.BasicSOAPMessageContext;
 import org.opensaml.ws.soap.client.SOAPClient;
 import org.opensaml.ws.soap.client.SOAPFaultException;
@@ -56,7 +59,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Element;
 
-/** A simple client to the Policy Administration Point. */
+/**
+ * A simple client to the Policy Administration Point. The PAP endpoints may also
+ * be PDPs relaying their policy, see {@link PolicyRelay}.
+ */
 @ThreadSafe
 public class PolicyAdministrationPointClient {
 
@@ -118,6 +124,24 @@ public class PolicyAdministrationPointClient {
      * @throws AuthorizationServiceException thrown if there is a problem retrieving the policies
      */
     public PolicySetType retrievePolicySet() throws AuthorizationServiceException {
+        return retrievePolicySet(null, new ArrayList<String>());
+    }
+
+    /**
+     * Makes a policy query to the PAP endpoints, in order, until one returns a policy set which may be loaded. A
+     * policy set returned by a relaying PDP is skipped if it was already relayed by this PDP or if it is older than
+     * the loaded one.
+     * 
+     * @param currentVersion version of the loaded policy set, null if none is loaded
+     * @param relayPath list filled with the entity IDs of the PDPs which relayed the returned policy set, left empty if
+     *            it was returned by a PAP
+     * 
+     * @return the policy set or null if no policy set could be retrieved
+     * 
+     * @throws AuthorizationServiceException thrown if there is a problem retrieving the policies
+     */
+    public PolicySetType retrievePolicySet(String currentVersion, List<String> relayPath)
+            throws AuthorizationServiceException {
         SOAPMessageContext messageContext = buildMessageContext();
 
         if (protocolLogger.isInfoEnabled()) {
@@ -133,14 +157,32 @@ public class PolicyAdministrationPointClient {
             }
         }
 
-        Envelope soapResponse = null;
         SOAPClient soapClient = pdpConfig.getSOAPClient();
         for (String papEndpoint : pdpConfig.getPAPEndpointss()) {
             try {
+                messageContext.setInboundMessage(null);
                 soapClient.send(papEndpoint, messageContext);
                 if (messageContext.getInboundMessage() != null) {
-                    soapResponse = (Envelope) messageContext.getInboundMessage();
-                    break;
+                    Envelope soapResponse = (Envelope) messageContext.getInboundMessage();
+                    if (protocolLogger.isInfoEnabled()) {
+                        protocolLogger.info("Inbound XACML policy query response\n{}", XMLHelper
+                                .prettyPrintXML(soapResponse.getDOM()));
+                    }
+                    Response samlResponse = (Response) soapResponse.getBody().getOrderedChildren().get(0);
+                    PolicySetType policySet = extractPolicySet(samlResponse);
+                    if (policySet == null) {
+                        log.warn("PAP endpoint {} returned no policy set", papEndpoint);
+                        continue;
+                    }
+                    List<String> responseRelayPath = extractRelayPath(samlResponse);
+                    String rejection = PolicyRelay.checkRelayedPolicy(responseRelayPath, policySet.getVersion(),
+                            pdpConfig.getEntityId(), currentVersion);
+                    if (rejection != null) {
+                        log.warn("Discarding policy set relayed by PAP endpoint {}: {}", papEndpoint, rejection);
+                        continue;
+                    }
+                    relayPath.addAll(responseRelayPath);
+                    return policySet;
                 }
             }catch (SOAPFaultException e){
                 log.warn("Recieved SOAP Fault " + e.getFault().getCode() + " from PAP endpoint: " + papEndpoint, e);
@@ -152,16 +194,7 @@ public class PolicyAdministrationPointClient {
             }
         }
 
-        if (soapResponse != null) {
-            if (protocolLogger.isInfoEnabled()) {
-                protocolLogger.info("Inbound XACML policy query response\n{}", XMLHelper.prettyPrintXML(soapResponse
-                        .getDOM()));
-            }
-            Response samlResponse = (Response) soapResponse.getBody().getOrderedChildren().get(0);
-            return extractPolicySet(samlResponse);
-        } else {
-            return null;
-        }
+        return null;
     }
 
     /**
@@ -225,6 +258,12 @@ public class PolicyAdministrationPointClient {
      *         {@link org.opensaml.xacml.policy.PolicyType} objects returned in the response
      */
     protected PolicySetType extractPolicySet(Response samlResponse) {
+        if (samlResponse != null && samlResponse.getStatus() != null
+                && samlResponse.getStatus().getStatusCode() != null
+                && !StatusCode.SUCCESS_URI.equals(samlResponse.getStatus().getStatusCode().getValue())) {
+            log.debug("Policy query response has status {}", samlResponse.getStatus().getStatusCode().getValue());
+            return null;
+        }
         if (samlResponse != null) {
             List<Assertion> assertions = samlResponse.getAssertions();
             if (!assertions.isEmpty()) {
@@ -250,4 +289,23 @@ public class PolicyAdministrationPointClient {
         }
         return null;
     }
+
+    /**
+     * Extract the relay path of the policy returned from the policy query, carried by a relaying PDP as the assertion
+     * URI references of the advice of the assertion.
+     * 
+     * @param samlResponse the response to the policy query
+     * 
+     * @return the entity IDs of the PDPs which relayed the policy, empty if the policy was returned by a PAP
+     */
+    protected List<String> extractRelayPath(Response samlResponse) {
+        List<String> relayPath = new ArrayList<String>();
+        Assertion assertion = samlResponse.getAssertions().get(0);
+        if (assertion.getAdvice() != null) {
+            for (AssertionURIRef reference : assertion.getAdvice().getAssertionURIReferences()) {
+                relayPath.add(reference.getAssertionURI());
+            }
+        }
+        return relayPath;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.herasaf.xacml.core.SyntaxException;
+import org.herasaf.xacml.core.policy.Evaluatable;
+import org.herasaf.xacml.core.policy.PolicyMarshaller;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.opensaml.xml.util.XMLHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Unmarshalls successive versions of a policy set, only unmarshalling the child
+ * policies and policy sets which changed since the previous version.
+ * <p>
+ * The children of the root policy set are identified by their PolicyId or
+ * PolicySetId, their Version and a digest of their XML form. A child whose key
+ * is the one of a child of the previous version is not unmarshalled again, the
+ * previous HERAS-AF object is reused by the new policy set. If nothing changed
+ * at all the previous policy set itself is returned, so that the caller can keep
+ * the state derived from it.
+ * <p>
+ * A policy set is unmarshalled as a whole when it is the first one, when it
+ * references other policies or policy sets by ID, when it has combiner
+ * parameters, or when it carries obligations: HERAS-AF computes at unmarshal
+ * time whether a tree carries obligations.
+ * <p>
+ * The reused objects are shared between the previous policy set, which requests
+ * may be evaluating, and the new one. Loading the new policy set still writes
+ * to them: the {@link PolicyOptimizer} runs again on the whole tree, although
+ * it finds nothing left to remove in an already optimized child, and the
+ * {@link AttributeDictionary} replaces their strings by equal canonical
+ * instances. Only these in place rewrites, which leave the reused children
+ * equivalent for the requests, may be applied to the tree, and the caller must
+ * not load two policy sets returned by this unmarshaller at the same time, as
+ * the same policy set, or the same children, may be returned to both.
+ */
+@ThreadSafe
+public class PolicyDeltaUnmarshaller {
+
+    /** XACML 2.0 policy namespace, {@value} . */
+    private static final String XACML_POLICY_NS = "urn:oasis:names:tc:xacml:2.0:policy:schema:os";
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(PolicyDeltaUnmarshaller.class);
+
+    /** Key of the header, that is everything but the children, of the previous root policy set. */
+    private String previousHeaderKey;
+
+    /** Keys of the children of the previous root policy set, in document order. */
+    private List<String> previousChildKeys = Collections.emptyList();
+
+    /** Children of the previous root policy set, by key. */
+    private Map<String, Evaluatable> previousChildren = Collections.emptyMap();
+
+    /** Previous root policy set. */
+    private PolicySetType previousPolicySet;
+
+    /** Number of children reused by the last unmarshalling. */
+    private int reusedPolicies;
+
+    /** Number of children unmarshalled by the last unmarshalling. */
+    private int unmarshalledPolicies;
+
+    /**
+     * Unmarshalls a policy set.
+     * 
+     * @param policySetElement the PolicySet element
+     * 
+     * @return the policy set, which is the previous one if it did not change
+     * 
+     * @throws SyntaxException thrown if the policy set, or one of its changed children, is not valid
+     */
+    public synchronized PolicySetType unmarshal(Element policySetElement) throws SyntaxException {
+        List<Element> children = new ArrayList<Element>();
+        Element header = (Element) policySetElement.cloneNode(false);
+        boolean incremental = true;
+        for (Node node = policySetElement.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() != Node.ELEMENT_NODE || !XACML_POLICY_NS.equals(node.getNamespaceURI())) {
+                header.appendChild(node.cloneNode(true));
+                continue;
+            }
+            String name = node.getLocalName();
+            if ("Policy".equals(name) || "PolicySet".equals(name)) {
+                children.add((Element) node);
+            } else {
+                if (name.endsWith("IdReference") || name.endsWith("CombinerParameters")) {
+                    incremental = false;
+                }
+                header.appendChild(node.cloneNode(true));
+            }
+        }
+        if (policySetElement.getElementsByTagNameNS(XACML_POLICY_NS, "Obligations").getLength() > 0) {
+            incremental = false;
+        }
+
+        String headerKey = key(header);
+        List<String> childKeys = new ArrayList<String>(children.size());
+        for (Element child : children) {
+            childKeys.add(key(child));
+        }
+
+        if (!incremental || previousPolicySet == null) {
+            PolicySetType policySet = (PolicySetType) PolicyMarshaller.unmarshal(policySetElement);
+            reusedPolicies = 0;
+            unmarshalledPolicies = children.size();
+            remember(policySet, incremental ? headerKey : null, childKeys, policySet.getOrderedEvaluatables());
+            return policySet;
+        }
+
+        if (headerKey.equals(previousHeaderKey) && childKeys.equals(previousChildKeys)) {
+            log.debug("Policy set {} did not change", policySetElement.getAttributeNS(null, "PolicySetId"));
+            reusedPolicies = children.size();
+            unmarshalledPolicies = 0;
+            return previousPolicySet;
+        }
+
+        PolicySetType policySet = (PolicySetType) PolicyMarshaller.unmarshal(header);
+        List<Evaluatable> evaluatables = policySet.getOrderedEvaluatables();
+        int reused = 0;
+        for (int i = 0; i < children.size(); i++) {
+            Evaluatable evaluatable = previousChildren.get(childKeys.get(i));
+            if (evaluatable != null) {
+                reused++;
+            } else {
+                evaluatable = PolicyMarshaller.unmarshal(children.get(i));
+            }
+            evaluatables.add(evaluatable);
+        }
+        reusedPolicies = reused;
+        unmarshalledPolicies = children.size() - reused;
+        remember(policySet, headerKey, childKeys, evaluatables);
+        return policySet;
+    }
+
+    /**
+     * Gets the number of child policies and policy sets reused by the last unmarshalling.
+     * 
+     * @return number of reused children
+     */
+    public synchronized int getReusedPolicies() {
+        return reusedPolicies;
+    }
+
+    /**
+     * Gets the number of child policies and policy sets unmarshalled by the last unmarshalling.
+     * 
+     * @return number of unmarshalled children
+     */
+    public synchronized int getUnmarshalledPolicies() {
+        return unmarshalledPolicies;
+    }
+
+    /**
+     * Remembers an unmarshalled policy set, for the next unmarshalling.
+     * 
+     * @param policySet the policy set
+     * @param headerKey key of the header of the policy set, null if the policy set can not be updated incrementally
+     * @param childKeys keys of the children of the policy set
+     * @param evaluatables unmarshalled children of the policy set, in the same order as their keys
+     */
+    private void remember(PolicySetType policySet, String headerKey, List<String> childKeys,
+            List<Evaluatable> evaluatables) {
+        if (headerKey == null || evaluatables == null || evaluatables.size() != childKeys.size()) {
+            previousPolicySet = null;
+            previousHeaderKey = null;
+            previousChildKeys = Collections.emptyList();
+            previousChildren = Collections.emptyMap();
+            return;
+        }
+        HashMap<String, Evaluatable> children = new HashMap<String, Evaluatable>();
+        for (int i = 0; i < childKeys.size(); i++) {
+            children.put(childKeys.get(i), evaluatables.get(i));
+        }
+        previousPolicySet = policySet;
+        previousHeaderKey = headerKey;
+        previousChildKeys = childKeys;
+        previousChildren = children;
+    }
+
+    /**
+     * Computes the key of an element: its ID, version and the digest of its XML form.
+     * 
+     * @param element the element
+     * 
+     * @return the key of the element
+     */
+    private static String key(Element element) {
+        String id = element.getAttributeNS(null, "PolicySetId");
+        if (id.length() == 0) {
+            id = element.getAttributeNS(null, "PolicyId");
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(XMLHelper.nodeToString(element).getBytes(StandardCharsets.UTF_8));
+            return id + " " + element.getAttributeNS(null, "Version") + " " + Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.xml.bind.JAXBElement;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+
+/**
+ * Estimates the heap a loaded HERAS-AF policy set retains.
+ * <p>
+ * The estimate is a metric only: it does not change how the policy is held in
+ * memory. Since it walks the whole policy set, including the subtrees an
+ * incremental update reused unchanged, it is only computed when the
+ * <code>policyFootprint</code> option is enabled.
+ * <p>
+ * The policy objects, those of the <code>org.herasaf.xacml.core.policy</code>
+ * packages, are walked by reflection and never modified: the children reused
+ * from the previous version of the policy may be evaluated by requests while
+ * the estimate runs. The functions, data types and combining algorithms
+ * referenced by the policy are resolved, shared, instances, they are neither
+ * walked nor counted.
+ * <p>
+ * The estimate assumes a 64-bit JVM with compressed references: 12 bytes
+ * object headers, 4 bytes references and objects aligned on 8 bytes. It counts
+ * every object reachable from the policy set once, including the ones shared
+ * with the previous version of the policy.
+ */
+@NotThreadSafe
+public class PolicyFootprint {
+
+    /** Package of the policy objects, which are walked. */
+    private static final String POLICY_PACKAGE = "org.herasaf.xacml.core.policy.";
+
+    /** Size of an object header. */
+    private static final int OBJECT_HEADER = 12;
+
+    /** Size of an array header. */
+    private static final int ARRAY_HEADER = 16;
+
+    /** Size of a reference. */
+    private static final int REFERENCE = 4;
+
+    /** Instance fields of the walked classes, by class. */
+    private final Map<Class<?>, Field[]> fields = new IdentityHashMap<Class<?>, Field[]>();
+
+    /** Number of objects counted by the last walk. */
+    private long objects;
+
+    /**
+     * Estimates the heap a policy set retains.
+     * 
+     * @param policySet the policy set
+     * 
+     * @return the estimated retained size of the policy set, in bytes
+     */
+    public long estimate(PolicySetType policySet) {
+        objects = 0;
+        long size = 0;
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        ArrayDeque<Object> pending = new ArrayDeque<Object>();
+        pending.push(policySet);
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (visited.put(object, Boolean.TRUE) != null) {
+                continue;
+            }
+            objects++;
+            size += sizeOf(object, pending);
+        }
+        return size;
+    }
+
+    /**
+     * Gets the number of objects counted by the last call to {@link #estimate(PolicySetType)}.
+     * 
+     * @return number of counted objects
+     */
+    public long getObjects() {
+        return objects;
+    }
+
+    /**
+     * Estimates the shallow size of an object and queues the objects it references which are part of the policy.
+     * 
+     * @param object the object
+     * @param pending objects still to walk
+     * 
+     * @return the estimated shallow size of the object
+     */
+    private long sizeOf(Object object, ArrayDeque<Object> pending) {
+        if (object instanceof String) {
+            // String object, and its value array of Latin-1 or UTF-16 characters
+            return align(OBJECT_HEADER + REFERENCE + 8) + align(ARRAY_HEADER + 2L * ((String) object).length());
+        }
+        if (object instanceof ArrayList) {
+            // the capacity of the backing array is not known, its size is assumed
+            ArrayList<?> list = (ArrayList<?>) object;
+            queueAll(list, pending);
+            return align(OBJECT_HEADER + REFERENCE + 8) + align(ARRAY_HEADER + (long) REFERENCE * list.size());
+        }
+        if (object instanceof Collection) {
+            // other collections, estimated as a linked structure
+            Collection<?> collection = (Collection<?>) object;
+            queueAll(collection, pending);
+            return align(OBJECT_HEADER + 16) + 32L * collection.size();
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            queueAll(map.keySet(), pending);
+            queueAll(map.values(), pending);
+            return align(OBJECT_HEADER + 24) + align(ARRAY_HEADER + (long) REFERENCE * map.size() * 2) + 32L
+                    * map.size();
+        }
+        if (object instanceof JAXBElement) {
+            queue(((JAXBElement<?>) object).getValue(), pending);
+            return align(OBJECT_HEADER + 4 * REFERENCE + 1);
+        }
+        Class<?> type = object.getClass();
+        if (type.isArray()) {
+            int length = Array.getLength(object);
+            if (!type.getComponentType().isPrimitive()) {
+                for (int i = 0; i < length; i++) {
+                    queue(Array.get(object, i), pending);
+                }
+                return align(ARRAY_HEADER + (long) REFERENCE * length);
+            }
+            return align(ARRAY_HEADER + (long) primitiveSize(type.getComponentType()) * length);
+        }
+        if (!type.getName().startsWith(POLICY_PACKAGE)) {
+            // boxed values, dates, names: counted, not walked
+            return align(OBJECT_HEADER + 8);
+        }
+
+        long size = OBJECT_HEADER;
+        for (Field field : fieldsOf(type)) {
+            Class<?> fieldType = field.getType();
+            if (fieldType.isPrimitive()) {
+                size += primitiveSize(fieldType);
+                continue;
+            }
+            size += REFERENCE;
+            try {
+                queue(field.get(object), pending);
+            } catch (IllegalAccessException e) {
+                // not walked, only the reference is counted
+            }
+        }
+        return align(size);
+    }
+
+    /**
+     * Queues the elements of a collection.
+     * 
+     * @param collection the collection
+     * @param pending objects still to walk
+     */
+    private void queueAll(Collection<?> collection, ArrayDeque<Object> pending) {
+        for (Object element : collection) {
+            queue(element, pending);
+        }
+    }
+
+    /**
+     * Queues an object referenced by the policy, unless it is a shared instance.
+     * 
+     * @param object the object, may be null
+     * @param pending objects still to walk
+     */
+    private void queue(Object object, ArrayDeque<Object> pending) {
+        if (object == null || object instanceof Enum || object instanceof Class) {
+            return;
+        }
+        String typeName = object.getClass().getName();
+        if (typeName.startsWith("org.") && !typeName.startsWith(POLICY_PACKAGE)) {
+            // functions, data types, combining algorithms
+            return;
+        }
+        pending.push(object);
+    }
+
+    /**
+     * Gets the accessible instance fields of a class and its superclasses.
+     * 
+     * @param type the class
+     * 
+     * @return the instance fields
+     */
+    private Field[] fieldsOf(Class<?> type) {
+        Field[] typeFields = fields.get(type);
+        if (typeFields == null) {
+            ArrayList<Field> instanceFields = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        instanceFields.add(field);
+                    } catch (RuntimeException e) {
+                        // inaccessible field of a JDK class
+                    }
+                }
+            }
+            typeFields = instanceFields.toArray(new Field[instanceFields.size()]);
+            fields.put(type, typeFields);
+        }
+        return typeFields;
+    }
+
+    /**
+     * Gets the size of a primitive type.
+     * 
+     * @param type the primitive type
+     * 
+     * @return the size of the type, in bytes
+     */
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Aligns a size on 8 bytes.
+     * 
+     * @param size the size
+     * 
+     * @return the aligned size
+     */
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.herasaf.xacml.core.dataTypeAttribute.DataTypeAttribute;
+import org.herasaf.xacml.core.dataTypeAttribute.impl.BooleanDataTypeAttribute;
+import org.herasaf.xacml.core.dataTypeAttribute.impl.DoubleDataTypeAttribute;
+import org.herasaf.xacml.core.dataTypeAttribute.impl.IntegerDataTypeAttribute;
+import org.herasaf.xacml.core.dataTypeAttribute.impl.StringDataTypeAttribute;
+import org.herasaf.xacml.core.function.Function;
+import org.herasaf.xacml.core.policy.Evaluatable;
+import org.herasaf.xacml.core.policy.impl.ActionType;
+import org.herasaf.xacml.core.policy.impl.ActionsType;
+import org.herasaf.xacml.core.policy.impl.ApplyType;
+import org.herasaf.xacml.core.policy.impl.AttributeValueType;
+import org.herasaf.xacml.core.policy.impl.ConditionType;
+import org.herasaf.xacml.core.policy.impl.EnvironmentType;
+import org.herasaf.xacml.core.policy.impl.EnvironmentsType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.policy.impl.PolicyType;
+import org.herasaf.xacml.core.policy.impl.ResourceType;
+import org.herasaf.xacml.core.policy.impl.ResourcesType;
+import org.herasaf.xacml.core.policy.impl.RuleType;
+import org.herasaf.xacml.core.policy.impl.SubjectType;
+import org.herasaf.xacml.core.policy.impl.SubjectsType;
+import org.herasaf.xacml.core.policy.impl.TargetType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load-time optimizer of HERAS-AF policy sets.
+ * <p>
+ * The optimizer rewrites the policy in place, before it is used for any
+ * evaluation, and never changes the decision the policy renders:
+ * <ul>
+ * <li>{@code Apply} expressions whose arguments are all literal values are
+ * evaluated once and replaced by their literal result</li>
+ * <li>conditions which are always true are removed</li>
+ * <li>target sections which always match (a subject, resource, action or
+ * environment without any match) are removed</li>
+ * <li>rules whose condition is always false are unreachable. They are removed
+ * when their target can not be indeterminate, otherwise their condition is
+ * reduced to the literal {@code false}.</li>
+ * </ul>
+ * Expressions whose evaluation fails at load time are left untouched, so that
+ * the same error is reported when the request is evaluated.
+ */
+@NotThreadSafe
+public class PolicyOptimizer {
+
+    /** XACML 2.0 policy namespace. */
+    private static final String XACML_POLICY_NS = "urn:oasis:names:tc:xacml:2.0:policy:schema:os";
+
+    /** Name of the element wrapping a folded literal value. */
+    private static final QName ATTRIBUTE_VALUE_ELEMENT_NAME = new QName(XACML_POLICY_NS, "AttributeValue");
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(PolicyOptimizer.class);
+
+    /** Number of policy nodes removed by the optimization. */
+    private int removedNodes;
+
+    /** Number of rules found to be unreachable. */
+    private int unreachableRules;
+
+    /**
+     * Optimizes the given policy set, in place.
+     *
+     * @param policySet the policy set to optimize
+     *
+     * @return the number of policy nodes removed
+     */
+    public int optimize(PolicySetType policySet) {
+        removedNodes = 0;
+        unreachableRules = 0;
+        if (policySet != null) {
+            optimizePolicySet(policySet);
+        }
+        return removedNodes;
+    }
+
+    /**
+     * Gets the number of nodes removed by the last optimization.
+     *
+     * @return number of nodes removed by the last optimization
+     */
+    public int getRemovedNodes() {
+        return removedNodes;
+    }
+
+    /**
+     * Gets the number of rules found unreachable by the last optimization.
+     *
+     * @return number of rules found unreachable by the last optimization
+     */
+    public int getUnreachableRules() {
+        return unreachableRules;
+    }
+
+    /**
+     * Optimizes a policy set and its children.
+     *
+     * @param policySet the policy set
+     */
+    private void optimizePolicySet(PolicySetType policySet) {
+        optimizeTarget(policySet.getTarget());
+        List<Evaluatable> children = policySet.getOrderedEvaluatables();
+        if (children == null) {
+            return;
+        }
+        for (Evaluatable child : children) {
+            if (child instanceof PolicySetType) {
+                optimizePolicySet((PolicySetType) child);
+            } else if (child instanceof PolicyType) {
+                optimizePolicy((PolicyType) child);
+            }
+        }
+    }
+
+    /**
+     * Optimizes a policy and its rules.
+     *
+     * @param policy the policy
+     */
+    private void optimizePolicy(PolicyType policy) {
+        optimizeTarget(policy.getTarget());
+        List<RuleType> rules = policy.getOrderedRules();
+        if (rules == null) {
+            return;
+        }
+        Iterator<RuleType> ruleItr = rules.iterator();
+        RuleType rule;
+        while (ruleItr.hasNext()) {
+            rule = ruleItr.next();
+            optimizeTarget(rule.getTarget());
+            if (optimizeCondition(rule) == Boolean.FALSE) {
+                unreachableRules++;
+                if (isTriviallyTrue(rule.getTarget())) {
+                    log.debug("Removing unreachable rule {} of policy {}", rule.getRuleId(), policy.getPolicyId());
+                    ruleItr.remove();
+                    removedNodes += 1 + countNodes(rule.getTarget());
+                } else {
+                    log.debug("Rule {} of policy {} is unreachable", rule.getRuleId(), policy.getPolicyId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Folds the condition of a rule.
+     *
+     * @param rule the rule
+     *
+     * @return the constant value of the condition, or null if it is not
+     *         constant
+     */
+    private Boolean optimizeCondition(RuleType rule) {
+        ConditionType condition = rule.getCondition();
+        if (condition == null || condition.getExpression() == null) {
+            return null;
+        }
+
+        JAXBElement<?> expression = foldExpression(condition.getExpression());
+        condition.setExpression(expression);
+        Object value = literalValue(expression);
+        if (Boolean.TRUE.equals(value)) {
+            rule.setCondition(null);
+            removedNodes += 2;
+            return Boolean.TRUE;
+        }
+        if (Boolean.FALSE.equals(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Folds an expression. Arguments are folded first, then the expression
+     * itself is replaced by a literal value if all its arguments are literals.
+     *
+     * @param expression the expression to fold
+     *
+     * @return the folded expression
+     */
+    @SuppressWarnings("unchecked")
+    private JAXBElement<?> foldExpression(JAXBElement<?> expression) {
+        if (!(expression.getValue() instanceof ApplyType)) {
+            return expression;
+        }
+
+        ApplyType apply = (ApplyType) expression.getValue();
+        List<JAXBElement<?>> arguments = apply.getExpressions();
+        boolean constant = true;
+        if (arguments != null) {
+            for (int i = 0; i < arguments.size(); i++) {
+                JAXBElement<?> folded = foldExpression(arguments.get(i));
+                if (folded != arguments.get(i)) {
+                    ((List<Object>) (List<?>) arguments).set(i, folded);
+                }
+                if (!(folded.getValue() instanceof AttributeValueType)) {
+                    constant = false;
+                }
+            }
+        }
+        Function function = apply.getFunctionId();
+        if (!constant || function == null) {
+            return expression;
+        }
+
+        Object[] values = new Object[arguments == null ? 0 : arguments.size()];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = literalValue(arguments.get(i));
+                if (values[i] == null) {
+                    return expression;
+                }
+            }
+            Object result = function.handle(values);
+            AttributeValueType literal = buildLiteral(result);
+            if (literal == null) {
+                return expression;
+            }
+            removedNodes += 1 + values.length;
+            log.trace("Folded constant application of {} to {}", function, result);
+            return new JAXBElement<AttributeValueType>(ATTRIBUTE_VALUE_ELEMENT_NAME, AttributeValueType.class, literal);
+        } catch (Exception e) {
+            log.debug("Unable to fold constant application of {}, leaving it for request time: {}", function,
+                    e.getMessage());
+            return expression;
+        }
+    }
+
+    /**
+     * Gets the typed value of a literal expression.
+     *
+     * @param expression the expression
+     *
+     * @return the typed value, or null if the expression is not a single valued
+     *         literal
+     */
+    private Object literalValue(JAXBElement<?> expression) {
+        if (expression == null || !(expression.getValue() instanceof AttributeValueType)) {
+            return null;
+        }
+        AttributeValueType attributeValue = (AttributeValueType) expression.getValue();
+        DataTypeAttribute<?> dataType = attributeValue.getDataType();
+        List<Object> content = attributeValue.getContent();
+        if (dataType == null || content == null || content.size() != 1) {
+            return null;
+        }
+        try {
+            return dataType.convertTo(content.get(0).toString().trim());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds a literal value from the result of a folded function.
+     *
+     * @param result the function result
+     *
+     * @return the literal, or null if the result type can not be represented as
+     *         a literal
+     */
+    private AttributeValueType buildLiteral(Object result) {
+        DataTypeAttribute<?> dataType;
+        if (result instanceof Boolean) {
+            dataType = new BooleanDataTypeAttribute();
+        } else if (result instanceof String) {
+            dataType = new StringDataTypeAttribute();
+        } else if (result instanceof BigInteger) {
+            dataType = new IntegerDataTypeAttribute();
+        } else if (result instanceof Double) {
+            dataType = new DoubleDataTypeAttribute();
+        } else {
+            return null;
+        }
+
+        AttributeValueType literal = new AttributeValueType();
+        literal.setDataType(dataType);
+        literal.getContent().add(result.toString());
+        return literal;
+    }
+
+    /**
+     * Removes the target sections which always match.
+     *
+     * @param target the target
+     */
+    private void optimizeTarget(TargetType target) {
+        if (target == null) {
+            return;
+        }
+
+        SubjectsType subjects = target.getSubjects();
+        if (subjects != null) {
+            for (SubjectType subject : subjects.getSubjects()) {
+                if (subject.getSubjectMatches().isEmpty()) {
+                    removedNodes += countNodes(subjects);
+                    target.setSubjects(null);
+                    break;
+                }
+            }
+        }
+
+        ResourcesType resources = target.getResources();
+        if (resources != null) {
+            for (ResourceType resource : resources.getResources()) {
+                if (resource.getResourceMatches().isEmpty()) {
+                    removedNodes += countNodes(resources);
+                    target.setResources(null);
+                    break;
+                }
+            }
+        }
+
+        ActionsType actions = target.getActions();
+        if (actions != null) {
+            for (ActionType action : actions.getActions()) {
+                if (action.getActionMatches().isEmpty()) {
+                    removedNodes += countNodes(actions);
+                    target.setActions(null);
+                    break;
+                }
+            }
+        }
+
+        EnvironmentsType environments = target.getEnvironments();
+        if (environments != null) {
+            for (EnvironmentType environment : environments.getEnvironments()) {
+                if (environment.getEnvironmentMatches().isEmpty()) {
+                    removedNodes += countNodes(environments);
+                    target.setEnvironments(null);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether a target always matches, and so can never be
+     * indeterminate.
+     *
+     * @param target the target
+     *
+     * @return true if the target has no section left
+     */
+    private boolean isTriviallyTrue(TargetType target) {
+        return target == null
+                || (target.getSubjects() == null && target.getResources() == null && target.getActions() == null && target
+                        .getEnvironments() == null);
+    }
+
+    /**
+     * Counts the nodes of a target.
+     *
+     * @param target the target
+     *
+     * @return number of nodes
+     */
+    private int countNodes(TargetType target) {
+        if (target == null) {
+            return 0;
+        }
+        return 1 + countNodes(target.getSubjects()) + countNodes(target.getResources())
+                + countNodes(target.getActions()) + countNodes(target.getEnvironments());
+    }
+
+    /**
+     * Counts the nodes of a subjects section.
+     *
+     * @param subjects the subjects
+     *
+     * @return number of nodes
+     */
+    private int countNodes(SubjectsType subjects) {
+        if (subjects == null) {
+            return 0;
+        }
+        int count = 1;
+        for (SubjectType subject : subjects.getSubjects()) {
+            count += 1 + subject.getSubjectMatches().size();
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes of a resources section.
+     *
+     * @param resources the resources
+     *
+     * @return number of nodes
+     */
+    private int countNodes(ResourcesType resources) {
+        if (resources == null) {
+            return 0;
+        }
+        int count = 1;
+        for (ResourceType resource : resources.getResources()) {
+            count += 1 + resource.getResourceMatches().size();
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes of an actions section.
+     *
+     * @param actions the actions
+     *
+     * @return number of nodes
+     */
+    private int countNodes(ActionsType actions) {
+        if (actions == null) {
+            return 0;
+        }
+        int count = 1;
+        for (ActionType action : actions.getActions()) {
+            count += 1 + action.getActionMatches().size();
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes of an environments section.
+     *
+     * @param environments the environments
+     *
+     * @return number of nodes
+     */
+    private int countNodes(EnvironmentsType environments) {
+        if (environments == null) {
+            return 0;
+        }
+        int count = 1;
+        for (EnvironmentType environment : environments.getEnvironments()) {
+            count += 1 + environment.getEnvironmentMatches().size();
+        }
+        return count;
+    }
+}
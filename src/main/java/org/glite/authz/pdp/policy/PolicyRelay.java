@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.List;
+
+/**
+ * The rules followed by the PDPs relaying policies to each other. A PDP with
+ * the policy relay enabled answers the policy queries of other PDPs from its
+ * loaded policies, and other PDPs list it as a PAP endpoint, ahead of the real
+ * PAPs.
+ * <p>
+ * Each relayed policy carries the entity IDs of the PDPs it went through. A
+ * relay refuses to answer a PDP which is already on the relay path of its
+ * policy, and a PDP discards a policy whose relay path holds its own entity
+ * ID, so that a set of PDPs relaying to each other can not keep circulating a
+ * stale policy without ever going back to a PAP. A PDP also discards a relayed
+ * policy older than the one it has loaded, so that a lagging relay does not
+ * roll it back; the versions returned by the real PAPs are always accepted.
+ */
+public final class PolicyRelay {
+
+    /** Constructor. */
+    private PolicyRelay() {
+    }
+
+    /**
+     * Compares two XACML policy versions, made of dot separated numbers. Missing
+     * trailing numbers are taken as 0, versions which are not numeric are compared
+     * as strings.
+     * 
+     * @param version the first version, may be null
+     * @param otherVersion the second version, may be null
+     * 
+     * @return a negative number, 0 or a positive number if the first version is
+     *         older than, the same as or newer than the second one
+     */
+    public static int compareVersions(String version, String otherVersion) {
+        String[] numbers = version == null ? new String[0] : version.trim().split("\\.");
+        String[] otherNumbers = otherVersion == null ? new String[0] : otherVersion.trim().split("\\.");
+        try {
+            for (int i = 0; i < Math.max(numbers.length, otherNumbers.length); i++) {
+                long number = i < numbers.length && numbers[i].length() > 0 ? Long.parseLong(numbers[i]) : 0;
+                long otherNumber = i < otherNumbers.length && otherNumbers[i].length() > 0 ? Long
+                        .parseLong(otherNumbers[i]) : 0;
+                if (number != otherNumber) {
+                    return number < otherNumber ? -1 : 1;
+                }
+            }
+            return 0;
+        } catch (NumberFormatException e) {
+            return String.valueOf(version).compareTo(String.valueOf(otherVersion));
+        }
+    }
+
+    /**
+     * Checks whether a relay may answer a policy query with a policy.
+     * 
+     * @param snapshot the policy the relay would answer with, may be null
+     * @param relayEntityId entity ID of the relay
+     * @param requesterEntityId entity ID of the PDP sending the query, may be null
+     * @param earliestVersion earliest version of the policy accepted by the PDP sending the query, may be null
+     * 
+     * @return the reason the query is refused, or null if the relay may answer with the policy
+     */
+    public static String checkQuery(PolicySnapshot snapshot, String relayEntityId, String requesterEntityId,
+            String earliestVersion) {
+        if (snapshot == null) {
+            return "No policy loaded";
+        }
+        if (requesterEntityId != null
+                && (requesterEntityId.equals(relayEntityId) || snapshot.getRelayPath().contains(requesterEntityId))) {
+            return "Policy " + snapshot.getPolicySetId() + " was relayed by " + requesterEntityId;
+        }
+        if (earliestVersion != null && compareVersions(snapshot.getPolicyVersion(), earliestVersion) < 0) {
+            return "Version " + snapshot.getPolicyVersion() + " of policy " + snapshot.getPolicySetId()
+                    + " is older than " + earliestVersion;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a PDP may load a policy it retrieved.
+     * 
+     * @param relayPath entity IDs of the PDPs which relayed the policy, empty if it comes from a PAP
+     * @param policyVersion version of the retrieved policy
+     * @param entityId entity ID of the PDP
+     * @param currentVersion version of the policy loaded by the PDP, may be null
+     * 
+     * @return the reason the policy is discarded, or null if the PDP may load the policy
+     */
+    public static String checkRelayedPolicy(List<String> relayPath, String policyVersion, String entityId,
+            String currentVersion) {
+        if (relayPath.isEmpty()) {
+            return null;
+        }
+        if (relayPath.contains(entityId)) {
+            return "Policy was already relayed by this PDP through " + relayPath;
+        }
+        if (currentVersion != null && compareVersions(policyVersion, currentVersion) < 0) {
+            return "Relayed version " + policyVersion + " is older than the loaded version " + currentVersion;
+        }
+        return null;
+    }
+}
\ No newline at end of file
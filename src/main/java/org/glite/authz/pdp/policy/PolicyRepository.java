@@ -17,7 +17,12 @@
 
 package org.glite.authz.pdp.policy;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -26,16 +31,26 @@ import net.jcip.annotations.ThreadSafe;
 import org.glite.authz.common.logging.LoggingConstants;
 import org.glite.authz.pdp.config.PDPConfiguration;
 import org.glite.authz.pdp.server.PDPMetrics;
-import org.glite.authz.pdp.util.XACMLUtil;
+import org.glite.authz.pdp.xacml.X500NameCache;
 
+import org.herasaf.xacml.core.dataTypeAttribute.impl.X500DataTypeAttribute;
 import org.herasaf.xacml.core.policy.PolicyMarshaller;
+import org.herasaf.xacml.core.policy.impl.AttributeValueType;
 import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.util.XMLHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
 /**
  * This policy repository queries a logical, remote, PAP for a policy set. This
  * policy set is then cached and refreshed on a periodic basis.
+ * <p>
+ * If a {@link SharedPolicyStore} is configured, the publisher PDP of the store
+ * publishes each policy set it retrieves into it, and the other PDPs load the
+ * policy set from the store instead of querying the PAP, as long as the
+ * publisher keeps it up to date.
  */
 @ThreadSafe
 public class PolicyRepository {
@@ -65,8 +80,28 @@ public class PolicyRepository {
     /** Timer controlling the periodic refresh of the policy. */
     private Timer updatePolicyTimer;
 
+    /**
+     * Lock serializing the refreshes of the policy. The timer task, the startup
+     * and the reload admin command may refresh the policy at the same time, and
+     * successive versions share their unchanged children, which the loading of
+     * a new version processes: only one refresh may load a policy at a time.
+     */
+    private final Object refreshLock= new Object();
+
     /** Cache copy of the policy. */
-    private PolicySetType policySet;
+    private volatile PolicySnapshot policySnapshot;
+
+    /** Unmarshaller of the successive versions of the policy, used if incremental updates are enabled. */
+    private final PolicyDeltaUnmarshaller deltaUnmarshaller= new PolicyDeltaUnmarshaller();
+
+    /** Store through which the policy is shared with the co-located PDPs, null if the policy is not shared. */
+    private SharedPolicyStore sharedStore;
+
+    /** Parser of the policies read from the shared policy store. */
+    private BasicParserPool sharedStoreParserPool;
+
+    /** Sample of the recent requests, replayed against a new policy before it is published. */
+    private RequestShapeSampler requestSampler;
 
     /**
      * Constructor.
@@ -77,10 +112,43 @@ public class PolicyRepository {
      *            timer used to schedule policy refresh tasks
      */
     protected PolicyRepository(PDPConfiguration pdpConfig, Timer refreshTimer) {
+        this(pdpConfig, refreshTimer, DEFAULT_NAME);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param pdpConfig
+     *            configuration of the policy held by this repository
+     * @param refreshTimer
+     *            timer used to schedule policy refresh tasks
+     * @param name
+     *            unique name of the repository
+     */
+    protected PolicyRepository(PDPConfiguration pdpConfig, Timer refreshTimer,
+            String name) {
+        repositoryName= name;
         daemonConfig= pdpConfig;
         papClient= new PolicyAdministrationPointClient(pdpConfig);
 
         updatePolicyTimer= refreshTimer;
+        requestSampler= new RequestShapeSampler(pdpConfig.getPolicyWarmupRequests());
+
+        if (pdpConfig.getSharedPolicyStore() != null) {
+            sharedStore= new SharedPolicyStore(pdpConfig.getSharedPolicyStore(),
+                                               pdpConfig.isSharedPolicyStorePublisher(),
+                                               pdpConfig.getSharedPolicyStoreMaxSize() * 1024 * 1024);
+            if (!sharedStore.isPublisher()) {
+                sharedStoreParserPool= new BasicParserPool();
+                sharedStoreParserPool.setMaxPoolSize(1);
+                long pollInterval= pdpConfig.getSharedPolicyStorePollInterval() * 1000L;
+                updatePolicyTimer.scheduleAtFixedRate(new TimerTask() {
+                    public void run() {
+                        refreshPolicyFromSharedStore();
+                    }
+                }, pollInterval, pollInterval);
+            }
+        }
 
         long refreshInterval= pdpConfig.getPolicyRetentionInterval() * 60 * 1000;
         updatePolicyTimer.scheduleAtFixedRate(new TimerTask() {
@@ -130,12 +198,21 @@ public class PolicyRepository {
                                                          boolean createRepository) {
         PolicyRepository repo= REPO_INSTANCES.get(name);
         if (repo == null && createRepository) {
-            repo= new PolicyRepository(pdpConfig, backgroundTaskTimer);
+            repo= new PolicyRepository(pdpConfig, backgroundTaskTimer, name);
             REPO_INSTANCES.put(name, repo);
         }
         return repo;
     }
 
+    /**
+     * Gets all the instantiated policy repositories.
+     * 
+     * @return the instantiated policy repositories
+     */
+    public static synchronized Collection<PolicyRepository> instances() {
+        return new ArrayList<PolicyRepository>(REPO_INSTANCES.values());
+    }
+
     /**
      * Gets the unique name of the repository.
      * 
@@ -145,13 +222,47 @@ public class PolicyRepository {
         return repositoryName;
     }
 
+    /**
+     * Gets the metrics of this repository, which hold the information on its
+     * policy and the number of requests evaluated against it.
+     * 
+     * @return metrics of this repository
+     */
+    public PDPMetrics getMetrics() {
+        return (PDPMetrics) daemonConfig.getServiceMetrics();
+    }
+
     /**
      * Gets the policy held by this repository.
      * 
      * @return policy held by this repository
      */
     public PolicySetType getPolicy() {
-        return policySet;
+        PolicySnapshot snapshot= policySnapshot;
+        if (snapshot == null) {
+            return null;
+        }
+        return snapshot.getPolicySet();
+    }
+
+    /**
+     * Gets the snapshot of the policy held by this repository.
+     * 
+     * @return snapshot of the policy held by this repository, or null if the
+     *         policy has not been loaded yet
+     */
+    public PolicySnapshot getPolicySnapshot() {
+        return policySnapshot;
+    }
+
+    /**
+     * Gets the sample of the recent requests evaluated against the policy of
+     * this repository.
+     * 
+     * @return the sample of the recent requests
+     */
+    public RequestShapeSampler getRequestSampler() {
+        return requestSampler;
     }
 
     /**
@@ -160,26 +271,236 @@ public class PolicyRepository {
      * @return <code>true</code> if the policy have been loaded at least once.
      */
     public boolean isPolicyInitialized() {
-        return policySet != null;
+        return policySnapshot != null;
     }
 
-    /** Refresh the cache copy of the policy. */
+    /**
+     * Refresh the cache copy of the policy. A PDP subscribed to a shared policy
+     * store only queries the PAP if the publisher did not update the store
+     * within the last two policy retention intervals.
+     */
     public void refreshPolicy() {
+        synchronized (refreshLock) {
+            refreshPolicyFromPAP();
+        }
+    }
+
+    /**
+     * Refresh the cache copy of the policy, the caller holds the refresh lock.
+     */
+    private void refreshPolicyFromPAP() {
+        if (sharedStore != null && !sharedStore.isPublisher() && loadPolicyFromSharedStore()) {
+            return;
+        }
         try {
-            log.info("Refreshing XACML policy from remote PAPs");
-            org.opensaml.xacml.policy.PolicySetType policySetOM= papClient.retrievePolicySet();
+            if (daemonConfig.getPolicyName() != null) {
+                log.info("Refreshing XACML policy {} from remote PAPs", daemonConfig.getPolicyName());
+            } else {
+                log.info("Refreshing XACML policy from remote PAPs");
+            }
+            PolicySnapshot currentSnapshot= policySnapshot;
+            String currentVersion= currentSnapshot == null ? null : currentSnapshot.getPolicyVersion();
+            List<String> relayPath= new ArrayList<String>();
+            org.opensaml.xacml.policy.PolicySetType policySetOM= papClient.retrievePolicySet(currentVersion,
+                                                                                              relayPath);
             if (policySetOM != null) {
-                policySet= (PolicySetType) PolicyMarshaller.unmarshal(policySetOM.getDOM());
                 String policySetId= policySetOM.getPolicySetId();
                 String policyVersion= policySetOM.getVersion();
-                ((PDPMetrics) daemonConfig.getServiceMetrics()).updatePolicyInformation(policySetId, policyVersion);
-                log.info("Loaded version {} of policy {}", policyVersion, policySetId);
-                if (policyLog.isInfoEnabled()) {
-                    policyLog.info(XACMLUtil.marshall(policySet));
+                if (!relayPath.isEmpty()) {
+                    log.info("Version {} of policy {} was relayed by {}",
+                             new Object[] { policyVersion, policySetId, relayPath });
+                }
+                if (sharedStore != null && sharedStore.isPublisher()) {
+                    publishPolicy(policySetOM.getDOM(), relayPath, policyVersion, policySetId);
+                }
+                PolicySetType newPolicySet= unmarshalPolicy(policySetOM.getDOM(), policySetId, policyVersion);
+                // the DOM of the PAP response is no longer needed, let it be
+                // collected while the derived state is built
+                policySetOM.releaseParentDOM(true);
+                policySetOM.releaseChildrenDOM(true);
+                policySetOM.releaseDOM();
+                if (newPolicySet != null) {
+                    loadPolicy(newPolicySet, policySetId, policyVersion, relayPath);
                 }
             }
         } catch (Exception e) {
             log.error("Error refreshing policy from remote PAP, continuing to use existing policy.", e);
         }
     }
+
+    /**
+     * Refresh the cache copy of the policy from the shared policy store, if the
+     * publisher published a new policy.
+     * 
+     * @return true if the store holds a policy published within the last two
+     *         policy retention intervals, false if the PAP should be queried
+     */
+    private boolean refreshPolicyFromSharedStore() {
+        synchronized (refreshLock) {
+            return loadPolicyFromSharedStore();
+        }
+    }
+
+    /**
+     * Loads the policy from the shared policy store, the caller holds the
+     * refresh lock.
+     * 
+     * @return true if the store holds a policy published within the last two
+     *         policy retention intervals, false if the PAP should be queried
+     */
+    private boolean loadPolicyFromSharedStore() {
+        try {
+            byte[] policy= sharedStore.read();
+            if (policy != null) {
+                log.info("Refreshing XACML policy from generation {} of shared policy store {}",
+                         sharedStore.getGeneration(), daemonConfig.getSharedPolicyStore());
+                Element policySetElement= sharedStoreParserPool.parse(new ByteArrayInputStream(policy))
+                                                               .getDocumentElement();
+                String policySetId= policySetElement.getAttributeNS(null, "PolicySetId");
+                String policyVersion= policySetElement.getAttributeNS(null, "Version");
+                PolicySetType newPolicySet= unmarshalPolicy(policySetElement, policySetId, policyVersion);
+                if (newPolicySet != null) {
+                    loadPolicy(newPolicySet, policySetId, policyVersion, sharedStore.getRelayPath());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error refreshing policy from shared policy store, continuing to use existing policy.", e);
+            return false;
+        }
+        long maxAge= daemonConfig.getPolicyRetentionInterval() * 2 * 60 * 1000L;
+        return isPolicyInitialized() && sharedStore.getPublishTime() > System.currentTimeMillis() - maxAge;
+    }
+
+    /**
+     * Publishes a policy retrieved from the PAP into the shared policy store.
+     * A policy which can not be published is still loaded by this PDP.
+     * 
+     * @param policySetElement the policy set retrieved from the PAP
+     * @param relayPath entity IDs of the PDPs which relayed the policy set
+     * @param policyVersion version of the policy set
+     * @param policySetId ID of the policy set
+     */
+    private void publishPolicy(Element policySetElement, List<String> relayPath, String policyVersion,
+            String policySetId) {
+        try {
+            sharedStore.publish(XMLHelper.nodeToString(policySetElement).getBytes(StandardCharsets.UTF_8), relayPath);
+            log.info("Published version {} of policy {} as generation {} of shared policy store {}",
+                     new Object[] { policyVersion, policySetId, sharedStore.getGeneration(),
+                                   daemonConfig.getSharedPolicyStore() });
+        } catch (Exception e) {
+            log.error("Error publishing policy into shared policy store", e);
+        }
+    }
+
+    /**
+     * Unmarshalls a policy set.
+     * 
+     * @param policySetElement the policy set
+     * @param policySetId ID of the policy set
+     * @param policyVersion version of the policy set
+     * 
+     * @return the unmarshalled policy set, or null if it did not change since
+     *         the currently loaded one
+     * 
+     * @throws Exception thrown if the policy set can not be unmarshalled
+     */
+    private PolicySetType unmarshalPolicy(Element policySetElement, String policySetId, String policyVersion)
+            throws Exception {
+        if (!daemonConfig.isIncrementalPolicyUpdatesEnabled()) {
+            return (PolicySetType) PolicyMarshaller.unmarshal(policySetElement);
+        }
+        PolicySetType newPolicySet= deltaUnmarshaller.unmarshal(policySetElement);
+        PolicySnapshot currentSnapshot= policySnapshot;
+        if (currentSnapshot != null && currentSnapshot.getPolicySet() == newPolicySet) {
+            log.info("Version {} of policy {} did not change", policyVersion, policySetId);
+            return null;
+        }
+        log.debug("Unmarshalled {} changed policies of version {} of policy {}, reused {}",
+                  new Object[] { deltaUnmarshaller.getUnmarshalledPolicies(), policyVersion,
+                                policySetId, deltaUnmarshaller.getReusedPolicies() });
+        return newPolicySet;
+    }
+
+    /**
+     * Builds the state derived from a newly unmarshalled policy set and
+     * publishes its snapshot.
+     * 
+     * @param newPolicySet the policy set
+     * @param policySetId ID of the policy set
+     * @param policyVersion version of the policy set
+     * @param relayPath entity IDs of the PDPs which relayed the policy set
+     */
+    private void loadPolicy(PolicySetType newPolicySet, String policySetId, String policyVersion,
+            List<String> relayPath) {
+        PDPMetrics metrics= (PDPMetrics) daemonConfig.getServiceMetrics();
+        if (daemonConfig.isPolicyOptimizationEnabled()) {
+            PolicyOptimizer optimizer= new PolicyOptimizer();
+            optimizer.optimize(newPolicySet);
+            log.info("Optimized version {} of policy {}: {} nodes removed, {} unreachable rules",
+                     new Object[] { policyVersion, policySetId, optimizer.getRemovedNodes(),
+                                   optimizer.getUnreachableRules() });
+            metrics.updatePolicyOptimizationInformation(optimizer.getRemovedNodes(),
+                                                        optimizer.getUnreachableRules());
+        }
+        AttributeDictionary dictionary= AttributeDictionary.build(newPolicySet);
+        log.debug("Built attribute dictionary of {} entries for version {} of policy {}",
+                  new Object[] { dictionary.size(), policyVersion, policySetId });
+        ApplicabilityFilter applicabilityFilter= ApplicabilityFilter.build(newPolicySet);
+        if (applicabilityFilter.isEffective()) {
+            log.debug("Built applicability filter of {} values for version {} of policy {}",
+                      new Object[] { applicabilityFilter.getValues(), policyVersion, policySetId });
+        } else {
+            log.debug("Version {} of policy {} may apply to any request, no applicability filter",
+                      policyVersion, policySetId);
+            applicabilityFilter= null;
+        }
+        X500NameCollector x500Names= new X500NameCollector();
+        x500Names.walk(newPolicySet);
+        X500NameCache.getInstance().pin(repositoryName, x500Names.names);
+        if (daemonConfig.isPolicyFootprintEnabled()) {
+            PolicyFootprint footprint= new PolicyFootprint();
+            long policySize= footprint.estimate(newPolicySet);
+            log.debug("Version {} of policy {} retains about {} bytes in {} objects",
+                      new Object[] { policyVersion, policySetId, policySize, footprint.getObjects() });
+            metrics.updatePolicyFootprint(policySize);
+        }
+        PrecomputedObligations obligations= PrecomputedObligations.build(newPolicySet);
+        log.debug("Converted {} obligations of version {} of policy {}",
+                  new Object[] { obligations.size(), policyVersion, policySetId });
+        PolicySnapshot snapshot= new PolicySnapshot(newPolicySet, policySetId, policyVersion, dictionary, relayPath,
+                                                    applicabilityFilter, obligations);
+        if (requestSampler.size() > 0) {
+            long warmupStart= System.currentTimeMillis();
+            int replayed= requestSampler.replay(snapshot);
+            log.debug("Warmed up version {} of policy {} with {} recent requests in {}ms",
+                      new Object[] { policyVersion, policySetId, replayed,
+                                    System.currentTimeMillis() - warmupStart });
+        }
+        policySnapshot= snapshot;
+        metrics.updatePolicyInformation(policySetId, policyVersion);
+        log.info("Loaded version {} of policy {}", policyVersion, policySetId);
+        if (policyLog.isInfoEnabled()) {
+            policyLog.info(snapshot.getMarshalledPolicySet());
+        }
+    }
+
+    /** Collects the x500Name literals of a policy, so that they are parsed once when the policy is loaded. */
+    private static class X500NameCollector extends PolicyVisitor {
+
+        /** The collected names. */
+        private final List<String> names= new ArrayList<String>();
+
+        /** {@inheritDoc} */
+        protected void visitAttributeValue(AttributeValueType attributeValue) {
+            if (attributeValue.getDataType() == null
+                    || !X500DataTypeAttribute.ID.equals(attributeValue.getDataType().getDatatypeURI())) {
+                return;
+            }
+            for (Object value : attributeValue.getContent()) {
+                if (value instanceof String) {
+                    names.add((String) value);
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+
+/**
+ * A loaded version of a policy set together with the state derived from it at
+ * load time. A snapshot is never modified once published by the
+ * {@link PolicyRepository}, a policy refresh publishes a new snapshot.
+ */
+@ThreadSafe
+public class PolicySnapshot {
+
+    /** The policy set. */
+    private final PolicySetType policySet;
+
+    /** ID of the policy set. */
+    private final String policySetId;
+
+    /** Version of the policy set. */
+    private final String policyVersion;
+
+    /** Dictionary of the attributes of the policy set. */
+    private final AttributeDictionary dictionary;
+
+    /** Entity IDs of the PDPs which relayed the policy set from the PAP, in relay order. */
+    private final List<String> relayPath;
+
+    /** Filter of the requests to which the policy set is not applicable, may be null. */
+    private final ApplicabilityFilter applicabilityFilter;
+
+    /** OpenSAML form of the obligations of the policy set, may be null. */
+    private final PrecomputedObligations precomputedObligations;
+
+    /** Marshalled form of the policy set, created the first time it is needed. */
+    private volatile String marshalledPolicySet;
+
+    /** Whether the marshalled form of the policy set has been logged already. */
+    private final AtomicBoolean policySetLogged = new AtomicBoolean(false);
+
+    /**
+     * Constructor.
+     *
+     * @param policy the policy set
+     * @param id ID of the policy set
+     * @param version version of the policy set
+     * @param attributeDictionary dictionary of the attributes of the policy set
+     */
+    public PolicySnapshot(PolicySetType policy, String id, String version, AttributeDictionary attributeDictionary) {
+        this(policy, id, version, attributeDictionary, Collections.<String> emptyList());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param policy the policy set
+     * @param id ID of the policy set
+     * @param version version of the policy set
+     * @param attributeDictionary dictionary of the attributes of the policy set
+     * @param relayedBy entity IDs of the PDPs which relayed the policy set from the PAP, in relay order
+     */
+    public PolicySnapshot(PolicySetType policy, String id, String version, AttributeDictionary attributeDictionary,
+            List<String> relayedBy) {
+        this(policy, id, version, attributeDictionary, relayedBy, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param policy the policy set
+     * @param id ID of the policy set
+     * @param version version of the policy set
+     * @param attributeDictionary dictionary of the attributes of the policy set
+     * @param relayedBy entity IDs of the PDPs which relayed the policy set from the PAP, in relay order
+     * @param filter filter of the requests to which the policy set is not applicable, may be null
+     */
+    public PolicySnapshot(PolicySetType policy, String id, String version, AttributeDictionary attributeDictionary,
+            List<String> relayedBy, ApplicabilityFilter filter) {
+        this(policy, id, version, attributeDictionary, relayedBy, filter, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param policy the policy set
+     * @param id ID of the policy set
+     * @param version version of the policy set
+     * @param attributeDictionary dictionary of the attributes of the policy set
+     * @param relayedBy entity IDs of the PDPs which relayed the policy set from the PAP, in relay order
+     * @param filter filter of the requests to which the policy set is not applicable, may be null
+     * @param obligations OpenSAML form of the obligations of the policy set, may be null
+     */
+    public PolicySnapshot(PolicySetType policy, String id, String version, AttributeDictionary attributeDictionary,
+            List<String> relayedBy, ApplicabilityFilter filter, PrecomputedObligations obligations) {
+        policySet = policy;
+        policySetId = id;
+        policyVersion = version;
+        dictionary = attributeDictionary;
+        relayPath = Collections.unmodifiableList(relayedBy);
+        applicabilityFilter = filter;
+        precomputedObligations = obligations;
+    }
+
+    /**
+     * Gets the policy set.
+     *
+     * @return the policy set
+     */
+    public PolicySetType getPolicySet() {
+        return policySet;
+    }
+
+    /**
+     * Gets the ID of the policy set.
+     *
+     * @return ID of the policy set
+     */
+    public String getPolicySetId() {
+        return policySetId;
+    }
+
+    /**
+     * Gets the version of the policy set.
+     *
+     * @return version of the policy set
+     */
+    public String getPolicyVersion() {
+        return policyVersion;
+    }
+
+    /**
+     * Gets the dictionary of the attributes of the policy set.
+     *
+     * @return dictionary of the attributes of the policy set
+     */
+    public AttributeDictionary getAttributeDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Gets the entity IDs of the PDPs which relayed the policy set from the PAP.
+     *
+     * @return entity IDs of the PDPs which relayed the policy set, in relay order, empty if the policy set was
+     *         retrieved from the PAP
+     */
+    public List<String> getRelayPath() {
+        return relayPath;
+    }
+
+    /**
+     * Gets the filter of the requests to which the policy set is not applicable.
+     *
+     * @return filter of the requests to which the policy set is not applicable, or null if there is none
+     */
+    public ApplicabilityFilter getApplicabilityFilter() {
+        return applicabilityFilter;
+    }
+
+    /**
+     * Gets the OpenSAML form of the obligations of the policy set.
+     *
+     * @return OpenSAML form of the obligations of the policy set, or null if they were not converted
+     */
+    public PrecomputedObligations getPrecomputedObligations() {
+        return precomputedObligations;
+    }
+
+    /**
+     * Gets the marshalled form of the policy set. The policy set is marshalled
+     * once, the first time this method is called, and the result is reused for
+     * the lifetime of the snapshot.
+     *
+     * @return the marshalled form of the policy set, or null if it could not be
+     *         marshalled
+     */
+    public String getMarshalledPolicySet() {
+        String marshalled = marshalledPolicySet;
+        if (marshalled == null) {
+            synchronized (this) {
+                marshalled = marshalledPolicySet;
+                if (marshalled == null) {
+                    marshalled = XACMLUtil.marshall(policySet);
+                    marshalledPolicySet = marshalled;
+                }
+            }
+        }
+        return marshalled;
+    }
+
+    /**
+     * Marks the marshalled form of the policy set as logged.
+     *
+     * @return true if this is the first call for this snapshot, in which case the
+     *         caller should log the marshalled policy set, false otherwise
+     */
+    public boolean markPolicySetLogged() {
+        return policySetLogged.compareAndSet(false, true);
+    }
+}
\ No newline at end of file
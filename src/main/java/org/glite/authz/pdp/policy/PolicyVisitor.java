@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+
+import org.herasaf.xacml.core.policy.Evaluatable;
+import org.herasaf.xacml.core.policy.impl.ActionType;
+import org.herasaf.xacml.core.policy.impl.ActionsType;
+import org.herasaf.xacml.core.policy.impl.ApplyType;
+import org.herasaf.xacml.core.policy.impl.AttributeDesignatorType;
+import org.herasaf.xacml.core.policy.impl.AttributeValueType;
+import org.herasaf.xacml.core.policy.impl.EnvironmentType;
+import org.herasaf.xacml.core.policy.impl.EnvironmentsType;
+import org.herasaf.xacml.core.policy.impl.MatchType;
+import org.herasaf.xacml.core.policy.impl.ObligationType;
+import org.herasaf.xacml.core.policy.impl.ObligationsType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.policy.impl.PolicyType;
+import org.herasaf.xacml.core.policy.impl.ResourceType;
+import org.herasaf.xacml.core.policy.impl.ResourcesType;
+import org.herasaf.xacml.core.policy.impl.RuleType;
+import org.herasaf.xacml.core.policy.impl.SubjectType;
+import org.herasaf.xacml.core.policy.impl.SubjectsType;
+import org.herasaf.xacml.core.policy.impl.TargetType;
+
+/**
+ * Depth-first walker of a HERAS-AF policy set. Subclasses override the visit
+ * methods for the policy elements they are interested in, the default
+ * implementations do nothing.
+ * <p>
+ * Policy sets, policies and rules are visited in document order, before their
+ * targets, and their targets before their children.
+ */
+public abstract class PolicyVisitor {
+
+    /**
+     * Walks the given policy set and all its descendants.
+     *
+     * @param policySet the policy set to walk
+     */
+    public void walk(PolicySetType policySet) {
+        if (policySet != null) {
+            walkPolicySet(policySet);
+        }
+    }
+
+    /**
+     * Called for each policy set.
+     *
+     * @param policySet the policy set
+     */
+    protected void visitPolicySet(PolicySetType policySet) {
+    }
+
+    /**
+     * Called for each policy.
+     *
+     * @param policy the policy
+     */
+    protected void visitPolicy(PolicyType policy) {
+    }
+
+    /**
+     * Called for each rule.
+     *
+     * @param rule the rule
+     */
+    protected void visitRule(RuleType rule) {
+    }
+
+    /**
+     * Called for each subject, resource, action and environment match of a
+     * target.
+     *
+     * @param match the match
+     */
+    protected void visitMatch(MatchType match) {
+    }
+
+    /**
+     * Called for each literal value, within targets and conditions.
+     *
+     * @param attributeValue the literal value
+     */
+    protected void visitAttributeValue(AttributeValueType attributeValue) {
+    }
+
+    /**
+     * Called for each attribute designator, within targets and conditions.
+     *
+     * @param designator the attribute designator
+     */
+    protected void visitAttributeDesignator(AttributeDesignatorType designator) {
+    }
+
+    /**
+     * Called for each obligation of a policy set or policy.
+     *
+     * @param obligation the obligation
+     */
+    protected void visitObligation(ObligationType obligation) {
+    }
+
+    /**
+     * Walks a policy set.
+     *
+     * @param policySet the policy set
+     */
+    private void walkPolicySet(PolicySetType policySet) {
+        visitPolicySet(policySet);
+        walkTarget(policySet.getTarget());
+        List<Evaluatable> children = policySet.getOrderedEvaluatables();
+        if (children != null) {
+            for (Evaluatable child : children) {
+                if (child instanceof PolicySetType) {
+                    walkPolicySet((PolicySetType) child);
+                } else if (child instanceof PolicyType) {
+                    walkPolicy((PolicyType) child);
+                }
+            }
+        }
+        walkObligations(policySet.getObligations());
+    }
+
+    /**
+     * Walks a policy.
+     *
+     * @param policy the policy
+     */
+    private void walkPolicy(PolicyType policy) {
+        visitPolicy(policy);
+        walkTarget(policy.getTarget());
+        List<RuleType> rules = policy.getOrderedRules();
+        if (rules != null) {
+            for (RuleType rule : rules) {
+                visitRule(rule);
+                walkTarget(rule.getTarget());
+                if (rule.getCondition() != null) {
+                    walkExpression(rule.getCondition().getExpression());
+                }
+            }
+        }
+        walkObligations(policy.getObligations());
+    }
+
+    /**
+     * Walks a target.
+     *
+     * @param target the target
+     */
+    private void walkTarget(TargetType target) {
+        if (target == null) {
+            return;
+        }
+
+        SubjectsType subjects = target.getSubjects();
+        if (subjects != null) {
+            for (SubjectType subject : subjects.getSubjects()) {
+                walkMatches(subject.getSubjectMatches());
+            }
+        }
+
+        ResourcesType resources = target.getResources();
+        if (resources != null) {
+            for (ResourceType resource : resources.getResources()) {
+                walkMatches(resource.getResourceMatches());
+            }
+        }
+
+        ActionsType actions = target.getActions();
+        if (actions != null) {
+            for (ActionType action : actions.getActions()) {
+                walkMatches(action.getActionMatches());
+            }
+        }
+
+        EnvironmentsType environments = target.getEnvironments();
+        if (environments != null) {
+            for (EnvironmentType environment : environments.getEnvironments()) {
+                walkMatches(environment.getEnvironmentMatches());
+            }
+        }
+    }
+
+    /**
+     * Walks the matches of a target section.
+     *
+     * @param matches the matches
+     */
+    private void walkMatches(List<? extends MatchType> matches) {
+        if (matches == null) {
+            return;
+        }
+        for (MatchType match : matches) {
+            visitMatch(match);
+            if (match.getAttributeValue() != null) {
+                visitAttributeValue(match.getAttributeValue());
+            }
+            if (match.getAttributeDesignator() != null) {
+                visitAttributeDesignator(match.getAttributeDesignator());
+            }
+        }
+    }
+
+    /**
+     * Walks a condition expression.
+     *
+     * @param expression the expression
+     */
+    private void walkExpression(JAXBElement<?> expression) {
+        if (expression == null) {
+            return;
+        }
+        Object value = expression.getValue();
+        if (value instanceof AttributeValueType) {
+            visitAttributeValue((AttributeValueType) value);
+        } else if (value instanceof AttributeDesignatorType) {
+            visitAttributeDesignator((AttributeDesignatorType) value);
+        } else if (value instanceof ApplyType) {
+            List<JAXBElement<?>> arguments = ((ApplyType) value).getExpressions();
+            if (arguments != null) {
+                for (JAXBElement<?> argument : arguments) {
+                    walkExpression(argument);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks obligations.
+     *
+     * @param obligations the obligations
+     */
+    private void walkObligations(ObligationsType obligations) {
+        if (obligations == null || obligations.getObligations() == null) {
+            return;
+        }
+        for (ObligationType obligation : obligations.getObligations()) {
+            visitObligation(obligation);
+        }
+    }
+}
\ No newline at end of file
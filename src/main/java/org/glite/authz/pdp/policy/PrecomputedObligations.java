@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.IdentityHashMap;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.herasaf.xacml.core.policy.impl.ObligationType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+
+/**
+ * The OpenSAML form of the obligations of a loaded policy set.
+ * <p>
+ * Obligations and their attribute assignments are static parts of the policy,
+ * so each one is converted once, when the policy is loaded, rather than for
+ * each response returning it. The converted obligations are kept as
+ * prototypes which are never added to a response: OpenSAML objects have a
+ * single parent and the obligation handlers may modify the obligations of a
+ * response, so each response gets its own copy of the prototype, made without
+ * going back to the HERAS-AF policy objects.
+ * <p>
+ * The obligations are looked up by identity, as HERAS-AF returns the
+ * obligation objects of the evaluated policy set.
+ */
+@ThreadSafe
+public class PrecomputedObligations {
+
+    /** Converted obligations, indexed by the HERAS-AF obligation they were converted from. */
+    private final IdentityHashMap<ObligationType, org.opensaml.xacml.policy.ObligationType> obligations;
+
+    /**
+     * Constructor.
+     *
+     * @param convertedObligations converted obligations, indexed by the HERAS-AF obligation they were converted from
+     */
+    private PrecomputedObligations(
+            IdentityHashMap<ObligationType, org.opensaml.xacml.policy.ObligationType> convertedObligations) {
+        obligations = convertedObligations;
+    }
+
+    /**
+     * Converts the obligations of a policy set.
+     *
+     * @param policySet the policy set
+     *
+     * @return the converted obligations of the policy set
+     */
+    public static PrecomputedObligations build(PolicySetType policySet) {
+        final IdentityHashMap<ObligationType, org.opensaml.xacml.policy.ObligationType> convertedObligations =
+                new IdentityHashMap<ObligationType, org.opensaml.xacml.policy.ObligationType>();
+        new PolicyVisitor() {
+            protected void visitObligation(ObligationType obligation) {
+                if (obligation != null && !convertedObligations.containsKey(obligation)) {
+                    convertedObligations.put(obligation, XACMLUtil.buildObligation(obligation));
+                }
+            }
+        }.walk(policySet);
+        return new PrecomputedObligations(convertedObligations);
+    }
+
+    /**
+     * Gets the number of converted obligations.
+     *
+     * @return number of converted obligations
+     */
+    public int size() {
+        return obligations.size();
+    }
+
+    /**
+     * Gets a copy, which may be added to a response, of the OpenSAML form of a
+     * policy set obligation.
+     *
+     * @param herasObligation obligation of the policy set
+     *
+     * @return the copy of the converted obligation, or null if the obligation
+     *         is not one of the policy set
+     */
+    public org.opensaml.xacml.policy.ObligationType getObligation(ObligationType herasObligation) {
+        org.opensaml.xacml.policy.ObligationType prototype = obligations.get(herasObligation);
+        if (prototype == null) {
+            return null;
+        }
+        return XACMLUtil.copyObligation(prototype);
+    }
+}
\ No newline at end of file
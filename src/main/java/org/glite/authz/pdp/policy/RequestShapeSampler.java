@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.ManagedCache;
+
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.AttributeType;
+import org.herasaf.xacml.core.context.impl.AttributeValueType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.context.impl.ResourceType;
+import org.herasaf.xacml.core.context.impl.SubjectType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.targetMatcher.TargetMatcher;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a bounded sample of the recent distinct requests evaluated against a
+ * policy, and replays them against a newly loaded version of the policy before
+ * it is published, so that the first requests evaluated against it do not pay
+ * for the JIT compilation and the cold caches of its evaluation paths.
+ * <p>
+ * One request out of {@value #SAMPLE_INTERVAL} is sampled. Two requests have
+ * the same shape, and only the most recent one is kept, if they carry the same
+ * attributes with the same values. The oldest shape is dropped when the sample
+ * is full. The replayed evaluations are discarded.
+ */
+@ThreadSafe
+public class RequestShapeSampler implements ManagedCache {
+
+    /** Default maximum number of sampled requests, {@value} . */
+    public static final int DEFAULT_MAX_SIZE = 64;
+
+    /** Number of requests per sampled request, {@value} . */
+    public static final int SAMPLE_INTERVAL = 16;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(RequestShapeSampler.class);
+
+    /** Maximum number of sampled requests. */
+    private volatile int maxSize;
+
+    /** Number of requests offered to the sampler. */
+    private final AtomicLong requests = new AtomicLong();
+
+    /** Sampled requests, by shape, from the least to the most recent. */
+    private final LinkedHashMap<String, RequestType> samples = new LinkedHashMap<String, RequestType>();
+
+    /** Lock held while the sampled requests are replayed, which modifies them. */
+    private final Object replayLock = new Object();
+
+    /**
+     * Constructor.
+     * 
+     * @param maxSampledRequests maximum number of sampled requests, 0 disables the sampling
+     */
+    public RequestShapeSampler(int maxSampledRequests) {
+        maxSize = Math.max(0, maxSampledRequests);
+    }
+
+    /**
+     * Offers an evaluated request to the sampler. The request must not be
+     * modified afterwards.
+     * 
+     * @param request the request
+     */
+    public void sample(RequestType request) {
+        if (maxSize == 0 || request == null || requests.incrementAndGet() % SAMPLE_INTERVAL != 0) {
+            return;
+        }
+        String shape = shapeOf(request);
+        synchronized (samples) {
+            samples.remove(shape);
+            samples.put(shape, request);
+            while (samples.size() > maxSize) {
+                Iterator<String> eldest = samples.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of sampled requests.
+     * 
+     * @return number of sampled requests
+     */
+    public int size() {
+        synchronized (samples) {
+            return samples.size();
+        }
+    }
+
+    /**
+     * Gets the maximum number of sampled requests.
+     * 
+     * @return maximum number of sampled requests
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of sampled requests. The oldest sampled requests
+     * over the new maximum are dropped.
+     * 
+     * @param maximumSize maximum number of sampled requests, 0 disables the sampling
+     */
+    public void setMaxSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Maximum number of sampled requests may not be negative");
+        }
+        synchronized (samples) {
+            maxSize = maximumSize;
+            while (samples.size() > maximumSize) {
+                Iterator<String> eldest = samples.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Drops all the sampled requests. */
+    public void clear() {
+        synchronized (samples) {
+            samples.clear();
+        }
+    }
+
+    /**
+     * Evaluates the sampled requests against a policy snapshot which is not
+     * published yet, or against the current one, the way the authorization
+     * request servlet does. Replays are serialized.
+     * 
+     * @param snapshot the policy snapshot
+     * 
+     * @return the number of replayed requests
+     */
+    public int replay(PolicySnapshot snapshot) {
+        List<RequestType> replayed;
+        synchronized (samples) {
+            replayed = new ArrayList<RequestType>(samples.values());
+        }
+        if (replayed.isEmpty()) {
+            return 0;
+        }
+
+        PolicySetType policySet = snapshot.getPolicySet();
+        TargetMatcher targetMatcher = new TargetMatcherImpl();
+        StatusCodeComparator statusCodeComparator = new StatusCodeComparator();
+        synchronized (replayLock) {
+            for (RequestType request : replayed) {
+                try {
+                    if (snapshot.getAttributeDictionary() != null) {
+                        snapshot.getAttributeDictionary().encode(request);
+                    }
+                    if (snapshot.getApplicabilityFilter() != null
+                            && snapshot.getApplicabilityFilter().isNotApplicable(request)) {
+                        continue;
+                    }
+                    policySet.getCombiningAlg().evaluate(request, policySet,
+                            new EvaluationContext(targetMatcher, statusCodeComparator));
+                } catch (Exception e) {
+                    // the same request may fail against the published policy, it is not a warm-up concern
+                    log.debug("Replay of a sampled request against version " + snapshot.getPolicyVersion()
+                            + " of policy " + snapshot.getPolicySetId() + " failed", e);
+                }
+            }
+        }
+        return replayed.size();
+    }
+
+    /**
+     * Computes the shape of a request: its attribute IDs and values, by
+     * category.
+     * 
+     * @param request the request
+     * 
+     * @return the shape of the request
+     */
+    private String shapeOf(RequestType request) {
+        StringBuilder shape = new StringBuilder(256);
+        if (request.getSubjects() != null) {
+            for (SubjectType subject : request.getSubjects()) {
+                appendAttributes(shape.append('S'), subject.getAttributes());
+            }
+        }
+        if (request.getResources() != null) {
+            for (ResourceType resource : request.getResources()) {
+                appendAttributes(shape.append('R'), resource.getAttributes());
+            }
+        }
+        if (request.getAction() != null) {
+            appendAttributes(shape.append('A'), request.getAction().getAttributes());
+        }
+        if (request.getEnvironment() != null) {
+            appendAttributes(shape.append('E'), request.getEnvironment().getAttributes());
+        }
+        return shape.toString();
+    }
+
+    /**
+     * Appends the IDs and values of attributes to the shape of a request.
+     * 
+     * @param shape the shape of the request
+     * @param attributes the attributes
+     */
+    private void appendAttributes(StringBuilder shape, List<AttributeType> attributes) {
+        if (attributes == null) {
+            return;
+        }
+        for (AttributeType attribute : attributes) {
+            shape.append('\u0000').append(attribute.getAttributeId());
+            if (attribute.getAttributeValues() != null) {
+                for (AttributeValueType attributeValue : attribute.getAttributeValues()) {
+                    shape.append('\u0001').append(attributeValue.getContent());
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
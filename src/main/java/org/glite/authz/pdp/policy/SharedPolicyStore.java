@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A policy shared through a memory-mapped file by the PDPs running on the same
+ * host. One PDP, the publisher, writes each policy it retrieves from its PAPs
+ * into the file, together with the relay path of the policy; the other PDPs map
+ * the file read-only and load the policy from there instead of querying the
+ * PAPs.
+ * <p>
+ * The file starts with a header followed by two slots of equal capacity. Each
+ * publication gets the next generation number and is written in the slot of
+ * the parity of its generation, that is the slot not read by the subscribers,
+ * before the generation in the header is switched to it by a single aligned
+ * 64-bit write. A subscriber copies the slot of the current generation and
+ * keeps the copy only if the slot still holds that generation, the header did
+ * not move two generations further, which would mean the slot was reused
+ * meanwhile, and the checksum of the copy matches.
+ * <p>
+ * A publisher reuses an existing store file, and its capacity, so that the
+ * subscribers keep a valid mapping when the publisher is restarted. Each use
+ * of the store checks whether the file was removed or replaced, by comparing
+ * its file key (the device and inode on Unix) with the one of the mapped file,
+ * and maps the new file once it is initialized. The capacity of a store is thus
+ * changed by removing the file: the publisher creates a new one at its next
+ * publication and the subscribers follow it.
+ */
+@ThreadSafe
+public class SharedPolicyStore {
+
+    /** Magic number of a shared policy store file, "XPS1". */
+    private static final int MAGIC = 0x58505331;
+
+    /** Version of the file format. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** Offset of the magic number in the header. */
+    private static final int MAGIC_OFFSET = 0;
+
+    /** Offset of the format version in the header. */
+    private static final int FORMAT_VERSION_OFFSET = 4;
+
+    /** Offset of the slot capacity in the header. */
+    private static final int CAPACITY_OFFSET = 8;
+
+    /** Offset of the current generation in the header, aligned on 8 bytes. */
+    private static final int GENERATION_OFFSET = 16;
+
+    /** Size of the header. */
+    private static final int HEADER_SIZE = 64;
+
+    /** Offset of the generation in a slot. */
+    private static final int SLOT_GENERATION_OFFSET = 0;
+
+    /** Offset of the publication time in a slot. */
+    private static final int SLOT_TIME_OFFSET = 8;
+
+    /** Offset of the policy length in a slot. */
+    private static final int SLOT_LENGTH_OFFSET = 16;
+
+    /** Offset of the checksum of the policy and relay path in a slot. */
+    private static final int SLOT_CHECKSUM_OFFSET = 20;
+
+    /** Offset of the relay path length in a slot. */
+    private static final int SLOT_PATH_LENGTH_OFFSET = 24;
+
+    /** Size of the slot header, after which the policy and its relay path are written. */
+    private static final int SLOT_HEADER_SIZE = 32;
+
+    /** Number of attempts to copy a policy the publisher is overwriting. */
+    private static final int READ_ATTEMPTS = 3;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(SharedPolicyStore.class);
+
+    /** The store file. */
+    private final File storeFile;
+
+    /** Whether this store is opened by the publisher. */
+    private final boolean publisher;
+
+    /** Capacity of a slot for a newly created store file. */
+    private final int requestedCapacity;
+
+    /** The mapped store file, null until the file is mapped. */
+    private MappedByteBuffer buffer;
+
+    /** Key of the mapped store file, null if the file system provides no file keys. */
+    private Object mappedFileKey;
+
+    /** Capacity of a slot of the mapped store file. */
+    private int capacity;
+
+    /** Generation of the last policy published or read. */
+    private long generation;
+
+    /** Time the last policy published or read was published. */
+    private long publishTime;
+
+    /** Relay path of the last policy published or read. */
+    private List<String> relayPath = Collections.emptyList();
+
+    /**
+     * Constructor. The store file is mapped when it is first used.
+     * 
+     * @param file path of the store file
+     * @param publish whether this PDP publishes policies into the store, or reads them from it
+     * @param maxPolicySize maximum size, in bytes, of a policy if the store file is created
+     */
+    public SharedPolicyStore(String file, boolean publish, int maxPolicySize) {
+        storeFile = new File(file);
+        publisher = publish;
+        requestedCapacity = maxPolicySize;
+    }
+
+    /**
+     * Gets whether this store is opened by the publisher.
+     * 
+     * @return whether this store is opened by the publisher
+     */
+    public boolean isPublisher() {
+        return publisher;
+    }
+
+    /**
+     * Gets the generation of the last policy published or read.
+     * 
+     * @return generation of the last policy published or read, 0 if none
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Gets the time the last policy published or read was published.
+     * 
+     * @return time, in milliseconds since the epoch, the last policy published or read was published, 0 if none
+     */
+    public synchronized long getPublishTime() {
+        return publishTime;
+    }
+
+    /**
+     * Gets the relay path of the last policy published or read.
+     * 
+     * @return entity IDs of the PDPs which relayed the last policy published or read, empty if none
+     */
+    public synchronized List<String> getRelayPath() {
+        return relayPath;
+    }
+
+    /**
+     * Publishes a policy into the store.
+     * 
+     * @param policy the policy
+     * @param policyRelayPath entity IDs of the PDPs which relayed the policy, empty if it comes from a PAP
+     * 
+     * @throws IOException thrown if the store file can not be mapped or the policy does not fit in it
+     */
+    public synchronized void publish(byte[] policy, List<String> policyRelayPath) throws IOException {
+        if (!publisher) {
+            throw new IllegalStateException("Shared policy store " + storeFile + " is not opened by the publisher");
+        }
+        if (!map()) {
+            throw new IOException("Unable to map shared policy store " + storeFile);
+        }
+        StringBuilder pathString = new StringBuilder();
+        for (String entityId : policyRelayPath) {
+            pathString.append(entityId).append(' ');
+        }
+        byte[] path = pathString.toString().trim().getBytes(StandardCharsets.UTF_8);
+        if (policy.length + path.length > capacity) {
+            throw new IOException("Policy of " + policy.length + " bytes does not fit in the " + capacity
+                    + " bytes of shared policy store " + storeFile);
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(policy);
+        checksum.update(path);
+        long nextGeneration = buffer.getLong(GENERATION_OFFSET) + 1;
+        long now = System.currentTimeMillis();
+        int slot = slotOffset(nextGeneration);
+        buffer.putLong(slot + SLOT_GENERATION_OFFSET, nextGeneration);
+        buffer.putLong(slot + SLOT_TIME_OFFSET, now);
+        buffer.putInt(slot + SLOT_LENGTH_OFFSET, policy.length);
+        buffer.putInt(slot + SLOT_CHECKSUM_OFFSET, (int) checksum.getValue());
+        buffer.putInt(slot + SLOT_PATH_LENGTH_OFFSET, path.length);
+        ByteBuffer data = buffer.duplicate();
+        data.position(slot + SLOT_HEADER_SIZE);
+        data.put(policy);
+        data.put(path);
+        buffer.putLong(GENERATION_OFFSET, nextGeneration);
+
+        generation = nextGeneration;
+        publishTime = now;
+        relayPath = new ArrayList<String>(policyRelayPath);
+        log.debug("Published generation {} of {} bytes into shared policy store {}",
+                new Object[] { nextGeneration, policy.length, storeFile });
+    }
+
+    /**
+     * Reads the current policy of the store, if it was published after the last one read.
+     * 
+     * @return the policy, or null if the store holds no policy, or no policy newer than the last one read, or if
+     *         the publisher kept overwriting the policy while it was copied
+     * 
+     * @throws IOException thrown if the store file is not a shared policy store
+     */
+    public synchronized byte[] read() throws IOException {
+        if (publisher) {
+            throw new IllegalStateException("Shared policy store " + storeFile + " is opened by the publisher");
+        }
+        if (!map()) {
+            return null;
+        }
+
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            long current = buffer.getLong(GENERATION_OFFSET);
+            if (current == 0 || current == generation) {
+                return null;
+            }
+            int slot = slotOffset(current);
+            long time = buffer.getLong(slot + SLOT_TIME_OFFSET);
+            int length = buffer.getInt(slot + SLOT_LENGTH_OFFSET);
+            int expectedChecksum = buffer.getInt(slot + SLOT_CHECKSUM_OFFSET);
+            int pathLength = buffer.getInt(slot + SLOT_PATH_LENGTH_OFFSET);
+            if (length < 0 || pathLength < 0 || length + pathLength > capacity) {
+                continue;
+            }
+            byte[] policy = new byte[length];
+            byte[] path = new byte[pathLength];
+            ByteBuffer data = buffer.duplicate();
+            data.position(slot + SLOT_HEADER_SIZE);
+            data.get(policy);
+            data.get(path);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(policy);
+            checksum.update(path);
+            if (buffer.getLong(slot + SLOT_GENERATION_OFFSET) != current
+                    || buffer.getLong(GENERATION_OFFSET) > current + 1
+                    || (int) checksum.getValue() != expectedChecksum) {
+                log.debug("Generation {} of shared policy store {} was overwritten while read", current, storeFile);
+                continue;
+            }
+            generation = current;
+            publishTime = time;
+            relayPath = new ArrayList<String>();
+            for (String entityId : new String(path, StandardCharsets.UTF_8).split(" ")) {
+                if (entityId.length() > 0) {
+                    relayPath.add(entityId);
+                }
+            }
+            return policy;
+        }
+        return null;
+    }
+
+    /**
+     * Maps the store file if it is not mapped yet. The publisher creates the file if it does not exist, a subscriber
+     * waits for the publisher to create it.
+     * 
+     * @return true if the store file is mapped, false if a subscriber found no store file yet
+     * 
+     * @throws IOException thrown if the store file can not be created or is not a shared policy store
+     */
+    private boolean map() throws IOException {
+        if (buffer != null) {
+            if (isMappedFile()) {
+                return true;
+            }
+            log.info("Shared policy store {} was removed or replaced, mapping it again", storeFile);
+            buffer = null;
+            mappedFileKey = null;
+            // the generations of the new file are unrelated to the ones of the mapped file
+            generation = 0;
+        }
+
+        RandomAccessFile file;
+        if (publisher) {
+            file = new RandomAccessFile(storeFile, "rw");
+        } else {
+            if (!storeFile.exists()) {
+                log.debug("Shared policy store {} does not exist yet", storeFile);
+                return false;
+            }
+            file = new RandomAccessFile(storeFile, "r");
+        }
+        try {
+            Object fileKey = readFileKey();
+            FileChannel channel = file.getChannel();
+            if (channel.size() >= HEADER_SIZE) {
+                MappedByteBuffer header = channel.map(publisher ? FileChannel.MapMode.READ_WRITE
+                        : FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                if (header.getInt(MAGIC_OFFSET) == MAGIC) {
+                    if (header.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION) {
+                        throw new IOException("Shared policy store " + storeFile + " has format version "
+                                + header.getInt(FORMAT_VERSION_OFFSET) + ", expected " + FORMAT_VERSION);
+                    }
+                    int fileCapacity = header.getInt(CAPACITY_OFFSET);
+                    long size = HEADER_SIZE + 2L * (SLOT_HEADER_SIZE + fileCapacity);
+                    if (fileCapacity <= 0 || channel.size() < size) {
+                        throw new IOException("Shared policy store " + storeFile + " is truncated");
+                    }
+                    buffer = channel.map(publisher ? FileChannel.MapMode.READ_WRITE
+                            : FileChannel.MapMode.READ_ONLY, 0, size);
+                    capacity = fileCapacity;
+                    mappedFileKey = fileKey;
+                    if (publisher && capacity != requestedCapacity) {
+                        log.warn("Shared policy store {} keeps its capacity of {} bytes, remove it to change it",
+                                storeFile, capacity);
+                    }
+                    log.info("Mapped shared policy store {} of {} bytes, current generation {}",
+                            new Object[] { storeFile, size, buffer.getLong(GENERATION_OFFSET) });
+                    return true;
+                }
+            }
+
+            if (!publisher) {
+                // the publisher is still creating the file
+                log.debug("Shared policy store {} is not initialized yet", storeFile);
+                return false;
+            }
+            long size = HEADER_SIZE + 2L * (SLOT_HEADER_SIZE + requestedCapacity);
+            file.setLength(size);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            capacity = requestedCapacity;
+            mappedFileKey = fileKey;
+            buffer.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putLong(GENERATION_OFFSET, 0);
+            // written last, the subscribers only map an initialized store
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+            log.info("Created shared policy store {} of {} bytes", storeFile, size);
+            return true;
+        } finally {
+            // the mapping remains valid once the file is closed
+            file.close();
+        }
+    }
+
+    /**
+     * Checks whether the store file is still the mapped file. A file replaced after it was opened for mapping is
+     * detected by the next check.
+     * 
+     * @return false if the store file was removed or replaced since it was mapped
+     * 
+     * @throws IOException thrown if the attributes of the store file can not be read
+     */
+    private boolean isMappedFile() throws IOException {
+        Object fileKey = readFileKey();
+        if (fileKey == null) {
+            // removed, unless the file system provides no file keys at all
+            return mappedFileKey == null && storeFile.exists();
+        }
+        return fileKey.equals(mappedFileKey);
+    }
+
+    /**
+     * Reads the key of the store file.
+     * 
+     * @return the key of the store file, null if the file does not exist or the file system provides no file keys
+     * 
+     * @throws IOException thrown if the attributes of the store file can not be read
+     */
+    private Object readFileKey() throws IOException {
+        try {
+            return Files.readAttributes(storeFile.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the offset of the slot holding a given generation.
+     * 
+     * @param slotGeneration the generation
+     * 
+     * @return offset of the slot
+     */
+    private int slotOffset(long slotGeneration) {
+        return HEADER_SIZE + (int) (slotGeneration & 1) * (SLOT_HEADER_SIZE + capacity);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.cert.X509Certificate;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.common.AuthorizationServiceException;
+import org.glite.authz.pdp.config.PDPConfiguration;
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.joda.time.DateTime;
+import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.xacml.ctx.DecisionType.DECISION;
+import org.opensaml.xacml.ctx.ResultType;
+import org.opensaml.xacml.ctx.StatusCodeType;
+import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class of the authorization endpoints using a compact encoding of the
+ * XACML request and response instead of the SAML/SOAP binding.
+ * <p>
+ * The decoded request is wrapped in a {@link XACMLAuthzDecisionQueryType}
+ * so that it goes through the same policy snapshot, policy information
+ * points, policy evaluation, obligation handlers, audit log and metrics as
+ * the requests received by the {@link AuthorizationRequestServlet}. Only
+ * the SOAP envelope, the SAML message and their security policy are left
+ * out: the client is authenticated by the certificate it presented on the
+ * TLS connection, whose subject is the issuer of the request. Requests
+ * received without a client certificate are refused, the issuer carried in
+ * the compact encoding is never trusted.
+ */
+@ThreadSafe
+public abstract class AbstractCompactAuthorizationRequestServlet extends
+        AuthorizationRequestServlet {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID= 2754113840291754107L;
+
+    /** Class logger. */
+    private final Logger log= LoggerFactory.getLogger(AbstractCompactAuthorizationRequestServlet.class);
+
+    /** {@inheritDoc} */
+    protected void doPost(HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) throws ServletException,
+            IOException {
+        PDPConfiguration pdpConfig= getPDPConfiguration();
+        String clientIssuer= getClientIssuer(httpRequest);
+        if (clientIssuer == null) {
+            pdpConfig.getServiceMetrics().incrementTotalServiceRequestErrors();
+            log.error("Compact request from {} refused, the client did not present a certificate",
+                      httpRequest.getRemoteAddr());
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN,
+                                   "Client certificate authentication required");
+            return;
+        }
+        AuthzRequestMessageContext messageContext= new AuthzRequestMessageContext();
+        messageContext.setInboundMessageTransport(new HttpServletRequestAdapter(httpRequest));
+
+        XACMLAuthzDecisionQueryType authzRequest;
+        long decodeStart= System.nanoTime();
+        try {
+            authzRequest= decodeRequest(httpRequest);
+        } catch (IOException e) {
+            getMetrics(messageContext).incrementTotalServiceRequestErrors();
+            log.error("Error decoding the compact request: {}", e.getMessage());
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                                   e.getMessage());
+            return;
+        }
+        long decodeEnd= System.nanoTime();
+        messageContext.setInboundSAMLMessage(authzRequest);
+        messageContext.setInboundMessage(authzRequest);
+        messageContext.setInboundSAMLMessageId(authzRequest.getID());
+        messageContext.setInboundMessageIssuer(clientIssuer);
+        if (httpRequest.getAttribute(ProtocolCaptureFilter.MATCHING_ATTRIB) != null) {
+            httpRequest.setAttribute(ProtocolCaptureFilter.ISSUER_ATTRIB,
+                                     messageContext.getInboundMessageIssuer());
+            httpRequest.setAttribute(ProtocolCaptureFilter.SUBJECT_ATTRIB,
+                                     extractSubjectId(authzRequest));
+        }
+
+        try {
+            setPolicy(messageContext);
+            getMetrics(messageContext).recordStageLatency(PDPMetrics.STAGE_DECODE,
+                                                          decodeEnd
+                                                                  - decodeStart);
+            processRequest(messageContext);
+        } catch (AuthorizationServiceException e) {
+            getMetrics(messageContext).incrementTotalServiceRequestErrors();
+            log.error("Error processing authorization request.", e);
+            ResultType errorResult= XACMLUtil.buildResult(null,
+                                                          DECISION.Indeterminate,
+                                                          null,
+                                                          XACMLUtil.buildStatus(StatusCodeType.SC_PROCESSING_ERROR));
+            messageContext.setAuthorizationResult(errorResult);
+        }
+
+        messageContext.setOutboundSAMLMessageIssueInstant(new DateTime());
+        messageContext.setOutboundMessageIssuer(pdpConfig.getEntityId());
+
+        log.debug("Encoding compact response");
+        long encodeStart= System.nanoTime();
+        httpResponse.setContentType(getResponseContentType());
+        OutputStream out= httpResponse.getOutputStream();
+        encodeResult(messageContext, out);
+        out.flush();
+        recordStageLatency(messageContext, PDPMetrics.STAGE_ENCODE, encodeStart);
+        getMetrics(messageContext).incrementTotalServiceRequests();
+        recordDecision(messageContext);
+        writeAuditLogEntry(messageContext);
+    }
+
+    /**
+     * Gets the subject of the certificate the client authenticated with.
+     * 
+     * @param httpRequest
+     *            incoming HTTP request
+     * 
+     * @return the subject DN of the client certificate, or null if the client
+     *         did not present a certificate
+     */
+    protected String getClientIssuer(HttpServletRequest httpRequest) {
+        X509Certificate[] certificates= (X509Certificate[]) httpRequest.getAttribute("javax.servlet.request.X509Certificate");
+        if (certificates == null || certificates.length == 0) {
+            return null;
+        }
+        return certificates[0].getSubjectX500Principal().getName();
+    }
+
+    /**
+     * Decodes the incoming request.
+     * 
+     * @param httpRequest
+     *            incoming HTTP request
+     * 
+     * @return the decoded request, wrapped in an authorization decision query
+     * 
+     * @throws IOException
+     *             thrown if the request can not be read or is not correctly
+     *             encoded
+     */
+    protected abstract XACMLAuthzDecisionQueryType decodeRequest(
+            HttpServletRequest httpRequest) throws IOException;
+
+    /**
+     * Gets the MIME type of the encoded responses.
+     * 
+     * @return MIME type of the encoded responses
+     */
+    protected abstract String getResponseContentType();
+
+    /**
+     * Encodes the authorization result of the current request.
+     * 
+     * @param messageContext
+     *            current message context
+     * @param out
+     *            stream to which the encoded result is written
+     * 
+     * @throws IOException
+     *             thrown if the result can not be written
+     */
+    protected abstract void encodeResult(
+            AuthzRequestMessageContext messageContext, OutputStream out)
+            throws IOException;
+}
\ No newline at end of file
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * Command line client of the PDP admin service for the commands taking parameters, which are passed as
+ * <i>name</i>=<i>value</i> arguments and sent as query parameters along with the admin password.
+ * <p>
+ * Usage: <code>AdminCommandCLI host port password command [name=value]...</code>, an empty password is not sent.
+ */
+public class AdminCommandCLI {
+
+    /** Connection and read timeout, in milliseconds. */
+    private static final int TIMEOUT = 120000;
+
+    /**
+     * Main entry point to program.
+     * 
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: AdminCommandCLI host port password command [name=value]...");
+            System.exit(1);
+        }
+
+        HttpURLConnection connection = null;
+        try {
+            StringBuilder query = new StringBuilder();
+            for (int i = 4; i < args.length; i++) {
+                int separator = args[i].indexOf('=');
+                if (separator < 1) {
+                    System.err.println("Invalid parameter " + args[i] + ", expected name=value");
+                    System.exit(1);
+                }
+                appendParameter(query, args[i].substring(0, separator), args[i].substring(separator + 1));
+            }
+            if (args[2].length() > 0) {
+                appendParameter(query, "password", args[2]);
+            }
+            URL url = new URL("http", args[0], Integer.parseInt(args[1]), "/" + args[3] + query);
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                System.err.println("Command " + args[3] + " failed: " + status + " "
+                        + connection.getResponseMessage());
+                System.exit(1);
+            }
+            copy(connection.getInputStream(), System.out);
+        } catch (IOException e) {
+            System.err.println("Unable to execute command " + args[3] + ": " + e.getMessage());
+            System.exit(1);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Appends an URL encoded query parameter to a query string.
+     * 
+     * @param query the query string
+     * @param name name of the parameter
+     * @param value value of the parameter
+     * 
+     * @throws IOException never, UTF-8 is always supported
+     */
+    private static void appendParameter(StringBuilder query, String name, String value) throws IOException {
+        query.append(query.length() == 0 ? '?' : '&');
+        query.append(URLEncoder.encode(name, "UTF-8")).append('=').append(URLEncoder.encode(value, "UTF-8"));
+    }
+
+    /**
+     * Copies a stream to another.
+     * 
+     * @param in the input stream, closed once read
+     * @param out the output stream, flushed
+     * 
+     * @throws IOException thrown if the streams can not be read or written
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            out.flush();
+        } finally {
+            in.close();
+        }
+    }
+}
\ No newline at end of file
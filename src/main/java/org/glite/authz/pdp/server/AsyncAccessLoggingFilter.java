@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.AccessLogWriter;
+
+/**
+ * Servlet filter logging the access to the service through an {@link AccessLogWriter}, which formats and writes the
+ * records off the request thread. It replaces the synchronous <code>AccessLoggingFilter</code> when the access log
+ * queue is configured.
+ */
+@ThreadSafe
+public class AsyncAccessLoggingFilter implements Filter {
+
+    /** Writer of the access log records. */
+    private final AccessLogWriter writer;
+
+    /**
+     * Constructor.
+     * 
+     * @param accessLogWriter writer of the access log records
+     */
+    public AsyncAccessLoggingFilter(AccessLogWriter accessLogWriter) {
+        if (accessLogWriter == null) {
+            throw new IllegalArgumentException("Access log writer may not be null");
+        }
+        writer = accessLogWriter;
+    }
+
+    /** {@inheritDoc} */
+    public void init(FilterConfig filterConfig) throws ServletException {
+        writer.start();
+    }
+
+    /** {@inheritDoc} */
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long requestTime = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            writer.log(requestTime, httpRequest.getRemoteAddr(), httpRequest.getRemotePort(), httpRequest.getMethod(),
+                    httpRequest.getRequestURI(), ((HttpServletResponse) response).getStatus(),
+                    httpRequest.getContentLengthLong(), System.nanoTime() - start);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void destroy() {
+        writer.stop();
+    }
+}
\ No newline at end of file
@@ -19,8 +19,12 @@ package org.glite.authz.pdp.server;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
+import java.util.concurrent.Callable;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -36,6 +40,8 @@ import org.glite.authz.pdp.config.PDPConfiguration;
 import org.glite.authz.pdp.obligation.ObligationService;
 import org.glite.authz.pdp.pip.PolicyInformationPoint;
 import org.glite.authz.pdp.policy.PolicyRepository;
+import org.glite.authz.pdp.policy.PolicySnapshot;
+import org.glite.authz.pdp.policy.PrecomputedObligations;
 import org.glite.authz.pdp.util.AuditLogEntry;
 import org.glite.authz.pdp.util.SAMLUtil;
 import org.glite.authz.pdp.util.XACMLUtil;
@@ -82,18 +88,29 @@ import org.opensaml.xacml.ctx.ResponseType;
 import org.opensaml.xacml.ctx.ResultType;
 import org.opensaml.xacml.ctx.StatusCodeType;
 import org.opensaml.xacml.ctx.StatusType;
+import org.opensaml.xacml.ctx.SubjectType;
 import org.opensaml.xacml.policy.ObligationType;
 import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType;
 import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionStatementType;
 import org.opensaml.xml.XMLObjectBuilderFactory;
+import org.opensaml.xml.io.MarshallingException;
+import org.opensaml.xml.io.UnmarshallingException;
 import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.parse.XMLParserException;
 import org.opensaml.xml.security.SecurityException;
 import org.opensaml.xml.util.XMLHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-/** PDP Servlet. */
+/**
+ * PDP Servlet.
+ * <p>
+ * If request coalescing is enabled, identical concurrent requests evaluated
+ * against the same policy snapshot share one evaluation, see
+ * {@link #processRequest(AuthzRequestMessageContext)}.
+ */
 @ThreadSafe
 public class AuthorizationRequestServlet extends BaseHttpServlet {
 
@@ -103,6 +120,12 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
      */
     public static final String TIMER_ATTRIB= "org.glite.authz.pdp.server.timer";
 
+    /**
+     * Time, in milliseconds, a coalesced request waits for the identical
+     * request in flight before being processed on its own, {@value} .
+     */
+    public static final long COALESCED_REQUEST_TIMEOUT= 2000;
+
     /** Serial version UID. */
     private static final long serialVersionUID= -4398772758458846951L;
 
@@ -139,6 +162,18 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
     /** Repository of XACML policies. */
     private PolicyRepository policyRepo;
 
+    /** Repositories of the named XACML policies, by policy name. */
+    private Map<String, PolicyRepository> namedPolicyRepos;
+
+    /** Repositories of the named XACML policies, by the entity ID of the issuers routed to them. */
+    private Map<String, PolicyRepository> issuerPolicyRepos;
+
+    /** Parser pool, also used to copy the outcome of coalesced requests. */
+    private BasicParserPool parserPool;
+
+    /** Coalescer of identical concurrent requests, null if request coalescing is disabled. */
+    private RequestCoalescer<CoalescingKey, CoalescedRequest> requestCoalescer;
+
     /** Service used to process policy obligations. */
     private ObligationService obligationService;
 
@@ -162,15 +197,45 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
 
         messageSecurityPolicyResolver= new StaticSecurityPolicyResolver(pdpConfig.getAuthzDecisionQuerySecurityPolicy());
 
-        BasicParserPool parserPool= new BasicParserPool();
+        parserPool= new BasicParserPool();
         parserPool.setMaxPoolSize(pdpConfig.getMaxRequests());
 
         messageDecoder= new HTTPSOAP11Decoder(parserPool);
 
-        messageEncoder= new HTTPSOAP11Encoder();
+        messageEncoder= new DirectBufferSOAP11Encoder();
         soapMessageEncoder= new SOAPMessageEncoder();
 
+        if (pdpConfig.isRequestCoalescingEnabled()) {
+            requestCoalescer= new RequestCoalescer<CoalescingKey, CoalescedRequest>(new RequestCoalescer.Sharer<CoalescedRequest>() {
+                public CoalescedRequest share(CoalescedRequest leaderRequest)
+                        throws Exception {
+                    return shareCoalescedRequest(leaderRequest.messageContext);
+                }
+            }, COALESCED_REQUEST_TIMEOUT);
+        }
+
         policyRepo= PolicyRepository.instance(pdpConfig, taskTimer);
+        namedPolicyRepos= new HashMap<String, PolicyRepository>();
+        issuerPolicyRepos= new HashMap<String, PolicyRepository>();
+        for (PDPConfiguration policyConfig : pdpConfig.getNamedPolicyConfigurations().values()) {
+            PolicyRepository namedPolicyRepo= PolicyRepository.instance(policyConfig,
+                                                                        taskTimer,
+                                                                        policyConfig.getPolicyName(),
+                                                                        true);
+            namedPolicyRepos.put(policyConfig.getPolicyName(), namedPolicyRepo);
+            for (String issuer : policyConfig.getPolicyIssuers()) {
+                issuerPolicyRepos.put(issuer, namedPolicyRepo);
+            }
+        }
+    }
+
+    /**
+     * Gets the configuration of the PDP.
+     * 
+     * @return configuration of the PDP
+     */
+    protected PDPConfiguration getPDPConfiguration() {
+        return pdpConfig;
     }
 
     /** {@inheritDoc} */
@@ -180,14 +245,17 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
         AuthzRequestMessageContext messageContext= new AuthzRequestMessageContext();
 
         try {
+            long decodeStart= System.nanoTime();
             decodeMessage(messageContext, httpRequest, httpResponse);
+            long decodeEnd= System.nanoTime();
             setPolicy(messageContext);
-            applyPolicyInformationPoints(messageContext);
-            evaluateAuthorizationPolicy(messageContext);
-            applyObligationHandlers(messageContext);
+            getMetrics(messageContext).recordStageLatency(PDPMetrics.STAGE_DECODE,
+                                                          decodeEnd
+                                                                  - decodeStart);
+            processRequest(messageContext);
 
         } catch (MessageDecodingException e) {
-            pdpConfig.getServiceMetrics().incrementTotalServiceRequestErrors();
+            getMetrics(messageContext).incrementTotalServiceRequestErrors();
             if (log.isDebugEnabled()) {
                 log.error("Error decoding the SOAP request", e);
             }
@@ -200,7 +268,7 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
             encodeSOAPMessage(messageContext, soapMessage);
             return;
         } catch (AuthorizationServiceException e) {
-            pdpConfig.getServiceMetrics().incrementTotalServiceRequestErrors();
+            getMetrics(messageContext).incrementTotalServiceRequestErrors();
             log.error("Error processing authorization request.", e);
             ResultType errorResult= XACMLUtil.buildResult(null,
                                                           DECISION.Indeterminate,
@@ -209,8 +277,10 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
             messageContext.setAuthorizationResult(errorResult);
         }
 
+        long encodeStart= System.nanoTime();
         Response samlResponse= buildSAMLResponse(messageContext);
         encodeMessage(messageContext, samlResponse);
+        recordStageLatency(messageContext, PDPMetrics.STAGE_ENCODE, encodeStart);
     }
 
     /** {@inheritDoc} */
@@ -249,6 +319,12 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
                 protocolLog.info("Incomming SOAP message\n{}",
                                  XMLHelper.prettyPrintXML(messageContext.getInboundMessage().getDOM()));
             }
+            if (httpRequest.getAttribute(ProtocolCaptureFilter.MATCHING_ATTRIB) != null) {
+                httpRequest.setAttribute(ProtocolCaptureFilter.ISSUER_ATTRIB,
+                                         messageContext.getInboundMessageIssuer());
+                httpRequest.setAttribute(ProtocolCaptureFilter.SUBJECT_ATTRIB,
+                                         extractSubjectId(messageContext.getInboundSAMLMessage()));
+            }
             // } catch (MessageDecodingException e) {
             // throw new
             // AuthorizationServiceException("Unable to decode incoming request",
@@ -260,7 +336,9 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
     }
 
     /**
-     * Sets the authorization policy inside the provided message context.
+     * Sets the authorization policy inside the provided message context,
+     * together with the metrics of the repository it comes from in which the
+     * request is then recorded.
      * 
      * @param messageContext
      *            current message context
@@ -270,18 +348,357 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
      */
     protected void setPolicy(AuthzRequestMessageContext messageContext)
             throws AuthorizationServiceException {
-        PolicySetType policy= policyRepo.getPolicy();
+        PolicyRepository repository= getPolicyRepository(messageContext);
+        messageContext.setPolicyMetrics(repository.getMetrics());
+        PolicySnapshot snapshot= repository.getPolicySnapshot();
 
-        if (policy == null) {
+        if (snapshot == null) {
             throw new AuthorizationServiceException("No policy available by which the incomming request may be evaluated");
         }
+        PolicySetType policy= snapshot.getPolicySet();
         if (policyLog.isDebugEnabled()) {
-            policyLog.debug("Evaluating authorization request against policy\n{}",
-                            XACMLUtil.marshall(policy));
+            if (snapshot.markPolicySetLogged()) {
+                policyLog.debug("Evaluating authorization request against version {} of policy {}\n{}",
+                                new Object[] { snapshot.getPolicyVersion(), snapshot.getPolicySetId(),
+                                              snapshot.getMarshalledPolicySet() });
+            } else {
+                policyLog.debug("Evaluating authorization request against version {} of policy {}",
+                                snapshot.getPolicyVersion(), snapshot.getPolicySetId());
+            }
         }
+        messageContext.setPolicySnapshot(snapshot);
         messageContext.setAuthorizationPolicy(policy);
     }
 
+    /**
+     * Gets the repository of the policy against which a request is evaluated.
+     * A request is routed to a named policy by the
+     * <code>/authz/<i>name</i></code> path it was posted to, or else by its
+     * issuer. Other requests are evaluated against the default policy.
+     * 
+     * @param messageContext
+     *            current message context
+     * 
+     * @return the policy repository
+     * 
+     * @throws AuthorizationServiceException
+     *             thrown if the request was posted to an unknown named policy
+     */
+    protected PolicyRepository getPolicyRepository(
+            AuthzRequestMessageContext messageContext)
+            throws AuthorizationServiceException {
+        if (namedPolicyRepos.isEmpty()) {
+            return policyRepo;
+        }
+
+        if (messageContext.getInboundMessageTransport() instanceof HttpServletRequestAdapter) {
+            String pathInfo= ((HttpServletRequestAdapter) messageContext.getInboundMessageTransport()).getWrappedRequest().getPathInfo();
+            if (pathInfo != null && pathInfo.length() > 1) {
+                PolicyRepository repository= namedPolicyRepos.get(pathInfo.substring(1));
+                if (repository == null) {
+                    throw new AuthorizationServiceException("No policy named "
+                            + pathInfo.substring(1));
+                }
+                return repository;
+            }
+        }
+
+        String issuer= messageContext.getInboundMessageIssuer();
+        if (issuer != null) {
+            PolicyRepository repository= issuerPolicyRepos.get(issuer);
+            if (repository != null) {
+                return repository;
+            }
+        }
+        return policyRepo;
+    }
+
+    /**
+     * Applies the policy information points, evaluates the policy and applies
+     * the obligation handlers. If request coalescing is enabled, identical
+     * concurrent requests evaluated against the same policy share this work:
+     * the request and result of the first one, as populated by the policy
+     * information points and obligation handlers, are copied into the others.
+     * 
+     * @param messageContext
+     *            current message context
+     * 
+     * @throws AuthorizationServiceException
+     *             thrown if there is a problem processing the request, or the
+     *             request it shared the processing of
+     */
+    protected void processRequest(
+            final AuthzRequestMessageContext messageContext)
+            throws AuthorizationServiceException {
+        CoalescingKey key= null;
+        if (requestCoalescer != null) {
+            String canonicalRequest= canonicalizeRequest(messageContext);
+            if (canonicalRequest != null) {
+                key= new CoalescingKey(messageContext.getPolicySnapshot(),
+                                       canonicalRequest);
+            }
+        }
+        if (key == null) {
+            processStages(messageContext);
+            return;
+        }
+
+        CoalescedRequest processedRequest;
+        try {
+            processedRequest= requestCoalescer.execute(key,
+                                                       new Callable<CoalescedRequest>() {
+                                                           public CoalescedRequest call()
+                                                                   throws Exception {
+                                                               processStages(messageContext);
+                                                               return new CoalescedRequest(messageContext);
+                                                           }
+                                                       });
+        } catch (AuthorizationServiceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AuthorizationServiceException("Error processing coalesced request",
+                                                    e);
+        }
+        if (processedRequest.messageContext != messageContext) {
+            log.debug("Request {} shared the processing of an identical request",
+                      messageContext.getInboundSAMLMessageId());
+            copyCoalescedRequest(processedRequest, messageContext);
+            getMetrics(messageContext).incrementCoalescedRequests();
+        }
+    }
+
+    /**
+     * Applies the policy information points, evaluates the policy and applies
+     * the obligation handlers, recording the latency of each stage.
+     * 
+     * @param messageContext
+     *            current message context
+     * 
+     * @throws AuthorizationServiceException
+     *             thrown if there is a problem processing the request
+     */
+    private void processStages(AuthzRequestMessageContext messageContext)
+            throws AuthorizationServiceException {
+        long stageStart= System.nanoTime();
+        applyPolicyInformationPoints(messageContext);
+        stageStart= recordStageLatency(messageContext,
+                                       PDPMetrics.STAGE_PIP,
+                                       stageStart);
+        evaluateAuthorizationPolicy(messageContext);
+        stageStart= recordStageLatency(messageContext,
+                                       PDPMetrics.STAGE_EVALUATION,
+                                       stageStart);
+        applyObligationHandlers(messageContext);
+        recordStageLatency(messageContext,
+                           PDPMetrics.STAGE_OBLIGATIONS,
+                           stageStart);
+    }
+
+    /**
+     * Records the latency of a request processing stage in the metrics of the
+     * request.
+     * 
+     * @param messageContext
+     *            current message context
+     * @param stage
+     *            the stage, one of the <code>PDPMetrics.STAGE_</code>
+     *            constants
+     * @param stageStart
+     *            start of the stage, as returned by {@link System#nanoTime()}
+     * 
+     * @return the end of the stage, as returned by {@link System#nanoTime()}
+     */
+    protected long recordStageLatency(
+            AuthzRequestMessageContext messageContext, String stage,
+            long stageStart) {
+        long stageEnd= System.nanoTime();
+        getMetrics(messageContext).recordStageLatency(stage,
+                                                      stageEnd - stageStart);
+        return stageEnd;
+    }
+
+    /**
+     * Gets the metrics in which a request is recorded: the metrics of the
+     * policy repository the request was routed to or, before it is routed or
+     * when it can not be, the metrics of the PDP.
+     * 
+     * @param messageContext
+     *            current message context
+     * 
+     * @return the metrics of the request
+     */
+    protected PDPMetrics getMetrics(AuthzRequestMessageContext messageContext) {
+        if (messageContext.getPolicyMetrics() != null) {
+            return messageContext.getPolicyMetrics();
+        }
+        return (PDPMetrics) pdpConfig.getServiceMetrics();
+    }
+
+    /**
+     * Builds the canonical form of a request, identical for the requests with
+     * the same issuer and attributes whatever their order.
+     * 
+     * @param messageContext
+     *            current message context
+     * 
+     * @return the canonical form of the request, or null if the request can
+     *         not be coalesced
+     */
+    protected String canonicalizeRequest(
+            AuthzRequestMessageContext messageContext) {
+        XACMLAuthzDecisionQueryType authzRequest= messageContext.getInboundSAMLMessage();
+        if (authzRequest == null || authzRequest.getRequest() == null) {
+            return null;
+        }
+        org.opensaml.xacml.ctx.RequestType request= authzRequest.getRequest();
+        StringBuilder canonicalRequest= new StringBuilder(512);
+        appendCanonicalPart(canonicalRequest,
+                            messageContext.getInboundMessageIssuer());
+        for (SubjectType subject : request.getSubjects()) {
+            appendCanonicalPart(canonicalRequest, "subject");
+            appendCanonicalPart(canonicalRequest,
+                                subject.getSubjectCategory());
+            appendCanonicalAttributes(canonicalRequest,
+                                      subject.getAttributes());
+        }
+        for (ResourceType resource : request.getResources()) {
+            if (resource.getResourceContent() != null) {
+                // not worth a canonical form
+                return null;
+            }
+            appendCanonicalPart(canonicalRequest, "resource");
+            appendCanonicalAttributes(canonicalRequest,
+                                      resource.getAttributes());
+        }
+        if (request.getAction() != null) {
+            appendCanonicalPart(canonicalRequest, "action");
+            appendCanonicalAttributes(canonicalRequest,
+                                      request.getAction().getAttributes());
+        }
+        if (request.getEnvironment() != null) {
+            appendCanonicalPart(canonicalRequest, "environment");
+            appendCanonicalAttributes(canonicalRequest,
+                                      request.getEnvironment().getAttributes());
+        }
+        return canonicalRequest.toString();
+    }
+
+    /**
+     * Appends the canonical form of attributes, sorted, to the canonical form
+     * of a request.
+     * 
+     * @param canonicalRequest
+     *            canonical form of the request
+     * @param attributes
+     *            the attributes
+     */
+    private void appendCanonicalAttributes(StringBuilder canonicalRequest,
+            List<AttributeType> attributes) {
+        if (attributes == null) {
+            return;
+        }
+        List<String> canonicalAttributes= new ArrayList<String>(attributes.size());
+        for (AttributeType attribute : attributes) {
+            StringBuilder canonicalAttribute= new StringBuilder(128);
+            appendCanonicalPart(canonicalAttribute, attribute.getAttributeID());
+            appendCanonicalPart(canonicalAttribute, attribute.getDataType());
+            appendCanonicalPart(canonicalAttribute, attribute.getIssuer());
+            if (attribute.getAttributeValues() != null) {
+                for (AttributeValueType value : attribute.getAttributeValues()) {
+                    appendCanonicalPart(canonicalAttribute, value.getValue());
+                }
+            }
+            canonicalAttributes.add(canonicalAttribute.toString());
+        }
+        Collections.sort(canonicalAttributes);
+        appendCanonicalPart(canonicalRequest,
+                            Integer.toString(canonicalAttributes.size()));
+        for (String canonicalAttribute : canonicalAttributes) {
+            canonicalRequest.append(canonicalAttribute);
+        }
+    }
+
+    /**
+     * Appends a length prefixed string to a canonical form, so that no two
+     * sequences of strings have the same canonical form.
+     * 
+     * @param canonicalForm
+     *            the canonical form
+     * @param part
+     *            the string, may be null
+     */
+    private void appendCanonicalPart(StringBuilder canonicalForm, String part) {
+        if (part == null) {
+            canonicalForm.append("-;");
+        } else {
+            canonicalForm.append(part.length()).append(':').append(part);
+        }
+    }
+
+    /**
+     * Creates the copy of the request and result of a processed request which
+     * is shared with the identical requests which waited for its processing.
+     * 
+     * @param messageContext
+     *            message context of the processed request
+     * 
+     * @return the shared copy
+     * 
+     * @throws MarshallingException
+     *             thrown if the request or result can not be marshalled
+     */
+    private CoalescedRequest shareCoalescedRequest(
+            AuthzRequestMessageContext messageContext)
+            throws MarshallingException {
+        org.opensaml.xacml.ctx.RequestType request= messageContext.getInboundSAMLMessage().getRequest();
+        ResultType result= messageContext.getAuthorizationResult();
+        // detached from the DOM of the processed request, which is adopted
+        // by its response document later on
+        Element requestElement= (Element) Configuration.getMarshallerFactory().getMarshaller(request).marshall(request).cloneNode(true);
+        Element resultElement= (Element) Configuration.getMarshallerFactory().getMarshaller(result).marshall(result).cloneNode(true);
+        return new CoalescedRequest(requestElement, resultElement);
+    }
+
+    /**
+     * Copies the request and result of a processed request into the message
+     * context of an identical request.
+     * 
+     * @param processedRequest
+     *            shared copy of the processed request
+     * @param messageContext
+     *            current message context
+     * 
+     * @throws AuthorizationServiceException
+     *             thrown if the request and result can not be copied
+     */
+    private void copyCoalescedRequest(CoalescedRequest processedRequest,
+            AuthzRequestMessageContext messageContext)
+            throws AuthorizationServiceException {
+        try {
+            Document requestDocument= parserPool.newDocument();
+            Document resultDocument= parserPool.newDocument();
+            Element requestElement;
+            Element resultElement;
+            // DOM implementations are not safe for concurrent reads
+            synchronized (processedRequest) {
+                requestElement= (Element) requestDocument.importNode(processedRequest.requestElement,
+                                                                     true);
+                resultElement= (Element) resultDocument.importNode(processedRequest.resultElement,
+                                                                   true);
+            }
+            requestDocument.appendChild(requestElement);
+            resultDocument.appendChild(resultElement);
+            messageContext.getInboundSAMLMessage().setRequest((org.opensaml.xacml.ctx.RequestType) Configuration.getUnmarshallerFactory().getUnmarshaller(requestElement).unmarshall(requestElement));
+            messageContext.setAuthorizationResult((ResultType) Configuration.getUnmarshallerFactory().getUnmarshaller(resultElement).unmarshall(resultElement));
+        } catch (XMLParserException e) {
+            throw new AuthorizationServiceException("Unable to copy coalesced request",
+                                                    e);
+        } catch (UnmarshallingException e) {
+            throw new AuthorizationServiceException("Unable to copy coalesced request",
+                                                    e);
+        }
+    }
+
     /**
      * Applies any registered {@link PolicyInformationPoint} to the request.
      * 
@@ -332,10 +749,19 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
             // RequestInformation reqInfo= new RequestInformation(null, null);
             EvaluationContext evaluationContext= new EvaluationContext(targetMatcher,
                                                                        statusCodeComparator);
-            CombiningAlgorithm combiningAlgo= policy.getCombiningAlg();
-            DecisionType decision= combiningAlgo.evaluate(getXacmlRequest(messageContext),
-                                                          policy,
-                                                          evaluationContext);
+            RequestType request= getXacmlRequest(messageContext);
+            encodeXacmlRequest(messageContext, request);
+            DecisionType decision;
+            if (isNotApplicable(messageContext, request)) {
+                decision= DecisionType.NOT_APPLICABLE;
+            } else {
+                CombiningAlgorithm combiningAlgo= policy.getCombiningAlg();
+                decision= combiningAlgo.evaluate(request,
+                                                 policy,
+                                                 evaluationContext);
+            }
+            // replayed against the next versions of the policy to warm them up
+            getPolicyRepository(messageContext).getRequestSampler().sample(request);
 
             if (log.isDebugEnabled()) {
                 log.debug("Evaluation of policy {} version {} resulted in decision {} for request {}",
@@ -351,12 +777,22 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
             ArrayList<ObligationType> obligations= null;
             if (evaluationContext.getObligations() != null
                     && evaluationContext.getObligations().getObligations() != null) {
+                PolicySnapshot snapshot= messageContext.getPolicySnapshot();
+                PrecomputedObligations precomputedObligations= snapshot != null ? snapshot.getPrecomputedObligations()
+                        : null;
                 obligations= new ArrayList<ObligationType>();
                 for (org.herasaf.xacml.core.policy.impl.ObligationType herasObligation : evaluationContext.getObligations().getObligations()) {
                     if (herasObligation != null) {
                         log.debug("Adding obligation '{}' to authorization response",
                                   herasObligation.getObligationId());
-                        obligations.add(XACMLUtil.buildObligation(herasObligation));
+                        ObligationType obligation= null;
+                        if (precomputedObligations != null) {
+                            obligation= precomputedObligations.getObligation(herasObligation);
+                        }
+                        if (obligation == null) {
+                            obligation= XACMLUtil.buildObligation(herasObligation);
+                        }
+                        obligations.add(obligation);
                     }
                 }
             }
@@ -367,12 +803,41 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
                                                      status);
             messageContext.setAuthorizationResult(result);
         } catch (Exception e) {
-            pdpConfig.getServiceMetrics().incrementTotalServiceRequestErrors();
             log.error("Error evaluating policy", e);
             throw new AuthorizationServiceException("Error evaluating policy.");
         }
     }
 
+    /**
+     * Checks, with the applicability filter of the policy snapshot, whether
+     * the policy is certainly not applicable to the XACML request, in which
+     * case it does not need to be evaluated.
+     * 
+     * @param messageContext
+     *            current message context
+     * @param request
+     *            the XACML request
+     * 
+     * @return true if the policy is certainly not applicable to the request
+     */
+    protected boolean isNotApplicable(AuthzRequestMessageContext messageContext,
+            RequestType request) {
+        PolicySnapshot snapshot= messageContext.getPolicySnapshot();
+        if (snapshot == null || snapshot.getApplicabilityFilter() == null) {
+            return false;
+        }
+        if (!snapshot.getApplicabilityFilter().isNotApplicable(request)) {
+            return false;
+        }
+        log.debug("Version {} of policy {} is not applicable to request {}, skipping evaluation",
+                  new Object[] {
+                                snapshot.getPolicyVersion(),
+                                snapshot.getPolicySetId(),
+                                messageContext.getInboundSAMLMessageId(), });
+        getMetrics(messageContext).incrementFilteredRequests();
+        return true;
+    }
+
     /**
      * Processes any obligations for which handlers are registered.
      * 
@@ -411,6 +876,17 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
             throws AuthorizationServiceException {
         XACMLAuthzDecisionQueryType authzRequest= messageContext.getInboundSAMLMessage();
         Element dom= authzRequest.getRequest().getDOM();
+        if (dom == null) {
+            // the request was not decoded from XML, e.g. by a compact endpoint
+            org.opensaml.xacml.ctx.RequestType xacmlRequest= authzRequest.getRequest();
+            try {
+                dom= Configuration.getMarshallerFactory().getMarshaller(xacmlRequest).marshall(xacmlRequest);
+            } catch (MarshallingException e) {
+                log.error("Unable to marshall XACML request context", e);
+                throw new AuthorizationServiceException("Invalid request message.",
+                                                        e);
+            }
+        }
         try {
             RequestCtx requestCtx= RequestCtxFactory.unmarshal(dom);
             return requestCtx.getRequest();
@@ -422,6 +898,25 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
         }
     }
 
+    /**
+     * Encodes the attributes of the XACML request against the attribute
+     * dictionary of the policy snapshot, so that the evaluation compares the
+     * canonical strings of the policy.
+     * 
+     * @param messageContext
+     *            current message context
+     * @param request
+     *            the XACML request
+     */
+    protected void encodeXacmlRequest(AuthzRequestMessageContext messageContext,
+            RequestType request) {
+        PolicySnapshot snapshot= messageContext.getPolicySnapshot();
+        if (snapshot == null || snapshot.getAttributeDictionary() == null) {
+            return;
+        }
+        snapshot.getAttributeDictionary().encode(request);
+    }
+
     /**
      * Creates the SAML response given the decision reached by the PDP. This
      * method also sets the {@link AuthzRequestMessageContext#authorizationResult}
@@ -510,6 +1005,37 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
 
     }
 
+    /**
+     * Extract the subject ID from the XACML request if it was present.
+     * 
+     * @param authzRequest
+     *            the XACML authorization request
+     * 
+     * @return the subject ID from the request or null if there was no ID
+     */
+    protected String extractSubjectId(XACMLAuthzDecisionQueryType authzRequest) {
+        if (authzRequest == null || authzRequest.getRequest() == null) {
+            return null;
+        }
+        List<SubjectType> subjects= authzRequest.getRequest().getSubjects();
+        if (subjects != null) {
+            for (SubjectType subject : subjects) {
+                if (subject.getAttributes() == null) {
+                    continue;
+                }
+                for (AttributeType attribute : subject.getAttributes()) {
+                    if ("urn:oasis:names:tc:xacml:1.0:subject:subject-id".equals(attribute.getAttributeID())
+                            && attribute.getAttributeValues() != null
+                            && !attribute.getAttributeValues().isEmpty()) {
+                        return attribute.getAttributeValues().get(0).getValue();
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Extract the resource ID from the XACML request if it was present.
      * 
@@ -564,7 +1090,8 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
                 protocolLog.debug("SOAP response\n{}",
                                   XMLHelper.prettyPrintXML(messageContext.getOutboundMessage().getDOM()));
             }
-            pdpConfig.getServiceMetrics().incrementTotalServiceRequests();
+            getMetrics(messageContext).incrementTotalServiceRequests();
+            recordDecision(messageContext);
             writeAuditLogEntry(messageContext);
         } catch (MessageEncodingException e) {
             log.error("Unable to encoding response.", e);
@@ -592,6 +1119,22 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
 
     }
 
+    /**
+     * Records a successful decision in the metrics of the request, so that the
+     * time to the first decision of its policy is known.
+     * 
+     * @param messageContext
+     *            current message context
+     */
+    protected void recordDecision(AuthzRequestMessageContext messageContext) {
+        ResultType result= messageContext.getAuthorizationResult();
+        if (result != null
+                && result.getStatus() != null
+                && StatusCodeType.SC_OK.equals(result.getStatus().getStatusCode().getValue())) {
+            getMetrics(messageContext).recordDecision();
+        }
+    }
+
     /**
      * Writes out an audit log entry.
      * 
@@ -635,6 +1178,91 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
 
     }
 
+    /**
+     * Key of coalesced requests: the policy snapshot, compared by identity, and
+     * the canonical form of the request.
+     */
+    private static final class CoalescingKey {
+
+        /** Policy snapshot the request is evaluated against. */
+        private final PolicySnapshot policySnapshot;
+
+        /** Canonical form of the request. */
+        private final String canonicalRequest;
+
+        /**
+         * Constructor.
+         * 
+         * @param snapshot
+         *            policy snapshot the request is evaluated against
+         * @param request
+         *            canonical form of the request
+         */
+        CoalescingKey(PolicySnapshot snapshot, String request) {
+            policySnapshot= snapshot;
+            canonicalRequest= request;
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return 31 * System.identityHashCode(policySnapshot)
+                    + canonicalRequest.hashCode();
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CoalescingKey)) {
+                return false;
+            }
+            CoalescingKey other= (CoalescingKey) obj;
+            return policySnapshot == other.policySnapshot
+                    && canonicalRequest.equals(other.canonicalRequest);
+        }
+    }
+
+    /**
+     * A processed coalesced request: the message context of the processed
+     * request for the request which did the processing, a copy of its request
+     * and result for the requests which waited for it.
+     */
+    private static final class CoalescedRequest {
+
+        /** Message context of the processed request, null for a copy. */
+        private final AuthzRequestMessageContext messageContext;
+
+        /** Request, as populated by the policy information points. */
+        private final Element requestElement;
+
+        /** Result, as modified by the obligation handlers. */
+        private final Element resultElement;
+
+        /**
+         * Constructor.
+         * 
+         * @param context
+         *            message context of the processed request
+         */
+        CoalescedRequest(AuthzRequestMessageContext context) {
+            messageContext= context;
+            requestElement= null;
+            resultElement= null;
+        }
+
+        /**
+         * Constructor.
+         * 
+         * @param request
+         *            request, as populated by the policy information points
+         * @param result
+         *            result, as modified by the obligation handlers
+         */
+        CoalescedRequest(Element request, Element result) {
+            messageContext= null;
+            requestElement= request;
+            resultElement= result;
+        }
+    }
+
     /** Message context for {@link XACMLAuthzDecisionQueryType} requests. */
     public static class AuthzRequestMessageContext
             extends
@@ -643,9 +1271,15 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
         /** Policy used to render the authorization decision. */
         private PolicySetType policy;
 
+        /** Snapshot of the policy used to render the authorization decision. */
+        private PolicySnapshot policySnapshot;
+
         /** Authorization result for the request. */
         private ResultType authorizationResult;
 
+        /** Metrics of the policy repository the request was routed to. */
+        private PDPMetrics policyMetrics;
+
         /**
          * Gets the policy used to reach the authorization decision.
          * 
@@ -665,6 +1299,29 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
             policy= authzPolicy;
         }
 
+        /**
+         * Gets the snapshot of the policy used to reach the authorization
+         * decision.
+         * 
+         * @return snapshot of the policy used to reach the authorization
+         *         decision
+         */
+        public PolicySnapshot getPolicySnapshot() {
+            return policySnapshot;
+        }
+
+        /**
+         * Sets the snapshot of the policy used to reach the authorization
+         * decision.
+         * 
+         * @param snapshot
+         *            snapshot of the policy used to reach the authorization
+         *            decision
+         */
+        public void setPolicySnapshot(PolicySnapshot snapshot) {
+            policySnapshot= snapshot;
+        }
+
         /**
          * Gets the authorization result for this request.
          * 
@@ -683,5 +1340,25 @@ public class AuthorizationRequestServlet extends BaseHttpServlet {
         public void setAuthorizationResult(ResultType result) {
             authorizationResult= result;
         }
+
+        /**
+         * Gets the metrics of the policy repository the request was routed to.
+         * 
+         * @return metrics of the policy repository, or null if the request was
+         *         not routed yet
+         */
+        public PDPMetrics getPolicyMetrics() {
+            return policyMetrics;
+        }
+
+        /**
+         * Sets the metrics of the policy repository the request was routed to.
+         * 
+         * @param metrics
+         *            metrics of the policy repository
+         */
+        public void setPolicyMetrics(PDPMetrics metrics) {
+            policyMetrics= metrics;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.BinaryDecisionCodec;
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.opensaml.xacml.ctx.AttributeType;
+import org.opensaml.xacml.ctx.ResultType;
+import org.opensaml.xacml.ctx.StatusType;
+import org.opensaml.xacml.policy.AttributeAssignmentType;
+import org.opensaml.xacml.policy.EffectType;
+import org.opensaml.xacml.policy.ObligationType;
+import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType;
+
+/**
+ * Authorization endpoint accepting requests, and returning responses, in the
+ * compact binary encoding of the {@link BinaryDecisionCodec}.
+ * <p>
+ * The issuer field of the encoded request is ignored, the request issuer is
+ * the subject of the client certificate.
+ */
+@ThreadSafe
+public class BinaryAuthorizationRequestServlet extends
+        AbstractCompactAuthorizationRequestServlet {
+
+    /** Path, relative to the service context, at which the servlet is bound, {@value} . */
+    public static final String PATH= "/authz-binary";
+
+    /** Serial version UID. */
+    private static final long serialVersionUID= -6181432870548139602L;
+
+    /** {@inheritDoc} */
+    protected XACMLAuthzDecisionQueryType decodeRequest(
+            HttpServletRequest httpRequest) throws IOException {
+        BinaryDecisionCodec.Request request= BinaryDecisionCodec.readRequest(httpRequest.getInputStream());
+        org.opensaml.xacml.ctx.RequestType xacmlRequest= XACMLUtil.buildRequest(buildAttributes(request.getSubjectAttributes()),
+                                                                                buildAttributes(request.getResourceAttributes()),
+                                                                                buildAttributes(request.getActionAttributes()),
+                                                                                buildAttributes(request.getEnvironmentAttributes()));
+        return XACMLUtil.buildAuthzDecisionQuery(request.getId(),
+                                                 getClientIssuer(httpRequest),
+                                                 xacmlRequest);
+    }
+
+    /** {@inheritDoc} */
+    protected String getResponseContentType() {
+        return BinaryDecisionCodec.CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    protected void encodeResult(AuthzRequestMessageContext messageContext,
+            OutputStream out) throws IOException {
+        ResultType result= messageContext.getAuthorizationResult();
+
+        String statusCode= null;
+        String statusMessage= null;
+        StatusType status= result.getStatus();
+        if (status != null) {
+            if (status.getStatusCode() != null) {
+                statusCode= status.getStatusCode().getValue();
+            }
+            if (status.getMessage() != null) {
+                statusMessage= status.getMessage().getValue();
+            }
+        }
+
+        BinaryDecisionCodec.Response response= new BinaryDecisionCodec.Response(toDecision(result),
+                                                                                statusCode,
+                                                                                statusMessage,
+                                                                                result.getResourceId());
+        if (result.getObligations() != null) {
+            for (ObligationType obligation : result.getObligations().getObligations()) {
+                byte fulfillOn= obligation.getFulfillOn() == EffectType.Permit ? BinaryDecisionCodec.PERMIT
+                        : BinaryDecisionCodec.DENY;
+                BinaryDecisionCodec.Obligation binaryObligation= new BinaryDecisionCodec.Obligation(obligation.getObligationId(),
+                                                                                                    fulfillOn);
+                for (AttributeAssignmentType assignment : obligation.getAttributeAssignments()) {
+                    BinaryDecisionCodec.Attribute binaryAssignment= new BinaryDecisionCodec.Attribute(assignment.getAttributeId(),
+                                                                                                      assignment.getDataType(),
+                                                                                                      null);
+                    binaryAssignment.getValues().add(assignment.getValue());
+                    binaryObligation.getAttributeAssignments().add(binaryAssignment);
+                }
+                response.getObligations().add(binaryObligation);
+            }
+        }
+
+        BinaryDecisionCodec.writeResponse(response, out);
+    }
+
+    /**
+     * Builds the XACML attributes corresponding to decoded attributes.
+     * 
+     * @param attributes
+     *            the decoded attributes
+     * 
+     * @return the XACML attributes
+     */
+    private List<AttributeType> buildAttributes(
+            List<BinaryDecisionCodec.Attribute> attributes) {
+        List<AttributeType> xacmlAttributes= new ArrayList<AttributeType>(attributes.size());
+        for (BinaryDecisionCodec.Attribute attribute : attributes) {
+            xacmlAttributes.add(XACMLUtil.buildAttribute(attribute.getId(),
+                                                         attribute.getDataType(),
+                                                         attribute.getIssuer(),
+                                                         attribute.getValues()));
+        }
+        return xacmlAttributes;
+    }
+
+    /**
+     * Gets the encoded decision of a result.
+     * 
+     * @param result
+     *            the authorization result
+     * 
+     * @return the encoded decision
+     */
+    private byte toDecision(ResultType result) {
+        if (result.getDecision() == null) {
+            return BinaryDecisionCodec.INDETERMINATE;
+        }
+        switch (result.getDecision().getDecision()) {
+        case Deny:
+            return BinaryDecisionCodec.DENY;
+        case Permit:
+            return BinaryDecisionCodec.PERMIT;
+        case NotApplicable:
+            return BinaryDecisionCodec.NOT_APPLICABLE;
+        default:
+            return BinaryDecisionCodec.INDETERMINATE;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.glite.authz.common.http.AbstractAdminCommand;
+import org.glite.authz.pdp.util.ManagedCache;
+
+/**
+ * An admin command that lists, flushes and resizes the PDP caches.
+ * <ul>
+ * <li>without parameter, it prints one line per cache: <i>name</i>: size=<i>size</i> maxSize=<i>maxSize</i></li>
+ * <li><code>flush=</code><i>name</i> flushes the named cache, <code>flush=all</code> all the caches</li>
+ * <li><code>name=</code><i>name</i><code>&amp;maxSize=</code><i>size</i> changes the maximum size of the named
+ * cache</li>
+ * </ul>
+ * The caches are listed after any change.
+ */
+public class CachesCommand extends AbstractAdminCommand {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = 3391785040867528214L;
+
+    /** The caches, by name. */
+    private Map<String, ManagedCache> caches;
+
+    /**
+     * Constructor.
+     * 
+     * @param pdpCaches the caches, by name
+     */
+    public CachesCommand(Map<String, ManagedCache> pdpCaches) {
+        super("/caches");
+
+        if (pdpCaches == null) {
+            throw new IllegalArgumentException("Caches may not be null");
+        }
+        caches = pdpCaches;
+    }
+
+    /** {@inheritDoc} */
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String flush = req.getParameter("flush");
+        if (flush != null) {
+            if ("all".equals(flush)) {
+                for (ManagedCache cache : caches.values()) {
+                    cache.clear();
+                }
+            } else if (caches.containsKey(flush)) {
+                caches.get(flush).clear();
+            } else {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No cache named " + flush);
+                return;
+            }
+        }
+
+        String maxSize = req.getParameter("maxSize");
+        if (maxSize != null) {
+            ManagedCache cache = caches.get(req.getParameter("name"));
+            if (cache == null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "No cache named " + req.getParameter("name"));
+                return;
+            }
+            try {
+                cache.setMaxSize(Integer.parseInt(maxSize));
+            } catch (IllegalArgumentException e) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cache size " + maxSize);
+                return;
+            }
+        }
+
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter writer = resp.getWriter();
+        for (Map.Entry<String, ManagedCache> cache : caches.entrySet()) {
+            writer.println(cache.getKey() + ": size=" + cache.getValue().size() + " maxSize="
+                    + cache.getValue().getMaxSize());
+        }
+        writer.flush();
+    }
+}
\ No newline at end of file
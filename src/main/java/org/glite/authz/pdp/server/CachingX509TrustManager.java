@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.X509TrustManager;
+
+import eu.emi.security.authn.x509.StoreUpdateListener;
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.ManagedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trust manager remembering the client certificate chains which were successfully validated, keyed by the
+ * fingerprint of their end entity certificate, so that the full chain validation, including the CRL checks, is not
+ * redone each time a PEP opens a new connection.
+ * <p>
+ * Only successful validations are cached. An entry is used only if the presented chain is identical to the validated
+ * one, the end entity certificate is still within its validity period and the entry is younger than the configured
+ * lifetime. The whole cache is dropped whenever the validator reloads its trust anchors or CRLs.
+ */
+@ThreadSafe
+public class CachingX509TrustManager implements X509TrustManager, ManagedCache {
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(CachingX509TrustManager.class);
+
+    /** Trust manager performing the actual validation. */
+    private final X509TrustManager delegate;
+
+    /** Validated chains, keyed by the fingerprint of their end entity certificate. */
+    private final ConcurrentHashMap<String, ValidatedChain> validatedChains;
+
+    /** Maximum number of cached chains. */
+    private volatile int maxSize;
+
+    /** Lifetime of a cached validation, in milliseconds. */
+    private final long lifetime;
+
+    /** Metrics receiving the cache hits and misses. */
+    private final PDPMetrics metrics;
+
+    /**
+     * Constructor.
+     * 
+     * @param trustManager trust manager performing the actual validation
+     * @param validator validator used by the trust manager, whose trust material updates invalidate the cache
+     * @param cacheSize maximum number of cached chains
+     * @param cacheLifetime lifetime of a cached validation, in milliseconds
+     * @param pdpMetrics metrics receiving the cache hits and misses
+     */
+    public CachingX509TrustManager(X509TrustManager trustManager, X509CertChainValidatorExt validator,
+            int cacheSize, long cacheLifetime, PDPMetrics pdpMetrics) {
+        if (trustManager == null) {
+            throw new IllegalArgumentException("Trust manager may not be null");
+        }
+        delegate = trustManager;
+        validatedChains = new ConcurrentHashMap<String, ValidatedChain>();
+        maxSize = cacheSize;
+        lifetime = cacheLifetime;
+        metrics = pdpMetrics;
+
+        if (validator != null) {
+            validator.addUpdateListener(new StoreUpdateListener() {
+                public void loadingNotification(String location, String type, Severity level, Exception cause) {
+                    log.debug("Trust material {} ({}) reloaded, clearing the certificate validation cache", location,
+                            type);
+                    clear();
+                }
+            });
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        if (chain == null || chain.length == 0 || maxSize < 1) {
+            delegate.checkClientTrusted(chain, authType);
+            return;
+        }
+
+        String fingerprint = fingerprint(chain[0]);
+        ValidatedChain validated = validatedChains.get(fingerprint);
+        long now = System.currentTimeMillis();
+        if (validated != null && validated.isValidFor(chain, now)) {
+            try {
+                chain[0].checkValidity();
+                metrics.incrementCertValidationCacheHits();
+                return;
+            } catch (CertificateException e) {
+                validatedChains.remove(fingerprint);
+            }
+        }
+
+        metrics.incrementCertValidationCacheMisses();
+        delegate.checkClientTrusted(chain, authType);
+
+        if (validatedChains.size() >= maxSize) {
+            validatedChains.clear();
+        }
+        validatedChains.put(fingerprint, new ValidatedChain(chain, now + lifetime));
+    }
+
+    /** {@inheritDoc} */
+    public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+        delegate.checkServerTrusted(chain, authType);
+    }
+
+    /** {@inheritDoc} */
+    public X509Certificate[] getAcceptedIssuers() {
+        return delegate.getAcceptedIssuers();
+    }
+
+    /**
+     * Gets the number of cached chains.
+     * 
+     * @return number of cached chains
+     */
+    public int size() {
+        return validatedChains.size();
+    }
+
+    /**
+     * Gets the maximum number of cached chains.
+     * 
+     * @return maximum number of cached chains
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of cached chains.
+     * 
+     * @param maximumSize maximum number of cached chains, 0 disables the cache
+     */
+    public void setMaxSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Maximum cache size may not be negative");
+        }
+        maxSize = maximumSize;
+        if (validatedChains.size() > maximumSize) {
+            validatedChains.clear();
+        }
+    }
+
+    /** Drops all the cached validations. */
+    public void clear() {
+        validatedChains.clear();
+    }
+
+    /**
+     * Computes the SHA-256 fingerprint of a certificate.
+     * 
+     * @param certificate the certificate
+     * 
+     * @return the hex encoded fingerprint
+     * 
+     * @throws CertificateException thrown if the certificate can not be encoded
+     */
+    private static String fingerprint(X509Certificate certificate) throws CertificateException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded());
+            StringBuilder fingerprint = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                fingerprint.append(Character.forDigit((b >> 4) & 0xf, 16));
+                fingerprint.append(Character.forDigit(b & 0xf, 16));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new CertificateException("SHA-256 digest is not supported", e);
+        } catch (CertificateEncodingException e) {
+            throw new CertificateException("Unable to encode certificate", e);
+        }
+    }
+
+    /** A successfully validated chain. */
+    private static final class ValidatedChain {
+
+        /** The validated chain. */
+        private final X509Certificate[] chain;
+
+        /** Instant, in milliseconds, after which the validation must be redone. */
+        private final long expiration;
+
+        /**
+         * Constructor.
+         * 
+         * @param validatedChain the validated chain
+         * @param expirationMillis instant after which the validation must be redone
+         */
+        ValidatedChain(X509Certificate[] validatedChain, long expirationMillis) {
+            chain = validatedChain.clone();
+            expiration = expirationMillis;
+        }
+
+        /**
+         * Checks whether this validation applies to the given chain.
+         * 
+         * @param presentedChain the chain presented by the client
+         * @param now the current instant, in milliseconds
+         * 
+         * @return true if the given chain is the validated one and the validation has not expired
+         */
+        boolean isValidFor(X509Certificate[] presentedChain, long now) {
+            return now < expiration && Arrays.equals(chain, presentedChain);
+        }
+    }
+}
\ No newline at end of file
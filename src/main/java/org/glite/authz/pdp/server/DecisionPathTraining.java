@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.glite.authz.pdp.policy.PolicySnapshot;
+import org.glite.authz.pdp.util.SAMLUtil;
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.RequestCtxFactory;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.DecisionType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.ws.soap.common.SOAPObjectBuilder;
+import org.opensaml.ws.soap.soap11.Body;
+import org.opensaml.ws.soap.soap11.Envelope;
+import org.opensaml.xacml.ctx.AttributeType;
+import org.opensaml.xacml.ctx.DecisionType.DECISION;
+import org.opensaml.xacml.ctx.StatusCodeType;
+import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+/**
+ * Exercises, in process, the code path of an authorization request: the
+ * parsing and unmarshalling of a SOAP request, its conversion to a HERAS-AF
+ * request, the policy evaluation and the marshalling and serialization of the
+ * SOAP response.
+ * <p>
+ * It is run by the class-data-sharing training run of the daemon, so that the
+ * classes needed by the first decision are loaded, and thus archived, without
+ * a client having to send a request.
+ */
+public final class DecisionPathTraining {
+
+    /** Class logger. */
+    private static final Logger LOG= LoggerFactory.getLogger(DecisionPathTraining.class);
+
+    /** Constructor. */
+    private DecisionPathTraining() {
+    }
+
+    /**
+     * Runs a synthetic request through the decision path.
+     * 
+     * @param snapshot
+     *            the policy snapshot against which the request is evaluated,
+     *            may be null in which case the evaluation is skipped
+     * 
+     * @return the decision, or null if there was no policy to evaluate
+     * 
+     * @throws Exception
+     *             thrown if the request can not be processed
+     */
+    public static DecisionType run(PolicySnapshot snapshot) throws Exception {
+        // the request, as received by the servlet
+        List<AttributeType> subject= new ArrayList<AttributeType>();
+        subject.add(XACMLUtil.buildAttribute("urn:oasis:names:tc:xacml:1.0:subject:subject-id",
+                                             "urn:oasis:names:tc:xacml:1.0:data-type:x500Name",
+                                             null,
+                                             Collections.singletonList("CN=Training,O=Argus")));
+        List<AttributeType> resource= new ArrayList<AttributeType>();
+        resource.add(XACMLUtil.buildAttribute("urn:oasis:names:tc:xacml:1.0:resource:resource-id",
+                                              "http://www.w3.org/2001/XMLSchema#string",
+                                              null,
+                                              Collections.singletonList("training")));
+        List<AttributeType> action= new ArrayList<AttributeType>();
+        action.add(XACMLUtil.buildAttribute("urn:oasis:names:tc:xacml:1.0:action:action-id",
+                                            "http://www.w3.org/2001/XMLSchema#string",
+                                            null,
+                                            Collections.singletonList("training")));
+        XACMLAuthzDecisionQueryType query= XACMLUtil.buildAuthzDecisionQuery("_training",
+                                                                             "training",
+                                                                             XACMLUtil.buildRequest(subject,
+                                                                                                    resource,
+                                                                                                    action,
+                                                                                                    new ArrayList<AttributeType>()));
+        ByteArrayOutputStream requestBytes= new ByteArrayOutputStream(4096);
+        DirectBufferSOAP11Encoder.serialize(marshall(wrapInEnvelope(query)),
+                                            requestBytes);
+
+        // decoding
+        BasicParserPool parserPool= new BasicParserPool();
+        Element envelopeElement= parserPool.parse(new ByteArrayInputStream(requestBytes.toByteArray())).getDocumentElement();
+        Envelope envelope= (Envelope) Configuration.getUnmarshallerFactory().getUnmarshaller(envelopeElement).unmarshall(envelopeElement);
+        XACMLAuthzDecisionQueryType decodedQuery= (XACMLAuthzDecisionQueryType) envelope.getBody().getUnknownXMLObjects().get(0);
+        RequestType request= RequestCtxFactory.unmarshal(decodedQuery.getRequest().getDOM()).getRequest();
+
+        // evaluation
+        DecisionType decision= null;
+        if (snapshot != null) {
+            PolicySetType policy= snapshot.getPolicySet();
+            snapshot.getAttributeDictionary().encode(request);
+            EvaluationContext evaluationContext= new EvaluationContext(new TargetMatcherImpl(),
+                                                                       new StatusCodeComparator());
+            decision= policy.getCombiningAlg().evaluate(request,
+                                                        policy,
+                                                        evaluationContext);
+        } else {
+            LOG.warn("No policy loaded, the policy evaluation classes are not exercised");
+        }
+
+        // encoding
+        DECISION samlDecision= decision != null ? DECISION.valueOf(decision.value()) : DECISION.Indeterminate;
+        Response samlResponse= SAMLUtil.buildSAMLResponse(decodedQuery.getID(),
+                                                          new DateTime(),
+                                                          SAMLUtil.buildAssertion("training",
+                                                                                  new DateTime(),
+                                                                                  XACMLUtil.buildAuthZDecisionStatement(XACMLUtil.buildRequest(decodedQuery),
+                                                                                                                        XACMLUtil.buildResponse(XACMLUtil.buildResult("training",
+                                                                                                                                                                      samlDecision,
+                                                                                                                                                                      null,
+                                                                                                                                                                      XACMLUtil.buildStatus(StatusCodeType.SC_OK))))),
+                                                          SAMLUtil.buildStatus(StatusCode.SUCCESS_URI,
+                                                                               null));
+        DirectBufferSOAP11Encoder.serialize(marshall(wrapInEnvelope(samlResponse)),
+                                            new ByteArrayOutputStream(4096));
+        return decision;
+    }
+
+    /**
+     * Wraps a message in a SOAP envelope.
+     * 
+     * @param message
+     *            the message
+     * 
+     * @return the SOAP envelope
+     */
+    @SuppressWarnings("unchecked")
+    private static Envelope wrapInEnvelope(XMLObject message) {
+        SOAPObjectBuilder<Envelope> envelopeBuilder= (SOAPObjectBuilder<Envelope>) Configuration.getBuilderFactory().getBuilder(Envelope.DEFAULT_ELEMENT_NAME);
+        SOAPObjectBuilder<Body> bodyBuilder= (SOAPObjectBuilder<Body>) Configuration.getBuilderFactory().getBuilder(Body.DEFAULT_ELEMENT_NAME);
+        Envelope envelope= envelopeBuilder.buildObject();
+        Body body= bodyBuilder.buildObject();
+        body.getUnknownXMLObjects().add(message);
+        envelope.setBody(body);
+        return envelope;
+    }
+
+    /**
+     * Marshalls a message.
+     * 
+     * @param message
+     *            the message
+     * 
+     * @return the marshalled message
+     * 
+     * @throws Exception
+     *             thrown if the message can not be marshalled
+     */
+    private static Element marshall(XMLObject message) throws Exception {
+        return Configuration.getMarshallerFactory().getMarshaller(message).marshall(message);
+    }
+}
\ No newline at end of file
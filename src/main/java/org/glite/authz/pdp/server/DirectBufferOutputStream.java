@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+/**
+ * Output stream writing into direct {@link ByteBuffer}s taken from a Jetty
+ * {@link ByteBufferPool}, so that the written content can be handed to the
+ * connector without being copied into an intermediate array or heap buffer.
+ * <p>
+ * The buffers must be given back to the pool with {@link #release()} once
+ * their content has been written.
+ */
+@NotThreadSafe
+public class DirectBufferOutputStream extends OutputStream {
+
+    /** Default size of the buffers, {@value} . */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** Pool from which the buffers are taken. */
+    private final ByteBufferPool bufferPool;
+
+    /** Size of the buffers. */
+    private final int bufferSize;
+
+    /** Buffers filled so far, the last one being the current one, in fill mode. */
+    private final List<ByteBuffer> buffers;
+
+    /** Buffer currently being filled. */
+    private ByteBuffer current;
+
+    /** Number of bytes written. */
+    private long size;
+
+    /**
+     * Constructor.
+     * 
+     * @param pool pool from which the buffers are taken
+     * @param size size of the buffers
+     */
+    public DirectBufferOutputStream(ByteBufferPool pool, int size) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Buffer pool may not be null");
+        }
+        bufferPool = pool;
+        bufferSize = size;
+        buffers = new ArrayList<ByteBuffer>(4);
+    }
+
+    /** {@inheritDoc} */
+    public void write(int b) {
+        if (current == null || !current.hasRemaining()) {
+            nextBuffer();
+        }
+        current.put((byte) b);
+        size++;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes, int offset, int length) {
+        int written = 0;
+        while (written < length) {
+            if (current == null || !current.hasRemaining()) {
+                nextBuffer();
+            }
+            int chunk = Math.min(length - written, current.remaining());
+            current.put(bytes, offset + written, chunk);
+            written += chunk;
+        }
+        size += length;
+    }
+
+    /**
+     * Gets the number of bytes written to the stream.
+     * 
+     * @return number of bytes written to the stream
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets the buffers holding the written content, ready to be read. The stream
+     * must not be written to afterwards.
+     * 
+     * @return the buffers holding the written content
+     */
+    public List<ByteBuffer> getBuffers() {
+        if (current != null) {
+            current.flip();
+            current = null;
+        }
+        return buffers;
+    }
+
+    /** Gives the buffers back to the pool. */
+    public void release() {
+        for (ByteBuffer buffer : buffers) {
+            bufferPool.release(buffer);
+        }
+        buffers.clear();
+        current = null;
+    }
+
+    /** Takes a new buffer from the pool and makes it the current one. */
+    private void nextBuffer() {
+        if (current != null) {
+            current.flip();
+        }
+        current = bufferPool.acquire(bufferSize, true);
+        current.clear();
+        buffers.add(current);
+    }
+}
\ No newline at end of file
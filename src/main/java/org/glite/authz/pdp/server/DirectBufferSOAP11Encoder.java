@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.servlet.http.HttpServletResponse;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Response;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.binding.SAMLMessageContext;
+import org.opensaml.saml1.binding.encoding.HTTPSOAP11Encoder;
+import org.opensaml.ws.message.MessageContext;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.soap.soap11.Envelope;
+import org.opensaml.ws.transport.http.HTTPTransportUtils;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.w3c.dom.Element;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSOutput;
+import org.w3c.dom.ls.LSSerializer;
+
+/**
+ * SOAP 1.1 encoder serializing the marshalled response straight into pooled
+ * direct buffers of the Jetty connector.
+ * <p>
+ * The default encoder serializes the DOM into a {@link java.io.Writer}, whose
+ * encoder copies the bytes into the aggregation buffer of the Jetty output,
+ * which is in turn copied when written to the connection. This encoder
+ * serializes the DOM as UTF-8 bytes into direct buffers taken from the
+ * connector {@link org.eclipse.jetty.io.ByteBufferPool}, sets the content
+ * length, and hands the buffers to the connector as they are. When the
+ * response is not a Jetty response, for instance when it is wrapped by a
+ * filter, the bytes are serialized straight into the servlet output stream.
+ */
+@ThreadSafe
+public class DirectBufferSOAP11Encoder extends HTTPSOAP11Encoder {
+
+    /** Value of the SOAPAction header, as set by the default encoder. */
+    private static final String SOAP_ACTION= "http://www.oasis-open.org/committees/security";
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    protected void doEncode(MessageContext messageContext)
+            throws MessageEncodingException {
+        if (!(messageContext instanceof SAMLMessageContext)
+                || !(messageContext.getOutboundMessageTransport() instanceof HttpServletResponseAdapter)) {
+            super.doEncode(messageContext);
+            return;
+        }
+
+        SAMLMessageContext samlMsgCtx= (SAMLMessageContext) messageContext;
+        SAMLObject samlMessage= samlMsgCtx.getOutboundSAMLMessage();
+        if (samlMessage == null) {
+            throw new MessageEncodingException("No outbound SAML message contained in message context");
+        }
+
+        signMessage(samlMsgCtx);
+        Envelope envelope= buildSOAPMessage(samlMessage);
+        samlMsgCtx.setOutboundMessage(envelope);
+        Element envelopeElem= marshallMessage(envelope);
+
+        HttpServletResponseAdapter outTransport= (HttpServletResponseAdapter) messageContext.getOutboundMessageTransport();
+        HTTPTransportUtils.addNoCacheHeaders(outTransport);
+        HTTPTransportUtils.setUTF8Encoding(outTransport);
+        HTTPTransportUtils.setContentType(outTransport, "text/xml");
+        outTransport.setHeader("SOAPAction", SOAP_ACTION);
+
+        HttpServletResponse httpResponse= outTransport.getWrappedResponse();
+        try {
+            if (httpResponse instanceof Response) {
+                writeDirect(envelopeElem, (Response) httpResponse);
+            } else {
+                serialize(envelopeElem, outTransport.getOutgoingStream());
+            }
+        } catch (IOException e) {
+            throw new MessageEncodingException("Unable to write the SOAP response",
+                                               e);
+        }
+    }
+
+    /**
+     * Serializes an element into pooled direct buffers and writes them to the
+     * response.
+     * 
+     * @param element
+     *            the element to write
+     * @param response
+     *            the Jetty response
+     * 
+     * @throws IOException
+     *             thrown if the buffers can not be written
+     */
+    private void writeDirect(Element element, Response response)
+            throws IOException {
+        DirectBufferOutputStream out= new DirectBufferOutputStream(response.getHttpChannel().getByteBufferPool(),
+                                                                   DirectBufferOutputStream.DEFAULT_BUFFER_SIZE);
+        try {
+            serialize(element, out);
+            response.setContentLength((int) out.size());
+            HttpOutput httpOutput= response.getHttpOutput();
+            for (ByteBuffer buffer : out.getBuffers()) {
+                httpOutput.write(buffer);
+            }
+        } finally {
+            out.release();
+        }
+    }
+
+    /**
+     * Serializes an element as UTF-8 bytes into a stream.
+     * 
+     * @param element
+     *            the element to serialize
+     * @param stream
+     *            stream to which the bytes are written
+     */
+    static void serialize(Element element, OutputStream stream) {
+        DOMImplementationLS domImplLS= (DOMImplementationLS) element.getOwnerDocument().getImplementation();
+        LSSerializer serializer= domImplLS.createLSSerializer();
+        LSOutput output= domImplLS.createLSOutput();
+        output.setEncoding("UTF-8");
+        output.setByteStream(stream);
+        serializer.write(element, output);
+    }
+}
\ No newline at end of file
@@ -22,6 +22,8 @@ import java.util.HashMap;
 import net.jcip.annotations.ThreadSafe;
 
 import org.glite.authz.common.profile.GLiteAuthorizationProfileConstants;
+import org.glite.authz.pdp.xacml.CachingX500DataTypeAttribute;
+import org.glite.authz.pdp.xacml.CachingX500NameMatchFunction;
 import org.glite.authz.pdp.xacml.FQANDataTypeAttribute;
 import org.glite.authz.pdp.xacml.FQANEqualFunction;
 import org.glite.authz.pdp.xacml.FQANRegexpFunction;
@@ -309,7 +311,7 @@ public final class HerasAFBootstrap {
         dataTypes.put(RFC822NameDataTypeAttribute.ID, new RFC822NameDataTypeAttribute());
         dataTypes.put(StringDataTypeAttribute.ID, new StringDataTypeAttribute());
         dataTypes.put(TimeDataTypeAttribute.ID, new TimeDataTypeAttribute());
-        dataTypes.put(X500DataTypeAttribute.ID, new X500DataTypeAttribute());
+        dataTypes.put(X500DataTypeAttribute.ID, new CachingX500DataTypeAttribute());
         dataTypes.put(YearMonthDurationDataTypeAttribute.ID, new YearMonthDurationDataTypeAttribute());
         dataTypes.put(GLiteAuthorizationProfileConstants.DATATYPE_FQAN, new FQANDataTypeAttribute());
 
@@ -551,7 +553,7 @@ public final class HerasAFBootstrap {
 
         // special matching functions
         functions.put(RFC822NameMatchFunction.ID, new RFC822NameMatchFunction());
-        functions.put(X500NameMatchFunction.ID, new X500NameMatchFunction());
+        functions.put(X500NameMatchFunction.ID, new CachingX500NameMatchFunction());
 
         // string conversion functions
         functions.put(StringNormalizeSpaceFunction.ID, new StringNormalizeSpaceFunction());
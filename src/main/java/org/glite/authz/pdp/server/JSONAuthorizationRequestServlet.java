@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.opensaml.xacml.ctx.AttributeType;
+import org.opensaml.xacml.ctx.ResultType;
+import org.opensaml.xacml.ctx.StatusType;
+import org.opensaml.xacml.policy.AttributeAssignmentType;
+import org.opensaml.xacml.policy.ObligationType;
+import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType;
+
+/**
+ * Authorization endpoint implementing the request/response subset of the JSON
+ * Profile of XACML 3.0.
+ * <p>
+ * The request is read with a streaming parser, without building a JSON tree,
+ * directly into the XACML request context used by the rest of the PDP. The
+ * <code>AccessSubject</code>, <code>Resource</code>, <code>Action</code> and
+ * <code>Environment</code> shorthands as well as the generic
+ * <code>Category</code> array are supported, each category at most once:
+ * multiple decision requests are rejected. Attribute values may be single
+ * values or arrays, the data type defaults to the one inferred from the JSON
+ * type of the value and the XACML data type shorthands (<code>string</code>,
+ * <code>x500Name</code>, ...) are accepted.
+ * <p>
+ * The response contains a single result with its decision, status and
+ * obligations. The request issuer is the subject of the client certificate.
+ */
+@ThreadSafe
+public class JSONAuthorizationRequestServlet extends
+        AbstractCompactAuthorizationRequestServlet {
+
+    /** Path, relative to the service context, at which the servlet is bound, {@value} . */
+    public static final String PATH= "/authz-json";
+
+    /** MIME type of the requests and responses, {@value} . */
+    public static final String CONTENT_TYPE= "application/xacml+json";
+
+    /** Access subject category ID, {@value} . */
+    public static final String ACCESS_SUBJECT_CATEGORY= "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+
+    /** Resource category ID, {@value} . */
+    public static final String RESOURCE_CATEGORY= "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+
+    /** Action category ID, {@value} . */
+    public static final String ACTION_CATEGORY= "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+
+    /** Environment category ID, {@value} . */
+    public static final String ENVIRONMENT_CATEGORY= "urn:oasis:names:tc:xacml:3.0:attribute-category:environment";
+
+    /** Serial version UID. */
+    private static final long serialVersionUID= 4411309263372846751L;
+
+    /** Namespace of the XML Schema data types. */
+    private static final String XSD= "http://www.w3.org/2001/XMLSchema#";
+
+    /** Factory of the JSON parsers and generators, thread safe once configured. */
+    private static final JsonFactory JSON_FACTORY= new JsonFactory();
+
+    /** Category IDs, indexed by their JSON shorthand. */
+    private static final Map<String, String> CATEGORY_SHORTHANDS= new HashMap<String, String>();
+
+    /** Data type URIs, indexed by their JSON shorthand. */
+    private static final Map<String, String> DATA_TYPE_SHORTHANDS= new HashMap<String, String>();
+
+    static {
+        CATEGORY_SHORTHANDS.put("AccessSubject", ACCESS_SUBJECT_CATEGORY);
+        CATEGORY_SHORTHANDS.put("Resource", RESOURCE_CATEGORY);
+        CATEGORY_SHORTHANDS.put("Action", ACTION_CATEGORY);
+        CATEGORY_SHORTHANDS.put("Environment", ENVIRONMENT_CATEGORY);
+
+        for (String xsdType : new String[] { "string", "boolean", "integer", "double", "time", "date", "dateTime",
+                "anyURI", "hexBinary", "base64Binary" }) {
+            DATA_TYPE_SHORTHANDS.put(xsdType, XSD + xsdType);
+        }
+        DATA_TYPE_SHORTHANDS.put("dayTimeDuration", "http://www.w3.org/TR/2002/WD-xquery-operators-20020816#dayTimeDuration");
+        DATA_TYPE_SHORTHANDS.put("yearMonthDuration", "http://www.w3.org/TR/2002/WD-xquery-operators-20020816#yearMonthDuration");
+        DATA_TYPE_SHORTHANDS.put("x500Name", "urn:oasis:names:tc:xacml:1.0:data-type:x500Name");
+        DATA_TYPE_SHORTHANDS.put("rfc822Name", "urn:oasis:names:tc:xacml:1.0:data-type:rfc822Name");
+        DATA_TYPE_SHORTHANDS.put("ipAddress", "urn:oasis:names:tc:xacml:2.0:data-type:ipAddress");
+        DATA_TYPE_SHORTHANDS.put("dnsName", "urn:oasis:names:tc:xacml:2.0:data-type:dnsName");
+    }
+
+    /** {@inheritDoc} */
+    protected XACMLAuthzDecisionQueryType decodeRequest(
+            HttpServletRequest httpRequest) throws IOException {
+        return XACMLUtil.buildAuthzDecisionQuery(null,
+                                                 getClientIssuer(httpRequest),
+                                                 parseRequest(httpRequest.getInputStream()));
+    }
+
+    /** {@inheritDoc} */
+    protected String getResponseContentType() {
+        return CONTENT_TYPE;
+    }
+
+    /** {@inheritDoc} */
+    protected void encodeResult(AuthzRequestMessageContext messageContext,
+            OutputStream out) throws IOException {
+        ResultType result= messageContext.getAuthorizationResult();
+        JsonGenerator generator= JSON_FACTORY.createGenerator(out,
+                                                              JsonEncoding.UTF8);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("Response");
+        generator.writeStartObject();
+        generator.writeStringField("Decision",
+                                   result.getDecision() != null ? result.getDecision().getDecision().toString()
+                                           : "Indeterminate");
+
+        StatusType status= result.getStatus();
+        if (status != null) {
+            generator.writeObjectFieldStart("Status");
+            if (status.getStatusCode() != null) {
+                generator.writeObjectFieldStart("StatusCode");
+                generator.writeStringField("Value",
+                                           status.getStatusCode().getValue());
+                generator.writeEndObject();
+            }
+            if (status.getMessage() != null) {
+                generator.writeStringField("StatusMessage",
+                                           status.getMessage().getValue());
+            }
+            generator.writeEndObject();
+        }
+
+        if (result.getObligations() != null
+                && !result.getObligations().getObligations().isEmpty()) {
+            generator.writeArrayFieldStart("Obligations");
+            for (ObligationType obligation : result.getObligations().getObligations()) {
+                generator.writeStartObject();
+                generator.writeStringField("Id", obligation.getObligationId());
+                if (!obligation.getAttributeAssignments().isEmpty()) {
+                    generator.writeArrayFieldStart("AttributeAssignment");
+                    for (AttributeAssignmentType assignment : obligation.getAttributeAssignments()) {
+                        generator.writeStartObject();
+                        generator.writeStringField("AttributeId",
+                                                   assignment.getAttributeId());
+                        generator.writeStringField("Value",
+                                                   assignment.getValue());
+                        if (assignment.getDataType() != null) {
+                            generator.writeStringField("DataType",
+                                                       assignment.getDataType());
+                        }
+                        generator.writeEndObject();
+                    }
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.flush();
+    }
+
+    /**
+     * Parses a JSON request in to a XACML request context.
+     * 
+     * @param in
+     *            stream from which the request is read
+     * 
+     * @return the XACML request context
+     * 
+     * @throws IOException
+     *             thrown if the request can not be read or is not a valid
+     *             request
+     */
+    static org.opensaml.xacml.ctx.RequestType parseRequest(InputStream in)
+            throws IOException {
+        Map<String, List<AttributeType>> categories= new HashMap<String, List<AttributeType>>();
+        JsonParser parser= JSON_FACTORY.createParser(in);
+        try {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field= parser.getCurrentName();
+                JsonToken token= parser.nextToken();
+                if ("Request".equals(field)) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    parseRequestObject(parser, categories);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid JSON request: " + e.getOriginalMessage(), e);
+        } finally {
+            parser.close();
+        }
+
+        if (!categories.containsKey(ACCESS_SUBJECT_CATEGORY)
+                || !categories.containsKey(RESOURCE_CATEGORY)
+                || !categories.containsKey(ACTION_CATEGORY)) {
+            throw new IOException("Request must contain the access subject, resource and action categories");
+        }
+        List<AttributeType> environment= categories.get(ENVIRONMENT_CATEGORY);
+        return XACMLUtil.buildRequest(categories.get(ACCESS_SUBJECT_CATEGORY),
+                                      categories.get(RESOURCE_CATEGORY),
+                                      categories.get(ACTION_CATEGORY),
+                                      environment != null ? environment : new ArrayList<AttributeType>());
+    }
+
+    /**
+     * Parses the <code>Request</code> object, the parser being positioned on
+     * its start.
+     * 
+     * @param parser
+     *            the JSON parser
+     * @param categories
+     *            map to which the attributes of each category are added
+     * 
+     * @throws IOException
+     *             thrown if the request can not be read or is not valid
+     */
+    private static void parseRequestObject(JsonParser parser,
+            Map<String, List<AttributeType>> categories) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field= parser.getCurrentName();
+            JsonToken token= parser.nextToken();
+            String categoryId= CATEGORY_SHORTHANDS.get(field);
+            if (categoryId != null || "Category".equals(field)) {
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        parseCategory(parser, categoryId, categories);
+                    }
+                } else {
+                    parseCategory(parser, categoryId, categories);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Parses a category object, the parser being positioned on its start.
+     * 
+     * @param parser
+     *            the JSON parser
+     * @param shorthandCategoryId
+     *            ID of the category given by its shorthand, or null if it is
+     *            given by the <code>CategoryId</code> field
+     * @param categories
+     *            map to which the attributes of the category are added
+     * 
+     * @throws IOException
+     *             thrown if the category can not be read or is not valid
+     */
+    private static void parseCategory(JsonParser parser,
+            String shorthandCategoryId,
+            Map<String, List<AttributeType>> categories) throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+        String categoryId= shorthandCategoryId;
+        List<AttributeType> attributes= new ArrayList<AttributeType>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field= parser.getCurrentName();
+            JsonToken token= parser.nextToken();
+            if ("CategoryId".equals(field)) {
+                String id= parser.getText();
+                categoryId= CATEGORY_SHORTHANDS.containsKey(id) ? CATEGORY_SHORTHANDS.get(id) : id;
+            } else if ("Attribute".equals(field)) {
+                if (token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        attributes.add(parseAttribute(parser));
+                    }
+                } else {
+                    attributes.add(parseAttribute(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (categoryId == null) {
+            throw new IOException("Category without CategoryId");
+        }
+        if (categories.containsKey(categoryId)) {
+            throw new IOException("Multiple decision requests are not supported, category " + categoryId
+                    + " appears more than once");
+        }
+        categories.put(categoryId, attributes);
+    }
+
+    /**
+     * Parses an attribute object, the parser being positioned on its start.
+     * 
+     * @param parser
+     *            the JSON parser
+     * 
+     * @return the attribute
+     * 
+     * @throws IOException
+     *             thrown if the attribute can not be read or is not valid
+     */
+    private static AttributeType parseAttribute(JsonParser parser)
+            throws IOException {
+        expect(parser, parser.getCurrentToken(), JsonToken.START_OBJECT);
+        String id= null;
+        String dataType= null;
+        String issuer= null;
+        String inferredDataType= null;
+        List<String> values= new ArrayList<String>(1);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field= parser.getCurrentName();
+            JsonToken token= parser.nextToken();
+            if ("AttributeId".equals(field)) {
+                id= parser.getText();
+            } else if ("DataType".equals(field)) {
+                dataType= parser.getText();
+            } else if ("Issuer".equals(field)) {
+                issuer= parser.getText();
+            } else if ("Value".equals(field)) {
+                if (token == JsonToken.START_ARRAY) {
+                    while ((token= parser.nextToken()) != JsonToken.END_ARRAY) {
+                        inferredDataType= parseValue(parser, token, values);
+                    }
+                } else {
+                    inferredDataType= parseValue(parser, token, values);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (id == null || values.isEmpty()) {
+            throw new IOException("Attribute without AttributeId or Value");
+        }
+        if (dataType == null) {
+            dataType= inferredDataType;
+        } else if (DATA_TYPE_SHORTHANDS.containsKey(dataType)) {
+            dataType= DATA_TYPE_SHORTHANDS.get(dataType);
+        }
+        return XACMLUtil.buildAttribute(id, dataType, issuer, values);
+    }
+
+    /**
+     * Parses a scalar attribute value.
+     * 
+     * @param parser
+     *            the JSON parser
+     * @param token
+     *            the current token
+     * @param values
+     *            list to which the value is added
+     * 
+     * @return the data type inferred from the JSON type of the value
+     * 
+     * @throws IOException
+     *             thrown if the value can not be read or is not a scalar
+     */
+    private static String parseValue(JsonParser parser, JsonToken token,
+            List<String> values) throws IOException {
+        values.add(parser.getText());
+        switch (token) {
+        case VALUE_STRING:
+            return XSD + "string";
+        case VALUE_TRUE:
+        case VALUE_FALSE:
+            return XSD + "boolean";
+        case VALUE_NUMBER_INT:
+            return XSD + "integer";
+        case VALUE_NUMBER_FLOAT:
+            return XSD + "double";
+        default:
+            throw new IOException("Unsupported attribute value " + token);
+        }
+    }
+
+    /**
+     * Checks the type of a token.
+     * 
+     * @param parser
+     *            the JSON parser
+     * @param token
+     *            the token
+     * @param expected
+     *            the expected token type
+     * 
+     * @throws IOException
+     *             thrown if the token is not of the expected type
+     */
+    private static void expect(JsonParser parser, JsonToken token,
+            JsonToken expected) throws IOException {
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but found " + token + " at "
+                    + parser.getCurrentLocation());
+        }
+    }
+}
\ No newline at end of file
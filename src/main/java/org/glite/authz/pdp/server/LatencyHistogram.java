@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Histogram of latencies with power of two buckets: bucket <i>i</i> counts the
+ * latencies from 2<sup><i>i</i>-1</sup> (inclusive) to 2<sup><i>i</i></sup>
+ * (exclusive) microseconds, bucket 0 the latencies under a microsecond.
+ * Recording a latency takes a few atomic increments and never blocks.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    /** Number of buckets, the last one counts the latencies over about 18 minutes. */
+    private static final int BUCKETS = 31;
+
+    /** Number of recorded latencies, by bucket. */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded latencies. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** Sum of the recorded latencies, in nanoseconds. */
+    private final AtomicLong total = new AtomicLong();
+
+    /** Highest recorded latency, in nanoseconds. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     * 
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     * 
+     * @return number of recorded latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the upper bound of the bucket holding the given percentile of the
+     * recorded latencies.
+     * 
+     * @param percentile the percentile, between 0 and 100
+     * 
+     * @return upper bound of the bucket, in microseconds, or 0 if no latency
+     *         was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            recorded += counts[i];
+        }
+        if (recorded == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(recorded * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /** Drops all the recorded latencies. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Prints the summary and the non empty buckets of the histogram. The
+     * summary line reads <i>name</i>: count=<i>count</i> mean=<i>mean</i>us
+     * p50=<i>bound</i>us p99=<i>bound</i>us max=<i>max</i>us, followed by one
+     * line per non empty bucket: <i>name</i>.lt<i>bound</i>us: <i>count</i>.
+     * 
+     * @param writer writer to print to
+     * @param name name of the histogram
+     */
+    public void print(PrintWriter writer, String name) {
+        long recorded = count.get();
+        writer.println(name + ": count=" + recorded + " mean=" + (recorded == 0 ? 0 : total.get() / recorded / 1000)
+                + "us p50=" + getPercentileMicros(50) + "us p99=" + getPercentileMicros(99) + "us max="
+                + max.get() / 1000 + "us");
+        for (int i = 0; i < BUCKETS; i++) {
+            long bucketCount = buckets.get(i);
+            if (bucketCount > 0) {
+                writer.println(name + ".lt" + (1L << i) + "us: " + bucketCount);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.glite.authz.common.http.AbstractAdminCommand;
+
+/**
+ * An admin command that prints the latency histograms of the request processing stages, see {@link LatencyHistogram}.
+ * The histograms are reset after being printed if the <code>reset</code> parameter is <code>true</code>.
+ */
+public class LatencyHistogramsCommand extends AbstractAdminCommand {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = -6204117384459312087L;
+
+    /** Metrics holding the histograms. */
+    private PDPMetrics metrics;
+
+    /**
+     * Constructor.
+     * 
+     * @param pdpMetrics metrics holding the histograms
+     */
+    public LatencyHistogramsCommand(PDPMetrics pdpMetrics) {
+        super("/latencyHistograms");
+
+        if (pdpMetrics == null) {
+            throw new IllegalArgumentException("PDP metrics may not be null");
+        }
+        metrics = pdpMetrics;
+    }
+
+    /** {@inheritDoc} */
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        boolean reset = Boolean.parseBoolean(req.getParameter("reset"));
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter writer = resp.getWriter();
+        for (Map.Entry<String, LatencyHistogram> stage : metrics.getStageLatencies().entrySet()) {
+            stage.getValue().print(writer, stage.getKey());
+            if (reset) {
+                stage.getValue().reset();
+            }
+        }
+        writer.flush();
+    }
+}
\ No newline at end of file
@@ -20,20 +20,39 @@ package org.glite.authz.pdp.server;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.Security;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
 import javax.servlet.DispatcherType;
 
+import eu.emi.security.authn.x509.X509CertChainValidatorExt;
+import eu.emi.security.authn.x509.impl.SSLTrustManager;
+
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.eclipse.jetty.alpn.server.ALPNServerConnectionFactory;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
 import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.ThreadPool;
 import org.glite.authz.common.config.ConfigurationException;
 import org.glite.authz.common.http.JettyAdminService;
@@ -50,8 +69,13 @@ import org.glite.authz.pdp.config.PDPConfiguration;
 import org.glite.authz.pdp.config.PDPIniConfigurationParser;
 import org.glite.authz.pdp.pip.PolicyInformationPoint;
 import org.glite.authz.pdp.policy.PolicyRepository;
+import org.glite.authz.pdp.util.AccessLogWriter;
+import org.glite.authz.pdp.util.ManagedCache;
+import org.glite.authz.pdp.util.ProtocolCaptureWriter;
 import org.glite.authz.pdp.util.SAMLUtil;
 import org.glite.authz.pdp.util.XACMLUtil;
+import org.glite.authz.pdp.xacml.X500NameCache;
+import org.herasaf.xacml.core.context.impl.DecisionType;
 import org.italiangrid.utils.jetty.TLSServerConnectorBuilder;
 import org.italiangrid.utils.jetty.ThreadPoolBuilder;
 import org.opensaml.DefaultBootstrap;
@@ -76,6 +100,20 @@ public final class PDPDaemon {
   /** System property name PDP_GRACEFUL to set to force a graceful shutdown */
   public static final String PDP_GRACEFUL_PROP = "org.glite.authz.pdp.server.graceful";
 
+  /** JSSE system property enabling server side TLS session tickets. */
+  public static final String TLS_SESSION_TICKETS_PROP =
+    "jdk.tls.server.enableSessionTicketExtension";
+
+  /**
+   * System property name set by the class-data-sharing training run: the
+   * decision path is exercised once and the daemon exits without serving.
+   */
+  public static final String PDP_CDS_TRAINING_PROP =
+    "org.glite.authz.pdp.cds.training";
+
+  /** Number of threads running the independent startup steps: {@value} */
+  public static final int STARTUP_THREADS = 4;
+
   /** Default admin port: {@value} */
   public static int DEFAULT_ADMIN_PORT = 8153;
 
@@ -105,7 +143,7 @@ public final class PDPDaemon {
    * @throws Exception
    *           thrown if there is a problem starting the daemon
    */
-  public static void main(String[] args) throws Exception {
+  public static void main(final String[] args) throws Exception {
 
     if (args.length < 1 || args.length > 1) {
       errorAndExit("Missing configuration file argument", null);
@@ -121,29 +159,113 @@ public final class PDPDaemon {
     String loggingConfigFilePath = confDir + "/logging.xml";
     initializeLogging(loggingConfigFilePath, backgroundTaskTimer);
 
-    Security.addProvider(new BouncyCastleProvider());
-    DefaultBootstrap.bootstrap();
-    HerasAFBootstrap.bootstap();
-
-    // speed optimization
-    SAMLUtil.bootstrap();
-    XACMLUtil.bootstrap();
-
-    PDPConfiguration daemonConfig = parseConfiguration(args[0]);
-    PolicyRepository policyRepository = PolicyRepository.instance(daemonConfig,
-      backgroundTaskTimer);
-
-    List<PolicyInformationPoint> pips = daemonConfig
-      .getPolicyInformationPoints();
-    if (pips != null && !pips.isEmpty()) {
-      for (PolicyInformationPoint pip : daemonConfig
-        .getPolicyInformationPoints()) {
-        if (pip != null) {
-          LOG.debug("Starting PIP {}", pip.getId());
-          pip.start();
+    ExecutorService startupExecutor = Executors
+      .newFixedThreadPool(STARTUP_THREADS);
+    final AtomicReference<PDPConfiguration> daemonConfigRef =
+      new AtomicReference<PDPConfiguration>();
+    final AtomicReference<PolicyRepository> policyRepositoryRef =
+      new AtomicReference<PolicyRepository>();
+    try {
+      // libraries and configuration, HERAS-AF JAXB initialization overlaps
+      // with the OpenSAML bootstrap and the configuration parsing
+      StartupGraph bootstrap = new StartupGraph(startupExecutor);
+      bootstrap.addStep("BouncyCastle", new StartupGraph.Step() {
+        public void run() {
+          Security.addProvider(new BouncyCastleProvider());
+        }
+      });
+      bootstrap.addStep("OpenSAML", new StartupGraph.Step() {
+        public void run() throws Exception {
+          DefaultBootstrap.bootstrap();
+        }
+      });
+      bootstrap.addStep("HERAS-AF", new StartupGraph.Step() {
+        public void run() throws Exception {
+          HerasAFBootstrap.bootstap();
+        }
+      });
+      // speed optimization
+      bootstrap.addStep("SAML/XACML builders", new StartupGraph.Step() {
+        public void run() {
+          SAMLUtil.bootstrap();
+          XACMLUtil.bootstrap();
+        }
+      }, "OpenSAML");
+      bootstrap.addStep("configuration", new StartupGraph.Step() {
+        public void run() {
+          PDPConfiguration daemonConfig = parseConfiguration(args[0]);
+          if (daemonConfig.isTLSSessionTicketsEnabled()) {
+            // read by JSSE when it is first initialized, on Java 13 or later
+            System.setProperty(TLS_SESSION_TICKETS_PROP, "true");
+          }
+          X500NameCache.getInstance().setMaxSize(
+            daemonConfig.getX500NameCacheSize());
+          daemonConfigRef.set(daemonConfig);
+        }
+      }, "BouncyCastle", "SAML/XACML builders");
+      bootstrap.await();
+
+      // policy fetch and PIPs, the PIPs are started concurrently
+      final PDPConfiguration daemonConfig = daemonConfigRef.get();
+      StartupGraph services = new StartupGraph(startupExecutor);
+      services.addStep("policy", new StartupGraph.Step() {
+        public void run() throws Exception {
+          PolicyRepository policyRepository = PolicyRepository.instance(
+            daemonConfig, backgroundTaskTimer);
+          // BUG FIX: PDP policies initialization startup race condition with
+          // PAP => Force a policy loading before starting the jetty servers.
+          // https://issues.infn.it/jira/browse/ARGUS-2
+          // https://ggus.eu/ws/ticket_info.php?ticket=96228
+          int MAX_RETRY = 5;
+          int retry = 1;
+          while (!policyRepository.isPolicyInitialized()
+            && retry <= MAX_RETRY) {
+            LOG.info("Policy is not yet loaded! Force refresh ({}/{})...",
+              retry, MAX_RETRY);
+            policyRepository.refreshPolicy();
+            // sleep millis...
+            Thread.sleep(500);
+            retry++;
+          }
+          policyRepositoryRef.set(policyRepository);
+        }
+      });
+      for (final PDPConfiguration policyConfig : daemonConfig
+        .getNamedPolicyConfigurations().values()) {
+        services.addStep("policy " + policyConfig.getPolicyName(),
+          new StartupGraph.Step() {
+            public void run() {
+              PolicyRepository policyRepository = PolicyRepository.instance(
+                policyConfig, backgroundTaskTimer, policyConfig.getPolicyName(),
+                true);
+              if (!policyRepository.isPolicyInitialized()) {
+                policyRepository.refreshPolicy();
+              }
+            }
+          });
+      }
+      List<PolicyInformationPoint> pips = daemonConfig
+        .getPolicyInformationPoints();
+      if (pips != null && !pips.isEmpty()) {
+        for (final PolicyInformationPoint pip : pips) {
+          if (pip != null) {
+            services.addStep("PIP " + pip.getId(), new StartupGraph.Step() {
+              public void run() throws Exception {
+                LOG.debug("Starting PIP {}", pip.getId());
+                pip.start();
+              }
+            });
+          }
         }
       }
+      services.await();
+    } catch (Exception e) {
+      errorAndExit("Unable to start the PDP daemon", e);
+    } finally {
+      startupExecutor.shutdown();
     }
+    PDPConfiguration daemonConfig = daemonConfigRef.get();
+    PolicyRepository policyRepository = policyRepositoryRef.get();
 
     // create the services (pdp and admin)
     Server jettyServer = createDaemonService(daemonConfig, backgroundTaskTimer);
@@ -153,19 +275,12 @@ public final class PDPDaemon {
     JettyAdminService adminService = createAdminService(daemonConfig,
       backgroundTaskTimer, policyRepository, jettyServer);
 
-    // BUG FIX: PDP policies initialization startup race condition with PAP
-    // => Force a policy loading before starting the jetty servers.
-    // https://issues.infn.it/jira/browse/ARGUS-2
-    // https://ggus.eu/ws/ticket_info.php?ticket=96228
-    int MAX_RETRY = 5;
-    int retry = 1;
-    while (!policyRepository.isPolicyInitialized() && retry <= MAX_RETRY) {
-      LOG.info("Policy is not yet loaded! Force refresh ({}/{})...", retry,
-        MAX_RETRY);
-      policyRepository.refreshPolicy();
-      // sleep millis...
-      Thread.sleep(500);
-      retry++;
+    if (Boolean.getBoolean(PDP_CDS_TRAINING_PROP)) {
+      LOG.info("Class-data-sharing training run, exercising the decision path");
+      DecisionType decision = DecisionPathTraining.run(policyRepository
+        .getPolicySnapshot());
+      LOG.info("Training decision {}, exiting", decision);
+      System.exit(0);
     }
 
     LOG.debug("start the pdp and admin servers...");
@@ -211,24 +326,152 @@ public final class PDPDaemon {
     servletContext.setAttribute(AuthorizationRequestServlet.TIMER_ATTRIB,
       taskTimer);
 
-    FilterHolder accessLoggingFilter = new FilterHolder(
-      new AccessLoggingFilter());
+    FilterHolder accessLoggingFilter;
+    if (daemonConfig.getAccessLogQueueSize() > 0) {
+      accessLoggingFilter = new FilterHolder(new AsyncAccessLoggingFilter(
+        new AccessLogWriter(daemonConfig.getAccessLogQueueSize(),
+          daemonConfig.getAccessLogBackPressure())));
+    } else {
+      accessLoggingFilter = new FilterHolder(new AccessLoggingFilter());
+    }
     servletContext.addFilter(accessLoggingFilter, "/*",
       EnumSet.of(DispatcherType.REQUEST));
 
+    if (daemonConfig.getProtocolCaptureSampleRate() > 0
+      || daemonConfig.getProtocolCaptureIssuer() != null
+      || daemonConfig.getProtocolCaptureSubject() != null) {
+      FilterHolder protocolCaptureFilter = new FilterHolder(
+        createProtocolCaptureFilter(daemonConfig));
+      servletContext.addFilter(protocolCaptureFilter, "/authz/*",
+        EnumSet.of(DispatcherType.REQUEST));
+      servletContext.addFilter(protocolCaptureFilter,
+        BinaryAuthorizationRequestServlet.PATH,
+        EnumSet.of(DispatcherType.REQUEST));
+      servletContext.addFilter(protocolCaptureFilter,
+        BinaryAuthorizationRequestServlet.PATH + "/*",
+        EnumSet.of(DispatcherType.REQUEST));
+      servletContext.addFilter(protocolCaptureFilter,
+        JSONAuthorizationRequestServlet.PATH,
+        EnumSet.of(DispatcherType.REQUEST));
+      servletContext.addFilter(protocolCaptureFilter,
+        JSONAuthorizationRequestServlet.PATH + "/*",
+        EnumSet.of(DispatcherType.REQUEST));
+    }
+
     ServletHolder daemonRequestServlet = new ServletHolder(
       new AuthorizationRequestServlet());
     daemonRequestServlet.setName("PDP Servlet");
     servletContext.addServlet(daemonRequestServlet, "/authz");
+    boolean namedPolicies = !daemonConfig.getNamedPolicyConfigurations()
+      .isEmpty();
+    if (namedPolicies) {
+      // requests for a named policy are posted to /authz/<name>
+      servletContext.addServlet(daemonRequestServlet, "/authz/*");
+    }
+
+    if ((daemonConfig.isBinaryEndpointEnabled() || daemonConfig
+      .isJSONEndpointEnabled())
+      && !(daemonConfig.isSslEnabled() && daemonConfig
+        .isClientCertAuthRequired())) {
+      // the compact endpoints authenticate their clients by certificate only
+      String errorMessage = "The binary and JSON endpoints can only be enabled"
+        + " on an SSL enabled service port requiring client certificate"
+        + " authentication.";
+
+      LOG.error(errorMessage);
+
+      throw new IllegalStateException(errorMessage);
+    }
+
+    if (daemonConfig.isBinaryEndpointEnabled()) {
+      ServletHolder binaryRequestServlet = new ServletHolder(
+        new BinaryAuthorizationRequestServlet());
+      binaryRequestServlet.setName("PDP Binary Servlet");
+      servletContext.addServlet(binaryRequestServlet,
+        BinaryAuthorizationRequestServlet.PATH);
+      if (namedPolicies) {
+        servletContext.addServlet(binaryRequestServlet,
+          BinaryAuthorizationRequestServlet.PATH + "/*");
+      }
+    }
+
+    if (daemonConfig.isJSONEndpointEnabled()) {
+      ServletHolder jsonRequestServlet = new ServletHolder(
+        new JSONAuthorizationRequestServlet());
+      jsonRequestServlet.setName("PDP JSON Servlet");
+      servletContext.addServlet(jsonRequestServlet,
+        JSONAuthorizationRequestServlet.PATH);
+      if (namedPolicies) {
+        servletContext.addServlet(jsonRequestServlet,
+          JSONAuthorizationRequestServlet.PATH + "/*");
+      }
+    }
+
+    if (daemonConfig.isPolicyRelayEnabled()
+      && !(daemonConfig.isSslEnabled() && daemonConfig
+        .isClientCertAuthRequired())) {
+      // the relay hands out the whole policy, to authenticated peers only
+      String errorMessage = "The policy relay can only be enabled on an SSL"
+        + " enabled service port requiring client certificate"
+        + " authentication.";
+
+      LOG.error(errorMessage);
+
+      throw new IllegalStateException(errorMessage);
+    }
+
+    if (daemonConfig.isPolicyRelayEnabled()) {
+      // answers the policy queries of the PDPs using this one as a PAP
+      ServletHolder policyRelayServlet = new ServletHolder(
+        new PolicyRelayServlet());
+      policyRelayServlet.setName("Policy Relay Servlet");
+      servletContext.addServlet(policyRelayServlet, PolicyRelayServlet.PATH);
+    }
 
     ServletHolder statusRequestServlet = new ServletHolder(
       new ServiceMetricsServlet(daemonConfig.getServiceMetrics()));
     statusRequestServlet.setName("Status Servlet");
     servletContext.addServlet(statusRequestServlet, "/status");
 
+    // policy information and request counts of each named policy
+    for (PDPConfiguration policyConfig : daemonConfig
+      .getNamedPolicyConfigurations().values()) {
+      ServletHolder policyStatusServlet = new ServletHolder(
+        new ServiceMetricsServlet(policyConfig.getServiceMetrics()));
+      policyStatusServlet.setName("Status Servlet "
+        + policyConfig.getPolicyName());
+      servletContext.addServlet(policyStatusServlet, "/status/"
+        + policyConfig.getPolicyName());
+    }
+
     return httpServer;
   }
 
+  /**
+   * Creates the filter capturing a sample of the authorization requests and
+   * responses.
+   * 
+   * @param daemonConfig
+   *          daemon configuration
+   * 
+   * @return the protocol capture filter
+   */
+  private static ProtocolCaptureFilter createProtocolCaptureFilter(
+    PDPConfiguration daemonConfig) {
+
+    String captureFile = daemonConfig.getProtocolCaptureFile();
+    if (captureFile == null) {
+      captureFile = System.getProperty(PDP_LOGDIR_PROP, ".")
+        + "/protocol-capture.log";
+    }
+    ProtocolCaptureWriter writer = new ProtocolCaptureWriter(new File(
+      captureFile), daemonConfig.getProtocolCaptureMaxSize() * 1024L * 1024L);
+    return new ProtocolCaptureFilter(
+      daemonConfig.getProtocolCaptureSampleRate(),
+      daemonConfig.getProtocolCaptureIssuer(),
+      daemonConfig.getProtocolCaptureSubject(), writer);
+  }
+
   /**
    * Builds an admin service for the PDP. This admin service has the following
    * commands registered with it:
@@ -238,6 +481,12 @@ public final class PDPDaemon {
    * service</li>
    * <li><em>status</em> - prints out a status page w/ metrics</li>
    * <li><em>reloadPolicy</em> - reloads the PDP policy</li>
+   * <li><em>latencyHistograms</em> - prints the latency histograms of the
+   * request processing stages</li>
+   * <li><em>caches</em> - lists, flushes and resizes the PDP caches</li>
+   * <li><em>threadPool</em> - prints and resizes the service thread pool</li>
+   * <li><em>warmup</em> - replays the recent requests against the policies</li>
+   * <li><em>profile</em> - starts and stops a sampling profile</li>
    * </ul>
    * 
    * @param daemonConfig
@@ -272,6 +521,15 @@ public final class PDPDaemon {
       .getServiceMetrics()));
     adminService
       .registerAdminCommand(new ReloadPolicyCommand(policyRepository));
+    adminService.registerAdminCommand(new LatencyHistogramsCommand(
+      (PDPMetrics) daemonConfig.getServiceMetrics()));
+    adminService.registerAdminCommand(new CachesCommand(
+      getManagedCaches(daemonService)));
+    adminService.registerAdminCommand(new ThreadPoolCommand(daemonService
+      .getThreadPool()));
+    adminService.registerAdminCommand(new WarmupCommand());
+    adminService.registerAdminCommand(new ProfileCommand(
+      new SamplingProfiler()));
 
     // first shutdown task will force a System.exit(0) after 60 sec.
     adminService.registerShutdownTask(new SystemExitTask(60000));
@@ -283,6 +541,37 @@ public final class PDPDaemon {
     return adminService;
   }
 
+  /**
+   * Gets the caches of the PDP which can be managed through the admin service:
+   * the X.500 name cache, the client certificate validation cache, if
+   * enabled, and the request samples of each policy.
+   * 
+   * @param daemonService
+   *          the PDP daemon service
+   * 
+   * @return the caches, by name
+   */
+  private static Map<String, ManagedCache> getManagedCaches(
+    Server daemonService) {
+    Map<String, ManagedCache> caches =
+      new LinkedHashMap<String, ManagedCache>();
+    caches.put("x500Names", X500NameCache.getInstance());
+    CachingX509TrustManager trustManager = daemonService
+      .getBean(CachingX509TrustManager.class);
+    if (trustManager != null) {
+      caches.put("certValidations", trustManager);
+    }
+    for (PolicyRepository repository : PolicyRepository.instances()) {
+      if (PolicyRepository.DEFAULT_NAME.equals(repository.getName())) {
+        caches.put("requestSamples", repository.getRequestSampler());
+      } else {
+        caches.put("requestSamples." + repository.getName(),
+          repository.getRequestSampler());
+      }
+    }
+    return caches;
+  }
+
   /**
    * Creates the HTTP connector used to receive authorization requests.
    * 
@@ -303,7 +592,12 @@ public final class PDPDaemon {
     configuration.setSendServerVersion(false);
 
     if (!daemonConfig.isSslEnabled()) {
-      connector = new ServerConnector(server);
+      if (daemonConfig.isHttp2Enabled()) {
+        connector = createH2CServiceConnector(daemonConfig, server,
+          configuration);
+      } else {
+        connector = new ServerConnector(server);
+      }
     } else {
 
       if (daemonConfig.getCertChainValidator() == null) {
@@ -333,6 +627,17 @@ public final class PDPDaemon {
           .withTlsProtocol(daemonConfig.getTlsProtocol())
           .withIncludeProtocols(daemonConfig.getEnabledProtocols())
           .build();
+
+      configureTLSSessions(daemonConfig, connector);
+
+      if (daemonConfig.isHttp2Enabled()) {
+        connector = createH2ServiceConnector(daemonConfig, server, connector,
+          builder.httpConfiguration());
+      }
+
+      connector.addBean(new TLSHandshakeMetricsListener(
+        (PDPMetrics) daemonConfig.getServiceMetrics(), daemonConfig
+          .getTLSSessionCacheSize()));
     }
 
     connector.setHost(daemonConfig.getHostname());
@@ -348,6 +653,118 @@ public final class PDPDaemon {
     return connector;
   }
 
+  /**
+   * Configures the TLS session cache of a TLS connector and, when enabled,
+   * replaces its SSL context by one validating client certificates through a
+   * {@link CachingX509TrustManager}.
+   * 
+   * @param daemonConfig
+   *          the daemon configuration
+   * @param tlsConnector
+   *          the TLS connector
+   */
+  private static void configureTLSSessions(PDPConfiguration daemonConfig,
+    ServerConnector tlsConnector) {
+
+    SslContextFactory sslContextFactory = tlsConnector.getConnectionFactory(
+      SslConnectionFactory.class).getSslContextFactory();
+    sslContextFactory.setSslSessionCacheSize(daemonConfig
+      .getTLSSessionCacheSize());
+    sslContextFactory.setSslSessionTimeout(daemonConfig.getTLSSessionTimeout());
+
+    if (daemonConfig.getCertValidationCacheSize() < 1) {
+      return;
+    }
+
+    X509CertChainValidatorExt validator = daemonConfig.getCertChainValidator();
+    CachingX509TrustManager trustManager = new CachingX509TrustManager(
+      new SSLTrustManager(validator), validator,
+      daemonConfig.getCertValidationCacheSize(),
+      daemonConfig.getCertValidationCacheLifetime() * 1000L,
+      (PDPMetrics) daemonConfig.getServiceMetrics());
+    try {
+      SSLContext sslContext = SSLContext.getInstance(daemonConfig
+        .getTlsProtocol());
+      sslContext.init(new KeyManager[] { daemonConfig.getKeyManager() },
+        new TrustManager[] { trustManager }, null);
+      sslContextFactory.setSslContext(sslContext);
+      // found by the admin service, which manages its cache
+      tlsConnector.getServer().addBean(trustManager);
+    } catch (GeneralSecurityException e) {
+      String errorMessage = "Unable to create the service SSL context";
+      LOG.error(errorMessage, e);
+      throw new IllegalStateException(errorMessage, e);
+    }
+  }
+
+  /**
+   * Creates a cleartext connector accepting both HTTP/1.1 and HTTP/2 (h2c)
+   * connections. The number of concurrent streams on a HTTP/2 connection is
+   * limited to the maximum number of concurrent requests.
+   * 
+   * @param daemonConfig
+   *          the daemon configuration
+   * @param server
+   *          the server the connector belongs to
+   * @param configuration
+   *          the HTTP configuration of the connector
+   * 
+   * @return the created connector
+   */
+  private static ServerConnector createH2CServiceConnector(
+    PDPConfiguration daemonConfig, Server server,
+    HttpConfiguration configuration) {
+
+    HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(
+      configuration);
+    h2c.setMaxConcurrentStreams(daemonConfig.getMaxRequests());
+
+    LOG.info("Service port accepts HTTP/1.1 and h2c connections");
+    return new ServerConnector(server, new HttpConnectionFactory(
+      configuration), h2c);
+  }
+
+  /**
+   * Creates a TLS connector negotiating HTTP/2 or HTTP/1.1 with ALPN. The SSL
+   * context factory, and so the client certificate validation, of the given
+   * HTTP/1.1 connector is reused. The number of concurrent streams on a HTTP/2
+   * connection is limited to the maximum number of concurrent requests.
+   * 
+   * @param daemonConfig
+   *          the daemon configuration
+   * @param server
+   *          the server the connector belongs to
+   * @param tlsConnector
+   *          the HTTP/1.1 over TLS connector
+   * @param configuration
+   *          the HTTPS configuration of the connector
+   * 
+   * @return the created connector
+   */
+  private static ServerConnector createH2ServiceConnector(
+    PDPConfiguration daemonConfig, Server server,
+    ServerConnector tlsConnector, HttpConfiguration configuration) {
+
+    SslContextFactory sslContextFactory = tlsConnector.getConnectionFactory(
+      SslConnectionFactory.class).getSslContextFactory();
+    sslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+    sslContextFactory.setUseCipherSuitesOrder(true);
+
+    HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(
+      configuration);
+    h2.setMaxConcurrentStreams(daemonConfig.getMaxRequests());
+
+    HttpConnectionFactory http1 = new HttpConnectionFactory(configuration);
+
+    ALPNServerConnectionFactory alpn = new ALPNServerConnectionFactory(
+      h2.getProtocol(), http1.getProtocol());
+    alpn.setDefaultProtocol(http1.getProtocol());
+
+    LOG.info("Service port negotiates h2 and HTTP/1.1 with ALPN");
+    return new ServerConnector(server, new SslConnectionFactory(
+      sslContextFactory, alpn.getProtocol()), alpn, h2, http1);
+  }
+
   /**
    * Reads the configuration file and creates a configuration from it.
    * 
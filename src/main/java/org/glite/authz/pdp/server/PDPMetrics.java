@@ -18,11 +18,16 @@
 package org.glite.authz.pdp.server;
 
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import net.jcip.annotations.ThreadSafe;
 
 import org.glite.authz.common.ServiceMetrics;
 import org.glite.authz.common.util.Strings;
+import org.glite.authz.pdp.xacml.X500NameCache;
 
 import org.joda.time.DateTime;
 import org.joda.time.chrono.ISOChronology;
@@ -31,6 +36,21 @@ import org.joda.time.chrono.ISOChronology;
 @ThreadSafe
 public class PDPMetrics extends ServiceMetrics {
 
+    /** Request processing stage decoding the request, {@value} . */
+    public static final String STAGE_DECODE = "Decode";
+
+    /** Request processing stage applying the policy information points, {@value} . */
+    public static final String STAGE_PIP = "PolicyInformationPoints";
+
+    /** Request processing stage evaluating the policy, {@value} . */
+    public static final String STAGE_EVALUATION = "PolicyEvaluation";
+
+    /** Request processing stage applying the obligation handlers, {@value} . */
+    public static final String STAGE_OBLIGATIONS = "ObligationHandlers";
+
+    /** Request processing stage building and encoding the response, {@value} . */
+    public static final String STAGE_ENCODE = "Encode";
+
     /** Instant the policy was fetched from the PAP, in milliseconds in the local timezone. */
     private long policyLoadTimeMillis;
 
@@ -40,9 +60,73 @@ public class PDPMetrics extends ServiceMetrics {
     /** Version of the policy currently being used by the PDP. */
     private String policyVersion;
 
+    /** Number of policy nodes removed by the load-time optimization of the current policy. */
+    private int policyOptimizedNodes;
+
+    /** Number of unreachable rules found by the load-time optimization of the current policy. */
+    private int policyUnreachableRules;
+
+    /** Estimated heap retained by the current policy, in bytes, 0 if the estimate is disabled. */
+    private long policyRetainedSize;
+
+    /** Number of completed TLS handshakes on the service port. */
+    private long tlsHandshakes;
+
+    /** Number of completed TLS handshakes on the service port which resumed an existing session. */
+    private long tlsResumedHandshakes;
+
+    /** Number of failed TLS handshakes on the service port. */
+    private long tlsHandshakeFailures;
+
+    /** Number of client certificate chain validations answered from cache. */
+    private long certValidationCacheHits;
+
+    /** Number of client certificate chain validations not answered from cache. */
+    private long certValidationCacheMisses;
+
+    /** Number of authorization requests which shared the evaluation of an identical concurrent request. */
+    private long coalescedRequests;
+
+    /** Number of authorization requests found not applicable without evaluating the policy. */
+    private long filteredRequests;
+
+    /** Milliseconds between the JVM start and the first successful decision, -1 until then. */
+    private volatile long timeToFirstDecisionMillis = -1;
+
+    /** Latency histograms of the request processing stages, by stage. */
+    private final Map<String, LatencyHistogram> stageLatencies;
+
     /** Constructor. */
     public PDPMetrics() {
         super(Version.getServiceName(), Version.getServiceVersion());
+        LinkedHashMap<String, LatencyHistogram> latencies = new LinkedHashMap<String, LatencyHistogram>();
+        for (String stage : new String[] { STAGE_DECODE, STAGE_PIP, STAGE_EVALUATION, STAGE_OBLIGATIONS,
+                STAGE_ENCODE, }) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+        stageLatencies = Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Records the latency of a request processing stage.
+     * 
+     * @param stage the stage, one of the <code>STAGE_</code> constants
+     * @param nanos the latency, in nanoseconds
+     */
+    public void recordStageLatency(String stage, long nanos) {
+        LatencyHistogram histogram = stageLatencies.get(stage);
+        if (histogram != null) {
+            histogram.record(nanos);
+        }
+    }
+
+    /**
+     * Gets the latency histograms of the request processing stages.
+     * 
+     * @return the latency histograms, by stage, in processing order
+     */
+    public Map<String, LatencyHistogram> getStageLatencies() {
+        return stageLatencies;
     }
 
     /**
@@ -72,6 +156,112 @@ public class PDPMetrics extends ServiceMetrics {
         return policyVersion;
     }
 
+    /**
+     * Gets the number of policy nodes removed by the load-time optimization of the current policy.
+     * 
+     * @return number of policy nodes removed by the optimization
+     */
+    public int getPolicyOptimizedNodes() {
+        return policyOptimizedNodes;
+    }
+
+    /**
+     * Gets the number of unreachable rules found by the load-time optimization of the current policy.
+     * 
+     * @return number of unreachable rules
+     */
+    public int getPolicyUnreachableRules() {
+        return policyUnreachableRules;
+    }
+
+    /**
+     * Updates the information on the load-time optimization of the policy currently used by the PDP.
+     * 
+     * @param removedNodes number of policy nodes removed by the optimization
+     * @param unreachableRules number of unreachable rules found by the optimization
+     */
+    public synchronized void updatePolicyOptimizationInformation(int removedNodes, int unreachableRules) {
+        policyOptimizedNodes = removedNodes;
+        policyUnreachableRules = unreachableRules;
+    }
+
+    /**
+     * Gets the estimated heap retained by the current policy, see {@link org.glite.authz.pdp.policy.PolicyFootprint}.
+     * 
+     * @return estimated heap retained by the current policy, in bytes, 0 if the estimate is disabled
+     */
+    public long getPolicyRetainedSize() {
+        return policyRetainedSize;
+    }
+
+    /**
+     * Updates the estimated heap retained by the policy currently used by the PDP.
+     * 
+     * @param retainedSize estimated heap retained by the policy, in bytes
+     */
+    public synchronized void updatePolicyFootprint(long retainedSize) {
+        policyRetainedSize = retainedSize;
+    }
+
+    /**
+     * Records a completed TLS handshake on the service port.
+     * 
+     * @param resumed whether the handshake resumed an existing session
+     */
+    public synchronized void incrementTLSHandshakes(boolean resumed) {
+        tlsHandshakes++;
+        if (resumed) {
+            tlsResumedHandshakes++;
+        }
+    }
+
+    /** Records a failed TLS handshake on the service port. */
+    public synchronized void incrementTLSHandshakeFailures() {
+        tlsHandshakeFailures++;
+    }
+
+    /** Records a client certificate chain validation answered from cache. */
+    public synchronized void incrementCertValidationCacheHits() {
+        certValidationCacheHits++;
+    }
+
+    /** Records a client certificate chain validation not answered from cache. */
+    public synchronized void incrementCertValidationCacheMisses() {
+        certValidationCacheMisses++;
+    }
+
+    /** Records an authorization request which shared the evaluation of an identical concurrent request. */
+    public synchronized void incrementCoalescedRequests() {
+        coalescedRequests++;
+    }
+
+    /** Records an authorization request found not applicable without evaluating the policy. */
+    public synchronized void incrementFilteredRequests() {
+        filteredRequests++;
+    }
+
+    /**
+     * Gets the time between the JVM start and the first successful decision of the PDP.
+     * 
+     * @return time to the first successful decision in milliseconds, or -1 if no decision was made yet
+     */
+    public long getTimeToFirstDecisionMillis() {
+        return timeToFirstDecisionMillis;
+    }
+
+    /** Records a successful decision. Only the first one is of interest, later calls are a volatile read. */
+    public void recordDecision() {
+        if (timeToFirstDecisionMillis >= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (timeToFirstDecisionMillis < 0) {
+                timeToFirstDecisionMillis = System.currentTimeMillis()
+                        - ManagementFactory.getRuntimeMXBean().getStartTime();
+            }
+        }
+    }
+
     /**
      * Updates the information on the policy currently used by the PDP. This updates the policy ID and version to the
      * given values and sets the policy load instant to the time when this method was invoked.
@@ -94,6 +284,21 @@ public class PDPMetrics extends ServiceMetrics {
      * <li>PolicyLoadTimeMillis: <i>policy_load_timemillis</i></li>
      * <li>CurrentPolicy: <i>current_policy_id</i></li>
      * <li>CurrentPolicyVersion: <i>current_policy_version</i></li>
+     * <li>PolicyOptimizedNodes: <i>nodes_removed_by_optimization</i></li>
+     * <li>PolicyUnreachableRules: <i>unreachable_rules</i></li>
+     * <li>PolicyRetainedSize: <i>estimated_policy_heap_bytes</i></li>
+     * <li>X500NameCacheSize: <i>cached_x500_names</i></li>
+     * <li>X500NameCacheHits: <i>x500_name_cache_hits</i></li>
+     * <li>X500NameCacheMisses: <i>x500_name_cache_misses</i></li>
+     * <li>TLSHandshakes: <i>completed_tls_handshakes</i></li>
+     * <li>TLSResumedHandshakes: <i>resumed_tls_handshakes</i></li>
+     * <li>TLSResumptionRate: <i>percentage_of_resumed_tls_handshakes</i></li>
+     * <li>TLSHandshakeFailures: <i>failed_tls_handshakes</i></li>
+     * <li>CertValidationCacheHits: <i>cached_client_certificate_validations</i></li>
+     * <li>CertValidationCacheMisses: <i>full_client_certificate_validations</i></li>
+     * <li>CoalescedRequests: <i>requests_sharing_an_identical_request_evaluation</i></li>
+     * <li>FilteredRequests: <i>requests_not_applicable_without_policy_evaluation</i></li>
+     * <li>TimeToFirstDecisionMillis: <i>jvm_start_to_first_decision_millis</i></li>
      * </ul>
      */
     public void printServiceMetrics(PrintWriter writer) {
@@ -106,5 +311,23 @@ public class PDPMetrics extends ServiceMetrics {
         writer.println("PolicyLoadTimeMillis: " + policyLoadTimeMillis);
         writer.println("CurrentPolicy: " + policyId);
         writer.println("CurrentPolicyVersion: " + policyVersion);
+        writer.println("PolicyOptimizedNodes: " + policyOptimizedNodes);
+        writer.println("PolicyUnreachableRules: " + policyUnreachableRules);
+        writer.println("PolicyRetainedSize: " + policyRetainedSize);
+        X500NameCache x500NameCache = X500NameCache.getInstance();
+        writer.println("X500NameCacheSize: " + x500NameCache.size());
+        writer.println("X500NameCacheHits: " + x500NameCache.getHits());
+        writer.println("X500NameCacheMisses: " + x500NameCache.getMisses());
+        synchronized (this) {
+            writer.println("TLSHandshakes: " + tlsHandshakes);
+            writer.println("TLSResumedHandshakes: " + tlsResumedHandshakes);
+            writer.println("TLSResumptionRate: " + (tlsHandshakes == 0 ? 0 : tlsResumedHandshakes * 100 / tlsHandshakes));
+            writer.println("TLSHandshakeFailures: " + tlsHandshakeFailures);
+            writer.println("CertValidationCacheHits: " + certValidationCacheHits);
+            writer.println("CertValidationCacheMisses: " + certValidationCacheMisses);
+            writer.println("CoalescedRequests: " + coalescedRequests);
+            writer.println("FilteredRequests: " + filteredRequests);
+        }
+        writer.println("TimeToFirstDecisionMillis: " + timeToFirstDecisionMillis);
     }
 }
\ No newline at end of file
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.common.http.BaseHttpServlet;
+import org.glite.authz.common.logging.LoggingConstants;
+import org.glite.authz.pdp.config.PDPConfiguration;
+import org.glite.authz.pdp.policy.PolicyRelay;
+import org.glite.authz.pdp.policy.PolicyRepository;
+import org.glite.authz.pdp.policy.PolicySnapshot;
+import org.glite.authz.pdp.util.SAMLUtil;
+
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.common.SAMLObject;
+import org.opensaml.common.SAMLObjectBuilder;
+import org.opensaml.common.binding.BasicSAMLMessageContext;
+import org.opensaml.saml1.binding.encoding.HTTPSOAP11Encoder;
+import org.opensaml.saml2.binding.decoding.HTTPSOAP11Decoder;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.NameID;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.ws.message.decoder.MessageDecodingException;
+import org.opensaml.ws.message.encoder.MessageEncodingException;
+import org.opensaml.ws.transport.http.HttpServletRequestAdapter;
+import org.opensaml.ws.transport.http.HttpServletResponseAdapter;
+import org.opensaml.xacml.policy.IdReferenceType;
+import org.opensaml.xacml.policy.PolicySetType;
+import org.opensaml.xacml.profile.saml.XACMLPolicyQueryType;
+import org.opensaml.xacml.profile.saml.XACMLPolicyStatementType;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.security.SecurityException;
+import org.opensaml.xml.util.XMLHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+/**
+ * Answers the XACML policy queries that PDPs send to their PAPs, from the
+ * policies loaded by this PDP. The PDPs listing this PDP as a PAP endpoint use
+ * it as a relay, so that only the relays query the real PAPs.
+ * <p>
+ * The query is answered with the loaded policy set whose ID it references, the
+ * default policy set if it references none, as marshalled from the loaded
+ * policy. The assertion of the response carries the relay path of the policy
+ * set as its advice, and queries which would create a relay loop or which ask
+ * for a newer version are refused, see {@link PolicyRelay}. A refused query is
+ * answered with a Responder status and no assertion, the querying PDP then
+ * tries its next PAP endpoint.
+ * <p>
+ * Like the PAP, the relay only answers authenticated clients allowed to read
+ * the policy: the querying PDP must present a client certificate whose subject
+ * is one of the configured relay peers.
+ */
+@ThreadSafe
+public class PolicyRelayServlet extends BaseHttpServlet {
+
+    /** Path, relative to the service context, at which the servlet is bound, {@value} . */
+    public static final String PATH= "/policy";
+
+    /** Serial version UID. */
+    private static final long serialVersionUID= -2915036657430751207L;
+
+    /** Class logger. */
+    private final Logger log= LoggerFactory.getLogger(PolicyRelayServlet.class);
+
+    /** Protocol message logger. */
+    private final Logger protocolLog= LoggerFactory.getLogger(LoggingConstants.PROTOCOL_MESSAGE_CATEGORY);
+
+    /** Configuration of the PDP. */
+    private PDPConfiguration pdpConfig;
+
+    /** The decoder of the incoming policy queries. */
+    private HTTPSOAP11Decoder messageDecoder;
+
+    /** The encoder of the outgoing policy responses. */
+    private HTTPSOAP11Encoder messageEncoder;
+
+    /** Parser of the marshalled policies. */
+    private BasicParserPool parserPool;
+
+    /** Builder of {@link XACMLPolicyStatementType}s. */
+    private SAMLObjectBuilder<XACMLPolicyStatementType> policyStatementBuilder;
+
+    /** Subjects of the PDPs allowed to query the relay. */
+    private Set<X500Principal> relayPeers;
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    public void init(ServletConfig config) throws ServletException {
+        super.init(config);
+
+        pdpConfig= (PDPConfiguration) getServletContext().getAttribute(PDPConfiguration.BINDING_NAME);
+        if (pdpConfig == null) {
+            throw new ServletException("Unable to initialize, no configuration available in servlet context");
+        }
+
+        parserPool= new BasicParserPool();
+        parserPool.setMaxPoolSize(pdpConfig.getMaxRequests());
+        messageDecoder= new HTTPSOAP11Decoder(parserPool);
+        messageEncoder= new HTTPSOAP11Encoder();
+        policyStatementBuilder= (SAMLObjectBuilder<XACMLPolicyStatementType>) Configuration.getBuilderFactory()
+                                                                                          .getBuilder(XACMLPolicyStatementType.TYPE_NAME_XACML20);
+        relayPeers= new HashSet<X500Principal>();
+        for (String peer : pdpConfig.getPolicyRelayPeers()) {
+            relayPeers.add(new X500Principal(peer));
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected void doPost(HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) throws ServletException,
+            IOException {
+        X509Certificate[] certificates= (X509Certificate[]) httpRequest.getAttribute("javax.servlet.request.X509Certificate");
+        if (certificates == null || certificates.length == 0) {
+            log.error("Policy query from {} refused, the client did not present a certificate",
+                      httpRequest.getRemoteAddr());
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN,
+                                   "Client certificate authentication required");
+            return;
+        }
+        X500Principal peer= certificates[0].getSubjectX500Principal();
+        if (!relayPeers.contains(peer)) {
+            log.error("Policy query from {} refused, {} is not a policy relay peer",
+                      httpRequest.getRemoteAddr(), peer.getName());
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN,
+                                   "Not allowed to query the policy");
+            return;
+        }
+
+        BasicSAMLMessageContext<SAMLObject, Response, NameID> messageContext= new BasicSAMLMessageContext<SAMLObject, Response, NameID>();
+        messageContext.setInboundMessageTransport(new HttpServletRequestAdapter(httpRequest));
+        messageContext.setOutboundMessageTransport(new HttpServletResponseAdapter(httpResponse,
+                                                                                  httpRequest.isSecure()));
+        try {
+            messageDecoder.decode(messageContext);
+        } catch (MessageDecodingException e) {
+            log.error("Error decoding the policy query: {}", e.getMessage());
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                                   e.getMessage());
+            return;
+        } catch (SecurityException e) {
+            log.error("Policy query does not meet security requirements: {}", e.getMessage());
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN,
+                                   e.getMessage());
+            return;
+        }
+        if (!(messageContext.getInboundSAMLMessage() instanceof XACMLPolicyQueryType)) {
+            log.error("Received a SAML message which is not a XACML policy query");
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                                   "Not a XACML policy query");
+            return;
+        }
+        if (protocolLog.isInfoEnabled()) {
+            protocolLog.info("Incomming XACML policy query\n{}",
+                             XMLHelper.prettyPrintXML(messageContext.getInboundMessage().getDOM()));
+        }
+
+        XACMLPolicyQueryType policyQuery= (XACMLPolicyQueryType) messageContext.getInboundSAMLMessage();
+        String requester= policyQuery.getIssuer() == null ? null : policyQuery.getIssuer().getValue();
+        String policySetId= null;
+        String earliestVersion= null;
+        if (!policyQuery.getPolicySetIdReferences().isEmpty()) {
+            IdReferenceType reference= policyQuery.getPolicySetIdReferences().get(0);
+            policySetId= reference.getValue();
+            earliestVersion= reference.getEarliestVersion();
+        }
+
+        PolicySnapshot snapshot= findPolicy(policySetId);
+        DateTime now= new DateTime();
+        Response samlResponse;
+        String refusal= PolicyRelay.checkQuery(snapshot, pdpConfig.getEntityId(), requester, earliestVersion);
+        if (refusal != null) {
+            log.info("Refusing policy query of {} for policy {}: {}",
+                     new Object[] { requester, policySetId, refusal });
+            samlResponse= SAMLUtil.buildSAMLResponse(policyQuery.getID(),
+                                                     now,
+                                                     SAMLUtil.buildStatus(StatusCode.RESPONDER_URI,
+                                                                          refusal));
+        } else {
+            try {
+                samlResponse= buildPolicyResponse(policyQuery, snapshot, now);
+            } catch (Exception e) {
+                log.error("Unable to build the response to the policy query", e);
+                httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
+            }
+            log.info("Relaying version {} of policy {} to {}",
+                     new Object[] { snapshot.getPolicyVersion(), snapshot.getPolicySetId(), requester });
+        }
+
+        messageContext.setOutboundSAMLMessage(samlResponse);
+        messageContext.setOutboundSAMLMessageId(samlResponse.getID());
+        messageContext.setOutboundSAMLMessageIssueInstant(now);
+        messageContext.setOutboundMessageIssuer(pdpConfig.getEntityId());
+        try {
+            messageEncoder.encode(messageContext);
+            if (protocolLog.isDebugEnabled()) {
+                protocolLog.debug("XACML policy query response\n{}",
+                                  XMLHelper.prettyPrintXML(messageContext.getOutboundMessage().getDOM()));
+            }
+        } catch (MessageEncodingException e) {
+            log.error("Unable to encode the response to the policy query", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    protected String getSupportedMethods() {
+        return "POST";
+    }
+
+    /**
+     * Finds the loaded policy with a given policy set ID.
+     * 
+     * @param policySetId
+     *            ID of the policy set, null for the default policy
+     * 
+     * @return the loaded policy, or null if no policy set with the given ID
+     *         is loaded
+     */
+    protected PolicySnapshot findPolicy(String policySetId) {
+        PolicyRepository defaultRepository= PolicyRepository.instance(pdpConfig,
+                                                                      null,
+                                                                      PolicyRepository.DEFAULT_NAME,
+                                                                      false);
+        if (defaultRepository != null) {
+            PolicySnapshot snapshot= defaultRepository.getPolicySnapshot();
+            if (policySetId == null
+                    || (snapshot != null && policySetId.equals(snapshot.getPolicySetId()))) {
+                return snapshot;
+            }
+        }
+        for (PolicyRepository repository : PolicyRepository.instances()) {
+            PolicySnapshot snapshot= repository.getPolicySnapshot();
+            if (snapshot != null && snapshot.getPolicySetId().equals(policySetId)) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds the response to a policy query, carrying a policy and its relay
+     * path extended with this PDP.
+     * 
+     * @param policyQuery
+     *            the policy query
+     * @param snapshot
+     *            the policy
+     * @param issueInstant
+     *            issue instant of the response
+     * 
+     * @return the response
+     * 
+     * @throws Exception
+     *             thrown if the policy can not be converted to its OpenSAML
+     *             form
+     */
+    private Response buildPolicyResponse(XACMLPolicyQueryType policyQuery,
+            PolicySnapshot snapshot, DateTime issueInstant) throws Exception {
+        String marshalledPolicySet= snapshot.getMarshalledPolicySet();
+        if (marshalledPolicySet == null) {
+            throw new IllegalStateException("Unable to marshall version "
+                    + snapshot.getPolicyVersion() + " of policy " + snapshot.getPolicySetId());
+        }
+        Element policySetElement= parserPool.parse(new StringReader(marshalledPolicySet)).getDocumentElement();
+        PolicySetType policySet= (PolicySetType) Configuration.getUnmarshallerFactory()
+                                                              .getUnmarshaller(policySetElement)
+                                                              .unmarshall(policySetElement);
+
+        XACMLPolicyStatementType policyStatement= policyStatementBuilder.buildObject(XACMLPolicyStatementType.DEFAULT_ELEMENT_NAME_XACML20,
+                                                                                     XACMLPolicyStatementType.TYPE_NAME_XACML20);
+        policyStatement.getPolicySets().add(policySet);
+
+        List<String> relayPath= new ArrayList<String>(snapshot.getRelayPath());
+        relayPath.add(pdpConfig.getEntityId());
+        Assertion assertion= SAMLUtil.buildAssertion(pdpConfig.getEntityId(),
+                                                     issueInstant,
+                                                     policyStatement);
+        assertion.setAdvice(SAMLUtil.buildAdvice(relayPath));
+
+        return SAMLUtil.buildSAMLResponse(policyQuery.getID(),
+                                          issueInstant,
+                                          assertion,
+                                          SAMLUtil.buildStatus(StatusCode.SUCCESS_URI,
+                                                               null));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.glite.authz.common.http.AbstractAdminCommand;
+
+/**
+ * An admin command that controls the {@link SamplingProfiler} and prints its profile.
+ * <ul>
+ * <li><code>action=start</code> starts a profile, optionally lasting <code>duration</code> seconds and sampling every
+ * <code>interval</code> milliseconds</li>
+ * <li><code>action=stop</code> stops the running profile</li>
+ * </ul>
+ * The current or last profile is then printed, limited to the <code>top</code> methods, 20 by default.
+ */
+public class ProfileCommand extends AbstractAdminCommand {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = 5523061829468174020L;
+
+    /** Default number of printed methods, {@value} . */
+    public static final int DEFAULT_TOP = 20;
+
+    /** The profiler. */
+    private SamplingProfiler profiler;
+
+    /**
+     * Constructor.
+     * 
+     * @param samplingProfiler the profiler
+     */
+    public ProfileCommand(SamplingProfiler samplingProfiler) {
+        super("/profile");
+
+        if (samplingProfiler == null) {
+            throw new IllegalArgumentException("Profiler may not be null");
+        }
+        profiler = samplingProfiler;
+    }
+
+    /** {@inheritDoc} */
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String action = req.getParameter("action");
+        try {
+            if ("start".equals(action)) {
+                profiler.start(getInt(req, "duration", SamplingProfiler.DEFAULT_DURATION),
+                        getInt(req, "interval", SamplingProfiler.DEFAULT_INTERVAL));
+            } else if ("stop".equals(action)) {
+                profiler.stop();
+            } else if (action != null) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown profile action " + action);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        int top;
+        try {
+            top = getInt(req, "top", DEFAULT_TOP);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter writer = resp.getWriter();
+        profiler.printProfile(writer, top);
+        writer.flush();
+    }
+
+    /**
+     * Gets an integer request parameter.
+     * 
+     * @param req the request
+     * @param name name of the parameter
+     * @param defaultValue value of the parameter if it is absent
+     * 
+     * @return value of the parameter
+     * 
+     * @throws IllegalArgumentException thrown if the parameter is not an integer
+     */
+    private int getInt(HttpServletRequest req, String name, int defaultValue) throws IllegalArgumentException {
+        String value = req.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " " + value);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.ProtocolCaptureWriter;
+
+/**
+ * Servlet filter capturing the raw bytes of a sample of the authorization requests and of their responses.
+ * <p>
+ * One request out of every <code>sampleRate</code> is captured. When an issuer or subject filter is set, the requests
+ * whose issuer or subject match are captured as well; to do so the filter copies the bytes of every request and
+ * decides once the servlet has published the issuer and subject of the request as the {@link #ISSUER_ATTRIB} and
+ * {@link #SUBJECT_ATTRIB} request attributes. Captures are handed to a {@link ProtocolCaptureWriter} which writes them
+ * off the request thread.
+ */
+@ThreadSafe
+public class ProtocolCaptureFilter implements Filter {
+
+    /** Name of the request attribute set while the filter needs the issuer and subject of the request. */
+    public static final String MATCHING_ATTRIB = "org.glite.authz.pdp.server.capture.matching";
+
+    /** Name of the request attribute holding the issuer of the request. */
+    public static final String ISSUER_ATTRIB = "org.glite.authz.pdp.server.capture.issuer";
+
+    /** Name of the request attribute holding the subject of the request. */
+    public static final String SUBJECT_ATTRIB = "org.glite.authz.pdp.server.capture.subject";
+
+    /** Maximum number of bytes captured from a request or a response. */
+    public static final int MAX_CAPTURE_SIZE = 1024 * 1024;
+
+    /** One request out of this number is captured, 0 disables sampling. */
+    private final int sampleRate;
+
+    /** Issuer whose requests are all captured, or null. */
+    private final String issuerFilter;
+
+    /** Subject whose requests are all captured, or null. */
+    private final String subjectFilter;
+
+    /** Writer of the captures. */
+    private final ProtocolCaptureWriter writer;
+
+    /** Number of requests seen, used for sampling. */
+    private final AtomicLong requestCount;
+
+    /**
+     * Constructor.
+     * 
+     * @param rate one request out of this number is captured, 0 disables sampling
+     * @param issuer issuer whose requests are all captured, may be null
+     * @param subject subject whose requests are all captured, may be null
+     * @param captureWriter writer of the captures
+     */
+    public ProtocolCaptureFilter(int rate, String issuer, String subject, ProtocolCaptureWriter captureWriter) {
+        if (captureWriter == null) {
+            throw new IllegalArgumentException("Capture writer may not be null");
+        }
+        sampleRate = rate;
+        issuerFilter = issuer;
+        subjectFilter = subject;
+        writer = captureWriter;
+        requestCount = new AtomicLong();
+    }
+
+    /** {@inheritDoc} */
+    public void init(FilterConfig filterConfig) throws ServletException {
+        writer.start();
+    }
+
+    /** {@inheritDoc} */
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+            ServletException {
+        boolean sampled = sampleRate > 0 && requestCount.incrementAndGet() % sampleRate == 0;
+        boolean matching = issuerFilter != null || subjectFilter != null;
+        if (!(sampled || matching) || !(request instanceof HttpServletRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long requestTime = System.currentTimeMillis();
+        if (matching) {
+            request.setAttribute(MATCHING_ATTRIB, Boolean.TRUE);
+        }
+        CapturingRequest capturingRequest = new CapturingRequest((HttpServletRequest) request);
+        CapturingResponse capturingResponse = new CapturingResponse((HttpServletResponse) response);
+        try {
+            chain.doFilter(capturingRequest, capturingResponse);
+        } finally {
+            capturingResponse.flushWriter();
+            String issuer = (String) request.getAttribute(ISSUER_ATTRIB);
+            String subject = (String) request.getAttribute(SUBJECT_ATTRIB);
+            if (sampled || matches(issuerFilter, issuer) || matches(subjectFilter, subject)) {
+                writer.write(new ProtocolCaptureWriter.Capture(requestTime, request.getRemoteAddr(), issuer, subject,
+                        capturingRequest.getCapturedBytes(), capturingResponse.getCapturedBytes()));
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void destroy() {
+        writer.stop();
+    }
+
+    /**
+     * Checks whether a request value matches a filter.
+     * 
+     * @param filter the filter, may be null
+     * @param value the request value, may be null
+     * 
+     * @return true if the filter is set and equals the value
+     */
+    private static boolean matches(String filter, String value) {
+        return filter != null && filter.equals(value);
+    }
+
+    /** Output stream keeping a copy of at most {@link ProtocolCaptureFilter#MAX_CAPTURE_SIZE} bytes. */
+    private static class CaptureBuffer extends ByteArrayOutputStream {
+
+        /** Constructor. */
+        CaptureBuffer() {
+            super(4096);
+        }
+
+        /** {@inheritDoc} */
+        public synchronized void write(int b) {
+            if (count < MAX_CAPTURE_SIZE) {
+                super.write(b);
+            }
+        }
+
+        /** {@inheritDoc} */
+        public synchronized void write(byte[] b, int off, int len) {
+            int length = Math.min(len, MAX_CAPTURE_SIZE - count);
+            if (length > 0) {
+                super.write(b, off, length);
+            }
+        }
+    }
+
+    /** Request wrapper copying the bytes read from the request body. */
+    private static class CapturingRequest extends HttpServletRequestWrapper {
+
+        /** The captured bytes. */
+        private final CaptureBuffer captured = new CaptureBuffer();
+
+        /** The capturing input stream, created on first use. */
+        private ServletInputStream in;
+
+        /**
+         * Constructor.
+         * 
+         * @param request the wrapped request
+         */
+        CapturingRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        /** {@inheritDoc} */
+        public ServletInputStream getInputStream() throws IOException {
+            if (in == null) {
+                final ServletInputStream wrapped = super.getInputStream();
+                in = new ServletInputStream() {
+                    public int read() throws IOException {
+                        int b = wrapped.read();
+                        if (b != -1) {
+                            captured.write(b);
+                        }
+                        return b;
+                    }
+
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int read = wrapped.read(b, off, len);
+                        if (read > 0) {
+                            captured.write(b, off, read);
+                        }
+                        return read;
+                    }
+
+                    public boolean isFinished() {
+                        return wrapped.isFinished();
+                    }
+
+                    public boolean isReady() {
+                        return wrapped.isReady();
+                    }
+
+                    public void setReadListener(ReadListener readListener) {
+                        wrapped.setReadListener(readListener);
+                    }
+                };
+            }
+            return in;
+        }
+
+        /**
+         * Gets the bytes read from the request body.
+         * 
+         * @return the bytes read from the request body
+         */
+        byte[] getCapturedBytes() {
+            return captured.toByteArray();
+        }
+    }
+
+    /** Response wrapper copying the bytes written to the response body. */
+    private static class CapturingResponse extends HttpServletResponseWrapper {
+
+        /** The captured bytes. */
+        private final CaptureBuffer captured = new CaptureBuffer();
+
+        /** The capturing output stream, created on first use. */
+        private ServletOutputStream out;
+
+        /** The capturing writer, created on first use. */
+        private PrintWriter writer;
+
+        /**
+         * Constructor.
+         * 
+         * @param response the wrapped response
+         */
+        CapturingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        /** {@inheritDoc} */
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                final ServletOutputStream wrapped = super.getOutputStream();
+                out = new ServletOutputStream() {
+                    public void write(int b) throws IOException {
+                        wrapped.write(b);
+                        captured.write(b);
+                    }
+
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        wrapped.write(b, off, len);
+                        captured.write(b, off, len);
+                    }
+
+                    public void flush() throws IOException {
+                        wrapped.flush();
+                    }
+
+                    public boolean isReady() {
+                        return wrapped.isReady();
+                    }
+
+                    public void setWriteListener(WriteListener writeListener) {
+                        wrapped.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return out;
+        }
+
+        /** {@inheritDoc} */
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        /** Flushes the capturing writer, if one was used, so that all the written characters are captured. */
+        void flushWriter() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        /**
+         * Gets the bytes written to the response body.
+         * 
+         * @return the bytes written to the response body
+         */
+        byte[] getCapturedBytes() {
+            return captured.toByteArray();
+        }
+    }
+}
\ No newline at end of file
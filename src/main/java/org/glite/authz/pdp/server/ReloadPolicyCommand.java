@@ -27,7 +27,7 @@ import org.glite.authz.common.http.AbstractAdminCommand;
 import org.glite.authz.pdp.policy.PolicyRepository;
 
 
-/** An admin command that causes the PDP to reload its policy. */
+/** An admin command that causes the PDP to reload its policies, the default one and the named ones. */
 public class ReloadPolicyCommand extends AbstractAdminCommand {
 
     /** Serial version UID. */
@@ -53,6 +53,11 @@ public class ReloadPolicyCommand extends AbstractAdminCommand {
     /** {@inheritDoc} */
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         policyRepository.refreshPolicy();
+        for (PolicyRepository repository : PolicyRepository.instances()) {
+            if (repository != policyRepository) {
+                repository.refreshPolicy();
+            }
+        }
         resp.setStatus(HttpServletResponse.SC_OK);
     }
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Single-flight execution of identical concurrent requests. The first caller
+ * for a key, the leader, does the work; the callers arriving with the same key
+ * while the leader is working, the followers, wait for it and get a value
+ * shared from the one of the leader instead of doing the work again.
+ * <p>
+ * The value is only shared, by the {@link Sharer}, when the work is done and
+ * the key accepts no more followers, and only if there are followers. Requests
+ * which are not concurrent are thus not slowed down. A failure of the leader is
+ * the failure of all its followers.
+ * <p>
+ * A follower waits for its leader for a bounded time only. When the leader is
+ * slower, the follower leaves the flight and does the work itself, so that a
+ * stuck leader holds up no more than its own request.
+ * 
+ * @param <K> type of the keys identifying identical requests
+ * @param <V> type of the values produced by the work
+ */
+@ThreadSafe
+public class RequestCoalescer<K, V> {
+
+    /** Requests in flight, by key. */
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<K, Flight<V>>();
+
+    /** Shares the value of a leader with its followers. */
+    private final Sharer<V> sharer;
+
+    /** Time, in milliseconds, a follower waits for its leader. */
+    private final long followerTimeout;
+
+    /**
+     * Constructor.
+     * 
+     * @param valueSharer shares the value of a leader with its followers
+     * @param timeout time, in milliseconds, a follower waits for its leader before doing the work itself
+     */
+    public RequestCoalescer(Sharer<V> valueSharer, long timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Follower timeout must be greater than 0");
+        }
+        sharer = valueSharer;
+        followerTimeout = timeout;
+    }
+
+    /**
+     * Executes a request, or waits for the identical request in flight.
+     * 
+     * @param key key identifying the request
+     * @param work the work of the request
+     * 
+     * @return the value of the work for a leader, the shared value of the leader for a follower, or the value of its
+     *         own work for a follower which gave up waiting
+     * 
+     * @throws Exception the exception thrown by the work of the leader or by the sharer
+     */
+    public V execute(K key, Callable<V> work) throws Exception {
+        Flight<V> flight = new Flight<V>();
+        Flight<V> current = flights.putIfAbsent(key, flight);
+        if (current != null) {
+            if (current.join()) {
+                if (current.await(followerTimeout)) {
+                    return current.getResult();
+                }
+                // the leader is too slow, the follower left its flight
+                return work.call();
+            }
+            // the request in flight is landing and can not be joined anymore
+            return work.call();
+        }
+
+        V value;
+        try {
+            value = work.call();
+        } catch (Exception e) {
+            land(key, flight);
+            flight.fail(e);
+            throw e;
+        } catch (Error e) {
+            land(key, flight);
+            flight.fail(new IllegalStateException("Coalesced request failed", e));
+            throw e;
+        }
+        if (land(key, flight) > 0) {
+            try {
+                flight.complete(sharer.share(value));
+            } catch (Exception e) {
+                flight.fail(e);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     * 
+     * @return number of requests in flight
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    /**
+     * Closes a flight to new followers and removes it.
+     * 
+     * @param key key of the flight
+     * @param flight the flight
+     * 
+     * @return number of followers of the flight
+     */
+    private int land(K key, Flight<V> flight) {
+        int followers = flight.close();
+        flights.remove(key, flight);
+        return followers;
+    }
+
+    /**
+     * Shares the value of a leader with its followers.
+     * 
+     * @param <V> type of the values
+     */
+    public interface Sharer<V> {
+
+        /**
+         * Creates the value handed to all the followers of a leader. Called once per request with followers, by the
+         * leader, before it returns its own value.
+         * 
+         * @param value the value of the leader
+         * 
+         * @return the value handed to the followers
+         * 
+         * @throws Exception thrown if the value can not be shared, the followers fail with it
+         */
+        V share(V value) throws Exception;
+    }
+
+    /**
+     * A request in flight.
+     * 
+     * @param <V> type of the value of the request
+     */
+    private static final class Flight<V> {
+
+        /** Whether the flight accepts no more followers. */
+        private boolean closed;
+
+        /** Number of followers. */
+        private int followers;
+
+        /** Whether the shared value or the failure is set. */
+        private boolean done;
+
+        /** Value shared with the followers. */
+        private V sharedValue;
+
+        /** Failure of the leader. */
+        private Exception failure;
+
+        /**
+         * Joins the flight as a follower.
+         * 
+         * @return true if the flight was joined, false if it is closed
+         */
+        synchronized boolean join() {
+            if (closed) {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        /**
+         * Closes the flight to new followers.
+         * 
+         * @return number of followers
+         */
+        synchronized int close() {
+            closed = true;
+            return followers;
+        }
+
+        /**
+         * Hands the shared value to the followers.
+         * 
+         * @param value the shared value
+         */
+        synchronized void complete(V value) {
+            sharedValue = value;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Hands the failure of the leader to the followers.
+         * 
+         * @param e the failure
+         */
+        synchronized void fail(Exception e) {
+            failure = e;
+            done = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the leader, for a bounded time. A follower which is still waiting when the time is up leaves the
+         * flight.
+         * 
+         * @param timeout time, in milliseconds, to wait for the leader
+         * 
+         * @return true if the shared value or the failure is set, false if the follower left the flight
+         * 
+         * @throws InterruptedException thrown if the follower is interrupted while waiting
+         */
+        synchronized boolean await(long timeout) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    followers--;
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+
+        /**
+         * Gets the result of the leader, once {@link #await(long)} returned true.
+         * 
+         * @return the shared value
+         * 
+         * @throws Exception the failure of the leader
+         */
+        synchronized V getResult() throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+            return sharedValue;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timed sampling profiler of the PDP threads.
+ * <p>
+ * While running, a daemon thread takes the stack traces of all the runnable
+ * threads at a fixed interval and counts, for each method, the samples in
+ * which it is the executing method (self) and the samples in which it is
+ * anywhere on the stack (total). A profile stops by itself once its duration
+ * elapsed, its counts are kept until the next profile is started.
+ */
+@ThreadSafe
+public class SamplingProfiler {
+
+    /** Default duration of a profile, in seconds, {@value} . */
+    public static final int DEFAULT_DURATION = 30;
+
+    /** Default interval between two samples, in milliseconds, {@value} . */
+    public static final int DEFAULT_INTERVAL = 10;
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(SamplingProfiler.class);
+
+    /** Number of samples in which a method was executing, by method. */
+    private final Map<String, long[]> selfSamples = new HashMap<String, long[]>();
+
+    /** Number of samples in which a method was on the stack, by method. */
+    private final Map<String, long[]> totalSamples = new HashMap<String, long[]>();
+
+    /** Number of thread stacks sampled by the current or last profile. */
+    private long samples;
+
+    /** Start of the current or last profile, in milliseconds, 0 if none was started. */
+    private long startTime;
+
+    /** End of the last profile, in milliseconds, 0 while a profile runs. */
+    private long endTime;
+
+    /** Thread taking the samples, null if no profile runs. */
+    private Thread sampler;
+
+    /**
+     * Starts a new profile. A running profile is stopped first.
+     * 
+     * @param durationSeconds duration of the profile, in seconds
+     * @param intervalMillis interval between two samples, in milliseconds
+     */
+    public synchronized void start(int durationSeconds, final int intervalMillis) {
+        if (durationSeconds < 1 || intervalMillis < 1) {
+            throw new IllegalArgumentException("Profile duration and sampling interval must be positive");
+        }
+        stop();
+        selfSamples.clear();
+        totalSamples.clear();
+        samples = 0;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        final long deadline = startTime + durationSeconds * 1000L;
+        sampler = new Thread("PDP profiler") {
+            public void run() {
+                try {
+                    while (System.currentTimeMillis() < deadline && !isInterrupted()) {
+                        sample(this);
+                        Thread.sleep(intervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+                finish(this);
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+        log.info("Started a {} seconds sampling profile, one sample every {}ms", durationSeconds, intervalMillis);
+    }
+
+    /** Stops the running profile, if any. */
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.interrupt();
+            finish(sampler);
+        }
+    }
+
+    /**
+     * Gets whether a profile is running.
+     * 
+     * @return true if a profile is running
+     */
+    public synchronized boolean isRunning() {
+        return sampler != null;
+    }
+
+    /**
+     * Prints the methods with the most samples of the current or last profile.
+     * 
+     * @param writer writer to print to
+     * @param top maximum number of methods printed
+     */
+    public synchronized void printProfile(PrintWriter writer, int top) {
+        if (startTime == 0) {
+            writer.println("Profile: none");
+            return;
+        }
+        long duration = (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+        writer.println("Profile: " + (sampler != null ? "running" : "stopped") + " duration=" + duration
+                + "ms samples=" + samples);
+        printMethods(writer, "Self", selfSamples, top);
+        printMethods(writer, "Total", totalSamples, top);
+    }
+
+    /**
+     * Takes one sample of all the runnable threads but the sampling one.
+     * 
+     * @param samplingThread the sampling thread
+     */
+    private void sample(Thread samplingThread) {
+        Map<Thread, StackTraceElement[]> stacks = Thread.getAllStackTraces();
+        synchronized (this) {
+            if (sampler != samplingThread) {
+                return;
+            }
+            for (Map.Entry<Thread, StackTraceElement[]> stack : stacks.entrySet()) {
+                StackTraceElement[] frames = stack.getValue();
+                if (stack.getKey() == samplingThread || frames.length == 0
+                        || stack.getKey().getState() != Thread.State.RUNNABLE) {
+                    continue;
+                }
+                samples++;
+                increment(selfSamples, method(frames[0]));
+                HashMap<String, Boolean> seen = new HashMap<String, Boolean>();
+                for (StackTraceElement frame : frames) {
+                    String method = method(frame);
+                    if (seen.put(method, Boolean.TRUE) == null) {
+                        increment(totalSamples, method);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the profile taken by a sampling thread as finished.
+     * 
+     * @param samplingThread the sampling thread
+     */
+    private synchronized void finish(Thread samplingThread) {
+        if (sampler == samplingThread) {
+            sampler = null;
+            endTime = System.currentTimeMillis();
+            log.info("Sampling profile finished, {} samples", samples);
+        }
+    }
+
+    /**
+     * Prints the methods with the most samples.
+     * 
+     * @param writer writer to print to
+     * @param name name of the counts
+     * @param counts the samples, by method
+     * @param top maximum number of methods printed
+     */
+    private void printMethods(PrintWriter writer, String name, Map<String, long[]> counts, int top) {
+        List<Map.Entry<String, long[]>> methods = new ArrayList<Map.Entry<String, long[]>>(counts.entrySet());
+        Collections.sort(methods, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> method1, Map.Entry<String, long[]> method2) {
+                long count1 = method1.getValue()[0];
+                long count2 = method2.getValue()[0];
+                return count1 > count2 ? -1 : count1 == count2 ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < Math.min(top, methods.size()); i++) {
+            Map.Entry<String, long[]> method = methods.get(i);
+            long count = method.getValue()[0];
+            writer.println(name + ": " + count + " " + (samples == 0 ? 0 : count * 100 / samples) + "% "
+                    + method.getKey());
+        }
+    }
+
+    /**
+     * Increments the samples of a method.
+     * 
+     * @param counts the samples, by method
+     * @param method the method
+     */
+    private static void increment(Map<String, long[]> counts, String method) {
+        long[] count = counts.get(method);
+        if (count == null) {
+            count = new long[1];
+            counts.put(method, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * Gets the name of the method of a stack frame.
+     * 
+     * @param frame the stack frame
+     * 
+     * @return the class and method name
+     */
+    private static String method(StackTraceElement frame) {
+        return frame.getClassName() + "." + frame.getMethodName();
+    }
+}
\ No newline at end of file
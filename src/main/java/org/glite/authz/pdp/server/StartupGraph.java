@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of startup steps and the dependencies between them. Each step is run
+ * on the given executor as soon as all the steps it depends on are completed,
+ * so that independent steps run concurrently. The duration of each step is
+ * logged.
+ * <p>
+ * Steps must be added after the steps they depend on. A graph is built and
+ * executed by a single thread.
+ */
+@NotThreadSafe
+public class StartupGraph {
+
+    /** Class logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(StartupGraph.class);
+
+    /** Executor running the steps. */
+    private final Executor executor;
+
+    /** Completion of the steps added so far, indexed by step name. */
+    private final Map<String, CompletableFuture<Void>> steps = new LinkedHashMap<String, CompletableFuture<Void>>();
+
+    /** Instant the graph was created, in milliseconds. */
+    private final long startTime;
+
+    /**
+     * Constructor.
+     *
+     * @param stepExecutor executor running the steps
+     */
+    public StartupGraph(Executor stepExecutor) {
+        executor = stepExecutor;
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a step to the graph. The step is scheduled right away and starts when
+     * the steps it depends on are completed.
+     *
+     * @param name unique name of the step
+     * @param step the step
+     * @param dependencies names of the steps which must be completed before this
+     *            step starts
+     *
+     * @return this graph
+     */
+    public StartupGraph addStep(final String name, final Step step, String... dependencies) {
+        if (steps.containsKey(name)) {
+            throw new IllegalArgumentException("Startup step " + name + " already exists");
+        }
+        List<CompletableFuture<Void>> prerequisites = new ArrayList<CompletableFuture<Void>>();
+        for (String dependency : dependencies) {
+            CompletableFuture<Void> prerequisite = steps.get(dependency);
+            if (prerequisite == null) {
+                throw new IllegalArgumentException("Startup step " + name + " depends on unknown step " + dependency);
+            }
+            prerequisites.add(prerequisite);
+        }
+
+        CompletableFuture<Void> ready = CompletableFuture.allOf(prerequisites
+                .toArray(new CompletableFuture<?>[prerequisites.size()]));
+        steps.put(name, ready.thenRunAsync(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                try {
+                    step.run();
+                } catch (Exception e) {
+                    LOG.error("Startup step {} failed after {} ms", name, System.currentTimeMillis() - start);
+                    throw new CompletionException(e);
+                }
+                LOG.info("Startup step {} completed in {} ms", name, System.currentTimeMillis() - start);
+            }
+        }, executor));
+        return this;
+    }
+
+    /**
+     * Waits for all the steps added so far to complete.
+     *
+     * @throws Exception the exception thrown by the first failed step, in the
+     *             order the steps were added
+     */
+    public void await() throws Exception {
+        for (Map.Entry<String, CompletableFuture<Void>> step : steps.entrySet()) {
+            try {
+                step.getValue().get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                while (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+        LOG.info("{} startup steps completed in {} ms", steps.size(), System.currentTimeMillis() - startTime);
+    }
+
+    /** A startup step. */
+    public interface Step {
+
+        /**
+         * Runs the step.
+         *
+         * @throws Exception thrown if the step fails, the daemon does not start
+         */
+        void run() throws Exception;
+    }
+}
\ No newline at end of file
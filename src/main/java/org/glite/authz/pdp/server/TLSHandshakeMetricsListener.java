@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.net.ssl.SSLSession;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.eclipse.jetty.io.ssl.SslHandshakeListener;
+
+/**
+ * Records the TLS handshakes of the service connector in the {@link PDPMetrics}. A handshake is counted as resumed
+ * when it completed with a session already seen by an earlier handshake.
+ */
+@ThreadSafe
+public class TLSHandshakeMetricsListener implements SslHandshakeListener {
+
+    /** Metrics receiving the handshake counts. */
+    private final PDPMetrics metrics;
+
+    /** IDs of the sessions established so far. */
+    private final Set<SessionId> sessionIds;
+
+    /** Maximum number of remembered session IDs. */
+    private final int maxSessions;
+
+    /**
+     * Constructor.
+     * 
+     * @param pdpMetrics metrics receiving the handshake counts
+     * @param sessionCacheSize size of the server TLS session cache, bounds the number of remembered session IDs
+     */
+    public TLSHandshakeMetricsListener(PDPMetrics pdpMetrics, int sessionCacheSize) {
+        metrics = pdpMetrics;
+        sessionIds = ConcurrentHashMap.newKeySet();
+        maxSessions = sessionCacheSize > 0 ? sessionCacheSize : Integer.MAX_VALUE;
+    }
+
+    /** {@inheritDoc} */
+    public void handshakeSucceeded(Event event) {
+        SSLSession session = event.getSSLEngine().getSession();
+        SessionId sessionId = new SessionId(session.getId());
+        if (sessionIds.contains(sessionId)) {
+            metrics.incrementTLSHandshakes(true);
+            return;
+        }
+        if (sessionIds.size() >= maxSessions) {
+            sessionIds.clear();
+        }
+        sessionIds.add(sessionId);
+        metrics.incrementTLSHandshakes(false);
+    }
+
+    /** {@inheritDoc} */
+    public void handshakeFailed(Event event, Throwable failure) {
+        metrics.incrementTLSHandshakeFailures();
+    }
+
+    /** A TLS session ID usable as a set element. */
+    private static final class SessionId {
+
+        /** The session ID. */
+        private final byte[] id;
+
+        /** Hash code of the session ID. */
+        private final int hash;
+
+        /**
+         * Constructor.
+         * 
+         * @param sessionId the session ID
+         */
+        SessionId(byte[] sessionId) {
+            id = sessionId;
+            hash = Arrays.hashCode(sessionId);
+        }
+
+        /** {@inheritDoc} */
+        public boolean equals(Object obj) {
+            return obj instanceof SessionId && Arrays.equals(id, ((SessionId) obj).id);
+        }
+
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.glite.authz.common.http.AbstractAdminCommand;
+
+/**
+ * An admin command that prints the state of the thread pool of the PDP service and, given the
+ * <code>maxThreads</code> parameter, changes its maximum number of threads. The state is printed as
+ * <i>name</i>: <i>value</i> lines: Threads, IdleThreads, MinThreads, MaxThreads and QueuedRequests.
+ */
+public class ThreadPoolCommand extends AbstractAdminCommand {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = 8848720347164926525L;
+
+    /** Thread pool of the PDP service. */
+    private ThreadPool threadPool;
+
+    /**
+     * Constructor.
+     * 
+     * @param pool thread pool of the PDP service
+     */
+    public ThreadPoolCommand(ThreadPool pool) {
+        super("/threadPool");
+
+        if (pool == null) {
+            throw new IllegalArgumentException("Thread pool may not be null");
+        }
+        threadPool = pool;
+    }
+
+    /** {@inheritDoc} */
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String maxThreads = req.getParameter("maxThreads");
+        if (maxThreads != null) {
+            if (!(threadPool instanceof QueuedThreadPool)) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "The thread pool can not be resized");
+                return;
+            }
+            QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+            int max;
+            try {
+                max = Integer.parseInt(maxThreads);
+            } catch (NumberFormatException e) {
+                max = -1;
+            }
+            if (max < queuedThreadPool.getMinThreads()) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid maximum number of threads " + maxThreads
+                        + ", the minimum is " + queuedThreadPool.getMinThreads());
+                return;
+            }
+            queuedThreadPool.setMaxThreads(max);
+        }
+
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter writer = resp.getWriter();
+        writer.println("Threads: " + threadPool.getThreads());
+        writer.println("IdleThreads: " + threadPool.getIdleThreads());
+        if (threadPool instanceof QueuedThreadPool) {
+            QueuedThreadPool queuedThreadPool = (QueuedThreadPool) threadPool;
+            writer.println("MinThreads: " + queuedThreadPool.getMinThreads());
+            writer.println("MaxThreads: " + queuedThreadPool.getMaxThreads());
+            writer.println("QueuedRequests: " + queuedThreadPool.getQueueSize());
+        }
+        writer.flush();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.glite.authz.common.http.AbstractAdminCommand;
+import org.glite.authz.pdp.policy.PolicyRepository;
+import org.glite.authz.pdp.policy.PolicySnapshot;
+
+/**
+ * An admin command that replays the recently sampled requests against the current policy of each policy repository,
+ * see {@link org.glite.authz.pdp.policy.RequestShapeSampler}, and prints, for each policy, the number of replayed
+ * requests and the time it took.
+ */
+public class WarmupCommand extends AbstractAdminCommand {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = -2971500262411879143L;
+
+    /** Constructor. */
+    public WarmupCommand() {
+        super("/warmup");
+    }
+
+    /** {@inheritDoc} */
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter writer = resp.getWriter();
+        for (PolicyRepository repository : PolicyRepository.instances()) {
+            PolicySnapshot snapshot = repository.getPolicySnapshot();
+            if (snapshot == null) {
+                continue;
+            }
+            long start = System.currentTimeMillis();
+            int replayed = repository.getRequestSampler().replay(snapshot);
+            writer.println(snapshot.getPolicySetId() + ": version=" + snapshot.getPolicyVersion() + " requests="
+                    + replayed + " time=" + (System.currentTimeMillis() - start) + "ms");
+        }
+        writer.flush();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes access log records, off the request threads, to the <code>org.glite.authz.access</code> logger.
+ * <p>
+ * A fixed number of records is allocated up front. A request thread takes a free record, fills it and queues it; a
+ * single background thread formats the queued records and gives them back. What happens when no record is free is
+ * decided by the {@link BackPressure} policy. Each record is written as one line of space separated
+ * <code>name=value</code> fields:
+ * 
+ * <pre>
+ * time=2010-01-01T12:00:00.000Z client=192.168.0.1:51234 method=POST path=/authz status=200 bytes=2048 micros=812
+ * </pre>
+ */
+@ThreadSafe
+public class AccessLogWriter {
+
+    /** Name of the logger the records are written to. */
+    public static final String ACCESS_LOGGER = "org.glite.authz.access";
+
+    /** What to do with a record when all the preallocated records are in use. */
+    public static enum BackPressure {
+
+        /** Drop the record, and count it. */
+        DROP,
+
+        /** Wait for the writer thread to free a record. */
+        BLOCK,
+
+        /** Write the record on the request thread. */
+        SYNCHRONOUS
+    }
+
+    /** Time, in milliseconds, to wait for the writer thread to write the queued records when stopped. */
+    private static final long STOP_TIMEOUT = 5000;
+
+    /** Formatter of the request times, to the second. */
+    private static final DateTimeFormatter TIME_FORMAT = ISODateTimeFormat.dateHourMinuteSecond().withZoneUTC();
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(AccessLogWriter.class);
+
+    /** Logger the records are written to. */
+    private final Logger accessLog = LoggerFactory.getLogger(ACCESS_LOGGER);
+
+    /** Records free to be filled. */
+    private final BlockingQueue<Record> freeRecords;
+
+    /** Records waiting to be written. */
+    private final BlockingQueue<Record> pendingRecords;
+
+    /** Policy applied when no record is free. */
+    private final BackPressure backPressure;
+
+    /** Number of records dropped because no record was free. */
+    private final AtomicLong droppedRecords;
+
+    /** Thread writing the records, null if the writer is not started. */
+    private Thread writerThread;
+
+    /** Whether the writer has been stopped. */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     * 
+     * @param size number of preallocated records
+     * @param policy policy applied when no record is free
+     */
+    public AccessLogWriter(int size, BackPressure policy) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Number of records must be at least 1");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("Back-pressure policy may not be null");
+        }
+        freeRecords = new ArrayBlockingQueue<Record>(size);
+        pendingRecords = new ArrayBlockingQueue<Record>(size);
+        for (int i = 0; i < size; i++) {
+            freeRecords.add(new Record());
+        }
+        backPressure = policy;
+        droppedRecords = new AtomicLong();
+    }
+
+    /** Starts a new writer thread. The writer may be started again once stopped. */
+    public synchronized void start() {
+        if (writerThread != null) {
+            throw new IllegalStateException("Access log writer is already started");
+        }
+        log.info("Writing access log asynchronously, {} records, {} when full", freeRecords.size(), backPressure);
+        stopped = false;
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeRecords();
+            }
+        }, "PDP access log writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the writer thread once the queued records have been written. The records queued too late for the writer
+     * thread are counted as dropped.
+     */
+    public synchronized void stop() {
+        if (writerThread == null) {
+            return;
+        }
+        stopped = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+        Record record;
+        while ((record = pendingRecords.poll()) != null) {
+            recycle(record);
+            droppedRecords.incrementAndGet();
+        }
+        long dropped = droppedRecords.get();
+        if (dropped > 0) {
+            log.warn("{} access log records were dropped", dropped);
+        }
+    }
+
+    /**
+     * Logs the access to the service. Depending on the back-pressure policy this method may block, or write the
+     * record itself, when no record is free.
+     * 
+     * @param time instant the request was received, in milliseconds
+     * @param clientAddress address of the client
+     * @param clientPort port of the client
+     * @param method HTTP method of the request
+     * @param path path of the request
+     * @param status HTTP status of the response
+     * @param requestBytes length of the request body, -1 if unknown
+     * @param elapsedNanos time spent serving the request, in nanoseconds
+     * 
+     * @return true if the record was queued or written, false if it was dropped
+     */
+    public boolean log(long time, String clientAddress, int clientPort, String method, String path, int status,
+            long requestBytes, long elapsedNanos) {
+        Record record = stopped ? null : freeRecords.poll();
+        if (record == null) {
+            if (stopped || backPressure == BackPressure.DROP) {
+                droppedRecords.incrementAndGet();
+                return false;
+            }
+            if (backPressure == BackPressure.SYNCHRONOUS) {
+                Record unqueued = new Record();
+                unqueued.set(time, clientAddress, clientPort, method, path, status, requestBytes, elapsedNanos);
+                accessLog.info(unqueued.format(new StringBuilder(128), new TimeCache()));
+                return true;
+            }
+            try {
+                record = freeRecords.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedRecords.incrementAndGet();
+                return false;
+            }
+        }
+        record.set(time, clientAddress, clientPort, method, path, status, requestBytes, elapsedNanos);
+        pendingRecords.add(record);
+        if (stopped && pendingRecords.remove(record)) {
+            // queued after the writer was stopped, nothing would write it
+            recycle(record);
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of records dropped because no record was free.
+     * 
+     * @return number of dropped records
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /** Body of the writer thread. */
+    private void writeRecords() {
+        StringBuilder line = new StringBuilder(128);
+        TimeCache timeCache = new TimeCache();
+        while (!stopped || !pendingRecords.isEmpty()) {
+            Record record;
+            try {
+                record = pendingRecords.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (record == null) {
+                continue;
+            }
+            try {
+                line.setLength(0);
+                accessLog.info(record.format(line, timeCache));
+            } catch (RuntimeException e) {
+                log.error("Unable to write access log record", e);
+            } finally {
+                recycle(record);
+            }
+        }
+    }
+
+    /**
+     * Clears a record and makes it free again.
+     * 
+     * @param record the record
+     */
+    private void recycle(Record record) {
+        record.clear();
+        freeRecords.add(record);
+    }
+
+    /** The fields of an access log record, reused from one request to the next. */
+    @NotThreadSafe
+    private static class Record {
+
+        /** Instant the request was received, in milliseconds. */
+        private long time;
+
+        /** Address of the client. */
+        private String clientAddress;
+
+        /** Port of the client. */
+        private int clientPort;
+
+        /** HTTP method of the request. */
+        private String method;
+
+        /** Path of the request. */
+        private String path;
+
+        /** HTTP status of the response. */
+        private int status;
+
+        /** Length of the request body, -1 if unknown. */
+        private long requestBytes;
+
+        /** Time spent serving the request, in nanoseconds. */
+        private long elapsedNanos;
+
+        /**
+         * Sets the fields of the record.
+         * 
+         * @param requestTime instant the request was received, in milliseconds
+         * @param address address of the client
+         * @param port port of the client
+         * @param requestMethod HTTP method of the request
+         * @param requestPath path of the request
+         * @param responseStatus HTTP status of the response
+         * @param bytes length of the request body, -1 if unknown
+         * @param nanos time spent serving the request, in nanoseconds
+         */
+        void set(long requestTime, String address, int port, String requestMethod, String requestPath,
+                int responseStatus, long bytes, long nanos) {
+            time = requestTime;
+            clientAddress = address;
+            clientPort = port;
+            method = requestMethod;
+            path = requestPath;
+            status = responseStatus;
+            requestBytes = bytes;
+            elapsedNanos = nanos;
+        }
+
+        /** Releases the references held by the record. */
+        void clear() {
+            clientAddress = null;
+            method = null;
+            path = null;
+        }
+
+        /**
+         * Formats the record.
+         * 
+         * @param line buffer the record is appended to
+         * @param timeCache cache of the formatted request time
+         * 
+         * @return the formatted record
+         */
+        String format(StringBuilder line, TimeCache timeCache) {
+            line.append("time=");
+            timeCache.append(line, time);
+            line.append(" client=").append(clientAddress).append(':').append(clientPort);
+            line.append(" method=").append(method);
+            line.append(" path=").append(path);
+            line.append(" status=").append(status);
+            line.append(" bytes=").append(requestBytes);
+            line.append(" micros=").append(elapsedNanos / 1000);
+            return line.toString();
+        }
+    }
+
+    /**
+     * Formats request times, reusing the formatted date and time of the last second seen since consecutive records
+     * mostly fall within the same second.
+     */
+    @NotThreadSafe
+    private static class TimeCache {
+
+        /** Last second formatted, in milliseconds. */
+        private long second = Long.MIN_VALUE;
+
+        /** Formatted date and time of the last second formatted. */
+        private String formattedSecond;
+
+        /**
+         * Appends a request time, with millisecond precision.
+         * 
+         * @param line buffer the time is appended to
+         * @param time the time, in milliseconds
+         */
+        void append(StringBuilder line, long time) {
+            long millis = time % 1000;
+            if (millis < 0) {
+                millis += 1000;
+            }
+            if (time - millis != second) {
+                second = time - millis;
+                formattedSecond = TIME_FORMAT.print(second);
+            }
+            line.append(formattedSecond).append('.');
+            if (millis < 100) {
+                line.append('0');
+            }
+            if (millis < 10) {
+                line.append('0');
+            }
+            line.append(millis).append('Z');
+        }
+    }
+}
\ No newline at end of file
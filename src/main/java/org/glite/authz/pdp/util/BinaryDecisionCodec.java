@@ -0,0 +1,661 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Codec of the compact binary encoding of authorization requests and responses, accepted by the PDP next to the
+ * SAML/SOAP binding. The codec has no dependency beyond the JDK so that it may be used as is by Java clients.
+ * <p>
+ * All numbers are big-endian. A string is encoded as a 32-bit length followed by that many bytes of UTF-8, a length of
+ * <code>-1</code> denoting a null string. A list is encoded as a 16-bit element count followed by the elements.
+ * <p>
+ * A request is encoded as:
+ * 
+ * <pre>
+ * byte     version ({@value #VERSION})
+ * string   request ID
+ * string   issuer
+ * list     subject attributes
+ * list     resource attributes
+ * list     action attributes
+ * list     environment attributes
+ * </pre>
+ * 
+ * an attribute being encoded as its ID, data type and issuer strings followed by the list of its value strings.
+ * <p>
+ * A response is encoded as:
+ * 
+ * <pre>
+ * byte     version ({@value #VERSION})
+ * byte     decision ({@link #DENY}, {@link #PERMIT}, {@link #INDETERMINATE} or {@link #NOT_APPLICABLE})
+ * string   status code
+ * string   status message
+ * string   resource ID
+ * list     obligations
+ * </pre>
+ * 
+ * an obligation being encoded as its ID string, a fulfill-on byte ({@link #DENY} or {@link #PERMIT}) and the list of
+ * its attribute assignments, each of them encoded as its ID, data type and value strings.
+ */
+@ThreadSafe
+public class BinaryDecisionCodec {
+
+    /** MIME type of the encoded messages, {@value} . */
+    public static final String CONTENT_TYPE = "application/x-argus-pdp-decision";
+
+    /** Version of the encoding, {@value} . */
+    public static final byte VERSION = 1;
+
+    /** Deny decision or effect, {@value} . */
+    public static final byte DENY = 0;
+
+    /** Permit decision or effect, {@value} . */
+    public static final byte PERMIT = 1;
+
+    /** Indeterminate decision, {@value} . */
+    public static final byte INDETERMINATE = 2;
+
+    /** Not applicable decision, {@value} . */
+    public static final byte NOT_APPLICABLE = 3;
+
+    /** Maximum length, in bytes, of a decoded string, {@value} . */
+    public static final int MAX_STRING_LENGTH = 64 * 1024;
+
+    /** Maximum number of elements of a decoded list, {@value} . */
+    public static final int MAX_LIST_SIZE = 1024;
+
+    /** Charset of the encoded strings. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Constructor. */
+    private BinaryDecisionCodec() {
+    }
+
+    /**
+     * Encodes a request.
+     * 
+     * @param request the request to encode
+     * 
+     * @return the encoded request
+     */
+    public static byte[] encodeRequest(Request request) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try {
+            writeRequest(request, bytes);
+        } catch (IOException e) {
+            // can not happen with a byte array stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes an encoded request to a stream.
+     * 
+     * @param request the request to encode
+     * @param stream stream to which the encoded request is written
+     * 
+     * @throws IOException thrown if the request can not be written to the stream
+     */
+    public static void writeRequest(Request request, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeByte(VERSION);
+        writeString(out, request.getId());
+        writeString(out, request.getIssuer());
+        writeAttributes(out, request.getSubjectAttributes());
+        writeAttributes(out, request.getResourceAttributes());
+        writeAttributes(out, request.getActionAttributes());
+        writeAttributes(out, request.getEnvironmentAttributes());
+        out.flush();
+    }
+
+    /**
+     * Reads an encoded request from a stream.
+     * 
+     * @param stream stream from which the encoded request is read
+     * 
+     * @return the decoded request
+     * 
+     * @throws IOException thrown if the request can not be read or is not correctly encoded
+     */
+    public static Request readRequest(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        readVersion(in);
+        Request request = new Request(readString(in), readString(in));
+        readAttributes(in, request.getSubjectAttributes());
+        readAttributes(in, request.getResourceAttributes());
+        readAttributes(in, request.getActionAttributes());
+        readAttributes(in, request.getEnvironmentAttributes());
+        return request;
+    }
+
+    /**
+     * Encodes a response.
+     * 
+     * @param response the response to encode
+     * 
+     * @return the encoded response
+     */
+    public static byte[] encodeResponse(Response response) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            writeResponse(response, bytes);
+        } catch (IOException e) {
+            // can not happen with a byte array stream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes an encoded response to a stream.
+     * 
+     * @param response the response to encode
+     * @param stream stream to which the encoded response is written
+     * 
+     * @throws IOException thrown if the response can not be written to the stream
+     */
+    public static void writeResponse(Response response, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeByte(VERSION);
+        out.writeByte(response.getDecision());
+        writeString(out, response.getStatusCode());
+        writeString(out, response.getStatusMessage());
+        writeString(out, response.getResourceId());
+        List<Obligation> obligations = response.getObligations();
+        writeListSize(out, obligations.size());
+        for (Obligation obligation : obligations) {
+            writeString(out, obligation.getId());
+            out.writeByte(obligation.getFulfillOn());
+            List<Attribute> assignments = obligation.getAttributeAssignments();
+            writeListSize(out, assignments.size());
+            for (Attribute assignment : assignments) {
+                writeString(out, assignment.getId());
+                writeString(out, assignment.getDataType());
+                writeString(out, assignment.getValues().isEmpty() ? null : assignment.getValues().get(0));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads an encoded response from a stream.
+     * 
+     * @param stream stream from which the encoded response is read
+     * 
+     * @return the decoded response
+     * 
+     * @throws IOException thrown if the response can not be read or is not correctly encoded
+     */
+    public static Response readResponse(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        readVersion(in);
+        byte decision = in.readByte();
+        if (decision < DENY || decision > NOT_APPLICABLE) {
+            throw new IOException("Unknown decision " + decision);
+        }
+        Response response = new Response(decision, readString(in), readString(in), readString(in));
+        int obligationCount = readListSize(in);
+        for (int i = 0; i < obligationCount; i++) {
+            String id = readString(in);
+            byte fulfillOn = in.readByte();
+            if (fulfillOn != DENY && fulfillOn != PERMIT) {
+                throw new IOException("Unknown obligation effect " + fulfillOn);
+            }
+            Obligation obligation = new Obligation(id, fulfillOn);
+            int assignmentCount = readListSize(in);
+            for (int j = 0; j < assignmentCount; j++) {
+                Attribute assignment = new Attribute(readString(in), readString(in), null);
+                assignment.getValues().add(readString(in));
+                obligation.getAttributeAssignments().add(assignment);
+            }
+            response.getObligations().add(obligation);
+        }
+        return response;
+    }
+
+    /**
+     * Writes a list of attributes.
+     * 
+     * @param out stream to which the attributes are written
+     * @param attributes the attributes
+     * 
+     * @throws IOException thrown if the attributes can not be written
+     */
+    private static void writeAttributes(DataOutputStream out, List<Attribute> attributes) throws IOException {
+        writeListSize(out, attributes.size());
+        for (Attribute attribute : attributes) {
+            writeString(out, attribute.getId());
+            writeString(out, attribute.getDataType());
+            writeString(out, attribute.getIssuer());
+            writeListSize(out, attribute.getValues().size());
+            for (String value : attribute.getValues()) {
+                writeString(out, value);
+            }
+        }
+    }
+
+    /**
+     * Reads a list of attributes.
+     * 
+     * @param in stream from which the attributes are read
+     * @param attributes list to which the read attributes are added
+     * 
+     * @throws IOException thrown if the attributes can not be read
+     */
+    private static void readAttributes(DataInputStream in, List<Attribute> attributes) throws IOException {
+        int attributeCount = readListSize(in);
+        for (int i = 0; i < attributeCount; i++) {
+            Attribute attribute = new Attribute(readString(in), readString(in), readString(in));
+            int valueCount = readListSize(in);
+            for (int j = 0; j < valueCount; j++) {
+                attribute.getValues().add(readString(in));
+            }
+            attributes.add(attribute);
+        }
+    }
+
+    /**
+     * Reads and checks the version of the encoding.
+     * 
+     * @param in stream from which the version is read
+     * 
+     * @throws IOException thrown if the version can not be read or is not supported
+     */
+    private static void readVersion(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported encoding version " + version);
+        }
+    }
+
+    /**
+     * Writes a list size.
+     * 
+     * @param out stream to which the size is written
+     * @param size the list size
+     * 
+     * @throws IOException thrown if the list is too large or the size can not be written
+     */
+    private static void writeListSize(DataOutputStream out, int size) throws IOException {
+        if (size > MAX_LIST_SIZE) {
+            throw new IOException("List of " + size + " elements exceeds the maximum of " + MAX_LIST_SIZE);
+        }
+        out.writeShort(size);
+    }
+
+    /**
+     * Reads a list size.
+     * 
+     * @param in stream from which the size is read
+     * 
+     * @return the list size
+     * 
+     * @throws IOException thrown if the size can not be read or exceeds {@link #MAX_LIST_SIZE}
+     */
+    private static int readListSize(DataInputStream in) throws IOException {
+        int size = in.readUnsignedShort();
+        if (size > MAX_LIST_SIZE) {
+            throw new IOException("List of " + size + " elements exceeds the maximum of " + MAX_LIST_SIZE);
+        }
+        return size;
+    }
+
+    /**
+     * Writes a string.
+     * 
+     * @param out stream to which the string is written
+     * @param string the string, may be null
+     * 
+     * @throws IOException thrown if the string is too long or can not be written
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(UTF8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IOException("String of " + bytes.length + " bytes exceeds the maximum of " + MAX_STRING_LENGTH);
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string.
+     * 
+     * @param in stream from which the string is read
+     * 
+     * @return the string, may be null
+     * 
+     * @throws IOException thrown if the string can not be read or exceeds {@link #MAX_STRING_LENGTH}
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (EOFException e) {
+            throw new IOException("Truncated string of " + length + " bytes", e);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    /** An attribute of a request, or an attribute assignment of an obligation. */
+    public static class Attribute {
+
+        /** ID of the attribute. */
+        private final String id;
+
+        /** Data type of the attribute. */
+        private final String dataType;
+
+        /** Issuer of the attribute. */
+        private final String issuer;
+
+        /** Values of the attribute. */
+        private final List<String> values;
+
+        /**
+         * Constructor.
+         * 
+         * @param attributeId ID of the attribute
+         * @param attributeDataType data type of the attribute
+         * @param attributeIssuer issuer of the attribute, may be null
+         */
+        public Attribute(String attributeId, String attributeDataType, String attributeIssuer) {
+            id = attributeId;
+            dataType = attributeDataType;
+            issuer = attributeIssuer;
+            values = new ArrayList<String>(1);
+        }
+
+        /**
+         * Gets the ID of the attribute.
+         * 
+         * @return ID of the attribute
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the data type of the attribute.
+         * 
+         * @return data type of the attribute
+         */
+        public String getDataType() {
+            return dataType;
+        }
+
+        /**
+         * Gets the issuer of the attribute.
+         * 
+         * @return issuer of the attribute, may be null
+         */
+        public String getIssuer() {
+            return issuer;
+        }
+
+        /**
+         * Gets the values of the attribute.
+         * 
+         * @return values of the attribute, never null
+         */
+        public List<String> getValues() {
+            return values;
+        }
+    }
+
+    /** An authorization request. */
+    public static class Request {
+
+        /** ID of the request. */
+        private final String id;
+
+        /** Issuer of the request. */
+        private final String issuer;
+
+        /** Attributes of the subject. */
+        private final List<Attribute> subjectAttributes = new ArrayList<Attribute>();
+
+        /** Attributes of the resource. */
+        private final List<Attribute> resourceAttributes = new ArrayList<Attribute>();
+
+        /** Attributes of the action. */
+        private final List<Attribute> actionAttributes = new ArrayList<Attribute>();
+
+        /** Attributes of the environment. */
+        private final List<Attribute> environmentAttributes = new ArrayList<Attribute>();
+
+        /**
+         * Constructor.
+         * 
+         * @param requestId ID of the request
+         * @param requestIssuer issuer of the request
+         */
+        public Request(String requestId, String requestIssuer) {
+            id = requestId;
+            issuer = requestIssuer;
+        }
+
+        /**
+         * Gets the ID of the request.
+         * 
+         * @return ID of the request
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the issuer of the request.
+         * 
+         * @return issuer of the request
+         */
+        public String getIssuer() {
+            return issuer;
+        }
+
+        /**
+         * Gets the attributes of the subject.
+         * 
+         * @return attributes of the subject, never null
+         */
+        public List<Attribute> getSubjectAttributes() {
+            return subjectAttributes;
+        }
+
+        /**
+         * Gets the attributes of the resource.
+         * 
+         * @return attributes of the resource, never null
+         */
+        public List<Attribute> getResourceAttributes() {
+            return resourceAttributes;
+        }
+
+        /**
+         * Gets the attributes of the action.
+         * 
+         * @return attributes of the action, never null
+         */
+        public List<Attribute> getActionAttributes() {
+            return actionAttributes;
+        }
+
+        /**
+         * Gets the attributes of the environment.
+         * 
+         * @return attributes of the environment, never null
+         */
+        public List<Attribute> getEnvironmentAttributes() {
+            return environmentAttributes;
+        }
+    }
+
+    /** An obligation of a response. */
+    public static class Obligation {
+
+        /** ID of the obligation. */
+        private final String id;
+
+        /** Effect on which the obligation must be fulfilled, {@link #DENY} or {@link #PERMIT}. */
+        private final byte fulfillOn;
+
+        /** Attribute assignments of the obligation, each with a single value. */
+        private final List<Attribute> attributeAssignments = new ArrayList<Attribute>();
+
+        /**
+         * Constructor.
+         * 
+         * @param obligationId ID of the obligation
+         * @param effect effect on which the obligation must be fulfilled, {@link #DENY} or {@link #PERMIT}
+         */
+        public Obligation(String obligationId, byte effect) {
+            id = obligationId;
+            fulfillOn = effect;
+        }
+
+        /**
+         * Gets the ID of the obligation.
+         * 
+         * @return ID of the obligation
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Gets the effect on which the obligation must be fulfilled.
+         * 
+         * @return {@link #DENY} or {@link #PERMIT}
+         */
+        public byte getFulfillOn() {
+            return fulfillOn;
+        }
+
+        /**
+         * Gets the attribute assignments of the obligation.
+         * 
+         * @return attribute assignments of the obligation, never null
+         */
+        public List<Attribute> getAttributeAssignments() {
+            return attributeAssignments;
+        }
+    }
+
+    /** An authorization response. */
+    public static class Response {
+
+        /** The decision. */
+        private final byte decision;
+
+        /** Status code of the response. */
+        private final String statusCode;
+
+        /** Status message of the response. */
+        private final String statusMessage;
+
+        /** ID of the resource to which the decision applies. */
+        private final String resourceId;
+
+        /** Obligations of the response. */
+        private final List<Obligation> obligations = new ArrayList<Obligation>();
+
+        /**
+         * Constructor.
+         * 
+         * @param responseDecision the decision
+         * @param code status code of the response
+         * @param message status message of the response, may be null
+         * @param resource ID of the resource to which the decision applies, may be null
+         */
+        public Response(byte responseDecision, String code, String message, String resource) {
+            decision = responseDecision;
+            statusCode = code;
+            statusMessage = message;
+            resourceId = resource;
+        }
+
+        /**
+         * Gets the decision.
+         * 
+         * @return {@link #DENY}, {@link #PERMIT}, {@link #INDETERMINATE} or {@link #NOT_APPLICABLE}
+         */
+        public byte getDecision() {
+            return decision;
+        }
+
+        /**
+         * Gets the status code of the response.
+         * 
+         * @return status code of the response
+         */
+        public String getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Gets the status message of the response.
+         * 
+         * @return status message of the response, may be null
+         */
+        public String getStatusMessage() {
+            return statusMessage;
+        }
+
+        /**
+         * Gets the ID of the resource to which the decision applies.
+         * 
+         * @return ID of the resource to which the decision applies, may be null
+         */
+        public String getResourceId() {
+            return resourceId;
+        }
+
+        /**
+         * Gets the obligations of the response.
+         * 
+         * @return obligations of the response, never null
+         */
+        public List<Obligation> getObligations() {
+            return obligations;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+/**
+ * A bounded cache of the PDP which can be inspected, resized and flushed at
+ * runtime, through the admin service. Implementations must be thread safe.
+ */
+public interface ManagedCache {
+
+    /**
+     * Gets the number of cached entries.
+     * 
+     * @return number of cached entries
+     */
+    public int size();
+
+    /**
+     * Gets the maximum number of cached entries.
+     * 
+     * @return maximum number of cached entries
+     */
+    public int getMaxSize();
+
+    /**
+     * Sets the maximum number of cached entries. Entries over the new maximum
+     * may be dropped.
+     * 
+     * @param maximumSize maximum number of cached entries, 0 disables the cache
+     */
+    public void setMaxSize(int maximumSize);
+
+    /** Drops all the cached entries. */
+    public void clear();
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.opensaml.common.IdentifierGenerator;
+
+/**
+ * Identifier generator giving each thread its own <code>SHA1PRNG</code> {@link SecureRandom}.
+ * <p>
+ * The identifiers have the format of OpenSAML's <code>SecureRandomIdentifierGenerator</code>, an underscore
+ * followed by the lower case hexadecimal encoding of 16 random bytes. That generator shares one {@link SecureRandom},
+ * whose <code>nextBytes</code> is synchronized, between all the request threads; this one lets them generate
+ * identifiers without contending. Each per-thread instance is seeded by the JVM from its entropy source the first
+ * time it is used.
+ */
+@ThreadSafe
+public class PerThreadIdentifierGenerator implements IdentifierGenerator {
+
+    /** Algorithm of the random number generators. */
+    public static final String ALGORITHM = "SHA1PRNG";
+
+    /** Number of random bytes of the identifiers returned by {@link #generateIdentifier()}. */
+    public static final int DEFAULT_SIZE = 16;
+
+    /** Lower case hexadecimal digits. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Random number generator of each thread. */
+    private final ThreadLocal<SecureRandom> random;
+
+    /**
+     * Constructor.
+     * 
+     * @throws NoSuchAlgorithmException thrown if the {@value #ALGORITHM} algorithm is not supported
+     */
+    public PerThreadIdentifierGenerator() throws NoSuchAlgorithmException {
+        // fail now rather than on the first identifier
+        SecureRandom.getInstance(ALGORITHM);
+        random = new ThreadLocal<SecureRandom>() {
+            protected SecureRandom initialValue() {
+                try {
+                    return SecureRandom.getInstance(ALGORITHM);
+                } catch (NoSuchAlgorithmException e) {
+                    // already supported by the constructor
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    /** {@inheritDoc} */
+    public String generateIdentifier() {
+        return generateIdentifier(DEFAULT_SIZE);
+    }
+
+    /** {@inheritDoc} */
+    public String generateIdentifier(int size) {
+        byte[] bytes = new byte[size];
+        random.get().nextBytes(bytes);
+
+        char[] identifier = new char[1 + 2 * size];
+        identifier[0] = '_';
+        for (int i = 0; i < size; i++) {
+            identifier[1 + 2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            identifier[2 + 2 * i] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(identifier);
+    }
+}
\ No newline at end of file
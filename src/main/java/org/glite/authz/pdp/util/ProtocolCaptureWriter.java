@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes captured protocol messages, off the request threads, to a size-bounded set of rolling files.
+ * <p>
+ * Captures are queued by the request threads and written by a single background thread. When the queue is full the
+ * capture is dropped, and counted, rather than slowing down the request. When the current file would grow beyond its
+ * maximum size it is renamed to <code>file.1</code>, the existing <code>file.1</code> to <code>file.2</code>, and so
+ * on, the oldest file being deleted.
+ */
+@ThreadSafe
+public class ProtocolCaptureWriter {
+
+    /** Number of captures which may wait to be written. */
+    public static final int QUEUE_SIZE = 1024;
+
+    /** Number of files, including the current one, kept by the rolling store. */
+    public static final int FILE_COUNT = 5;
+
+    /** Charset of the capture headers. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(ProtocolCaptureWriter.class);
+
+    /** Captures waiting to be written. */
+    private final BlockingQueue<Capture> captures;
+
+    /** The current capture file. */
+    private final File captureFile;
+
+    /** Maximum size, in bytes, of a capture file. */
+    private final long maxFileSize;
+
+    /** Number of captures dropped because the queue was full. */
+    private final AtomicLong droppedCaptures;
+
+    /** Thread writing the captures. */
+    private final Thread writerThread;
+
+    /** Stream to the current capture file, only used by the writer thread. */
+    private OutputStream out;
+
+    /** Size of the current capture file, only used by the writer thread. */
+    private long fileSize;
+
+    /** Whether the writer has been stopped. */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     * 
+     * @param file the capture file
+     * @param maxTotalSize maximum size, in bytes, of all the capture files together
+     */
+    public ProtocolCaptureWriter(File file, long maxTotalSize) {
+        if (file == null) {
+            throw new IllegalArgumentException("Capture file may not be null");
+        }
+        captureFile = file;
+        maxFileSize = Math.max(1, maxTotalSize / FILE_COUNT);
+        captures = new ArrayBlockingQueue<Capture>(QUEUE_SIZE);
+        droppedCaptures = new AtomicLong();
+
+        writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeCaptures();
+            }
+        }, "PDP protocol capture writer");
+        writerThread.setDaemon(true);
+    }
+
+    /** Starts the writer thread. */
+    public void start() {
+        log.info("Writing protocol captures to {}, rolled every {} bytes", captureFile, maxFileSize);
+        writerThread.start();
+    }
+
+    /** Stops the writer thread once the queued captures have been written. */
+    public void stop() {
+        stopped = true;
+        writerThread.interrupt();
+    }
+
+    /**
+     * Queues a capture to be written. This method never blocks.
+     * 
+     * @param capture the capture
+     * 
+     * @return true if the capture was queued, false if it was dropped
+     */
+    public boolean write(Capture capture) {
+        if (stopped || !captures.offer(capture)) {
+            droppedCaptures.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of captures dropped because the queue was full.
+     * 
+     * @return number of dropped captures
+     */
+    public long getDroppedCaptures() {
+        return droppedCaptures.get();
+    }
+
+    /** Body of the writer thread. */
+    private void writeCaptures() {
+        try {
+            while (!stopped || !captures.isEmpty()) {
+                Capture capture;
+                try {
+                    capture = captures.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (capture == null) {
+                    continue;
+                }
+                try {
+                    writeCapture(capture);
+                    if (captures.isEmpty()) {
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    log.error("Unable to write protocol capture to " + captureFile, e);
+                    closeFile();
+                }
+            }
+        } finally {
+            closeFile();
+        }
+    }
+
+    /**
+     * Writes a capture to the current file, rolling the files if needed.
+     * 
+     * @param capture the capture
+     * 
+     * @throws IOException thrown if the capture can not be written
+     */
+    private void writeCapture(Capture capture) throws IOException {
+        byte[] header = capture.getHeader().getBytes(UTF8);
+        long size = header.length + capture.getRequest().length + capture.getResponse().length + 2;
+        if (out != null && fileSize + size > maxFileSize) {
+            closeFile();
+            rollFiles();
+        }
+        if (out == null) {
+            fileSize = captureFile.length();
+            out = new BufferedOutputStream(new FileOutputStream(captureFile, true));
+        }
+        out.write(header);
+        out.write(capture.getRequest());
+        out.write('\n');
+        out.write(capture.getResponse());
+        out.write('\n');
+        fileSize += size;
+    }
+
+    /** Renames the capture files, deleting the oldest one. */
+    private void rollFiles() {
+        File oldest = new File(captureFile.getPath() + "." + (FILE_COUNT - 1));
+        if (oldest.exists() && !oldest.delete()) {
+            log.warn("Unable to delete protocol capture file {}", oldest);
+        }
+        for (int i = FILE_COUNT - 2; i > 0; i--) {
+            File file = new File(captureFile.getPath() + "." + i);
+            if (file.exists() && !file.renameTo(new File(captureFile.getPath() + "." + (i + 1)))) {
+                log.warn("Unable to roll protocol capture file {}", file);
+            }
+        }
+        if (!captureFile.renameTo(new File(captureFile.getPath() + ".1"))) {
+            log.warn("Unable to roll protocol capture file {}", captureFile);
+        }
+    }
+
+    /** Closes the current capture file, if open. */
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            log.debug("Unable to close protocol capture file", e);
+        }
+        out = null;
+    }
+
+    /** The raw request and response of an exchange. */
+    public static class Capture {
+
+        /** Instant the request was received, in milliseconds. */
+        private final long time;
+
+        /** Address of the client. */
+        private final String remoteAddress;
+
+        /** Issuer of the request, if known. */
+        private final String issuer;
+
+        /** Subject of the request, if known. */
+        private final String subject;
+
+        /** Raw request bytes. */
+        private final byte[] request;
+
+        /** Raw response bytes. */
+        private final byte[] response;
+
+        /**
+         * Constructor.
+         * 
+         * @param requestTime instant the request was received, in milliseconds
+         * @param address address of the client
+         * @param requestIssuer issuer of the request, may be null
+         * @param requestSubject subject of the request, may be null
+         * @param requestBytes raw request bytes
+         * @param responseBytes raw response bytes
+         */
+        public Capture(long requestTime, String address, String requestIssuer, String requestSubject,
+                byte[] requestBytes, byte[] responseBytes) {
+            time = requestTime;
+            remoteAddress = address;
+            issuer = requestIssuer;
+            subject = requestSubject;
+            request = requestBytes;
+            response = responseBytes;
+        }
+
+        /**
+         * Gets the raw request bytes.
+         * 
+         * @return raw request bytes
+         */
+        public byte[] getRequest() {
+            return request;
+        }
+
+        /**
+         * Gets the raw response bytes.
+         * 
+         * @return raw response bytes
+         */
+        public byte[] getResponse() {
+            return response;
+        }
+
+        /**
+         * Gets the header line written before the capture.
+         * 
+         * @return the header line
+         */
+        public String getHeader() {
+            StringBuilder header = new StringBuilder();
+            header.append("=== ");
+            header.append(new DateTime(time).withChronology(ISOChronology.getInstanceUTC()));
+            header.append(" from=").append(remoteAddress);
+            header.append(" issuer=").append(issuer);
+            header.append(" subject=").append(subject);
+            header.append(" requestBytes=").append(request.length);
+            header.append(" responseBytes=").append(response.length);
+            header.append('\n');
+            return header.toString();
+        }
+    }
+}
\ No newline at end of file
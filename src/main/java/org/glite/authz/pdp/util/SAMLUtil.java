@@ -18,6 +18,7 @@
 package org.glite.authz.pdp.util;
 
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 import net.jcip.annotations.ThreadSafe;
 
@@ -26,14 +27,15 @@ import org.joda.time.DateTime;
 import org.opensaml.Configuration;
 import org.opensaml.common.IdentifierGenerator;
 import org.opensaml.common.SAMLObjectBuilder;
-import org.opensaml.common.impl.SecureRandomIdentifierGenerator;
+import org.opensaml.saml2.core.Advice;
 import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.AssertionURIRef;
 import org.opensaml.saml2.core.Issuer;
 import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.Statement;
 import org.opensaml.saml2.core.Status;
 import org.opensaml.saml2.core.StatusCode;
 import org.opensaml.saml2.core.StatusMessage;
-import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionStatementType;
 
 /** Helper methods for creating SAML messages. */
 @ThreadSafe
@@ -48,6 +50,12 @@ public class SAMLUtil {
     @SuppressWarnings("unchecked")
     private static SAMLObjectBuilder<Assertion> assertionBuilder= (SAMLObjectBuilder<Assertion>) Configuration.getBuilderFactory().getBuilder(Assertion.DEFAULT_ELEMENT_NAME);
 
+    @SuppressWarnings("unchecked")
+    private static SAMLObjectBuilder<Advice> adviceBuilder= (SAMLObjectBuilder<Advice>) Configuration.getBuilderFactory().getBuilder(Advice.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static SAMLObjectBuilder<AssertionURIRef> assertionURIRefBuilder= (SAMLObjectBuilder<AssertionURIRef>) Configuration.getBuilderFactory().getBuilder(AssertionURIRef.DEFAULT_ELEMENT_NAME);
+
     @SuppressWarnings("unchecked")
     private static SAMLObjectBuilder<Issuer> issuerBuilder= (SAMLObjectBuilder<Issuer>) Configuration.getBuilderFactory().getBuilder(Issuer.DEFAULT_ELEMENT_NAME);
 
@@ -84,11 +92,33 @@ public class SAMLUtil {
     public static Response buildSAMLResponse(String inResponseTo,
             DateTime issueInstant, Assertion assertion, Status status) {
 
+        Response samlResponse= buildSAMLResponse(inResponseTo,
+                                                 issueInstant,
+                                                 status);
+        samlResponse.getAssertions().add(assertion);
+
+        return samlResponse;
+    }
+
+    /**
+     * Creates a SAML response message without assertion.
+     * 
+     * @param inResponseTo
+     *            ID of request to which this response corresponds
+     * @param issueInstant
+     *            issue instant of the response
+     * @param status
+     *            status of the response
+     * 
+     * @return the constructed response
+     */
+    public static Response buildSAMLResponse(String inResponseTo,
+            DateTime issueInstant, Status status) {
+
         Response samlResponse= samlResponseBuilder.buildObject();
         samlResponse.setID(idgen.generateIdentifier());
         samlResponse.setInResponseTo(inResponseTo);
         samlResponse.setIssueInstant(issueInstant);
-        samlResponse.getAssertions().add(assertion);
         samlResponse.setStatus(status);
 
         return samlResponse;
@@ -101,23 +131,41 @@ public class SAMLUtil {
      *            ID of the assertion issuer
      * @param issueInstant
      *            issue instant of the assertions
-     * @param authzDecisionStatement
-     *            authorization decision statement contained in the assertion
+     * @param statement
+     *            authorization decision or policy statement contained in the
+     *            assertion
      * 
      * @return the constructed assertion
      */
     public static Assertion buildAssertion(String issuerEntityId,
-            DateTime issueInstant,
-            XACMLAuthzDecisionStatementType authzDecisionStatement) {
+            DateTime issueInstant, Statement statement) {
 
         Assertion assertion= assertionBuilder.buildObject();
         assertion.setID(idgen.generateIdentifier());
         assertion.setIssueInstant(issueInstant);
         assertion.setIssuer(buildIssuer(issuerEntityId));
-        assertion.getStatements().add(authzDecisionStatement);
+        assertion.getStatements().add(statement);
         return assertion;
     }
 
+    /**
+     * Builds the Advice of a SAML assertion.
+     * 
+     * @param assertionURIs
+     *            values of the assertion URI references of the advice
+     * 
+     * @return the constructed advice
+     */
+    public static Advice buildAdvice(List<String> assertionURIs) {
+        Advice advice= adviceBuilder.buildObject();
+        for (String assertionURI : assertionURIs) {
+            AssertionURIRef reference= assertionURIRefBuilder.buildObject();
+            reference.setAssertionURI(assertionURI);
+            advice.getAssertionURIReferences().add(reference);
+        }
+        return advice;
+    }
+
     /**
      * Builds the Issuer of a SAML message/assertion.
      * 
@@ -163,7 +211,7 @@ public class SAMLUtil {
 
     static {
         try {
-            idgen= new SecureRandomIdentifierGenerator();
+            idgen= new PerThreadIdentifierGenerator();
             idgen.generateIdentifier();
         } catch (NoSuchAlgorithmException e) {
             // JVMs are required to support the default ID generation algorithm
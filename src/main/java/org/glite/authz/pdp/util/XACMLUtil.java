@@ -27,17 +27,25 @@ import org.glite.authz.common.util.Strings;
 import org.herasaf.xacml.core.WritingException;
 import org.herasaf.xacml.core.policy.Evaluatable;
 import org.herasaf.xacml.core.policy.PolicyMarshaller;
+import org.joda.time.DateTime;
 import org.opensaml.Configuration;
 import org.opensaml.common.SAMLObjectBuilder;
+import org.opensaml.common.SAMLVersion;
 import org.opensaml.saml2.core.Statement;
 import org.opensaml.xacml.XACMLObjectBuilder;
+import org.opensaml.xacml.ctx.ActionType;
+import org.opensaml.xacml.ctx.AttributeType;
+import org.opensaml.xacml.ctx.AttributeValueType;
 import org.opensaml.xacml.ctx.DecisionType;
 import org.opensaml.xacml.ctx.DecisionType.DECISION;
+import org.opensaml.xacml.ctx.EnvironmentType;
 import org.opensaml.xacml.ctx.RequestType;
+import org.opensaml.xacml.ctx.ResourceType;
 import org.opensaml.xacml.ctx.ResponseType;
 import org.opensaml.xacml.ctx.ResultType;
 import org.opensaml.xacml.ctx.StatusCodeType;
 import org.opensaml.xacml.ctx.StatusType;
+import org.opensaml.xacml.ctx.SubjectType;
 import org.opensaml.xacml.policy.EffectType;
 import org.opensaml.xacml.policy.ObligationType;
 import org.opensaml.xacml.policy.ObligationsType;
@@ -86,6 +94,30 @@ public class XACMLUtil {
     @SuppressWarnings("unchecked")
     private static XACMLObjectBuilder<StatusType> statusBuilder= (XACMLObjectBuilder<StatusType>) Configuration.getBuilderFactory().getBuilder(StatusType.DEFAULT_ELEMENT_NAME);
 
+    @SuppressWarnings("unchecked")
+    private static SAMLObjectBuilder<XACMLAuthzDecisionQueryType> authzQueryBuilder= (SAMLObjectBuilder<XACMLAuthzDecisionQueryType>) Configuration.getBuilderFactory().getBuilder(XACMLAuthzDecisionQueryType.TYPE_NAME_XACML20);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<RequestType> requestBuilder= (XACMLObjectBuilder<RequestType>) Configuration.getBuilderFactory().getBuilder(RequestType.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<SubjectType> subjectBuilder= (XACMLObjectBuilder<SubjectType>) Configuration.getBuilderFactory().getBuilder(SubjectType.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<ResourceType> resourceBuilder= (XACMLObjectBuilder<ResourceType>) Configuration.getBuilderFactory().getBuilder(ResourceType.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<ActionType> actionBuilder= (XACMLObjectBuilder<ActionType>) Configuration.getBuilderFactory().getBuilder(ActionType.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<EnvironmentType> environmentBuilder= (XACMLObjectBuilder<EnvironmentType>) Configuration.getBuilderFactory().getBuilder(EnvironmentType.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<AttributeType> attributeBuilder= (XACMLObjectBuilder<AttributeType>) Configuration.getBuilderFactory().getBuilder(AttributeType.DEFAULT_ELEMENT_NAME);
+
+    @SuppressWarnings("unchecked")
+    private static XACMLObjectBuilder<AttributeValueType> attributeValueBuilder= (XACMLObjectBuilder<AttributeValueType>) Configuration.getBuilderFactory().getBuilder(AttributeValueType.DEFAULT_ELEMENT_NAME);
+
     /**
      * Bootstraps the underlying object builders.
      */
@@ -150,6 +182,105 @@ public class XACMLUtil {
         }
     }
 
+    /**
+     * Builds an authorization decision query wrapping a XACML request context
+     * which was not received as a SAML message, so that it can go through
+     * the same processing as the queries received over SOAP.
+     * 
+     * @param id
+     *            ID of the query
+     * @param issuerEntityId
+     *            entity ID of the query issuer, may be null
+     * @param request
+     *            the XACML request context
+     * 
+     * @return the constructed query
+     */
+    public static XACMLAuthzDecisionQueryType buildAuthzDecisionQuery(
+            String id, String issuerEntityId, RequestType request) {
+        XACMLAuthzDecisionQueryType authzQuery= authzQueryBuilder.buildObject(XACMLAuthzDecisionQueryType.DEFAULT_ELEMENT_NAME_XACML20,
+                                                                              XACMLAuthzDecisionQueryType.TYPE_NAME_XACML20);
+        authzQuery.setID(id);
+        authzQuery.setVersion(SAMLVersion.VERSION_20);
+        authzQuery.setIssueInstant(new DateTime());
+        if (issuerEntityId != null) {
+            authzQuery.setIssuer(SAMLUtil.buildIssuer(issuerEntityId));
+        }
+        authzQuery.setRequest(request);
+        return authzQuery;
+    }
+
+    /**
+     * Builds a XACML request context with a single subject and resource.
+     * 
+     * @param subjectAttributes
+     *            attributes of the subject
+     * @param resourceAttributes
+     *            attributes of the resource
+     * @param actionAttributes
+     *            attributes of the action
+     * @param environmentAttributes
+     *            attributes of the environment
+     * 
+     * @return the constructed request context
+     */
+    public static RequestType buildRequest(
+            List<AttributeType> subjectAttributes,
+            List<AttributeType> resourceAttributes,
+            List<AttributeType> actionAttributes,
+            List<AttributeType> environmentAttributes) {
+        RequestType request= requestBuilder.buildObject();
+
+        SubjectType subject= subjectBuilder.buildObject();
+        subject.getAttributes().addAll(subjectAttributes);
+        request.getSubjects().add(subject);
+
+        ResourceType resource= resourceBuilder.buildObject();
+        resource.getAttributes().addAll(resourceAttributes);
+        request.getResources().add(resource);
+
+        ActionType action= actionBuilder.buildObject();
+        action.getAttributes().addAll(actionAttributes);
+        request.setAction(action);
+
+        // the environment is mandatory in XACML 2.0, even when empty
+        EnvironmentType environment= environmentBuilder.buildObject();
+        environment.getAttributes().addAll(environmentAttributes);
+        request.setEnvironment(environment);
+
+        return request;
+    }
+
+    /**
+     * Builds a XACML request context attribute.
+     * 
+     * @param id
+     *            ID of the attribute
+     * @param dataType
+     *            data type of the attribute
+     * @param issuer
+     *            issuer of the attribute, may be null
+     * @param values
+     *            values of the attribute
+     * 
+     * @return the constructed attribute
+     */
+    public static AttributeType buildAttribute(String id, String dataType,
+            String issuer, List<String> values) {
+        AttributeType attribute= attributeBuilder.buildObject();
+        attribute.setAttributeID(Strings.safeTrimOrNullString(id));
+        attribute.setDataType(Strings.safeTrimOrNullString(dataType));
+        attribute.setIssuer(Strings.safeTrimOrNullString(issuer));
+        if (values != null) {
+            for (String value : values) {
+                AttributeValueType attributeValue= attributeValueBuilder.buildObject();
+                attributeValue.setValue(value);
+                attribute.getAttributeValues().add(attributeValue);
+            }
+        }
+        return attribute;
+    }
+
     /**
      * Creates a XACML response message.
      * 
@@ -252,6 +383,36 @@ public class XACMLUtil {
         return obligation;
     }
 
+    /**
+     * Copies an OpenSAML obligation, and its attribute assignments, so that the
+     * copy can be added to a response while the original is kept unattached.
+     * 
+     * @param prototype
+     *            the obligation to copy
+     * 
+     * @return the copy of the obligation
+     */
+    public static ObligationType copyObligation(ObligationType prototype) {
+        if (prototype == null) {
+            return null;
+        }
+
+        ObligationType obligation= obligationBuilder.buildObject();
+        obligation.setObligationId(prototype.getObligationId());
+        obligation.setFulfillOn(prototype.getFulfillOn());
+        List<AttributeAssignmentType> obligationAttributeAssignments = obligation.getAttributeAssignments();
+        AttributeAssignmentType attributeAssignment;
+        for (AttributeAssignmentType prototypeAttributeAssignment : prototype.getAttributeAssignments()) {
+            attributeAssignment = attributeAssignmentBuilder.buildObject();
+            attributeAssignment.setAttributeId(prototypeAttributeAssignment.getAttributeId());
+            attributeAssignment.setDataType(prototypeAttributeAssignment.getDataType());
+            attributeAssignment.setValue(prototypeAttributeAssignment.getValue());
+            obligationAttributeAssignments.add(attributeAssignment);
+        }
+
+        return obligation;
+    }
+
     /**
      * Creates a status.
      * 
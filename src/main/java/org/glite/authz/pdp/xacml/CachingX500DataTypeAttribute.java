@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.xacml;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.herasaf.xacml.core.SyntaxException;
+import org.herasaf.xacml.core.dataTypeAttribute.impl.AbstractDataTypeAttribute;
+import org.herasaf.xacml.core.dataTypeAttribute.impl.X500DataTypeAttribute;
+
+/**
+ * XACML data type x500Name converter returning the shared, already parsed, instances held by the
+ * {@link X500NameCache}.
+ */
+public class CachingX500DataTypeAttribute extends AbstractDataTypeAttribute<X500Principal> {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = -2751489532781040917L;
+
+    /** {@inheritDoc} */
+    public String getDatatypeURI() {
+        return X500DataTypeAttribute.ID;
+    }
+
+    /** {@inheritDoc} */
+    public X500Principal convertTo(String jaxbRepresentation) throws SyntaxException {
+        try {
+            return X500NameCache.getInstance().get(jaxbRepresentation).getPrincipal();
+        } catch (IllegalArgumentException e) {
+            throw new SyntaxException(e.getMessage());
+        }
+    }
+}
\ No newline at end of file
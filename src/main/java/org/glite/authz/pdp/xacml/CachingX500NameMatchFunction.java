@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.xacml;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.herasaf.xacml.core.function.AbstractFunction;
+import org.herasaf.xacml.core.function.FunctionProcessingException;
+import org.herasaf.xacml.core.function.impl.specialMatchFunctions.X500NameMatchFunction;
+
+/**
+ * x500Name-match function comparing the pre-split RDNs of the names held by the {@link X500NameCache} instead of
+ * re-parsing them on each call.
+ */
+public class CachingX500NameMatchFunction extends AbstractFunction {
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = 4410928357716102389L;
+
+    /** {@inheritDoc} */
+    public String getFunctionId() {
+        return X500NameMatchFunction.ID;
+    }
+
+    /** {@inheritDoc} */
+    public Object handle(Object... args) throws FunctionProcessingException {
+        if (args.length != 2 || !(args[0] instanceof X500Principal) || !(args[1] instanceof X500Principal)) {
+            throw new FunctionProcessingException("This matching function only operates on two X500Principal objects");
+        }
+
+        X500NameCache cache = X500NameCache.getInstance();
+        CanonicalX500Name name1 = cache.get((X500Principal) args[0]);
+        CanonicalX500Name name2 = cache.get((X500Principal) args[1]);
+
+        return name1.isSuffixOf(name2);
+    }
+}
\ No newline at end of file
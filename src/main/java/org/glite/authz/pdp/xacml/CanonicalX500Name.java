@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.xacml;
+
+import java.util.ArrayList;
+
+import javax.security.auth.x500.X500Principal;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * An X.500 distinguished name parsed once and kept in its canonical form, with
+ * its relative distinguished names split and its hash code computed up front.
+ */
+@Immutable
+public final class CanonicalX500Name {
+
+    /** The parsed name. */
+    private final X500Principal principal;
+
+    /** The RFC 2253 canonical form of the name. */
+    private final String canonicalName;
+
+    /** The canonical RDNs of the name, most specific first. */
+    private final String[] rdns;
+
+    /** Hash code of the canonical form. */
+    private final int hash;
+
+    /**
+     * Constructor.
+     * 
+     * @param name the parsed name
+     */
+    public CanonicalX500Name(X500Principal name) {
+        principal = name;
+        canonicalName = name.getName(X500Principal.CANONICAL);
+        rdns = splitRDNs(canonicalName);
+        hash = canonicalName.hashCode();
+    }
+
+    /**
+     * Parses a name.
+     * 
+     * @param name the RFC 2253 string form of the name
+     * 
+     * @return the parsed name
+     * 
+     * @throws IllegalArgumentException thrown if the name is not a valid distinguished name
+     */
+    public static CanonicalX500Name parse(String name) throws IllegalArgumentException {
+        return new CanonicalX500Name(new X500Principal(name));
+    }
+
+    /**
+     * Gets the parsed name.
+     * 
+     * @return the parsed name
+     */
+    public X500Principal getPrincipal() {
+        return principal;
+    }
+
+    /**
+     * Gets the RFC 2253 canonical form of the name.
+     * 
+     * @return the canonical form of the name
+     */
+    public String getCanonicalName() {
+        return canonicalName;
+    }
+
+    /**
+     * Gets the number of RDNs in the name.
+     * 
+     * @return the number of RDNs in the name
+     */
+    public int getRDNCount() {
+        return rdns.length;
+    }
+
+    /**
+     * Checks whether this name matches a terminal sequence of the RDNs of the given name, as defined by the XACML
+     * <code>x500Name-match</code> function.
+     * 
+     * @param name the name to match against
+     * 
+     * @return true if this name is a terminal sequence of the given name
+     */
+    public boolean isSuffixOf(CanonicalX500Name name) {
+        if (this == name) {
+            return true;
+        }
+        int offset = name.rdns.length - rdns.length;
+        if (offset < 0) {
+            return false;
+        }
+        for (int i = rdns.length - 1; i >= 0; i--) {
+            if (!rdns[i].equals(name.rdns[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof CanonicalX500Name)) {
+            return false;
+        }
+        CanonicalX500Name other = (CanonicalX500Name) obj;
+        return hash == other.hash && canonicalName.equals(other.canonicalName);
+    }
+
+    /** {@inheritDoc} */
+    public int hashCode() {
+        return hash;
+    }
+
+    /** {@inheritDoc} */
+    public String toString() {
+        return canonicalName;
+    }
+
+    /**
+     * Splits the canonical form of a name into its RDNs. Escaped separators are kept within their RDN.
+     * 
+     * @param name the canonical form of a name
+     * 
+     * @return the RDNs of the name, most specific first
+     */
+    private static String[] splitRDNs(String name) {
+        ArrayList<String> parts = new ArrayList<String>();
+        if (name.length() == 0) {
+            return new String[0];
+        }
+        int start = 0;
+        boolean escaped = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == ',') {
+                parts.add(name.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(name.substring(start));
+        return parts.toArray(new String[parts.size()]);
+    }
+}
\ No newline at end of file
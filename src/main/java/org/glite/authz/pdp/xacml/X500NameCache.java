@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.xacml;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.glite.authz.pdp.util.ManagedCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of parsed X.500 distinguished names, keyed by their string form.
+ * <p>
+ * The names used as literals by the current policy are pinned and never evicted. Other names, typically request
+ * subjects, are cached up to the maximum size; once it is reached the unpinned entries are dropped and the cache
+ * fills up again.
+ */
+@ThreadSafe
+public final class X500NameCache implements ManagedCache {
+
+    /** Default maximum number of unpinned cached names, {@value} . */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Cache used by the x500Name data type and functions. */
+    private static final X500NameCache INSTANCE = new X500NameCache(DEFAULT_MAX_SIZE);
+
+    /** Class logger. */
+    private final Logger log = LoggerFactory.getLogger(X500NameCache.class);
+
+    /** Pinned names of all the policies, replaced as a whole when a new policy is loaded. */
+    private volatile Map<String, CanonicalX500Name> pinnedNames;
+
+    /** Pinned names of each policy, by policy repository name. */
+    private final HashMap<String, Map<String, CanonicalX500Name>> pinnedPolicyNames;
+
+    /** Unpinned names. */
+    private final ConcurrentHashMap<String, CanonicalX500Name> names;
+
+    /** Maximum number of unpinned names. */
+    private volatile int maxSize;
+
+    /** Number of cache hits. */
+    private final AtomicLong hits;
+
+    /** Number of cache misses. */
+    private final AtomicLong misses;
+
+    /**
+     * Constructor.
+     * 
+     * @param maximumSize maximum number of unpinned names
+     */
+    public X500NameCache(int maximumSize) {
+        pinnedNames = Collections.emptyMap();
+        pinnedPolicyNames = new HashMap<String, Map<String, CanonicalX500Name>>();
+        names = new ConcurrentHashMap<String, CanonicalX500Name>();
+        maxSize = maximumSize;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+    }
+
+    /**
+     * Gets the cache used by the x500Name data type and functions.
+     * 
+     * @return the cache used by the x500Name data type and functions
+     */
+    public static X500NameCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the parsed form of a name.
+     * 
+     * @param name the RFC 2253 string form of the name
+     * 
+     * @return the parsed name
+     * 
+     * @throws IllegalArgumentException thrown if the name is not a valid distinguished name
+     */
+    public CanonicalX500Name get(String name) throws IllegalArgumentException {
+        CanonicalX500Name canonicalName = lookup(name);
+        if (canonicalName == null) {
+            misses.incrementAndGet();
+            canonicalName = CanonicalX500Name.parse(name);
+            store(name, canonicalName);
+        }
+        return canonicalName;
+    }
+
+    /**
+     * Gets the parsed form of a name given as a principal, for instance as returned by the x500Name data type.
+     * 
+     * @param principal the name
+     * 
+     * @return the parsed name
+     */
+    public CanonicalX500Name get(X500Principal principal) {
+        String name = principal.getName();
+        CanonicalX500Name canonicalName = lookup(name);
+        if (canonicalName == null) {
+            misses.incrementAndGet();
+            canonicalName = new CanonicalX500Name(principal);
+            store(name, canonicalName);
+        }
+        return canonicalName;
+    }
+
+    /**
+     * Replaces the pinned names of the default policy.
+     * 
+     * @param policyNames string forms of the names to pin, invalid names are ignored
+     */
+    public void pin(Collection<String> policyNames) {
+        pin(null, policyNames);
+    }
+
+    /**
+     * Replaces the pinned names of a policy. The names of the other policies stay pinned.
+     * 
+     * @param policy name of the repository holding the policy, null for the default policy
+     * @param policyNames string forms of the names to pin, invalid names are ignored
+     */
+    public synchronized void pin(String policy, Collection<String> policyNames) {
+        HashMap<String, CanonicalX500Name> pinned = new HashMap<String, CanonicalX500Name>();
+        for (String name : policyNames) {
+            try {
+                CanonicalX500Name canonicalName = lookup(name);
+                if (canonicalName == null) {
+                    canonicalName = CanonicalX500Name.parse(name);
+                }
+                pinned.put(name, canonicalName);
+                pinned.put(canonicalName.getPrincipal().getName(), canonicalName);
+            } catch (IllegalArgumentException e) {
+                log.debug("Not pinning invalid distinguished name '{}': {}", name, e.getMessage());
+            }
+        }
+        pinnedPolicyNames.put(policy, pinned);
+        if (pinnedPolicyNames.size() == 1) {
+            pinnedNames = pinned;
+        } else {
+            HashMap<String, CanonicalX500Name> allPinned = new HashMap<String, CanonicalX500Name>();
+            for (Map<String, CanonicalX500Name> policyPinned : pinnedPolicyNames.values()) {
+                allPinned.putAll(policyPinned);
+            }
+            pinnedNames = allPinned;
+        }
+        log.debug("Pinned {} distinguished names", policyNames.size());
+    }
+
+    /**
+     * Gets the maximum number of unpinned names.
+     * 
+     * @return maximum number of unpinned names
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of unpinned names.
+     * 
+     * @param maximumSize maximum number of unpinned names, 0 disables the caching of unpinned names
+     */
+    public void setMaxSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Maximum cache size may not be negative");
+        }
+        maxSize = maximumSize;
+        if (names.size() > maximumSize) {
+            names.clear();
+        }
+    }
+
+    /**
+     * Gets the number of cached names, pinned or not. A name cached under more than one string form is counted once
+     * per form.
+     * 
+     * @return number of cached names
+     */
+    public int size() {
+        return pinnedNames.size() + names.size();
+    }
+
+    /**
+     * Gets the number of cache hits.
+     * 
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of cache misses.
+     * 
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Drops all the unpinned names. */
+    public void clear() {
+        names.clear();
+    }
+
+    /**
+     * Looks up a name among the pinned and unpinned names.
+     * 
+     * @param name string form of the name
+     * 
+     * @return the parsed name, or null if it is not cached
+     */
+    private CanonicalX500Name lookup(String name) {
+        CanonicalX500Name canonicalName = pinnedNames.get(name);
+        if (canonicalName == null) {
+            canonicalName = names.get(name);
+        }
+        if (canonicalName != null) {
+            hits.incrementAndGet();
+        }
+        return canonicalName;
+    }
+
+    /**
+     * Stores an unpinned name under its given and RFC 2253 string forms.
+     * 
+     * @param name the given string form of the name
+     * @param canonicalName the parsed name
+     */
+    private void store(String name, CanonicalX500Name canonicalName) {
+        if (maxSize == 0) {
+            return;
+        }
+        if (names.size() >= maxSize) {
+            names.clear();
+        }
+        CanonicalX500Name existing = names.putIfAbsent(name, canonicalName);
+        if (existing == null) {
+            names.putIfAbsent(canonicalName.getPrincipal().getName(), canonicalName);
+        }
+    }
+}
\ No newline at end of file
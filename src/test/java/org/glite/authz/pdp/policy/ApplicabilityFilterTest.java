@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pdp.server.HerasAFBootstrap;
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.RequestCtxFactory;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.DecisionType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+
+/**
+ * Test the {@link ApplicabilityFilter} only reports as not applicable the
+ * requests to which generated policies are really not applicable, including
+ * when the policies hold the elements the filter can not rely upon.
+ */
+public class ApplicabilityFilterTest extends TestCase {
+
+    private static final int RESOURCES= 3;
+
+    private static final int ACTIONS= 3;
+
+    private static final int REQUESTS= 500;
+
+    /** Resource only matched by the rule targets of the rules-only policy. */
+    private static final String RULES_ONLY_RESOURCE= PolicySetGenerator.resourceId(RESOURCES);
+
+    private static final String POLICY_SET_END= "</xacml:PolicySet>";
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        HerasAFBootstrap.bootstap();
+    }
+
+    public void testStringEqualTargets() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.MatchShape.EQUAL);
+        String policySetXML= generator.generatePolicySetXML();
+
+        ApplicabilityFilter filter= ApplicabilityFilter.build(PolicySetGenerator.unmarshallPolicySet(policySetXML));
+        assertTrue(filter.isEffective());
+        assertTrue(assertOnlyNotApplicableReported(generator, policySetXML, filter) > 0);
+    }
+
+    public void testRegexpTargets() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.MatchShape.REGEXP);
+        String policySetXML= generator.generatePolicySetXML();
+
+        ApplicabilityFilter filter= ApplicabilityFilter.build(PolicySetGenerator.unmarshallPolicySet(policySetXML));
+        assertFalse(filter.isEffective());
+        assertEquals(0, assertOnlyNotApplicableReported(generator, policySetXML, filter));
+    }
+
+    public void testMustBePresentDesignator() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.MatchShape.EQUAL);
+        // the target of the first action policy is indeterminate for the requests without action
+        String policySetXML= replaceFirst(generator.generatePolicySetXML(),
+                "MustBePresent=\"false\"/></xacml:ActionMatch>", "MustBePresent=\"true\"/></xacml:ActionMatch>");
+
+        ApplicabilityFilter filter= ApplicabilityFilter.build(PolicySetGenerator.unmarshallPolicySet(policySetXML));
+        assertTrue(filter.isEffective());
+        assertTrue(assertOnlyNotApplicableReported(generator, policySetXML, filter) > 0);
+    }
+
+    public void testPolicyReference() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.MatchShape.EQUAL);
+        // the first resource policy set ends with a reference
+        String policySetXML= replaceFirst(generator.generatePolicySetXML(), POLICY_SET_END,
+                "<xacml:PolicySetIdReference>urn:example:referenced</xacml:PolicySetIdReference>" + POLICY_SET_END);
+
+        ApplicabilityFilter filter= ApplicabilityFilter.build(PolicySetGenerator.unmarshallPolicySet(policySetXML));
+        assertTrue(filter.isEffective());
+        assertTrue(assertOnlyNotApplicableReported(generator, policySetXML, filter) > 0);
+    }
+
+    public void testEmptyPolicy() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.MatchShape.EQUAL);
+        String policySetXML= appendToRoot(generator.generatePolicySetXML(), "<xacml:Policy PolicyId=\"empty\""
+                + " Version=\"1\" RuleCombiningAlgId=\""
+                + PolicySetGenerator.CombiningAlgorithm.FIRST_APPLICABLE.ruleAlgorithmId()
+                + "\"><xacml:Target/></xacml:Policy>");
+
+        ApplicabilityFilter filter= ApplicabilityFilter.build(PolicySetGenerator.unmarshallPolicySet(policySetXML));
+        assertTrue(filter.isEffective());
+        assertTrue(assertOnlyNotApplicableReported(generator, policySetXML, filter) > 0);
+    }
+
+    public void testRulesOnlyTargets() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.MatchShape.EQUAL);
+        StringBuilder policy= new StringBuilder();
+        policy.append("<xacml:Policy PolicyId=\"rules-only\" Version=\"1\" RuleCombiningAlgId=\"");
+        policy.append(PolicySetGenerator.CombiningAlgorithm.FIRST_APPLICABLE.ruleAlgorithmId());
+        policy.append("\"><xacml:Target/>");
+        policy.append("<xacml:Rule RuleId=\"rules-only-0\" Effect=\"Deny\"><xacml:Target>");
+        policy.append("<xacml:Resources><xacml:Resource>");
+        appendStringEqualMatch(policy, "Resource", PolicySetGenerator.RESOURCE_ID, RULES_ONLY_RESOURCE);
+        policy.append("</xacml:Resource></xacml:Resources>");
+        policy.append("<xacml:Actions><xacml:Action>");
+        appendStringEqualMatch(policy, "Action", PolicySetGenerator.ACTION_ID, PolicySetGenerator.actionId(0));
+        policy.append("</xacml:Action></xacml:Actions>");
+        policy.append("</xacml:Target></xacml:Rule></xacml:Policy>");
+        String policySetXML= appendToRoot(generator.generatePolicySetXML(), policy.toString());
+
+        ApplicabilityFilter filter= ApplicabilityFilter.build(PolicySetGenerator.unmarshallPolicySet(policySetXML));
+        assertTrue(filter.isEffective());
+        assertTrue(assertOnlyNotApplicableReported(generator, policySetXML, filter) > 0);
+        String requestXML= generator.generateRequestXML(new Random(42), 0);
+        requestXML= replaceAttribute(requestXML, "Resource", PolicySetGenerator.RESOURCE_ID, RULES_ONLY_RESOURCE);
+        requestXML= replaceAttribute(requestXML, "Action", PolicySetGenerator.ACTION_ID,
+                PolicySetGenerator.actionId(0));
+        assertFalse(filter.isNotApplicable(unmarshallRequest(requestXML)));
+        assertEquals(DecisionType.DENY, evaluate(PolicySetGenerator.unmarshallPolicySet(policySetXML), requestXML));
+    }
+
+    /**
+     * Evaluates generated requests, some without action and some for the
+     * resource of the rules-only policy, and checks the policy set is not
+     * applicable to every request the filter reports as such.
+     *
+     * @return the number of requests reported as not applicable
+     */
+    private int assertOnlyNotApplicableReported(PolicySetGenerator generator, String policySetXML,
+            ApplicabilityFilter filter) throws Exception {
+        PolicySetType policySet= PolicySetGenerator.unmarshallPolicySet(policySetXML);
+        Random random= new Random(42);
+        int reported= 0;
+        for (int i= 0; i < REQUESTS; i++) {
+            String requestXML= generator.generateRequestXML(random, 0.7);
+            switch (i % 4) {
+            case 1:
+                requestXML= replaceElement(requestXML, "Action", "<xacml-context:Action/>");
+                break;
+            case 2:
+                requestXML= replaceAttribute(requestXML, "Resource", PolicySetGenerator.RESOURCE_ID,
+                        RULES_ONLY_RESOURCE);
+                break;
+            default:
+                break;
+            }
+            if (filter.isNotApplicable(unmarshallRequest(requestXML))) {
+                reported++;
+                assertEquals(requestXML, DecisionType.NOT_APPLICABLE, evaluate(policySet, requestXML));
+            }
+        }
+        return reported;
+    }
+
+    private PolicySetGenerator newGenerator(PolicySetGenerator.MatchShape matchShape) {
+        return new PolicySetGenerator().withResources(RESOURCES).withActionsPerResource(ACTIONS)
+                .withRulesPerAction(5).withMatchShape(matchShape).withObligations(false);
+    }
+
+    private void appendStringEqualMatch(StringBuilder xml, String element, String attributeId, String value) {
+        xml.append("<xacml:").append(element).append("Match MatchId=\"");
+        xml.append(PolicySetGenerator.FUNCTION_STRING_EQUAL).append("\">");
+        xml.append("<xacml:AttributeValue DataType=\"").append(PolicySetGenerator.DATATYPE_STRING).append("\">");
+        xml.append(value).append("</xacml:AttributeValue>");
+        xml.append("<xacml:").append(element).append("AttributeDesignator AttributeId=\"").append(attributeId);
+        xml.append("\" DataType=\"").append(PolicySetGenerator.DATATYPE_STRING).append("\" MustBePresent=\"false\"/>");
+        xml.append("</xacml:").append(element).append("Match>");
+    }
+
+    /** Appends a child to the root policy set. */
+    private String appendToRoot(String policySetXML, String child) {
+        int end= policySetXML.lastIndexOf(POLICY_SET_END);
+        return policySetXML.substring(0, end) + child + policySetXML.substring(end);
+    }
+
+    private String replaceFirst(String xml, String target, String replacement) {
+        int start= xml.indexOf(target);
+        assertTrue(target, start >= 0);
+        return xml.substring(0, start) + replacement + xml.substring(start + target.length());
+    }
+
+    /** Replaces a category element of a request by one holding a single string attribute. */
+    private String replaceAttribute(String requestXML, String element, String attributeId, String value) {
+        return replaceElement(requestXML, element, "<xacml-context:" + element + "><xacml-context:Attribute"
+                + " AttributeId=\"" + attributeId + "\" DataType=\"" + PolicySetGenerator.DATATYPE_STRING + "\">"
+                + "<xacml-context:AttributeValue>" + value + "</xacml-context:AttributeValue>"
+                + "</xacml-context:Attribute></xacml-context:" + element + ">");
+    }
+
+    /** Replaces a category element of a request. */
+    private String replaceElement(String requestXML, String element, String replacement) {
+        String startTag= "<xacml-context:" + element + ">";
+        String endTag= "</xacml-context:" + element + ">";
+        int start= requestXML.indexOf(startTag);
+        assertTrue(startTag, start >= 0);
+        int end= requestXML.indexOf(endTag, start) + endTag.length();
+        return requestXML.substring(0, start) + replacement + requestXML.substring(end);
+    }
+
+    private RequestType unmarshallRequest(String requestXML) throws Exception {
+        return RequestCtxFactory.unmarshal(PolicySetGenerator.parse(requestXML)).getRequest();
+    }
+
+    /**
+     * Evaluates a request the same way the PDP servlet does, on a fresh copy of
+     * the request.
+     */
+    private DecisionType evaluate(PolicySetType policySet, String requestXML) throws Exception {
+        EvaluationContext evaluationContext= new EvaluationContext(new TargetMatcherImpl(), new StatusCodeComparator());
+        return policySet.getCombiningAlg().evaluate(unmarshallRequest(requestXML), policySet, evaluationContext);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.Arrays;
+
+import org.glite.authz.pdp.server.HerasAFBootstrap;
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+
+/**
+ * Measures whether encoding the requests against the {@link AttributeDictionary}
+ * pays for itself.
+ * <p>
+ * For each size, the policy set is loaded and canonicalized as the repository
+ * does, and the same generated requests are evaluated once as unmarshalled and
+ * once encoded right before the evaluation, the encoding being included in the
+ * measured latency. Each pass evaluates freshly unmarshalled requests so that
+ * no pass benefits from the strings canonicalized by a previous one. It is not
+ * run by the unit tests, start it with:
+ *
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.policy.AttributeDictionaryBenchmark [rules...]
+ * </pre>
+ */
+public class AttributeDictionaryBenchmark {
+
+    /** Default policy sizes, in rules. */
+    private static final int[] DEFAULT_SIZES= { 10, 1000, 10000 };
+
+    /** Number of distinct requests evaluated per pass. */
+    private static final int REQUESTS= 2000;
+
+    /** Number of warm-up passes of each mode. */
+    private static final int WARMUP_PASSES= 3;
+
+    /** Number of measured passes of each mode. */
+    private static final int MEASURED_PASSES= 5;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args policy sizes, in rules, to benchmark
+     *
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes= DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes= new int[args.length];
+            for (int i= 0; i < args.length; i++) {
+                sizes[i]= Integer.parseInt(args[i]);
+            }
+        }
+
+        HerasAFBootstrap.bootstap();
+
+        System.out.println("rules|dictionarySize|plainMeanMicros|plainP50Micros|plainP99Micros"
+                + "|encodedMeanMicros|encodedP50Micros|encodedP99Micros|encodeMeanMicros");
+        for (int size : sizes) {
+            run(PolicySetGenerator.forRuleCount(size));
+        }
+    }
+
+    /**
+     * Benchmarks one policy size.
+     *
+     * @param generator generator of the policy and requests
+     *
+     * @throws Exception thrown if the benchmark fails
+     */
+    private static void run(PolicySetGenerator generator) throws Exception {
+        PolicySetType policy= PolicySetGenerator.unmarshallPolicySet(generator.generatePolicySetXML());
+        AttributeDictionary dictionary= AttributeDictionary.build(policy);
+
+        for (int pass= 0; pass < WARMUP_PASSES; pass++) {
+            measure(policy, null, generator.generateRequests(REQUESTS, 0.8), null);
+            measure(policy, dictionary, generator.generateRequests(REQUESTS, 0.8), null);
+        }
+
+        long[] plain= new long[REQUESTS * MEASURED_PASSES];
+        long[] encoded= new long[REQUESTS * MEASURED_PASSES];
+        long[] encoding= new long[REQUESTS * MEASURED_PASSES];
+        for (int pass= 0; pass < MEASURED_PASSES; pass++) {
+            long[] passPlain= measure(policy, null, generator.generateRequests(REQUESTS, 0.8), null);
+            long[] passEncoding= new long[REQUESTS];
+            long[] passEncoded= measure(policy, dictionary, generator.generateRequests(REQUESTS, 0.8), passEncoding);
+            System.arraycopy(passPlain, 0, plain, pass * REQUESTS, REQUESTS);
+            System.arraycopy(passEncoded, 0, encoded, pass * REQUESTS, REQUESTS);
+            System.arraycopy(passEncoding, 0, encoding, pass * REQUESTS, REQUESTS);
+        }
+
+        System.out.println(generator.getTotalRules() + "|" + dictionary.size() + "|" + summarize(plain) + "|"
+                + summarize(encoded) + "|" + mean(encoding) / 1000);
+    }
+
+    /**
+     * Evaluates a set of requests, encoding each one first if a dictionary is
+     * given.
+     *
+     * @param policy policy to evaluate
+     * @param dictionary dictionary to encode the requests against, or null to
+     *            evaluate the requests as unmarshalled
+     * @param requests requests to evaluate
+     * @param encoding receives the encoding latency of each request, may be
+     *            null
+     *
+     * @return the latency, in nanoseconds, of each request including its
+     *         encoding
+     */
+    private static long[] measure(PolicySetType policy, AttributeDictionary dictionary, RequestType[] requests,
+            long[] encoding) {
+        long[] latencies= new long[requests.length];
+        for (int i= 0; i < requests.length; i++) {
+            long start= System.nanoTime();
+            if (dictionary != null) {
+                dictionary.encode(requests[i]);
+                if (encoding != null) {
+                    encoding[i]= System.nanoTime() - start;
+                }
+            }
+            evaluate(policy, requests[i]);
+            latencies[i]= System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    /**
+     * Formats the mean, median and 99th percentile of a set of latencies.
+     *
+     * @param latencies the latencies, in nanoseconds, sorted by this method
+     *
+     * @return the mean, median and 99th percentile, in microseconds, separated
+     *         by '|'
+     */
+    private static String summarize(long[] latencies) {
+        Arrays.sort(latencies);
+        return mean(latencies) / 1000 + "|" + latencies[latencies.length / 2] / 1000 + "|"
+                + latencies[(int) (latencies.length * 0.99)] / 1000;
+    }
+
+    /**
+     * Computes the mean of a set of latencies.
+     *
+     * @param latencies the latencies
+     *
+     * @return the mean latency
+     */
+    private static long mean(long[] latencies) {
+        long total= 0;
+        for (long latency : latencies) {
+            total+= latency;
+        }
+        return total / latencies.length;
+    }
+
+    /**
+     * Evaluates a request the same way the PDP servlet does.
+     *
+     * @param policy policy to evaluate
+     * @param request request to evaluate
+     *
+     * @return the decision
+     */
+    private static Object evaluate(PolicySetType policy, RequestType request) {
+        EvaluationContext evaluationContext= new EvaluationContext(new TargetMatcherImpl(), new StatusCodeComparator());
+        return policy.getCombiningAlg().evaluate(request, policy, evaluationContext);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the {@link BloomFilter} never misses an added string and keeps its false
+ * positive rate close to the expected one.
+ */
+public class BloomFilterTest extends TestCase {
+
+    private static final int ENTRIES= 10000;
+
+    public void testNoFalseNegative() {
+        BloomFilter filter= new BloomFilter(ENTRIES);
+        for (int i= 0; i < ENTRIES; i++) {
+            filter.add("/vo/resource/" + i);
+        }
+        assertEquals(ENTRIES, filter.getEntries());
+        for (int i= 0; i < ENTRIES; i++) {
+            assertTrue(filter.mightContain("/vo/resource/" + i));
+        }
+    }
+
+    public void testFalsePositiveRate() {
+        BloomFilter filter= new BloomFilter(ENTRIES);
+        for (int i= 0; i < ENTRIES; i++) {
+            filter.add("/vo/resource/" + i);
+        }
+        int falsePositives= 0;
+        for (int i= 0; i < ENTRIES; i++) {
+            if (filter.mightContain("/vo/other/" + i)) {
+                falsePositives++;
+            }
+        }
+        // about 1% expected
+        assertTrue("false positives: " + falsePositives, falsePositives < ENTRIES / 30);
+    }
+
+    public void testEmptyFilter() {
+        BloomFilter filter= new BloomFilter(0);
+        assertEquals(64, filter.getSize());
+        assertFalse(filter.mightContain(""));
+        assertFalse(filter.mightContain("resource"));
+        filter.add("");
+        assertTrue(filter.mightContain(""));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pdp.server.HerasAFBootstrap;
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.RequestCtxFactory;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.DecisionType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.Evaluatable;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+
+/**
+ * Test the {@link PolicyDeltaUnmarshaller} reuses the unchanged children of the
+ * previous policy set, unmarshalls the changed ones, and returns the previous
+ * policy set itself when nothing changed, and that a policy set built from
+ * reused and changed children decides as the fully unmarshalled one.
+ */
+public class PolicyDeltaUnmarshallerTest extends TestCase {
+
+    private static final int RESOURCES= 3;
+
+    private static final int REQUESTS= 500;
+
+    private PolicySetGenerator generator;
+
+    private PolicyDeltaUnmarshaller unmarshaller;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        HerasAFBootstrap.bootstap();
+        generator= new PolicySetGenerator().withResources(RESOURCES).withRulesPerAction(5).withObligations(false);
+        unmarshaller= new PolicyDeltaUnmarshaller();
+    }
+
+    public void testUnchangedPolicySet() throws Exception {
+        String xml= generator.generatePolicySetXML();
+        PolicySetType first= unmarshal(xml);
+        assertEquals(RESOURCES, unmarshaller.getUnmarshalledPolicies());
+
+        PolicySetType second= unmarshal(xml);
+        assertSame(first, second);
+        assertEquals(RESOURCES, unmarshaller.getReusedPolicies());
+        assertEquals(0, unmarshaller.getUnmarshalledPolicies());
+    }
+
+    public void testUnchangedChildrenReused() throws Exception {
+        PolicySetType first= unmarshal(generator.withVersion("1").generatePolicySetXML());
+        PolicySetType second= unmarshal(generator.withVersion("2").generatePolicySetXML());
+        assertNotSame(first, second);
+        assertEquals("2", second.getVersion());
+        assertEquals(RESOURCES, unmarshaller.getReusedPolicies());
+        List<Evaluatable> firstChildren= first.getOrderedEvaluatables();
+        List<Evaluatable> secondChildren= second.getOrderedEvaluatables();
+        assertEquals(RESOURCES, secondChildren.size());
+        for (int i= 0; i < RESOURCES; i++) {
+            assertSame(firstChildren.get(i), secondChildren.get(i));
+        }
+    }
+
+    public void testChangedChildUnmarshalled() throws Exception {
+        String xml= generator.generatePolicySetXML();
+        PolicySetType first= unmarshal(xml);
+        String changedRule= "RuleId=\"rule-1-0-0\" Effect=\"";
+        assertTrue(xml.contains(changedRule + "Permit\""));
+        PolicySetType second= unmarshal(xml.replace(changedRule + "Permit\"", changedRule + "Deny\""));
+        assertNotSame(first, second);
+        assertEquals(RESOURCES - 1, unmarshaller.getReusedPolicies());
+        assertEquals(1, unmarshaller.getUnmarshalledPolicies());
+        List<Evaluatable> firstChildren= first.getOrderedEvaluatables();
+        List<Evaluatable> secondChildren= second.getOrderedEvaluatables();
+        assertSame(firstChildren.get(0), secondChildren.get(0));
+        assertNotSame(firstChildren.get(1), secondChildren.get(1));
+        assertSame(firstChildren.get(2), secondChildren.get(2));
+
+        // the changed child is reused by the next version
+        String nextXml= generator.withVersion("2").generatePolicySetXML();
+        PolicySetType third= unmarshal(nextXml.replace(changedRule + "Permit\"", changedRule + "Deny\""));
+        assertEquals(RESOURCES, unmarshaller.getReusedPolicies());
+        assertSame(secondChildren.get(1), third.getOrderedEvaluatables().get(1));
+    }
+
+    public void testDeltaDecisionsEqualFullUnmarshal() throws Exception {
+        unmarshal(generator.withVersion("1").generatePolicySetXML());
+        String changedRule= "RuleId=\"rule-1-0-0\" Effect=\"";
+        String xml= generator.withVersion("2").generatePolicySetXML()
+                .replace(changedRule + "Permit\"", changedRule + "Deny\"");
+        PolicySetType delta= unmarshal(xml);
+        assertEquals(RESOURCES - 1, unmarshaller.getReusedPolicies());
+        assertEquals(1, unmarshaller.getUnmarshalledPolicies());
+        PolicySetType full= PolicySetGenerator.unmarshallPolicySet(xml);
+
+        Random random= new Random(42);
+        Set<DecisionType> decisions= EnumSet.noneOf(DecisionType.class);
+        for (int i= 0; i < REQUESTS; i++) {
+            String requestXML= generator.generateRequestXML(random, 0.8);
+            DecisionType expected= evaluate(full, requestXML);
+            assertEquals(requestXML, expected, evaluate(delta, requestXML));
+            decisions.add(expected);
+        }
+        assertTrue(decisions.toString(), decisions.contains(DecisionType.PERMIT));
+        assertTrue(decisions.toString(), decisions.contains(DecisionType.DENY));
+        assertTrue(decisions.toString(), decisions.contains(DecisionType.NOT_APPLICABLE));
+    }
+
+    /**
+     * Evaluates a request the same way the PDP servlet does, on a fresh copy of
+     * the request.
+     */
+    private DecisionType evaluate(PolicySetType policySet, String requestXML) throws Exception {
+        RequestType request= RequestCtxFactory.unmarshal(PolicySetGenerator.parse(requestXML)).getRequest();
+        EvaluationContext evaluationContext= new EvaluationContext(new TargetMatcherImpl(), new StatusCodeComparator());
+        return policySet.getCombiningAlg().evaluate(request, policySet, evaluationContext);
+    }
+
+    private PolicySetType unmarshal(String xml) throws Exception {
+        return unmarshaller.unmarshal(PolicySetGenerator.parse(xml));
+    }
+}
\ No newline at end of file
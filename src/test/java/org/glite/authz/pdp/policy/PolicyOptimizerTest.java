@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.glite.authz.pdp.server.HerasAFBootstrap;
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.RequestCtxFactory;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.DecisionType;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.Evaluatable;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.policy.impl.PolicyType;
+import org.herasaf.xacml.core.policy.impl.RuleType;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+
+/**
+ * Test the {@link PolicyOptimizer} does not change the decisions of generated
+ * policies, whose policies also hold rules with constant conditions, a rule
+ * with a request dependent condition and an unreachable rule whose target may
+ * be indeterminate.
+ */
+public class PolicyOptimizerTest extends TestCase {
+
+    private static final String FUNCTION_PREFIX= "urn:oasis:names:tc:xacml:1.0:function:";
+
+    private static final String DATATYPE_BOOLEAN= "http://www.w3.org/2001/XMLSchema#boolean";
+
+    private static final String TIME_OF_DAY_ID= "urn:example:time-of-day";
+
+    private static final int RESOURCES= 3;
+
+    private static final int ACTIONS= 3;
+
+    private static final int REQUESTS= 500;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        HerasAFBootstrap.bootstap();
+    }
+
+    public void testFirstApplicableDecisionsUnchanged() throws Exception {
+        assertDecisionsUnchanged(PolicySetGenerator.CombiningAlgorithm.FIRST_APPLICABLE, true);
+    }
+
+    public void testDenyOverridesDecisionsUnchanged() throws Exception {
+        assertDecisionsUnchanged(PolicySetGenerator.CombiningAlgorithm.DENY_OVERRIDES, false);
+    }
+
+    public void testPermitOverridesDecisionsUnchanged() throws Exception {
+        assertDecisionsUnchanged(PolicySetGenerator.CombiningAlgorithm.PERMIT_OVERRIDES, false);
+    }
+
+    public void testIndeterminateTargetRuleKept() throws Exception {
+        PolicySetGenerator generator= newGenerator(PolicySetGenerator.CombiningAlgorithm.FIRST_APPLICABLE);
+        PolicySetType policySet= PolicySetGenerator.unmarshallPolicySet(generatePolicySetXML(generator));
+        PolicyOptimizer optimizer= new PolicyOptimizer();
+        assertTrue(optimizer.optimize(policySet) > 0);
+        assertEquals(2 * RESOURCES * ACTIONS, optimizer.getUnreachableRules());
+
+        for (Evaluatable resourcePolicySet : policySet.getOrderedEvaluatables()) {
+            for (Evaluatable child : ((PolicySetType) resourcePolicySet).getOrderedEvaluatables()) {
+                PolicyType policy= (PolicyType) child;
+                boolean indeterminateKept= false;
+                for (RuleType rule : policy.getOrderedRules()) {
+                    assertFalse(rule.getRuleId(), rule.getRuleId().startsWith("unreachable-"));
+                    if (rule.getRuleId().startsWith("always-")) {
+                        assertNull(rule.getCondition());
+                    }
+                    if (rule.getRuleId().startsWith("indeterminate-")) {
+                        indeterminateKept= true;
+                        assertNotNull(rule.getCondition());
+                    }
+                }
+                assertTrue(policy.getPolicyId(), indeterminateKept);
+            }
+        }
+    }
+
+    /**
+     * Evaluates generated requests against the same policy set, without and
+     * with optimization, and checks the decisions are the same. The overrides
+     * algorithms turn an indeterminate policy into a decision, only
+     * first-applicable lets it reach the root.
+     */
+    private void assertDecisionsUnchanged(PolicySetGenerator.CombiningAlgorithm algorithm,
+            boolean expectIndeterminate) throws Exception {
+        PolicySetGenerator generator= newGenerator(algorithm);
+        String policySetXML= generatePolicySetXML(generator);
+        PolicySetType policySet= PolicySetGenerator.unmarshallPolicySet(policySetXML);
+        PolicySetType optimizedPolicySet= PolicySetGenerator.unmarshallPolicySet(policySetXML);
+        new PolicyOptimizer().optimize(optimizedPolicySet);
+
+        Random random= new Random(42);
+        Set<DecisionType> decisions= EnumSet.noneOf(DecisionType.class);
+        for (int i= 0; i < REQUESTS; i++) {
+            String requestXML= generator.generateRequestXML(random, 0.8);
+            // the target of the indeterminate rules needs the time of day
+            switch (i % 3) {
+            case 0:
+                requestXML= requestXML.replace("<xacml-context:Environment/>", environment("day"));
+                break;
+            case 1:
+                requestXML= requestXML.replace("<xacml-context:Environment/>", environment("night"));
+                break;
+            default:
+                break;
+            }
+            DecisionType expected= evaluate(policySet, requestXML);
+            assertEquals(requestXML, expected, evaluate(optimizedPolicySet, requestXML));
+            decisions.add(expected);
+        }
+        if (expectIndeterminate) {
+            assertTrue(decisions.toString(), decisions.contains(DecisionType.INDETERMINATE));
+        }
+        assertTrue(decisions.toString(), decisions.size() > 2);
+    }
+
+    private PolicySetGenerator newGenerator(PolicySetGenerator.CombiningAlgorithm algorithm) {
+        return new PolicySetGenerator().withResources(RESOURCES).withActionsPerResource(ACTIONS)
+                .withRulesPerAction(6).withCombiningAlgorithm(algorithm).withObligations(false);
+    }
+
+    /**
+     * Generates the policy set, with extra rules at the top of every policy.
+     */
+    private String generatePolicySetXML(PolicySetGenerator generator) {
+        String xml= generator.generatePolicySetXML();
+        StringBuilder result= new StringBuilder(xml.length() * 2);
+        String policyTargetEnd= "</xacml:Action></xacml:Actions></xacml:Target>";
+        int start= 0;
+        int policy= 0;
+        int end;
+        while ((end= xml.indexOf(policyTargetEnd, start)) >= 0) {
+            end+= policyTargetEnd.length();
+            result.append(xml, start, end);
+            appendExtraRules(result, policy++);
+            start= end;
+        }
+        result.append(xml.substring(start));
+        assertEquals(RESOURCES * ACTIONS, policy);
+        return result.toString();
+    }
+
+    private void appendExtraRules(StringBuilder xml, int policy) {
+        // denies action 1, the condition depends on the request
+        xml.append("<xacml:Rule RuleId=\"dynamic-").append(policy).append("\" Effect=\"Deny\"><xacml:Target/>");
+        xml.append("<xacml:Condition>");
+        xml.append("<xacml:Apply FunctionId=\"").append(FUNCTION_PREFIX).append("string-equal\">");
+        xml.append("<xacml:Apply FunctionId=\"").append(FUNCTION_PREFIX).append("string-one-and-only\">");
+        xml.append("<xacml:ActionAttributeDesignator AttributeId=\"").append(PolicySetGenerator.ACTION_ID);
+        xml.append("\" DataType=\"").append(PolicySetGenerator.DATATYPE_STRING).append("\"/>");
+        xml.append("</xacml:Apply>");
+        xml.append("<xacml:Apply FunctionId=\"").append(FUNCTION_PREFIX).append("string-normalize-space\">");
+        appendString(xml, "  " + PolicySetGenerator.actionId(1) + " ");
+        xml.append("</xacml:Apply>");
+        xml.append("</xacml:Apply>");
+        xml.append("</xacml:Condition></xacml:Rule>");
+
+        // unreachable, its target is indeterminate when the time of day is missing
+        xml.append("<xacml:Rule RuleId=\"indeterminate-").append(policy).append("\" Effect=\"Deny\">");
+        xml.append("<xacml:Target><xacml:Environments><xacml:Environment>");
+        xml.append("<xacml:EnvironmentMatch MatchId=\"").append(FUNCTION_PREFIX).append("string-equal\">");
+        appendString(xml, "night");
+        xml.append("<xacml:EnvironmentAttributeDesignator AttributeId=\"").append(TIME_OF_DAY_ID);
+        xml.append("\" DataType=\"").append(PolicySetGenerator.DATATYPE_STRING).append("\" MustBePresent=\"true\"/>");
+        xml.append("</xacml:EnvironmentMatch>");
+        xml.append("</xacml:Environment></xacml:Environments></xacml:Target>");
+        xml.append("<xacml:Condition>");
+        appendStringEqual(xml, "a", "b");
+        xml.append("</xacml:Condition></xacml:Rule>");
+
+        // unreachable, with a target which always matches
+        xml.append("<xacml:Rule RuleId=\"unreachable-").append(policy).append("\" Effect=\"Deny\"><xacml:Target/>");
+        xml.append("<xacml:Condition>");
+        xml.append("<xacml:Apply FunctionId=\"").append(FUNCTION_PREFIX).append("not\">");
+        appendStringEqual(xml, "a", "a");
+        xml.append("</xacml:Apply>");
+        xml.append("</xacml:Condition></xacml:Rule>");
+
+        // permits the first subject, the condition is always true
+        xml.append("<xacml:Rule RuleId=\"always-").append(policy).append("\" Effect=\"Permit\">");
+        xml.append("<xacml:Target><xacml:Subjects><xacml:Subject>");
+        xml.append("<xacml:SubjectMatch MatchId=\"").append(PolicySetGenerator.FUNCTION_X500_EQUAL).append("\">");
+        xml.append("<xacml:AttributeValue DataType=\"").append(PolicySetGenerator.DATATYPE_X500).append("\">");
+        xml.append(PolicySetGenerator.subjectDN(0)).append("</xacml:AttributeValue>");
+        xml.append("<xacml:SubjectAttributeDesignator AttributeId=\"").append(PolicySetGenerator.SUBJECT_ID);
+        xml.append("\" DataType=\"").append(PolicySetGenerator.DATATYPE_X500).append("\" MustBePresent=\"false\"/>");
+        xml.append("</xacml:SubjectMatch>");
+        xml.append("</xacml:Subject></xacml:Subjects></xacml:Target>");
+        xml.append("<xacml:Condition>");
+        xml.append("<xacml:Apply FunctionId=\"").append(FUNCTION_PREFIX).append("and\">");
+        appendStringEqual(xml, "a", "a");
+        xml.append("<xacml:AttributeValue DataType=\"").append(DATATYPE_BOOLEAN).append("\">true</xacml:AttributeValue>");
+        xml.append("</xacml:Apply>");
+        xml.append("</xacml:Condition></xacml:Rule>");
+    }
+
+    private void appendStringEqual(StringBuilder xml, String value1, String value2) {
+        xml.append("<xacml:Apply FunctionId=\"").append(FUNCTION_PREFIX).append("string-equal\">");
+        appendString(xml, value1);
+        appendString(xml, value2);
+        xml.append("</xacml:Apply>");
+    }
+
+    private void appendString(StringBuilder xml, String value) {
+        xml.append("<xacml:AttributeValue DataType=\"").append(PolicySetGenerator.DATATYPE_STRING).append("\">");
+        xml.append(value).append("</xacml:AttributeValue>");
+    }
+
+    private String environment(String timeOfDay) {
+        return "<xacml-context:Environment><xacml-context:Attribute AttributeId=\"" + TIME_OF_DAY_ID
+                + "\" DataType=\"" + PolicySetGenerator.DATATYPE_STRING + "\"><xacml-context:AttributeValue>"
+                + timeOfDay + "</xacml-context:AttributeValue></xacml-context:Attribute></xacml-context:Environment>";
+    }
+
+    /**
+     * Evaluates a request the same way the PDP servlet does, on a fresh copy of
+     * the request.
+     */
+    private DecisionType evaluate(PolicySetType policySet, String requestXML) throws Exception {
+        RequestType request= RequestCtxFactory.unmarshal(PolicySetGenerator.parse(requestXML)).getRequest();
+        EvaluationContext evaluationContext= new EvaluationContext(new TargetMatcherImpl(), new StatusCodeComparator());
+        return policySet.getCombiningAlg().evaluate(request, policySet, evaluationContext);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the loop prevention and version checks of the PDPs relaying policies,
+ * with three PDPs relaying to each other.
+ */
+public class PolicyRelayTest extends TestCase {
+
+    private static final String PDP_A= "http://pdp-a.example.org/pdp";
+
+    private static final String PDP_B= "http://pdp-b.example.org/pdp";
+
+    private static final String PDP_C= "http://pdp-c.example.org/pdp";
+
+    private static final List<String> FROM_PAP= Collections.emptyList();
+
+    public void testCompareVersions() {
+        assertEquals(0, PolicyRelay.compareVersions("1.2", "1.2"));
+        assertEquals(0, PolicyRelay.compareVersions("1", "1.0"));
+        assertTrue(PolicyRelay.compareVersions("1.9", "1.10") < 0);
+        assertTrue(PolicyRelay.compareVersions("2", "1.10") > 0);
+        assertTrue(PolicyRelay.compareVersions(null, "1") < 0);
+        assertTrue(PolicyRelay.compareVersions("b", "a") > 0);
+    }
+
+    public void testRelayFromPAP() {
+        // A loaded the policy from the PAP, B queries A
+        PolicySnapshot policyOfA= snapshot("3", FROM_PAP);
+        assertNull(PolicyRelay.checkQuery(policyOfA, PDP_A, PDP_B, null));
+        assertNull(PolicyRelay.checkRelayedPolicy(Arrays.asList(PDP_A), "3", PDP_B, "2"));
+    }
+
+    public void testRelayLoop() {
+        // B loaded the policy from A, C from B: neither A nor B may get it back
+        PolicySnapshot policyOfC= snapshot("3", Arrays.asList(PDP_A, PDP_B));
+        assertNotNull(PolicyRelay.checkQuery(policyOfC, PDP_C, PDP_A, null));
+        assertNotNull(PolicyRelay.checkQuery(policyOfC, PDP_C, PDP_B, null));
+        assertNotNull(PolicyRelay.checkQuery(policyOfC, PDP_C, PDP_C, null));
+        assertNotNull(PolicyRelay.checkRelayedPolicy(Arrays.asList(PDP_A, PDP_B, PDP_C), "3", PDP_A, null));
+    }
+
+    public void testVersionChecks() {
+        PolicySnapshot policyOfA= snapshot("3", FROM_PAP);
+        assertNotNull(PolicyRelay.checkQuery(policyOfA, PDP_A, PDP_B, "4"));
+        assertNull(PolicyRelay.checkQuery(policyOfA, PDP_A, PDP_B, "3"));
+        // a lagging relay does not roll back, a PAP does
+        assertNotNull(PolicyRelay.checkRelayedPolicy(Arrays.asList(PDP_A), "3", PDP_B, "4"));
+        assertNull(PolicyRelay.checkRelayedPolicy(FROM_PAP, "3", PDP_B, "4"));
+    }
+
+    public void testNoPolicyLoaded() {
+        assertNotNull(PolicyRelay.checkQuery(null, PDP_A, PDP_B, null));
+    }
+
+    private PolicySnapshot snapshot(String version, List<String> relayPath) {
+        return new PolicySnapshot(null, "default", version, null, relayPath);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.util.Arrays;
+
+import org.glite.authz.pdp.server.HerasAFBootstrap;
+import org.herasaf.xacml.core.context.EvaluationContext;
+import org.herasaf.xacml.core.context.StatusCodeComparator;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.herasaf.xacml.core.targetMatcher.impl.TargetMatcherImpl;
+
+/**
+ * Measures how policy loading and evaluation scale with the policy size.
+ * <p>
+ * For each size, the benchmark reports the time to unmarshall the generated
+ * policy set, the heap retained by the loaded policy, and the latency of the
+ * evaluation of a set of generated requests. It is not run by the unit tests,
+ * start it with:
+ *
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.policy.PolicyScalingBenchmark [rules...]
+ * </pre>
+ */
+public class PolicyScalingBenchmark {
+
+    /** Default policy sizes, in rules. */
+    private static final int[] DEFAULT_SIZES= { 10, 1000, 10000, 100000 };
+
+    /** Number of distinct requests evaluated per size. */
+    private static final int REQUESTS= 2000;
+
+    /** Number of warm-up passes over the requests. */
+    private static final int WARMUP_PASSES= 3;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args policy sizes, in rules, to benchmark
+     *
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int[] sizes= DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes= new int[args.length];
+            for (int i= 0; i < args.length; i++) {
+                sizes[i]= Integer.parseInt(args[i]);
+            }
+        }
+
+        HerasAFBootstrap.bootstap();
+
+        System.out.println("rules|xmlBytes|loadMillis|retainedBytes|meanMicros|p50Micros|p99Micros");
+        for (int size : sizes) {
+            run(PolicySetGenerator.forRuleCount(size));
+        }
+    }
+
+    /**
+     * Benchmarks one policy size.
+     *
+     * @param generator generator of the policy and requests
+     *
+     * @throws Exception thrown if the benchmark fails
+     */
+    private static void run(PolicySetGenerator generator) throws Exception {
+        String policyXML= generator.generatePolicySetXML();
+
+        long heapBefore= usedHeap();
+        long start= System.nanoTime();
+        PolicySetType policy= PolicySetGenerator.unmarshallPolicySet(policyXML);
+        long loadNanos= System.nanoTime() - start;
+        long retained= usedHeap() - heapBefore;
+
+        RequestType[] requests= generator.generateRequests(REQUESTS, 0.8);
+        for (int pass= 0; pass < WARMUP_PASSES; pass++) {
+            for (RequestType request : requests) {
+                evaluate(policy, request);
+            }
+        }
+
+        long[] latencies= new long[requests.length];
+        for (int i= 0; i < requests.length; i++) {
+            long evalStart= System.nanoTime();
+            evaluate(policy, requests[i]);
+            latencies[i]= System.nanoTime() - evalStart;
+        }
+        Arrays.sort(latencies);
+        long total= 0;
+        for (long latency : latencies) {
+            total+= latency;
+        }
+
+        System.out.println(generator.getTotalRules() + "|" + policyXML.length() + "|" + loadNanos / 1000000 + "|"
+                + retained + "|" + total / latencies.length / 1000 + "|" + latencies[latencies.length / 2] / 1000
+                + "|" + latencies[(int) (latencies.length * 0.99)] / 1000);
+    }
+
+    /**
+     * Evaluates a request the same way the PDP servlet does.
+     *
+     * @param policy policy to evaluate
+     * @param request request to evaluate
+     *
+     * @return the decision
+     */
+    private static Object evaluate(PolicySetType policy, RequestType request) {
+        EvaluationContext evaluationContext= new EvaluationContext(new TargetMatcherImpl(), new StatusCodeComparator());
+        return policy.getCombiningAlg().evaluate(request, policy, evaluationContext);
+    }
+
+    /**
+     * Gets the used heap after a garbage collection.
+     *
+     * @return the used heap in bytes
+     */
+    private static long usedHeap() {
+        Runtime runtime= Runtime.getRuntime();
+        for (int i= 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.policy;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.glite.authz.common.profile.GLiteAuthorizationProfileConstants;
+import org.herasaf.xacml.core.context.RequestCtxFactory;
+import org.herasaf.xacml.core.context.impl.RequestType;
+import org.herasaf.xacml.core.policy.PolicyMarshaller;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+/**
+ * Generates synthetic XACML policy sets, and matching requests, shaped like the
+ * ones the Argus PAP returns to the PDP.
+ * <p>
+ * The generated root policy set contains one child policy set per resource.
+ * Each resource policy set contains one policy per action, and each policy
+ * contains the rules matching the subjects (DN or FQAN). The total number of
+ * rules is therefore {@code resources * actionsPerResource * rulesPerAction}.
+ * <p>
+ * The generator is deterministic for a given seed, so that successive benchmark
+ * runs evaluate the same policies and requests.
+ */
+public class PolicySetGenerator {
+
+    /** XACML 2.0 policy namespace. */
+    public static final String XACML_POLICY_NS= "urn:oasis:names:tc:xacml:2.0:policy:schema:os";
+
+    /** XACML 2.0 context namespace. */
+    public static final String XACML_CONTEXT_NS= "urn:oasis:names:tc:xacml:2.0:context:schema:os";
+
+    /** Resource ID attribute. */
+    public static final String RESOURCE_ID= "urn:oasis:names:tc:xacml:1.0:resource:resource-id";
+
+    /** Action ID attribute. */
+    public static final String ACTION_ID= "urn:oasis:names:tc:xacml:1.0:action:action-id";
+
+    /** Subject ID attribute. */
+    public static final String SUBJECT_ID= "urn:oasis:names:tc:xacml:1.0:subject:subject-id";
+
+    /** FQAN attribute. */
+    public static final String FQAN_ID= "http://glite.org/xacml/attribute/fqan";
+
+    /** String data type. */
+    public static final String DATATYPE_STRING= "http://www.w3.org/2001/XMLSchema#string";
+
+    /** X.500 name data type. */
+    public static final String DATATYPE_X500= "urn:oasis:names:tc:xacml:1.0:data-type:x500Name";
+
+    /** FQAN data type. */
+    public static final String DATATYPE_FQAN= GLiteAuthorizationProfileConstants.DATATYPE_FQAN;
+
+    /** String equality function. */
+    public static final String FUNCTION_STRING_EQUAL= "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+
+    /** String regular expression function. */
+    public static final String FUNCTION_STRING_REGEXP= "urn:oasis:names:tc:xacml:1.0:function:string-regexp-match";
+
+    /** X.500 name equality function. */
+    public static final String FUNCTION_X500_EQUAL= "urn:oasis:names:tc:xacml:1.0:function:x500Name-equal";
+
+    /** FQAN equality function. */
+    public static final String FUNCTION_FQAN_EQUAL= GLiteAuthorizationProfileConstants.ID_ALGORITHM_FQAN_EXACT_MATCH;
+
+    /** Obligation added to the generated permit rules. */
+    public static final String OBLIGATION_ID= "http://glite.org/xacml/obligation/local-environment-map";
+
+    /** Shape of the subject part of the generated rule targets. */
+    public static enum SubjectShape {
+        /** Rules match the subject DN. */
+        DN,
+        /** Rules match the subject FQAN. */
+        FQAN,
+        /** Rules alternatively match a DN or a FQAN. */
+        MIXED
+    }
+
+    /** How resource and action values are matched. */
+    public static enum MatchShape {
+        /** Exact string equality. */
+        EQUAL,
+        /** String regular expression, as the PAP produces for wildcards. */
+        REGEXP
+    }
+
+    /** XACML combining algorithm shorthand. */
+    public static enum CombiningAlgorithm {
+        /** first-applicable */
+        FIRST_APPLICABLE("first-applicable"),
+        /** deny-overrides */
+        DENY_OVERRIDES("deny-overrides"),
+        /** permit-overrides */
+        PERMIT_OVERRIDES("permit-overrides");
+
+        /** Algorithm URN suffix. */
+        private final String suffix;
+
+        /**
+         * Constructor.
+         *
+         * @param algSuffix algorithm URN suffix
+         */
+        private CombiningAlgorithm(String algSuffix) {
+            suffix= algSuffix;
+        }
+
+        /**
+         * Gets the policy combining algorithm ID.
+         *
+         * @return policy combining algorithm ID
+         */
+        public String policyAlgorithmId() {
+            return "urn:oasis:names:tc:xacml:1.0:policy-combining-algorithm:" + suffix;
+        }
+
+        /**
+         * Gets the rule combining algorithm ID.
+         *
+         * @return rule combining algorithm ID
+         */
+        public String ruleAlgorithmId() {
+            return "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:" + suffix;
+        }
+    }
+
+    /** ID of the generated root policy set. */
+    private String policySetId= "default";
+
+    /** Version of the generated root policy set. */
+    private String version= "1";
+
+    /** Number of resource policy sets. */
+    private int resources= 1;
+
+    /** Number of action policies per resource. */
+    private int actionsPerResource= 1;
+
+    /** Number of rules per action policy. */
+    private int rulesPerAction= 10;
+
+    /** Subject shape of the rules. */
+    private SubjectShape subjectShape= SubjectShape.DN;
+
+    /** Match shape of the resources and actions. */
+    private MatchShape matchShape= MatchShape.EQUAL;
+
+    /** Combining algorithm used at all levels. */
+    private CombiningAlgorithm combiningAlgorithm= CombiningAlgorithm.FIRST_APPLICABLE;
+
+    /** Whether permit rules carry obligations. */
+    private boolean obligations= true;
+
+    /** Seed of the random generator used for the requests. */
+    private long seed= 42;
+
+    /**
+     * Creates a generator producing the given total number of rules spread over
+     * a PAP-like resource/action structure.
+     *
+     * @param totalRules total number of rules to generate
+     *
+     * @return the generator
+     */
+    public static PolicySetGenerator forRuleCount(int totalRules) {
+        PolicySetGenerator generator= new PolicySetGenerator();
+        int rules= Math.max(1, totalRules);
+        int resourceCount= Math.max(1, (int) Math.sqrt(rules / 10.0));
+        int actionCount= Math.min(4, Math.max(1, rules / (resourceCount * 10)));
+        int ruleCount= Math.max(1, rules / (resourceCount * actionCount));
+        return generator.withResources(resourceCount).withActionsPerResource(actionCount).withRulesPerAction(ruleCount);
+    }
+
+    /**
+     * Sets the ID of the root policy set.
+     *
+     * @param id policy set ID
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withPolicySetId(String id) {
+        policySetId= id;
+        return this;
+    }
+
+    /**
+     * Sets the version of the root policy set.
+     *
+     * @param policyVersion policy version
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withVersion(String policyVersion) {
+        version= policyVersion;
+        return this;
+    }
+
+    /**
+     * Sets the number of resource policy sets.
+     *
+     * @param count number of resources
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withResources(int count) {
+        resources= count;
+        return this;
+    }
+
+    /**
+     * Sets the number of action policies per resource.
+     *
+     * @param count number of actions per resource
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withActionsPerResource(int count) {
+        actionsPerResource= count;
+        return this;
+    }
+
+    /**
+     * Sets the number of rules per action policy.
+     *
+     * @param count number of rules per action
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withRulesPerAction(int count) {
+        rulesPerAction= count;
+        return this;
+    }
+
+    /**
+     * Sets the subject shape of the rule targets.
+     *
+     * @param shape subject shape
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withSubjectShape(SubjectShape shape) {
+        subjectShape= shape;
+        return this;
+    }
+
+    /**
+     * Sets the match shape of the resource and action targets.
+     *
+     * @param shape match shape
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withMatchShape(MatchShape shape) {
+        matchShape= shape;
+        return this;
+    }
+
+    /**
+     * Sets the combining algorithm used by the policy sets and policies.
+     *
+     * @param algorithm combining algorithm
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withCombiningAlgorithm(CombiningAlgorithm algorithm) {
+        combiningAlgorithm= algorithm;
+        return this;
+    }
+
+    /**
+     * Sets whether the permit rules carry obligations.
+     *
+     * @param withObligations whether obligations are generated
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withObligations(boolean withObligations) {
+        obligations= withObligations;
+        return this;
+    }
+
+    /**
+     * Sets the seed used to generate requests.
+     *
+     * @param randomSeed random seed
+     *
+     * @return this generator
+     */
+    public PolicySetGenerator withSeed(long randomSeed) {
+        seed= randomSeed;
+        return this;
+    }
+
+    /**
+     * Gets the total number of rules generated.
+     *
+     * @return total number of rules
+     */
+    public int getTotalRules() {
+        return resources * actionsPerResource * rulesPerAction;
+    }
+
+    /**
+     * Generates the XACML policy set.
+     *
+     * @return the XML representation of the policy set
+     */
+    public String generatePolicySetXML() {
+        StringBuilder xml= new StringBuilder(getTotalRules() * 600 + 1024);
+        xml.append("<xacml:PolicySet xmlns:xacml=\"").append(XACML_POLICY_NS).append("\"");
+        xml.append(" PolicySetId=\"").append(policySetId).append("\"");
+        xml.append(" Version=\"").append(version).append("\"");
+        xml.append(" PolicyCombiningAlgId=\"").append(combiningAlgorithm.policyAlgorithmId()).append("\">");
+        xml.append("<xacml:Target/>");
+        for (int r= 0; r < resources; r++) {
+            appendResourcePolicySet(xml, r);
+        }
+        xml.append("</xacml:PolicySet>");
+        return xml.toString();
+    }
+
+    /**
+     * Generates and unmarshalls the XACML policy set. HERAS-AF must have been
+     * bootstrapped.
+     *
+     * @return the HERAS-AF policy set
+     *
+     * @throws Exception thrown if the generated policy can not be unmarshalled
+     */
+    public PolicySetType generatePolicySet() throws Exception {
+        return unmarshallPolicySet(generatePolicySetXML());
+    }
+
+    /**
+     * Unmarshalls a XACML policy set. HERAS-AF must have been bootstrapped.
+     *
+     * @param policySetXML XML representation of the policy set
+     *
+     * @return the HERAS-AF policy set
+     *
+     * @throws Exception thrown if the policy can not be unmarshalled
+     */
+    public static PolicySetType unmarshallPolicySet(String policySetXML) throws Exception {
+        return (PolicySetType) PolicyMarshaller.unmarshal(parse(policySetXML));
+    }
+
+    /**
+     * Generates a request, in XACML context XML form. With a probability of
+     * {@code hitRatio} the request targets an existing resource, action and
+     * subject of the policy.
+     *
+     * @param random random generator
+     * @param hitRatio probability, between 0 and 1, that the request matches a
+     *            rule
+     *
+     * @return the XML representation of the request
+     */
+    public String generateRequestXML(Random random, double hitRatio) {
+        boolean hit= random.nextDouble() < hitRatio;
+        int r= hit ? random.nextInt(resources) : resources + random.nextInt(1000);
+        int a= random.nextInt(actionsPerResource);
+        int s= random.nextInt(rulesPerAction);
+
+        StringBuilder xml= new StringBuilder(1024);
+        xml.append("<xacml-context:Request xmlns:xacml-context=\"").append(XACML_CONTEXT_NS).append("\">");
+        xml.append("<xacml-context:Subject>");
+        appendRequestAttribute(xml, SUBJECT_ID, DATATYPE_X500, subjectDN(s));
+        if (subjectShape != SubjectShape.DN) {
+            appendRequestAttribute(xml, FQAN_ID, DATATYPE_FQAN, fqan(s));
+        }
+        xml.append("</xacml-context:Subject>");
+        xml.append("<xacml-context:Resource>");
+        appendRequestAttribute(xml, RESOURCE_ID, DATATYPE_STRING, resourceId(r));
+        xml.append("</xacml-context:Resource>");
+        xml.append("<xacml-context:Action>");
+        appendRequestAttribute(xml, ACTION_ID, DATATYPE_STRING, actionId(a));
+        xml.append("</xacml-context:Action>");
+        xml.append("<xacml-context:Environment/>");
+        xml.append("</xacml-context:Request>");
+        return xml.toString();
+    }
+
+    /**
+     * Generates a set of requests. HERAS-AF must have been bootstrapped.
+     *
+     * @param count number of requests
+     * @param hitRatio probability, between 0 and 1, that a request matches a
+     *            rule
+     *
+     * @return the HERAS-AF requests
+     *
+     * @throws Exception thrown if a generated request can not be unmarshalled
+     */
+    public RequestType[] generateRequests(int count, double hitRatio) throws Exception {
+        Random random= new Random(seed);
+        RequestType[] requests= new RequestType[count];
+        for (int i= 0; i < count; i++) {
+            requests[i]= RequestCtxFactory.unmarshal(parse(generateRequestXML(random, hitRatio))).getRequest();
+        }
+        return requests;
+    }
+
+    /**
+     * Appends a resource policy set.
+     *
+     * @param xml buffer
+     * @param r resource index
+     */
+    private void appendResourcePolicySet(StringBuilder xml, int r) {
+        xml.append("<xacml:PolicySet PolicySetId=\"resource-").append(r).append("\" Version=\"1\"");
+        xml.append(" PolicyCombiningAlgId=\"").append(combiningAlgorithm.policyAlgorithmId()).append("\">");
+        xml.append("<xacml:Target><xacml:Resources><xacml:Resource>");
+        appendMatch(xml, "Resource", RESOURCE_ID, resourceId(r));
+        xml.append("</xacml:Resource></xacml:Resources></xacml:Target>");
+        for (int a= 0; a < actionsPerResource; a++) {
+            appendActionPolicy(xml, r, a);
+        }
+        xml.append("</xacml:PolicySet>");
+    }
+
+    /**
+     * Appends an action policy.
+     *
+     * @param xml buffer
+     * @param r resource index
+     * @param a action index
+     */
+    private void appendActionPolicy(StringBuilder xml, int r, int a) {
+        xml.append("<xacml:Policy PolicyId=\"policy-").append(r).append('-').append(a).append("\" Version=\"1\"");
+        xml.append(" RuleCombiningAlgId=\"").append(combiningAlgorithm.ruleAlgorithmId()).append("\">");
+        xml.append("<xacml:Target><xacml:Actions><xacml:Action>");
+        appendMatch(xml, "Action", ACTION_ID, actionId(a));
+        xml.append("</xacml:Action></xacml:Actions></xacml:Target>");
+        for (int s= 0; s < rulesPerAction; s++) {
+            appendRule(xml, r, a, s);
+        }
+        if (obligations) {
+            xml.append("<xacml:Obligations>");
+            xml.append("<xacml:Obligation ObligationId=\"").append(OBLIGATION_ID).append("\" FulfillOn=\"Permit\">");
+            xml.append("<xacml:AttributeAssignment AttributeId=\"http://glite.org/xacml/attribute/user-id\"");
+            xml.append(" DataType=\"").append(DATATYPE_STRING).append("\">user").append(a).append("</xacml:AttributeAssignment>");
+            xml.append("</xacml:Obligation>");
+            xml.append("</xacml:Obligations>");
+        }
+        xml.append("</xacml:Policy>");
+    }
+
+    /**
+     * Appends a rule.
+     *
+     * @param xml buffer
+     * @param r resource index
+     * @param a action index
+     * @param s subject index
+     */
+    private void appendRule(StringBuilder xml, int r, int a, int s) {
+        String effect= (s % 5 == 4) ? "Deny" : "Permit";
+        xml.append("<xacml:Rule RuleId=\"rule-").append(r).append('-').append(a).append('-').append(s).append("\"");
+        xml.append(" Effect=\"").append(effect).append("\">");
+        xml.append("<xacml:Target><xacml:Subjects>");
+        boolean useFqan= subjectShape == SubjectShape.FQAN || (subjectShape == SubjectShape.MIXED && s % 2 == 1);
+        xml.append("<xacml:Subject>");
+        if (useFqan) {
+            appendSubjectMatch(xml, FUNCTION_FQAN_EQUAL, FQAN_ID, DATATYPE_FQAN, fqan(s));
+        } else {
+            appendSubjectMatch(xml, FUNCTION_X500_EQUAL, SUBJECT_ID, DATATYPE_X500, subjectDN(s));
+        }
+        xml.append("</xacml:Subject>");
+        xml.append("</xacml:Subjects></xacml:Target>");
+        xml.append("</xacml:Rule>");
+    }
+
+    /**
+     * Appends a resource or action match.
+     *
+     * @param xml buffer
+     * @param element element name prefix, Resource or Action
+     * @param attributeId designated attribute ID
+     * @param value matched value
+     */
+    private void appendMatch(StringBuilder xml, String element, String attributeId, String value) {
+        String functionId= matchShape == MatchShape.REGEXP ? FUNCTION_STRING_REGEXP : FUNCTION_STRING_EQUAL;
+        String matchValue= matchShape == MatchShape.REGEXP ? value.replace(".", "\\.") : value;
+        xml.append("<xacml:").append(element).append("Match MatchId=\"").append(functionId).append("\">");
+        xml.append("<xacml:AttributeValue DataType=\"").append(DATATYPE_STRING).append("\">");
+        xml.append(matchValue).append("</xacml:AttributeValue>");
+        xml.append("<xacml:").append(element).append("AttributeDesignator AttributeId=\"").append(attributeId);
+        xml.append("\" DataType=\"").append(DATATYPE_STRING).append("\" MustBePresent=\"false\"/>");
+        xml.append("</xacml:").append(element).append("Match>");
+    }
+
+    /**
+     * Appends a subject match.
+     *
+     * @param xml buffer
+     * @param functionId match function
+     * @param attributeId designated attribute ID
+     * @param dataType attribute data type
+     * @param value matched value
+     */
+    private void appendSubjectMatch(StringBuilder xml, String functionId, String attributeId, String dataType,
+            String value) {
+        xml.append("<xacml:SubjectMatch MatchId=\"").append(functionId).append("\">");
+        xml.append("<xacml:AttributeValue DataType=\"").append(dataType).append("\">");
+        xml.append(value).append("</xacml:AttributeValue>");
+        xml.append("<xacml:SubjectAttributeDesignator AttributeId=\"").append(attributeId);
+        xml.append("\" DataType=\"").append(dataType).append("\" MustBePresent=\"false\"/>");
+        xml.append("</xacml:SubjectMatch>");
+    }
+
+    /**
+     * Appends a request attribute.
+     *
+     * @param xml buffer
+     * @param attributeId attribute ID
+     * @param dataType attribute data type
+     * @param value attribute value
+     */
+    private void appendRequestAttribute(StringBuilder xml, String attributeId, String dataType, String value) {
+        xml.append("<xacml-context:Attribute AttributeId=\"").append(attributeId);
+        xml.append("\" DataType=\"").append(dataType).append("\">");
+        xml.append("<xacml-context:AttributeValue>").append(value).append("</xacml-context:AttributeValue>");
+        xml.append("</xacml-context:Attribute>");
+    }
+
+    /**
+     * Gets the resource ID for an index.
+     *
+     * @param r resource index
+     *
+     * @return the resource ID
+     */
+    public static String resourceId(int r) {
+        return "http://ce" + r + ".example.org/cream";
+    }
+
+    /**
+     * Gets the action ID for an index.
+     *
+     * @param a action index
+     *
+     * @return the action ID
+     */
+    public static String actionId(int a) {
+        return "http://glite.org/xacml/action/execute-" + a;
+    }
+
+    /**
+     * Gets the subject DN for an index.
+     *
+     * @param s subject index
+     *
+     * @return the subject DN
+     */
+    public static String subjectDN(int s) {
+        return "CN=User " + s + ",OU=Users,O=Example,C=CH";
+    }
+
+    /**
+     * Gets the FQAN for an index.
+     *
+     * @param s subject index
+     *
+     * @return the FQAN
+     */
+    public static String fqan(int s) {
+        return "/vo" + (s % 50) + "/group" + s;
+    }
+
+    /**
+     * Parses an XML document.
+     *
+     * @param xml XML to parse
+     *
+     * @return the document element
+     *
+     * @throws Exception thrown if the XML can not be parsed
+     */
+    public static Element parse(String xml) throws Exception {
+        DocumentBuilderFactory factory= DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder= factory.newDocumentBuilder();
+        return builder.parse(new InputSource(new StringReader(xml))).getDocumentElement();
+    }
+}
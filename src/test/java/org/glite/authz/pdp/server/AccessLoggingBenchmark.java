@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glite.authz.pdp.util.AccessLogWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the time the request threads spend logging the access to the
+ * service when the record is written on the request thread, as the
+ * synchronous access logging filter does, and when it is handed to the
+ * {@link AccessLogWriter} under each back-pressure policy.
+ * <p>
+ * The records go to the <code>org.glite.authz.access</code> logger, run the
+ * benchmark with the PDP logging configuration to measure the ACCESS rolling
+ * appender. It is not run by the unit tests, start it with:
+ * 
+ * <pre>
+ * java -cp ... -Dorg.glite.authz.pdp.logdir=/tmp -Dlogback.configurationFile=src/main/config/logging.xml \
+ *     org.glite.authz.pdp.server.AccessLoggingBenchmark [threads] [recordsPerThread] [queueSize]
+ * </pre>
+ */
+public class AccessLoggingBenchmark {
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args number of threads, number of records per thread and size of
+     *            the access log queue
+     * 
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int threads= args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int records= args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int queueSize= args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+
+        System.out.println("mode|threads|records|recordsPerSecond|microsPerRecord|dropped");
+        for (int pass= 0; pass < 2; pass++) {
+            boolean warmup= pass == 0;
+            int passRecords= warmup ? records / 10 : records;
+            long synchronous= runSynchronous(threads, passRecords);
+            if (!warmup) {
+                print("synchronous", threads, passRecords, synchronous, 0);
+            }
+            for (AccessLogWriter.BackPressure backPressure : AccessLogWriter.BackPressure.values()) {
+                AccessLogWriter writer= new AccessLogWriter(queueSize, backPressure);
+                writer.start();
+                long asynchronous= runAsynchronous(writer, threads, passRecords);
+                writer.stop();
+                if (!warmup) {
+                    print("async-" + backPressure.name().toLowerCase(), threads, passRecords, asynchronous,
+                          writer.getDroppedRecords());
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints a result line.
+     * 
+     * @param mode name of the logging mode
+     * @param threads number of threads
+     * @param records number of records per thread
+     * @param nanos total time of the run, in nanoseconds
+     * @param dropped number of dropped records
+     */
+    private static void print(String mode, int threads, int records, long nanos, long dropped) {
+        long total= (long) threads * records;
+        System.out.println(mode + "|" + threads + "|" + total + "|" + (total * 1000000000L / nanos) + "|"
+                + (nanos * threads / total / 1000.0) + "|" + dropped);
+    }
+
+    /**
+     * Logs the records on the request threads.
+     * 
+     * @param threads number of threads
+     * @param records number of records per thread
+     * 
+     * @return time of the run, in nanoseconds
+     * 
+     * @throws Exception thrown if the run fails
+     */
+    private static long runSynchronous(int threads, final int records) throws Exception {
+        final Logger accessLog= LoggerFactory.getLogger(AccessLogWriter.ACCESS_LOGGER);
+        return run(threads, new Runnable() {
+            public void run() {
+                for (int i= 0; i < records; i++) {
+                    long time= System.currentTimeMillis();
+                    StringBuilder line= new StringBuilder(128);
+                    line.append("time=").append(time);
+                    line.append(" client=192.168.0.1:").append(40000 + i % 20000);
+                    line.append(" method=POST path=/authz status=200 bytes=2048 micros=").append(i % 1000);
+                    accessLog.info(line.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Hands the records to an access log writer.
+     * 
+     * @param writer the access log writer
+     * @param threads number of threads
+     * @param records number of records per thread
+     * 
+     * @return time of the run, in nanoseconds
+     * 
+     * @throws Exception thrown if the run fails
+     */
+    private static long runAsynchronous(final AccessLogWriter writer, int threads, final int records)
+            throws Exception {
+        return run(threads, new Runnable() {
+            public void run() {
+                for (int i= 0; i < records; i++) {
+                    writer.log(System.currentTimeMillis(), "192.168.0.1", 40000 + i % 20000, "POST", "/authz", 200,
+                               2048, (i % 1000) * 1000L);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a task on a number of threads started together.
+     * 
+     * @param threads number of threads
+     * @param task the task
+     * 
+     * @return time until the last thread finished, in nanoseconds
+     * 
+     * @throws Exception thrown if the run fails
+     */
+    private static long run(int threads, final Runnable task) throws Exception {
+        final CountDownLatch start= new CountDownLatch(1);
+        final CountDownLatch done= new CountDownLatch(threads);
+        final AtomicLong failures= new AtomicLong();
+        for (int t= 0; t < threads; t++) {
+            Thread thread= new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run();
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            thread.start();
+        }
+        long begin= System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed= System.nanoTime() - begin;
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " benchmark threads failed");
+        }
+        return elapsed;
+    }
+}
\ No newline at end of file
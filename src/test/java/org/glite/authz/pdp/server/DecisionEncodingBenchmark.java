@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.glite.authz.pdp.util.BinaryDecisionCodec;
+import org.glite.authz.pdp.util.SAMLUtil;
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.herasaf.xacml.core.context.RequestCtxFactory;
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.ws.soap.common.SOAPObjectBuilder;
+import org.opensaml.ws.soap.soap11.Body;
+import org.opensaml.ws.soap.soap11.Envelope;
+import org.opensaml.xacml.ctx.AttributeType;
+import org.opensaml.xacml.ctx.DecisionType.DECISION;
+import org.opensaml.xacml.ctx.ResultType;
+import org.opensaml.xacml.ctx.StatusCodeType;
+import org.opensaml.xacml.policy.ObligationType;
+import org.opensaml.xacml.profile.saml.XACMLAuthzDecisionQueryType;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.parse.BasicParserPool;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Element;
+
+/**
+ * Compares the cost of the protocol handling of an authorization request over
+ * the SAML/SOAP binding, the compact binary endpoint and the JSON Profile of
+ * XACML endpoint.
+ * <p>
+ * For each encoding the benchmark measures, per request, the encoding of a
+ * typical request by the client, its decoding by the PDP down to the HERAS-AF
+ * request context, and the encoding of a Permit response with one
+ * obligation. The policy evaluation, identical for both endpoints, is left
+ * out. It is not run by the unit tests, start it with:
+ * 
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.server.DecisionEncodingBenchmark [iterations]
+ * </pre>
+ */
+public class DecisionEncodingBenchmark {
+
+    /** Data type of the string attributes. */
+    private static final String STRING= "http://www.w3.org/2001/XMLSchema#string";
+
+    /** Data type of the X.500 name attributes. */
+    private static final String X500_NAME= "urn:oasis:names:tc:xacml:1.0:data-type:x500Name";
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args number of iterations
+     * 
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations= args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        DefaultBootstrap.bootstrap();
+        HerasAFBootstrap.bootstap();
+        SAMLUtil.bootstrap();
+        XACMLUtil.bootstrap();
+
+        BasicParserPool parserPool= new BasicParserPool();
+        BinaryDecisionCodec.Request binaryRequest= createBinaryRequest();
+
+        System.out.println("encoding|iterations|requestBytes|responseBytes|microsPerRequest");
+        for (int pass= 0; pass < 2; pass++) {
+            boolean warmup= pass == 0;
+            long[] soap= runSOAP(parserPool, binaryRequest, warmup ? iterations / 10 : iterations);
+            long[] binary= runBinary(binaryRequest, warmup ? iterations / 10 : iterations);
+            long[] json= runJSON(binaryRequest, warmup ? iterations / 10 : iterations);
+            if (!warmup) {
+                print("SOAP", iterations, soap);
+                print("binary", iterations, binary);
+                print("JSON", iterations, json);
+            }
+        }
+    }
+
+    /**
+     * Prints a result line.
+     * 
+     * @param encoding name of the encoding
+     * @param iterations number of iterations
+     * @param result request size, response size and total time in nanoseconds
+     */
+    private static void print(String encoding, int iterations, long[] result) {
+        System.out.println(encoding + "|" + iterations + "|" + result[0] + "|" + result[1] + "|"
+                + (result[2] / iterations / 1000.0));
+    }
+
+    /**
+     * Runs the SOAP encoding.
+     * 
+     * @param parserPool parser pool of the PDP
+     * @param binaryRequest the request
+     * @param iterations number of iterations
+     * 
+     * @return request size, response size and total time in nanoseconds
+     * 
+     * @throws Exception thrown if the encoding fails
+     */
+    private static long[] runSOAP(BasicParserPool parserPool, BinaryDecisionCodec.Request binaryRequest,
+            int iterations) throws Exception {
+        long requestSize= 0;
+        long responseSize= 0;
+        long start= System.nanoTime();
+        for (int i= 0; i < iterations; i++) {
+            // client
+            XACMLAuthzDecisionQueryType query= toAuthzDecisionQuery(binaryRequest);
+            byte[] requestBytes= marshall(wrapInEnvelope(query));
+            requestSize= requestBytes.length;
+
+            // PDP
+            Element envelopeElement= parserPool.parse(new ByteArrayInputStream(requestBytes)).getDocumentElement();
+            Envelope envelope= (Envelope) Configuration.getUnmarshallerFactory().getUnmarshaller(envelopeElement).unmarshall(envelopeElement);
+            XACMLAuthzDecisionQueryType decodedQuery= (XACMLAuthzDecisionQueryType) envelope.getBody().getUnknownXMLObjects().get(0);
+            RequestCtxFactory.unmarshal(decodedQuery.getRequest().getDOM());
+
+            ResultType result= createResult();
+            Response samlResponse= SAMLUtil.buildSAMLResponse(decodedQuery.getID(),
+                                                              new DateTime(),
+                                                              SAMLUtil.buildAssertion("pdp",
+                                                                                      new DateTime(),
+                                                                                      XACMLUtil.buildAuthZDecisionStatement(null,
+                                                                                                                            XACMLUtil.buildResponse(result))),
+                                                              SAMLUtil.buildStatus(StatusCode.SUCCESS_URI,
+                                                                                   null));
+            responseSize= marshall(wrapInEnvelope(samlResponse)).length;
+        }
+        return new long[] { requestSize, responseSize, System.nanoTime() - start };
+    }
+
+    /**
+     * Runs the binary encoding.
+     * 
+     * @param binaryRequest the request
+     * @param iterations number of iterations
+     * 
+     * @return request size, response size and total time in nanoseconds
+     * 
+     * @throws Exception thrown if the encoding fails
+     */
+    private static long[] runBinary(BinaryDecisionCodec.Request binaryRequest, int iterations) throws Exception {
+        BinaryAuthorizationRequestServlet servlet= new BinaryAuthorizationRequestServlet();
+        long requestSize= 0;
+        long responseSize= 0;
+        long start= System.nanoTime();
+        for (int i= 0; i < iterations; i++) {
+            // client
+            byte[] requestBytes= BinaryDecisionCodec.encodeRequest(binaryRequest);
+            requestSize= requestBytes.length;
+
+            // PDP, as done by the servlet and AuthorizationRequestServlet#getXacmlRequest
+            BinaryDecisionCodec.Request decodedRequest= BinaryDecisionCodec.readRequest(new ByteArrayInputStream(requestBytes));
+            XACMLAuthzDecisionQueryType query= toAuthzDecisionQuery(decodedRequest);
+            org.opensaml.xacml.ctx.RequestType xacmlRequest= query.getRequest();
+            Element requestElement= Configuration.getMarshallerFactory().getMarshaller(xacmlRequest).marshall(xacmlRequest);
+            RequestCtxFactory.unmarshal(requestElement);
+
+            AuthorizationRequestServlet.AuthzRequestMessageContext messageContext= new AuthorizationRequestServlet.AuthzRequestMessageContext();
+            messageContext.setAuthorizationResult(createResult());
+            ByteArrayOutputStream responseBytes= new ByteArrayOutputStream(256);
+            servlet.encodeResult(messageContext, responseBytes);
+            responseSize= responseBytes.size();
+        }
+        return new long[] { requestSize, responseSize, System.nanoTime() - start };
+    }
+
+    /**
+     * Runs the JSON encoding.
+     * 
+     * @param binaryRequest the request
+     * @param iterations number of iterations
+     * 
+     * @return request size, response size and total time in nanoseconds
+     * 
+     * @throws Exception thrown if the encoding fails
+     */
+    private static long[] runJSON(BinaryDecisionCodec.Request binaryRequest, int iterations) throws Exception {
+        JSONAuthorizationRequestServlet servlet= new JSONAuthorizationRequestServlet();
+        JsonFactory jsonFactory= new JsonFactory();
+        long requestSize= 0;
+        long responseSize= 0;
+        long start= System.nanoTime();
+        for (int i= 0; i < iterations; i++) {
+            // client
+            ByteArrayOutputStream requestBytes= new ByteArrayOutputStream(1024);
+            JsonGenerator generator= jsonFactory.createGenerator(requestBytes, JsonEncoding.UTF8);
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("Request");
+            writeJSONCategory(generator, "AccessSubject", binaryRequest.getSubjectAttributes());
+            writeJSONCategory(generator, "Resource", binaryRequest.getResourceAttributes());
+            writeJSONCategory(generator, "Action", binaryRequest.getActionAttributes());
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.close();
+            requestSize= requestBytes.size();
+
+            // PDP, as done by the servlet and AuthorizationRequestServlet#getXacmlRequest
+            org.opensaml.xacml.ctx.RequestType xacmlRequest= JSONAuthorizationRequestServlet.parseRequest(new ByteArrayInputStream(requestBytes.toByteArray()));
+            XACMLUtil.buildAuthzDecisionQuery(null, null, xacmlRequest);
+            Element requestElement= Configuration.getMarshallerFactory().getMarshaller(xacmlRequest).marshall(xacmlRequest);
+            RequestCtxFactory.unmarshal(requestElement);
+
+            AuthorizationRequestServlet.AuthzRequestMessageContext messageContext= new AuthorizationRequestServlet.AuthzRequestMessageContext();
+            messageContext.setAuthorizationResult(createResult());
+            ByteArrayOutputStream responseBytes= new ByteArrayOutputStream(256);
+            servlet.encodeResult(messageContext, responseBytes);
+            responseSize= responseBytes.size();
+        }
+        return new long[] { requestSize, responseSize, System.nanoTime() - start };
+    }
+
+    /**
+     * Writes a category of a JSON request.
+     * 
+     * @param generator the JSON generator
+     * @param category shorthand of the category
+     * @param attributes attributes of the category
+     * 
+     * @throws Exception thrown if the category can not be written
+     */
+    private static void writeJSONCategory(JsonGenerator generator, String category,
+            List<BinaryDecisionCodec.Attribute> attributes) throws Exception {
+        generator.writeObjectFieldStart(category);
+        generator.writeArrayFieldStart("Attribute");
+        for (BinaryDecisionCodec.Attribute attribute : attributes) {
+            generator.writeStartObject();
+            generator.writeStringField("AttributeId", attribute.getId());
+            generator.writeStringField("DataType", attribute.getDataType());
+            generator.writeArrayFieldStart("Value");
+            for (String value : attribute.getValues()) {
+                generator.writeString(value);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Creates a typical request: a subject with its DN, issuer and FQANs, a
+     * resource and an action.
+     * 
+     * @return the request
+     */
+    private static BinaryDecisionCodec.Request createBinaryRequest() {
+        BinaryDecisionCodec.Request request= new BinaryDecisionCodec.Request("_5f2b8c1a9d3e4f60718293a4b5c6d7e8",
+                                                                              "pep.example.org");
+        request.getSubjectAttributes().add(attribute("urn:oasis:names:tc:xacml:1.0:subject:subject-id", X500_NAME,
+                                                     "CN=John Doe,O=Example,C=CH"));
+        request.getSubjectAttributes().add(attribute("http://glite.org/xacml/attribute/subject-issuer", X500_NAME,
+                                                     "CN=Example CA,O=Example,C=CH"));
+        request.getSubjectAttributes().add(attribute("http://glite.org/xacml/attribute/fqan",
+                                                     "http://glite.org/xacml/datatype/fqan", "/atlas/Role=production",
+                                                     "/atlas", "/atlas/higgs"));
+        request.getResourceAttributes().add(attribute("urn:oasis:names:tc:xacml:1.0:resource:resource-id", STRING,
+                                                      "http://ce.example.org/cream"));
+        request.getActionAttributes().add(attribute("urn:oasis:names:tc:xacml:1.0:action:action-id", STRING,
+                                                    "http://glite.org/xacml/action/execute"));
+        return request;
+    }
+
+    /**
+     * Creates an attribute.
+     * 
+     * @param id ID of the attribute
+     * @param dataType data type of the attribute
+     * @param values values of the attribute
+     * 
+     * @return the attribute
+     */
+    private static BinaryDecisionCodec.Attribute attribute(String id, String dataType, String... values) {
+        BinaryDecisionCodec.Attribute attribute= new BinaryDecisionCodec.Attribute(id, dataType, null);
+        Collections.addAll(attribute.getValues(), values);
+        return attribute;
+    }
+
+    /**
+     * Converts a request to an authorization decision query.
+     * 
+     * @param request the request
+     * 
+     * @return the authorization decision query
+     */
+    private static XACMLAuthzDecisionQueryType toAuthzDecisionQuery(BinaryDecisionCodec.Request request) {
+        return XACMLUtil.buildAuthzDecisionQuery(request.getId(),
+                                                 request.getIssuer(),
+                                                 XACMLUtil.buildRequest(toAttributes(request.getSubjectAttributes()),
+                                                                        toAttributes(request.getResourceAttributes()),
+                                                                        toAttributes(request.getActionAttributes()),
+                                                                        toAttributes(request.getEnvironmentAttributes())));
+    }
+
+    /**
+     * Converts attributes to XACML attributes.
+     * 
+     * @param attributes the attributes
+     * 
+     * @return the XACML attributes
+     */
+    private static List<AttributeType> toAttributes(List<BinaryDecisionCodec.Attribute> attributes) {
+        List<AttributeType> xacmlAttributes= new ArrayList<AttributeType>();
+        for (BinaryDecisionCodec.Attribute attribute : attributes) {
+            xacmlAttributes.add(XACMLUtil.buildAttribute(attribute.getId(), attribute.getDataType(),
+                                                         attribute.getIssuer(), attribute.getValues()));
+        }
+        return xacmlAttributes;
+    }
+
+    /**
+     * Creates a Permit result with a local account mapping obligation.
+     * 
+     * @return the result
+     */
+    private static ResultType createResult() {
+        org.herasaf.xacml.core.policy.impl.ObligationType herasObligation= new org.herasaf.xacml.core.policy.impl.ObligationType();
+        herasObligation.setObligationId("http://glite.org/xacml/obligation/local-environment-map");
+        herasObligation.setFulfillOn(org.herasaf.xacml.core.policy.impl.EffectType.PERMIT);
+        List<ObligationType> obligations= new ArrayList<ObligationType>();
+        obligations.add(XACMLUtil.buildObligation(herasObligation));
+        return XACMLUtil.buildResult("http://ce.example.org/cream", DECISION.Permit, obligations,
+                                     XACMLUtil.buildStatus(StatusCodeType.SC_OK));
+    }
+
+    /**
+     * Wraps a message in a SOAP envelope.
+     * 
+     * @param message the message
+     * 
+     * @return the SOAP envelope
+     */
+    @SuppressWarnings("unchecked")
+    private static Envelope wrapInEnvelope(XMLObject message) {
+        SOAPObjectBuilder<Envelope> envelopeBuilder= (SOAPObjectBuilder<Envelope>) Configuration.getBuilderFactory().getBuilder(Envelope.DEFAULT_ELEMENT_NAME);
+        SOAPObjectBuilder<Body> bodyBuilder= (SOAPObjectBuilder<Body>) Configuration.getBuilderFactory().getBuilder(Body.DEFAULT_ELEMENT_NAME);
+        Envelope envelope= envelopeBuilder.buildObject();
+        Body body= bodyBuilder.buildObject();
+        body.getUnknownXMLObjects().add(message);
+        envelope.setBody(body);
+        return envelope;
+    }
+
+    /**
+     * Marshalls a message to bytes.
+     * 
+     * @param message the message
+     * 
+     * @return the marshalled message
+     * 
+     * @throws Exception thrown if the message can not be marshalled
+     */
+    private static byte[] marshall(XMLObject message) throws Exception {
+        Element element= Configuration.getMarshallerFactory().getMarshaller(message).marshall(message);
+        ByteArrayOutputStream bytes= new ByteArrayOutputStream(4096);
+        Writer writer= new OutputStreamWriter(bytes, "UTF-8");
+        XMLHelper.writeNode(element, writer);
+        writer.flush();
+        return bytes.toByteArray();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Compares the throughput of a single HTTP/1.1 connection with the one of a
+ * single HTTP/2 connection, as used by a PEP daemon sending many concurrent
+ * requests to the PDP.
+ * <p>
+ * The server is set up like the PDP service port with <code>enableHTTP2 =
+ * true</code> and SSL disabled (HTTP/1.1 and h2c on the same port), and
+ * answers each request with a SAML response sized body after a fixed
+ * simulated decision time. It is not run by the unit tests, start it with:
+ * 
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.server.HTTP2ThroughputBenchmark [requests [concurrency [serviceMicros]]]
+ * </pre>
+ */
+public class HTTP2ThroughputBenchmark {
+
+    /** Size of the request body, close to a typical authorization request. */
+    private static final int REQUEST_SIZE= 3000;
+
+    /** Size of the response body, close to a typical authorization response. */
+    private static final int RESPONSE_SIZE= 2500;
+
+    /** Maximum number of threads of the server, as the PDP default maxRequests. */
+    private static final int MAX_THREADS= 50;
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args number of requests, number of concurrent requests and
+     *            simulated decision time in microseconds
+     * 
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int requests= args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int concurrency= args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int serviceMicros= args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        Server server= createServer(serviceMicros);
+        server.start();
+        int port= ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        String uri= "http://localhost:" + port + "/authz";
+
+        try {
+            HttpClient http1= new HttpClient(new HttpClientTransportOverHTTP(1), null);
+            HttpClient http2= new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+
+            System.out.println("protocol|requests|concurrency|serviceMicros|requestsPerSecond|p50Micros|p99Micros");
+            for (HttpClient client : Arrays.asList(http1, http2)) {
+                client.setMaxConnectionsPerDestination(1);
+                client.setMaxRequestsQueuedPerDestination(requests);
+                client.start();
+                try {
+                    String protocol= client == http1 ? "HTTP/1.1" : "HTTP/2";
+                    // warm up both sides
+                    run(client, uri, requests / 10, concurrency);
+                    long[] result= run(client, uri, requests, concurrency);
+                    System.out.println(protocol + "|" + requests + "|" + concurrency + "|" + serviceMicros + "|"
+                            + result[0] + "|" + result[1] + "|" + result[2]);
+                } finally {
+                    client.stop();
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Sends requests over a single connection, keeping the given number of
+     * requests in flight.
+     * 
+     * @param client client to use
+     * @param uri URI of the service
+     * @param requests number of requests to send
+     * @param concurrency number of requests in flight
+     * 
+     * @return the throughput in requests per second, and the median and 99th
+     *         percentile latencies in microseconds
+     * 
+     * @throws Exception thrown if a request fails
+     */
+    private static long[] run(HttpClient client, String uri, int requests, int concurrency) throws Exception {
+        final byte[] body= new byte[REQUEST_SIZE];
+        Arrays.fill(body, (byte) 'x');
+        final Semaphore inFlight= new Semaphore(concurrency);
+        final CountDownLatch done= new CountDownLatch(requests);
+        final AtomicInteger failures= new AtomicInteger();
+        final long[] latencies= new long[requests];
+
+        long start= System.nanoTime();
+        for (int i= 0; i < requests; i++) {
+            inFlight.acquire();
+            final int index= i;
+            final long requestStart= System.nanoTime();
+            client.newRequest(uri).method(HttpMethod.POST).content(new BytesContentProvider("text/xml", body))
+                  .send(new BufferingResponseListener(RESPONSE_SIZE * 2) {
+                      public void onComplete(Result result) {
+                          latencies[index]= System.nanoTime() - requestStart;
+                          if (result.isFailed() || result.getResponse().getStatus() != 200) {
+                              failures.incrementAndGet();
+                          }
+                          inFlight.release();
+                          done.countDown();
+                      }
+                  });
+        }
+        if (!done.await(10, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Requests did not complete in time");
+        }
+        long elapsed= System.nanoTime() - start;
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " requests failed");
+        }
+
+        Arrays.sort(latencies);
+        return new long[] { requests * 1000000000L / elapsed, latencies[requests / 2] / 1000,
+                latencies[(int) (requests * 0.99)] / 1000 };
+    }
+
+    /**
+     * Creates a server accepting HTTP/1.1 and h2c on the same port, like the
+     * PDP service connector.
+     * 
+     * @param serviceMicros simulated decision time in microseconds
+     * 
+     * @return the unstarted server
+     */
+    private static Server createServer(int serviceMicros) {
+        Server server= new Server(new QueuedThreadPool(MAX_THREADS));
+
+        HttpConfiguration configuration= new HttpConfiguration();
+        configuration.setSendDateHeader(false);
+        configuration.setSendServerVersion(false);
+        HTTP2CServerConnectionFactory h2c= new HTTP2CServerConnectionFactory(configuration);
+        h2c.setMaxConcurrentStreams(MAX_THREADS);
+        ServerConnector connector= new ServerConnector(server, new HttpConnectionFactory(configuration), h2c);
+        connector.setHost("localhost");
+        connector.setPort(0);
+        server.addConnector(connector);
+
+        ServletContextHandler servletContext= new ServletContextHandler(server, "/", false, false);
+        servletContext.addServlet(new ServletHolder(new DecisionServlet(serviceMicros)), "/authz");
+        return server;
+    }
+
+    /** Servlet reading the request and answering after a simulated decision time. */
+    private static class DecisionServlet extends HttpServlet {
+
+        /** Serial version UID. */
+        private static final long serialVersionUID= 1L;
+
+        /** The response body. */
+        private final byte[] response;
+
+        /** Simulated decision time in nanoseconds. */
+        private final long serviceNanos;
+
+        /**
+         * Constructor.
+         * 
+         * @param serviceMicros simulated decision time in microseconds
+         */
+        DecisionServlet(int serviceMicros) {
+            response= new byte[RESPONSE_SIZE];
+            Arrays.fill(response, (byte) 'y');
+            serviceNanos= serviceMicros * 1000L;
+        }
+
+        /** {@inheritDoc} */
+        protected void doPost(HttpServletRequest request, HttpServletResponse httpResponse) throws ServletException,
+                IOException {
+            InputStream in= request.getInputStream();
+            byte[] buffer= new byte[4096];
+            while (in.read(buffer) != -1) {
+                // drain the request
+            }
+            long end= System.nanoTime() + serviceNanos;
+            while (System.nanoTime() < end) {
+                // simulated decision, busy like policy evaluation
+            }
+            httpResponse.setContentType("text/xml");
+            httpResponse.setContentLength(response.length);
+            httpResponse.getOutputStream().write(response);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the {@link RequestCoalescer} shares the value, or the failure, of a
+ * leader with its followers and lets the requests it can not coalesce do their
+ * own work.
+ */
+public class RequestCoalescerTest extends TestCase {
+
+    private static final String KEY= "request";
+
+    private static final long TIMEOUT= 60000;
+
+    private final AtomicInteger shares= new AtomicInteger();
+
+    private RequestCoalescer<String, String> coalescer;
+
+    public void testFollowersShareLeaderValue() throws Exception {
+        coalescer= newCoalescer(TIMEOUT, null);
+        CountDownLatch release= new CountDownLatch(1);
+        Call leader= startLeader(blockedWork("leader", release));
+        Call follower1= startFollower(work("follower1"));
+        Call follower2= startFollower(work("follower2"));
+        release.countDown();
+
+        assertEquals("leader", leader.get());
+        assertEquals("shared leader", follower1.get());
+        assertEquals("shared leader", follower2.get());
+        assertEquals(1, shares.get());
+        assertEquals(0, coalescer.size());
+    }
+
+    public void testLeaderFailurePropagatedToFollowers() throws Exception {
+        coalescer= newCoalescer(TIMEOUT, null);
+        final IOException failure= new IOException("leader failed");
+        final CountDownLatch release= new CountDownLatch(1);
+        Call leader= startLeader(new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                throw failure;
+            }
+        });
+        Call follower= startFollower(work("follower"));
+        release.countDown();
+
+        assertSame(failure, leader.getFailure());
+        assertSame(failure, follower.getFailure());
+        assertEquals(0, shares.get());
+        assertEquals(0, coalescer.size());
+    }
+
+    public void testJoinAfterCloseDoesOwnWork() throws Exception {
+        final String[] lateValue= new String[1];
+        final int[] lateFlights= new int[1];
+        coalescer= newCoalescer(TIMEOUT, new Runnable() {
+            public void run() {
+                // the flight of the leader is closed while it shares its value
+                try {
+                    lateValue[0]= coalescer.execute(KEY, new Callable<String>() {
+                        public String call() {
+                            lateFlights[0]= coalescer.size();
+                            return "late";
+                        }
+                    });
+                } catch (Exception e) {
+                    fail(e.getMessage());
+                }
+            }
+        });
+        CountDownLatch release= new CountDownLatch(1);
+        Call leader= startLeader(blockedWork("leader", release));
+        Call follower= startFollower(work("follower"));
+        release.countDown();
+
+        assertEquals("leader", leader.get());
+        assertEquals("shared leader", follower.get());
+        assertEquals("late", lateValue[0]);
+        // the late request led its own flight instead of joining the closed one
+        assertEquals(1, lateFlights[0]);
+        assertEquals(0, coalescer.size());
+    }
+
+    public void testSharerFailurePropagatedToFollowers() throws Exception {
+        final IllegalStateException failure= new IllegalStateException("sharer failed");
+        coalescer= newCoalescer(TIMEOUT, new Runnable() {
+            public void run() {
+                throw failure;
+            }
+        });
+        CountDownLatch release= new CountDownLatch(1);
+        Call leader= startLeader(blockedWork("leader", release));
+        Call follower= startFollower(work("follower"));
+        release.countDown();
+
+        assertEquals("leader", leader.get());
+        assertSame(failure, follower.getFailure());
+        assertEquals(0, coalescer.size());
+    }
+
+    public void testFollowerTimeoutDoesOwnWork() throws Exception {
+        coalescer= newCoalescer(100, null);
+        CountDownLatch release= new CountDownLatch(1);
+        Call leader= startLeader(blockedWork("leader", release));
+        Call follower= startFollower(work("follower"));
+
+        assertEquals("follower", follower.get());
+        release.countDown();
+        assertEquals("leader", leader.get());
+        // the follower left the flight, nothing is shared
+        assertEquals(0, shares.get());
+        assertEquals(0, coalescer.size());
+    }
+
+    private RequestCoalescer<String, String> newCoalescer(long timeout,
+            final Runnable onShare) {
+        return new RequestCoalescer<String, String>(new RequestCoalescer.Sharer<String>() {
+            public String share(String value) throws Exception {
+                shares.incrementAndGet();
+                if (onShare != null) {
+                    onShare.run();
+                }
+                return "shared " + value;
+            }
+        }, timeout);
+    }
+
+    private Callable<String> work(final String value) {
+        return new Callable<String>() {
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    private Callable<String> blockedWork(final String value,
+            final CountDownLatch release) {
+        return new Callable<String>() {
+            public String call() throws Exception {
+                release.await();
+                return value;
+            }
+        };
+    }
+
+    /** Starts the leader and waits for its flight. */
+    private Call startLeader(Callable<String> work) throws Exception {
+        Call leader= new Call(work);
+        leader.start();
+        while (coalescer.size() == 0) {
+            Thread.sleep(1);
+        }
+        return leader;
+    }
+
+    /** Starts a follower and waits until it waits for the leader. */
+    private Call startFollower(Callable<String> work) throws Exception {
+        Call follower= new Call(work);
+        follower.start();
+        while (follower.getState() != Thread.State.TIMED_WAITING
+                && follower.isAlive()) {
+            Thread.sleep(1);
+        }
+        return follower;
+    }
+
+    /** A request executed on its own thread. */
+    private class Call extends Thread {
+
+        private final Callable<String> work;
+
+        private volatile String value;
+
+        private volatile Exception failure;
+
+        Call(Callable<String> requestWork) {
+            work= requestWork;
+        }
+
+        public void run() {
+            try {
+                value= coalescer.execute(KEY, work);
+            } catch (Exception e) {
+                failure= e;
+            }
+        }
+
+        String get() throws Exception {
+            join();
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+
+        Exception getFailure() throws Exception {
+            join();
+            assertNotNull("request did not fail", failure);
+            return failure;
+        }
+    }
+}
\ No newline at end of file
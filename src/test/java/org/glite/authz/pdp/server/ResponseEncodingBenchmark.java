@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.glite.authz.pdp.util.SAMLUtil;
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.joda.time.DateTime;
+import org.opensaml.Configuration;
+import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.core.StatusCode;
+import org.opensaml.ws.soap.common.SOAPObjectBuilder;
+import org.opensaml.ws.soap.soap11.Body;
+import org.opensaml.ws.soap.soap11.Envelope;
+import org.opensaml.xacml.ctx.DecisionType.DECISION;
+import org.opensaml.xacml.ctx.StatusCodeType;
+import org.opensaml.xacml.policy.ObligationType;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Element;
+
+/**
+ * Measures the bytes copied, and the time spent, writing a SOAP response
+ * through the {@link java.io.Writer} of the default encoder and through the
+ * pooled direct buffers of the {@link DirectBufferSOAP11Encoder}.
+ * <p>
+ * The Jetty output is simulated: with the default encoder the bytes are
+ * copied by the character encoder, into the heap aggregation buffer of the
+ * output, and from it into a direct buffer when written to the socket; with
+ * the direct buffers they are copied once, by the serializer. It is not run by
+ * the unit tests, start it with:
+ * 
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.server.ResponseEncodingBenchmark [iterations [obligations]]
+ * </pre>
+ */
+public class ResponseEncodingBenchmark {
+
+    /** Size of the aggregation buffer of the Jetty output, its default outputBufferSize. */
+    private static final int AGGREGATE_SIZE= 32768;
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args number of iterations and number of obligations of the
+     *            response
+     * 
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations= args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int obligationCount= args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        DefaultBootstrap.bootstrap();
+        SAMLUtil.bootstrap();
+        XACMLUtil.bootstrap();
+
+        Element envelope= createEnvelope(obligationCount);
+        ByteBufferPool pool= new ArrayByteBufferPool();
+
+        System.out.println("path|iterations|responseBytes|copiedBytesPerResponse|microsPerResponse");
+        for (int pass= 0; pass < 2; pass++) {
+            int runs= pass == 0 ? iterations / 10 : iterations;
+
+            long copied= 0;
+            long size= 0;
+            long start= System.nanoTime();
+            for (int i= 0; i < runs; i++) {
+                SimulatedHttpOutput out= new SimulatedHttpOutput();
+                Writer writer= new OutputStreamWriter(out, "UTF-8");
+                XMLHelper.writeNode(envelope, writer);
+                writer.flush();
+                out.complete();
+                // character encoder output, aggregation buffer, heap to direct buffer
+                copied+= 3 * out.size;
+                size= out.size;
+            }
+            long writerTime= System.nanoTime() - start;
+            if (pass > 0) {
+                print("Writer", runs, size, copied, writerTime);
+            }
+
+            copied= 0;
+            start= System.nanoTime();
+            for (int i= 0; i < runs; i++) {
+                DirectBufferOutputStream out= new DirectBufferOutputStream(pool,
+                                                                           DirectBufferOutputStream.DEFAULT_BUFFER_SIZE);
+                DirectBufferSOAP11Encoder.serialize(envelope, out);
+                List<ByteBuffer> buffers= out.getBuffers();
+                for (ByteBuffer buffer : buffers) {
+                    // handed to the connector as is
+                    buffer.position(buffer.limit());
+                }
+                copied+= out.size();
+                size= out.size();
+                out.release();
+            }
+            long directTime= System.nanoTime() - start;
+            if (pass > 0) {
+                print("DirectBuffer", runs, size, copied, directTime);
+            }
+        }
+    }
+
+    /**
+     * Prints a result line.
+     * 
+     * @param path name of the encoding path
+     * @param runs number of responses written
+     * @param size size of a response
+     * @param copied total bytes copied
+     * @param nanos total time in nanoseconds
+     */
+    private static void print(String path, int runs, long size, long copied, long nanos) {
+        System.out.println(path + "|" + runs + "|" + size + "|" + (copied / runs) + "|" + (nanos / runs / 1000.0));
+    }
+
+    /**
+     * Creates the marshalled SOAP envelope of a Permit response.
+     * 
+     * @param obligationCount number of obligations of the response
+     * 
+     * @return the marshalled envelope
+     * 
+     * @throws Exception thrown if the envelope can not be marshalled
+     */
+    @SuppressWarnings("unchecked")
+    private static Element createEnvelope(int obligationCount) throws Exception {
+        List<ObligationType> obligations= new ArrayList<ObligationType>();
+        for (int i= 0; i < obligationCount; i++) {
+            org.herasaf.xacml.core.policy.impl.ObligationType herasObligation= new org.herasaf.xacml.core.policy.impl.ObligationType();
+            herasObligation.setObligationId("http://glite.org/xacml/obligation/local-environment-map/" + i);
+            herasObligation.setFulfillOn(org.herasaf.xacml.core.policy.impl.EffectType.PERMIT);
+            obligations.add(XACMLUtil.buildObligation(herasObligation));
+        }
+        Response samlResponse= SAMLUtil.buildSAMLResponse("_request",
+                                                          new DateTime(),
+                                                          SAMLUtil.buildAssertion("pdp",
+                                                                                  new DateTime(),
+                                                                                  XACMLUtil.buildAuthZDecisionStatement(null,
+                                                                                                                        XACMLUtil.buildResponse(XACMLUtil.buildResult("http://ce.example.org/cream",
+                                                                                                                                                                      DECISION.Permit,
+                                                                                                                                                                      obligations,
+                                                                                                                                                                      XACMLUtil.buildStatus(StatusCodeType.SC_OK))))),
+                                                          SAMLUtil.buildStatus(StatusCode.SUCCESS_URI, null));
+
+        SOAPObjectBuilder<Envelope> envelopeBuilder= (SOAPObjectBuilder<Envelope>) Configuration.getBuilderFactory().getBuilder(Envelope.DEFAULT_ELEMENT_NAME);
+        SOAPObjectBuilder<Body> bodyBuilder= (SOAPObjectBuilder<Body>) Configuration.getBuilderFactory().getBuilder(Body.DEFAULT_ELEMENT_NAME);
+        Envelope envelope= envelopeBuilder.buildObject();
+        Body body= bodyBuilder.buildObject();
+        body.getUnknownXMLObjects().add(samlResponse);
+        envelope.setBody(body);
+        return Configuration.getMarshallerFactory().getMarshaller(envelope).marshall(envelope);
+    }
+
+    /**
+     * Simulation of the Jetty output: bytes are aggregated in a heap buffer
+     * which is copied into a direct buffer when full, as done when a heap
+     * buffer is written to a socket.
+     */
+    private static class SimulatedHttpOutput extends OutputStream {
+
+        /** Direct buffer of the simulated socket write. */
+        private static final ThreadLocal<ByteBuffer> SOCKET_BUFFER= new ThreadLocal<ByteBuffer>() {
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocateDirect(AGGREGATE_SIZE);
+            }
+        };
+
+        /** Aggregation buffer. */
+        private final ByteBuffer aggregate= ByteBuffer.allocate(AGGREGATE_SIZE);
+
+        /** Number of bytes written. */
+        private long size;
+
+        /** {@inheritDoc} */
+        public void write(int b) throws IOException {
+            if (!aggregate.hasRemaining()) {
+                flushAggregate();
+            }
+            aggregate.put((byte) b);
+            size++;
+        }
+
+        /** {@inheritDoc} */
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            int written= 0;
+            while (written < length) {
+                if (!aggregate.hasRemaining()) {
+                    flushAggregate();
+                }
+                int chunk= Math.min(length - written, aggregate.remaining());
+                aggregate.put(bytes, offset + written, chunk);
+                written+= chunk;
+            }
+            size+= length;
+        }
+
+        /** Writes the last aggregated bytes. */
+        void complete() {
+            flushAggregate();
+        }
+
+        /** Copies the aggregated bytes into the socket buffer. */
+        private void flushAggregate() {
+            ByteBuffer socketBuffer= SOCKET_BUFFER.get();
+            socketBuffer.clear();
+            aggregate.flip();
+            socketBuffer.put(aggregate);
+            aggregate.clear();
+        }
+    }
+}
\ No newline at end of file
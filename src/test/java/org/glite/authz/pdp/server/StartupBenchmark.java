@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.security.Security;
+
+import org.glite.authz.pdp.policy.AttributeDictionary;
+import org.glite.authz.pdp.policy.PolicySetGenerator;
+import org.glite.authz.pdp.policy.PolicySnapshot;
+import org.glite.authz.pdp.util.SAMLUtil;
+import org.glite.authz.pdp.util.XACMLUtil;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.herasaf.xacml.core.context.impl.DecisionType;
+import org.herasaf.xacml.core.policy.impl.PolicySetType;
+import org.opensaml.DefaultBootstrap;
+
+/**
+ * Measures the startup steps of the PDP daemon and the time from the JVM
+ * start to the first successful decision, in a fresh JVM.
+ * <p>
+ * The decision path is the one exercised by the class-data-sharing training
+ * run, see {@link DecisionPathTraining}. Run it once without and once with the
+ * archive created by <code>pdpctl cdsArchive</code> to compare:
+ * 
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.server.StartupBenchmark [rules]
+ * java -XX:SharedArchiveFile=argus-pdp.jsa -cp ... org.glite.authz.pdp.server.StartupBenchmark [rules]
+ * </pre>
+ * 
+ * It is not run by the unit tests, and each run measures a single cold start.
+ */
+public class StartupBenchmark {
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args number of rules of the generated policy
+     * 
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int rules= args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        RuntimeMXBean runtime= ManagementFactory.getRuntimeMXBean();
+        long jvmStart= runtime.getStartTime();
+        long mainStart= System.currentTimeMillis();
+
+        Security.addProvider(new BouncyCastleProvider());
+        DefaultBootstrap.bootstrap();
+        long openSAML= System.currentTimeMillis();
+
+        HerasAFBootstrap.bootstap();
+        long herasAF= System.currentTimeMillis();
+
+        SAMLUtil.bootstrap();
+        XACMLUtil.bootstrap();
+        long builders= System.currentTimeMillis();
+
+        // policy generation is not part of the startup of the daemon
+        String policyXML= PolicySetGenerator.forRuleCount(rules).generatePolicySetXML();
+        long policyStart= System.currentTimeMillis();
+        PolicySetType policySet= PolicySetGenerator.unmarshallPolicySet(policyXML);
+        PolicySnapshot snapshot= new PolicySnapshot(policySet,
+                                                    policySet.getPolicySetId(),
+                                                    policySet.getVersion(),
+                                                    AttributeDictionary.build(policySet));
+        long policy= System.currentTimeMillis();
+
+        DecisionType decision= DecisionPathTraining.run(snapshot);
+        long firstDecision= System.currentTimeMillis();
+
+        System.out.println("class-data-sharing: "
+                + (runtime.getInputArguments().toString().contains("SharedArchiveFile") ? "archive" : "default"));
+        System.out.println("JVM start to main:       " + (mainStart - jvmStart) + " ms");
+        System.out.println("OpenSAML bootstrap:      " + (openSAML - mainStart) + " ms");
+        System.out.println("HERAS-AF bootstrap:      " + (herasAF - openSAML) + " ms");
+        System.out.println("SAML/XACML builders:     " + (builders - herasAF) + " ms");
+        System.out.println("policy load (" + rules + " rules): " + (policy - policyStart) + " ms");
+        System.out.println("first decision (" + decision + "): " + (firstDecision - policy) + " ms");
+        System.out.println("JVM start to first decision: "
+                + (firstDecision - jvmStart - (policyStart - builders)) + " ms");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.opensaml.common.IdentifierGenerator;
+import org.opensaml.common.impl.SecureRandomIdentifierGenerator;
+
+/**
+ * Compares the throughput of the shared OpenSAML
+ * <code>SecureRandomIdentifierGenerator</code> with the
+ * {@link PerThreadIdentifierGenerator} as the number of threads generating
+ * identifiers grows. It is not run by the unit tests, start it with:
+ * 
+ * <pre>
+ * java -cp ... org.glite.authz.pdp.util.IdentifierGenerationBenchmark [maxThreads] [identifiersPerThread]
+ * </pre>
+ */
+public class IdentifierGenerationBenchmark {
+
+    /**
+     * Runs the benchmark.
+     * 
+     * @param args maximum number of threads and number of identifiers per
+     *            thread
+     * 
+     * @throws Exception thrown if the benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        int maxThreads= args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int identifiers= args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        IdentifierGenerator shared= new SecureRandomIdentifierGenerator();
+        IdentifierGenerator perThread= new PerThreadIdentifierGenerator();
+
+        // warm up
+        run(shared, maxThreads, identifiers / 10);
+        run(perThread, maxThreads, identifiers / 10);
+
+        System.out.println("threads|sharedIdsPerSecond|perThreadIdsPerSecond");
+        for (int threads= 1; threads <= maxThreads; threads*= 2) {
+            long sharedNanos= run(shared, threads, identifiers);
+            long perThreadNanos= run(perThread, threads, identifiers);
+            long total= (long) threads * identifiers;
+            System.out.println(threads + "|" + (total * 1000000000L / sharedNanos) + "|"
+                    + (total * 1000000000L / perThreadNanos));
+        }
+    }
+
+    /**
+     * Generates identifiers on a number of threads started together.
+     * 
+     * @param generator the identifier generator
+     * @param threads number of threads
+     * @param identifiers number of identifiers per thread
+     * 
+     * @return time until the last thread finished, in nanoseconds
+     * 
+     * @throws Exception thrown if the run fails
+     */
+    private static long run(final IdentifierGenerator generator, int threads, final int identifiers)
+            throws Exception {
+        final CountDownLatch start= new CountDownLatch(1);
+        final CountDownLatch done= new CountDownLatch(threads);
+        for (int t= 0; t < threads; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i= 0; i < identifiers; i++) {
+                            generator.generateIdentifier();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        long begin= System.nanoTime();
+        start.countDown();
+        done.await();
+        return System.nanoTime() - begin;
+    }
+}
\ No newline at end of file
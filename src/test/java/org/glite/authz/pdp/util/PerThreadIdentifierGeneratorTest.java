@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) Members of the EGEE Collaboration. 2006-2010.
+ * See http://www.eu-egee.org/partners/ for details on the copyright holders.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.glite.authz.pdp.util;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the {@link PerThreadIdentifierGenerator} keeps the identifier format of
+ * OpenSAML's <code>SecureRandomIdentifierGenerator</code> and generates
+ * distinct identifiers on concurrent threads.
+ */
+public class PerThreadIdentifierGeneratorTest extends TestCase {
+
+    private static final Pattern IDENTIFIER_FORMAT= Pattern.compile("_[0-9a-f]{32}");
+
+    private static final int THREADS= 8;
+
+    private static final int IDENTIFIERS= 2000;
+
+    public void testIdentifierFormat() throws Exception {
+        PerThreadIdentifierGenerator generator= new PerThreadIdentifierGenerator();
+        for (int i= 0; i < IDENTIFIERS; i++) {
+            String identifier= generator.generateIdentifier();
+            assertTrue(identifier, IDENTIFIER_FORMAT.matcher(identifier).matches());
+        }
+        assertEquals(1 + 2 * 4, generator.generateIdentifier(4).length());
+    }
+
+    public void testDistinctIdentifiersAcrossThreads() throws Exception {
+        final PerThreadIdentifierGenerator generator= new PerThreadIdentifierGenerator();
+        final Set<String> identifiers= Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads= new Thread[THREADS];
+        for (int t= 0; t < THREADS; t++) {
+            threads[t]= new Thread(new Runnable() {
+                public void run() {
+                    for (int i= 0; i < IDENTIFIERS; i++) {
+                        identifiers.add(generator.generateIdentifier());
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(THREADS * IDENTIFIERS, identifiers.size());
+    }
+}
\ No newline at end of file